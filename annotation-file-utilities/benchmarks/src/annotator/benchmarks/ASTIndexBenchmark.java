@@ -0,0 +1,56 @@
+package annotator.benchmarks;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import scenelib.annotations.io.ASTIndex;
+import scenelib.annotations.io.ASTRecord;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+
+/**
+ * Measures construction of an {@link ASTIndex} for a compilation unit.
+ * <p>
+ *
+ * {@link ASTIndex#indexOf(CompilationUnitTree)} caches the index of the
+ * most recent compilation unit, so the benchmark alternates between two
+ * separately parsed copies of the same file to rebuild the index on
+ * every call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class ASTIndexBenchmark {
+  private CompilationUnitTree[] units;
+  private int next;
+
+  @Setup
+  public void setUp(Fixture fixture) throws IOException {
+    units = new CompilationUnitTree[] {
+        Fixture.compilationUnit(fixture.newSource()),
+        Fixture.compilationUnit(fixture.newSource())
+    };
+  }
+
+  @Benchmark
+  public Map<Tree, ASTRecord> indexOf() {
+    next ^= 1;
+    return ASTIndex.indexOf(units[next]);
+  }
+}
@@ -0,0 +1,82 @@
+package annotator.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import scenelib.annotations.io.ASTIndex;
+import scenelib.annotations.io.ASTPath;
+import annotator.find.ASTPathCriterion;
+import annotator.find.Insertion;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+
+/**
+ * Measures {@link ASTPathCriterion#isSatisfiedBy(TreePath)}: every AST
+ * path given in the JAIF is tested against every node of the compilation
+ * unit, as happens when {@link annotator.find.TreeFinder} visits the
+ * tree.  Inputs whose JAIF has no AST paths measure nothing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class ASTPathCriterionBenchmark {
+  private List<TreePath> paths;
+  private List<ASTPathCriterion> criteria;
+
+  @Setup
+  public void setUp(Fixture fixture) throws IOException {
+    CompilationUnitTree unit = Fixture.compilationUnit(fixture.newSource());
+    ASTIndex.indexOf(unit);
+
+    paths = new ArrayList<TreePath>();
+    new TreePathScanner<Void, Void>() {
+      @Override
+      public Void scan(Tree tree, Void p) {
+        if (tree != null) {
+          paths.add(new TreePath(getCurrentPath(), tree));
+        }
+        return super.scan(tree, p);
+      }
+    }.scan(new TreePath(unit), null);
+
+    criteria = new ArrayList<ASTPathCriterion>();
+    for (Insertion ins : fixture.parseSpec()) {
+      ASTPath astPath = ins.getCriteria().getASTPath();
+      if (astPath != null) {
+        criteria.add(new ASTPathCriterion(astPath));
+      }
+    }
+  }
+
+  @Benchmark
+  public int isSatisfiedBy() {
+    int matches = 0;
+    for (ASTPathCriterion criterion : criteria) {
+      for (TreePath path : paths) {
+        if (criterion.isSatisfiedBy(path)) {
+          ++matches;
+        }
+      }
+    }
+    return matches;
+  }
+}
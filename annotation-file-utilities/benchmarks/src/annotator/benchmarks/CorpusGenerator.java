@@ -0,0 +1,721 @@
+package annotator.benchmarks;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import plume.Option;
+import plume.OptionGroup;
+import plume.Options;
+
+/**
+ * Generates a corpus of Java source files, and JAIFs that annotate them,
+ * for load-testing the Annotation File Utilities.
+ * <p>
+ *
+ * The corpus has <tt>--packages</tt> packages <tt>p0</tt>, <tt>p1</tt>,
+ * ..., each with <tt>--classes</tt> classes <tt>C0</tt>, <tt>C1</tt>,
+ * ..., each with <tt>--methods</tt> methods.  Every class is generic,
+ * extends and implements generic types, and has a static initializer,
+ * and one field per method.  Every method has generic and array
+ * parameters and a body containing a cast, an <tt>instanceof</tt>, array
+ * and object creation, a generic method call, a lambda, a method
+ * reference, an anonymous class and a local class.  See
+ * {@link Location} for the locations that are annotated.
+ * <p>
+ *
+ * The output directory gets:
+ * <ul>
+ *   <li><tt>src/</tt>: the Java source files, including the definitions
+ *       of the annotations in package <tt>qual</tt>, so that the corpus
+ *       compiles both before and after annotation;</li>
+ *   <li><tt>sources.txt</tt>: the names of the generated classes' source
+ *       files, relative to the directory the generator was run in, for
+ *       use as an <tt>@</tt>-argument file;</li>
+ *   <li><tt>jaif/decl/PACKAGE.jaif</tt>: the annotations for each
+ *       package, with locations given in declaration form
+ *       (<tt>parameter</tt>, <tt>local</tt>, <tt>typecast</tt>, ...);
+ *       and</li>
+ *   <li><tt>jaif/ast/PACKAGE.jaif</tt>: the same annotations, with
+ *       locations given as AST paths (<tt>insert-annotation</tt>)
+ *       wherever the format allows one.</li>
+ * </ul>
+ * Inserting either set of JAIFs yields the same source.  For example:
+ * <pre>
+ *   java annotator.benchmarks.CorpusGenerator -d corpus --packages=20
+ *   java annotator.Main -d annotated @corpus/sources.txt corpus/jaif/decl/*.jaif
+ * </pre>
+ * <p>
+ *
+ * The locations to annotate are chosen at random, with the probability
+ * given by <tt>--fraction</tt> or, for individual kinds of location, by
+ * <tt>--kind-fractions</tt>.  The choice is determined by
+ * <tt>--seed</tt>, so a corpus can be regenerated exactly.
+ * <p>
+ *
+ * The command-line options are as follows:
+ * <ul>
+ *   <li>-d <tt>&lt;directory&gt;</tt> Directory in which to write the corpus
+ *       [default corpus]</li>
+ *   <li>--packages=<tt>&lt;int&gt;</tt> Number of packages [default 10]</li>
+ *   <li>--classes=<tt>&lt;int&gt;</tt> Number of classes in each package
+ *       [default 10]</li>
+ *   <li>--methods=<tt>&lt;int&gt;</tt> Number of methods in each class
+ *       [default 10]</li>
+ *   <li>--fraction=<tt>&lt;double&gt;</tt> Fraction of the locations of each
+ *       kind to annotate [default 1.0]</li>
+ *   <li>--kind-fractions=<tt>&lt;string&gt;</tt> Fractions for particular
+ *       kinds of location, e.g. LOCAL=0.5,TYPECAST=0</li>
+ *   <li>--seed=<tt>&lt;long&gt;</tt> Seed for choosing the locations to
+ *       annotate [default 0]</li>
+ *   <li>-h --help=<tt>&lt;boolean&gt;</tt> Print usage information and exit
+ *       [default false]</li>
+ * </ul>
+ */
+public class CorpusGenerator {
+
+  @OptionGroup("Corpus options")
+  @Option("-d <directory> Directory in which to write the corpus")
+  public static String outdir = "corpus";
+
+  @Option("Number of packages")
+  public static int packages = 10;
+
+  @Option("Number of classes in each package")
+  public static int classes = 10;
+
+  @Option("Number of methods in each class")
+  public static int methods = 10;
+
+  @Option("Fraction of the locations of each kind to annotate")
+  public static double fraction = 1.0;
+
+  @Option("Fractions for particular kinds of location, e.g. LOCAL=0.5,TYPECAST=0")
+  public static String kind_fractions = null;
+
+  @Option("Seed for choosing the locations to annotate")
+  public static long seed = 0;
+
+  @Option("-h Print usage information and exit")
+  public static boolean help = false;
+
+  /** The kinds of location that the generated JAIFs annotate. */
+  public static enum Location {
+    /** Declaration annotation on a class. */
+    CLASS,
+    /** Bound of a class type parameter. */
+    CLASS_BOUND,
+    /** The superclass. */
+    EXTENDS,
+    /** An implemented interface. */
+    IMPLEMENTS,
+    /** Declaration annotation on a method. */
+    METHOD,
+    /** Bound of a method type parameter. */
+    METHOD_BOUND,
+    /** Outermost type of a field. */
+    FIELD,
+    /** A type argument in the type of a field. */
+    FIELD_INNER,
+    /** Outermost return type of a method. */
+    RETURN,
+    /** The receiver of a method. */
+    RECEIVER,
+    /** Outermost type of a method parameter. */
+    PARAMETER,
+    /** The element type of an array parameter. */
+    PARAMETER_INNER,
+    /** Outermost type of a local variable. */
+    LOCAL,
+    /** A type argument in the type of a local variable. */
+    LOCAL_INNER,
+    /** A local variable in a static initializer. */
+    STATIC_INIT_LOCAL,
+    /** The type in a cast. */
+    TYPECAST,
+    /** The type in an {@code instanceof}. */
+    INSTANCEOF,
+    /** The type in an array creation. */
+    NEW_ARRAY,
+    /** The type in an object creation, in a method or field initializer. */
+    NEW_OBJECT,
+    /** An explicit type argument of a generic method call. */
+    CALL_TYPE_ARGUMENT,
+    /** The qualifying type of a method reference. */
+    METHOD_REFERENCE,
+    /** The declared type of a lambda parameter. */
+    LAMBDA_PARAMETER,
+    /** Return type of a method of an anonymous class. */
+    ANONYMOUS_CLASS_RETURN,
+    /** Parameter type of a method of a local class. */
+    LOCAL_CLASS_PARAMETER
+  }
+
+  /** Descriptor of the generated methods {@code m0}, {@code m1}, .... */
+  private static final String METHOD_DESCRIPTOR =
+      "([Ljava/lang/String;Ljava/util/List;I)[Ljava/util/List;";
+
+  private final int numPackages;
+  private final int numClasses;
+  private final int numMethods;
+  private final Map<Location, Double> fractions =
+      new EnumMap<Location, Double>(Location.class);
+  private final Random random;
+  private final Map<Location, Integer> chosen =
+      new EnumMap<Location, Integer>(Location.class);
+  private final Map<Location, Integer> total =
+      new EnumMap<Location, Integer>(Location.class);
+
+  /**
+   * Creates a generator.
+   *
+   * @param packages number of packages
+   * @param classes number of classes in each package
+   * @param methods number of methods in each class
+   * @param fraction fraction of the locations of each kind to annotate
+   * @param seed seed for choosing the locations to annotate
+   */
+  public CorpusGenerator(int packages, int classes, int methods,
+      double fraction, long seed) {
+    this.numPackages = packages;
+    this.numClasses = classes;
+    this.numMethods = methods;
+    this.random = new Random(seed);
+    for (Location loc : Location.values()) {
+      fractions.put(loc, fraction);
+      chosen.put(loc, 0);
+      total.put(loc, 0);
+    }
+  }
+
+  /** Sets the fraction of locations of one kind to annotate. */
+  public void setFraction(Location loc, double fraction) {
+    fractions.put(loc, fraction);
+  }
+
+  /** The source file of class {@code c} in package {@code p}. */
+  public static String sourceFile(int p, int c) {
+    return "src" + File.separator + "p" + p + File.separator + "C" + c + ".java";
+  }
+
+  /** The declaration-form JAIF of package {@code p}. */
+  public static String declarationJaif(int p) {
+    return "jaif" + File.separator + "decl" + File.separator + "p" + p + ".jaif";
+  }
+
+  /** The AST-path-form JAIF of package {@code p}. */
+  public static String astPathJaif(int p) {
+    return "jaif" + File.separator + "ast" + File.separator + "p" + p + ".jaif";
+  }
+
+  /**
+   * Writes the corpus into the given directory.
+   *
+   * @param dir the directory in which to write the corpus
+   * @throws IOException if a file cannot be written
+   */
+  public void generate(File dir) throws IOException {
+    mkdirs(new File(dir, "src" + File.separator + "qual"));
+    mkdirs(new File(dir, "jaif" + File.separator + "decl"));
+    mkdirs(new File(dir, "jaif" + File.separator + "ast"));
+
+    writeQualifier(dir, "A", "ElementType.TYPE_USE");
+    writeQualifier(dir, "B", "ElementType.TYPE_USE");
+    writeQualifier(dir, "D", "ElementType.TYPE, ElementType.METHOD");
+
+    PrintWriter sources = new PrintWriter(new File(dir, "sources.txt"));
+    try {
+      for (int p = 0; p < numPackages; p++) {
+        mkdirs(new File(dir, "src" + File.separator + "p" + p));
+        Jaifs jaifs = new Jaifs();
+        jaifs.both("package qual:");
+        jaifs.both("annotation @A: @java.lang.annotation.Retention(value=RUNTIME)"
+            + " @java.lang.annotation.Target(value={TYPE_USE})");
+        jaifs.both("annotation @B: @java.lang.annotation.Retention(value=RUNTIME)"
+            + " @java.lang.annotation.Target(value={TYPE_USE})");
+        jaifs.both("annotation @D: @java.lang.annotation.Retention(value=RUNTIME)"
+            + " @java.lang.annotation.Target(value={TYPE,METHOD})");
+        jaifs.both("");
+        jaifs.both("package p" + p + ":");
+        for (int c = 0; c < numClasses; c++) {
+          String source = sourceFile(p, c);
+          writeClass(new File(dir, source), p, c, jaifs);
+          sources.println(new File(dir, source).getPath());
+        }
+        jaifs.write(new File(dir, declarationJaif(p)),
+            new File(dir, astPathJaif(p)));
+      }
+    } finally {
+      sources.close();
+    }
+  }
+
+  /** Returns how many locations of the given kind were annotated. */
+  public int annotated(Location loc) {
+    return chosen.get(loc);
+  }
+
+  /** Returns how many locations of the given kind were generated. */
+  public int locations(Location loc) {
+    return total.get(loc);
+  }
+
+  private static void mkdirs(File dir) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("could not create directory " + dir);
+    }
+  }
+
+  /** Decides whether to annotate a location of the given kind. */
+  private boolean choose(Location loc) {
+    total.put(loc, total.get(loc) + 1);
+    if (random.nextDouble() < fractions.get(loc)) {
+      chosen.put(loc, chosen.get(loc) + 1);
+      return true;
+    }
+    return false;
+  }
+
+  private static void writeQualifier(File dir, String name, String targets)
+      throws FileNotFoundException {
+    PrintWriter out = new PrintWriter(new File(dir,
+        "src" + File.separator + "qual" + File.separator + name + ".java"));
+    try {
+      out.println("package qual;");
+      out.println();
+      out.println("import java.lang.annotation.ElementType;");
+      out.println("import java.lang.annotation.Retention;");
+      out.println("import java.lang.annotation.RetentionPolicy;");
+      out.println("import java.lang.annotation.Target;");
+      out.println();
+      out.println("@Retention(RetentionPolicy.RUNTIME)");
+      out.println("@Target({" + targets + "})");
+      out.println("public @interface " + name + " {}");
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * The declaration-form and AST-path-form JAIFs for one package, which
+   * are written side by side.
+   */
+  private static class Jaifs {
+    final StringBuilder decl = new StringBuilder();
+    final StringBuilder ast = new StringBuilder();
+
+    /** Adds a line that is the same in both forms. */
+    void both(String line) {
+      decl(line);
+      ast(line);
+    }
+
+    void decl(String line) {
+      decl.append(line).append('\n');
+    }
+
+    void ast(String line) {
+      ast.append(line).append('\n');
+    }
+
+    void write(File declFile, File astFile) throws FileNotFoundException {
+      write(declFile, decl);
+      write(astFile, ast);
+    }
+
+    private static void write(File file, CharSequence contents)
+        throws FileNotFoundException {
+      PrintWriter out = new PrintWriter(file);
+      try {
+        out.print(contents);
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+  /**
+   * The annotations on one method (or other member), in both forms.
+   * Nothing is written for a member with no annotations.
+   */
+  private static class Member {
+    final String header;
+    /** True if the header itself carries an annotation. */
+    boolean annotated;
+    final List<String> decl = new ArrayList<String>();
+    /**
+     * Entries of the AST-path form that have no AST path; the format
+     * requires them to precede the <tt>insert-annotation</tt> entries.
+     */
+    final List<String> astDecl = new ArrayList<String>();
+    final List<String> ast = new ArrayList<String>();
+
+    Member(String header) {
+      this.header = header;
+    }
+
+    void writeTo(Jaifs jaifs) {
+      if (annotated || !decl.isEmpty() || !ast.isEmpty()) {
+        jaifs.both("");
+        jaifs.decl(header);
+        jaifs.ast(header);
+        for (String line : decl) {
+          jaifs.decl("        " + line);
+        }
+        for (String line : astDecl) {
+          jaifs.ast("        " + line);
+        }
+        for (String line : ast) {
+          jaifs.ast("        " + line);
+        }
+      }
+    }
+  }
+
+  /** Writes one class and appends its annotations to {@code jaifs}. */
+  private void writeClass(File file, int p, int c, Jaifs jaifs)
+      throws FileNotFoundException {
+    String name = "C" + c;
+
+    // Decide up front, since the two forms order the entries differently.
+    boolean classDecl = choose(Location.CLASS);
+    boolean classBound = choose(Location.CLASS_BOUND);
+    boolean ext = choose(Location.EXTENDS);
+    boolean impl = choose(Location.IMPLEMENTS);
+    boolean staticLocal = choose(Location.STATIC_INIT_LOCAL);
+
+    // Class header: declaration annotations and bounds, extends and
+    // implements clauses; the type annotations also have AST paths.
+    jaifs.both("");
+    jaifs.both("class " + name + ":" + (classDecl ? " @qual.D" : ""));
+    if (classBound) {
+      jaifs.decl("    bound 0 & 0: @qual.A");
+    }
+    if (ext) {
+      jaifs.decl("    extends: @qual.A");
+    }
+    if (impl) {
+      jaifs.decl("    implements 0: @qual.A");
+    }
+    if (classBound) {
+      jaifs.ast("    insert-annotation Class.typeParameter 0, TypeParameter.bound 0: @qual.A");
+    }
+    if (ext) {
+      jaifs.ast("    insert-annotation Class.bound -1: @qual.A");
+    }
+    if (impl) {
+      jaifs.ast("    insert-annotation Class.bound 0: @qual.A");
+    }
+    if (staticLocal) {
+      jaifs.ast("    insert-annotation Class.initializer 0, Block.statement 0,"
+          + " Variable.type: @qual.A");
+    }
+
+    List<Member> members = new ArrayList<Member>();
+    List<Member> nested = new ArrayList<Member>();
+
+    for (int m = 0; m < numMethods; m++) {
+      Member field = new Member("    field f" + m + ":");
+      boolean type = choose(Location.FIELD);
+      boolean inner = choose(Location.FIELD_INNER);
+      if (type || inner) {
+        field.decl.add("type:" + (type ? " @qual.A" : ""));
+      }
+      if (inner) {
+        field.decl.add("inner-type 3, 1: @qual.B");
+      }
+      if (choose(Location.NEW_OBJECT)) {
+        field.decl.add("new *0: @qual.A");
+        field.ast.add("insert-annotation Variable.initializer,"
+            + " NewClass.identifier: @qual.A");
+      }
+      if (type) {
+        field.ast.add("insert-annotation Variable.type: @qual.A");
+      }
+      if (inner) {
+        field.ast.add("insert-annotation Variable.type,"
+            + " ParameterizedType.typeArgument 1: @qual.B");
+      }
+      members.add(field);
+    }
+    for (Member field : members) {
+      field.writeTo(jaifs);
+    }
+
+    if (staticLocal) {
+      jaifs.both("");
+      jaifs.decl("    staticinit *0:");
+      jaifs.decl("        local cache:");
+      jaifs.decl("            type: @qual.A");
+    }
+
+    for (int m = 0; m < numMethods; m++) {
+      boolean methodDecl = choose(Location.METHOD);
+      Member method = new Member("    method m" + m + METHOD_DESCRIPTOR + ":"
+          + (methodDecl ? " @qual.D" : ""));
+      // An annotation on the method itself has no AST path.
+      method.annotated = methodDecl;
+      String body = "insert-annotation Method.body, ";
+
+      if (choose(Location.METHOD_BOUND)) {
+        method.decl.add("bound 0 & 0: @qual.A");
+        method.ast.add("insert-annotation Method.typeParameter 0,"
+            + " TypeParameter.bound 0: @qual.A");
+      }
+      if (choose(Location.RETURN)) {
+        method.decl.add("return: @qual.A");
+        method.ast.add("insert-annotation Method.type: @qual.A");
+      }
+      if (choose(Location.RECEIVER)) {
+        method.decl.add("receiver: @qual.A");
+        method.ast.add("insert-annotation Method.parameter -1: @qual.A");
+      }
+      boolean param0 = choose(Location.PARAMETER);
+      boolean param0Inner = choose(Location.PARAMETER_INNER);
+      boolean param1 = choose(Location.PARAMETER);
+      if (param0 || param0Inner) {
+        method.decl.add("parameter #0:");
+        method.decl.add("    type:" + (param0 ? " @qual.A" : ""));
+      }
+      if (param0Inner) {
+        method.decl.add("    inner-type 0, 0: @qual.B");
+      }
+      if (param1) {
+        method.decl.add("parameter #1:");
+        method.decl.add("    type: @qual.A");
+      }
+      if (param0) {
+        method.ast.add("insert-annotation Method.parameter 0,"
+            + " Variable.type: @qual.A");
+      }
+      if (param0Inner) {
+        method.ast.add("insert-annotation Method.parameter 0,"
+            + " Variable.type, ArrayType.type: @qual.B");
+      }
+      if (param1) {
+        method.ast.add("insert-annotation Method.parameter 1,"
+            + " Variable.type: @qual.A");
+      }
+
+      // Statement 1: List<String> s = (List<String>) o;
+      boolean local = choose(Location.LOCAL);
+      boolean localInner = choose(Location.LOCAL_INNER);
+      if (local || localInner) {
+        method.decl.add("local s:");
+        method.decl.add("    type:" + (local ? " @qual.A" : ""));
+      }
+      if (localInner) {
+        method.decl.add("    inner-type 3, 0: @qual.B");
+      }
+      if (local) {
+        method.ast.add(body + "Block.statement 1, Variable.type: @qual.A");
+      }
+      if (localInner) {
+        method.ast.add(body + "Block.statement 1, Variable.type,"
+            + " ParameterizedType.typeArgument 0: @qual.B");
+      }
+      if (choose(Location.TYPECAST)) {
+        method.decl.add("typecast *0: @qual.A");
+        method.ast.add(body + "Block.statement 1, Variable.initializer,"
+            + " TypeCast.type: @qual.A");
+      }
+      // Statement 2: if (o instanceof List) { n++; }
+      if (choose(Location.INSTANCEOF)) {
+        method.decl.add("instanceof *0: @qual.A");
+        method.ast.add(body + "Block.statement 2, If.condition,"
+            + " Parenthesized.expression, InstanceOf.type: @qual.A");
+      }
+      // Statement 3: int[] arr = new int[n];
+      if (choose(Location.NEW_ARRAY)) {
+        method.decl.add("new *0: @qual.A");
+        method.ast.add(body + "Block.statement 3, Variable.initializer,"
+            + " NewArray.type 0: @qual.A");
+      }
+      // Statement 4: Map<String, Integer> map = new HashMap<...>();
+      if (choose(Location.NEW_OBJECT)) {
+        method.decl.add("new *1: @qual.A");
+        method.ast.add(body + "Block.statement 4, Variable.initializer,"
+            + " NewClass.identifier: @qual.A");
+      }
+      // Statement 5: List<String> e = Collections.<String>emptyList();
+      if (choose(Location.CALL_TYPE_ARGUMENT)) {
+        method.decl.add("call *0:");
+        method.decl.add("    typearg 0: @qual.A");
+        method.ast.add(body + "Block.statement 5, Variable.initializer,"
+            + " MethodInvocation.typeArgument 0: @qual.A");
+      }
+      // Statement 6: Comparator<String> cmp = (String x, String y) -> ...;
+      if (choose(Location.LAMBDA_PARAMETER)) {
+        method.decl.add("lambda *0:");
+        method.decl.add("    parameter #0:");
+        method.decl.add("        type: @qual.A");
+        method.ast.add(body + "Block.statement 6, Variable.initializer,"
+            + " LambdaExpression.parameter 0, Variable.type: @qual.A");
+      }
+      // Statement 8: Function<String, Integer> len = String::length;
+      // The AST path of the qualifier selects an expression, which would
+      // get a cast rather than an annotation, so use the same form in both.
+      if (choose(Location.METHOD_REFERENCE)) {
+        method.decl.add("reference *0: @qual.A");
+        method.astDecl.add("reference *0: @qual.A");
+      }
+      members.add(method);
+
+      // Statement 7 declares an anonymous class, statement 9 a local
+      // class; javac numbers both from 1 in order of appearance.
+      Member anon = new Member("    method call()Ljava/lang/Object;:");
+      if (choose(Location.ANONYMOUS_CLASS_RETURN)) {
+        anon.decl.add("return: @qual.A");
+        anon.ast.add("insert-annotation Method.type: @qual.A");
+      }
+      nested.add(anon);
+      Member localClass =
+          new Member("    method g(Ljava/util/List;)Ljava/lang/String;:");
+      if (choose(Location.LOCAL_CLASS_PARAMETER)) {
+        localClass.decl.add("parameter #0:");
+        localClass.decl.add("    type: @qual.A");
+        localClass.ast.add("insert-annotation Method.parameter 0,"
+            + " Variable.type: @qual.A");
+      }
+      nested.add(localClass);
+    }
+    for (Member method : members.subList(numMethods, members.size())) {
+      method.writeTo(jaifs);
+    }
+    for (int m = 0; m < numMethods; m++) {
+      Member anon = nested.get(2 * m);
+      Member localClass = nested.get(2 * m + 1);
+      if (!anon.decl.isEmpty()) {
+        jaifs.both("");
+        jaifs.both("class " + name + "$" + (m + 1) + ":");
+        anon.writeTo(jaifs);
+      }
+      if (!localClass.decl.isEmpty()) {
+        jaifs.both("");
+        jaifs.both("class " + name + "$" + (m + 1) + "Local:");
+        localClass.writeTo(jaifs);
+      }
+    }
+
+    writeJava(file, p, name);
+  }
+
+  private void writeJava(File file, int p, String name)
+      throws FileNotFoundException {
+    PrintWriter out = new PrintWriter(file);
+    try {
+      out.println("package p" + p + ";");
+      out.println();
+      out.println("import java.util.ArrayList;");
+      out.println("import java.util.Collections;");
+      out.println("import java.util.Comparator;");
+      out.println("import java.util.HashMap;");
+      out.println("import java.util.List;");
+      out.println("import java.util.Map;");
+      out.println("import java.util.concurrent.Callable;");
+      out.println("import java.util.function.Function;");
+      out.println();
+      out.println("public class " + name + "<T extends Number>"
+          + " extends ArrayList<T> implements Comparator<T> {");
+      out.println("  static {");
+      out.println("    List<String> cache = new ArrayList<String>();");
+      out.println("  }");
+      out.println();
+      for (int m = 0; m < numMethods; m++) {
+        out.println("  private Map<String, List<T>> f" + m
+            + " = new HashMap<String, List<T>>();");
+      }
+      out.println();
+      out.println("  public int compare(T x, T y) {");
+      out.println("    return Double.compare(x.doubleValue(), y.doubleValue());");
+      out.println("  }");
+      for (int m = 0; m < numMethods; m++) {
+        out.println();
+        out.println("  @SuppressWarnings(\"unchecked\")");
+        out.println("  public <U extends Number> List<String>[] m" + m
+            + "(String[] a, List<? extends U> b, int n) {");
+        out.println("    Object o = b;");
+        out.println("    List<String> s = (List<String>) o;");
+        out.println("    if (o instanceof List) {");
+        out.println("      n++;");
+        out.println("    }");
+        out.println("    int[] arr = new int[n];");
+        out.println("    Map<String, Integer> map = new HashMap<String, Integer>();");
+        out.println("    List<String> e = Collections.<String>emptyList();");
+        out.println("    Comparator<String> cmp = (String x, String y) -> x.compareTo(y);");
+        out.println("    Callable<Object> anon = new Callable<Object>() {");
+        out.println("      public Object call() {");
+        out.println("        return a;");
+        out.println("      }");
+        out.println("    };");
+        out.println("    Function<String, Integer> len = String::length;");
+        out.println("    class Local {");
+        out.println("      String g(List<String> l) {");
+        out.println("        return l.get(0);");
+        out.println("      }");
+        out.println("    }");
+        out.println("    List<String>[] r = new List[] {s};");
+        out.println("    return r;");
+        out.println("  }");
+      }
+      out.println("}");
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Parses a comma-separated list of KIND=FRACTION settings.
+   *
+   * @throws IllegalArgumentException if the list is malformed
+   */
+  private void setFractions(String spec) {
+    for (String setting : spec.split(",")) {
+      int eq = setting.indexOf('=');
+      if (eq < 0) {
+        throw new IllegalArgumentException("expected KIND=FRACTION: " + setting);
+      }
+      Location loc = Location.valueOf(setting.substring(0, eq).trim());
+      setFraction(loc, Double.parseDouble(setting.substring(eq + 1).trim()));
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    Options options = new Options(
+        "CorpusGenerator [options]", CorpusGenerator.class);
+    String[] remaining = options.parse_or_usage(args);
+    if (help) {
+      options.print_usage();
+      System.exit(0);
+    }
+    if (remaining.length != 0) {
+      options.print_usage("Unexpected argument: %s", remaining[0]);
+      System.exit(1);
+    }
+
+    CorpusGenerator gen =
+        new CorpusGenerator(packages, classes, methods, fraction, seed);
+    if (kind_fractions != null) {
+      try {
+        gen.setFractions(kind_fractions);
+      } catch (IllegalArgumentException e) {
+        options.print_usage("Bad --kind-fractions: %s", e.getMessage());
+        System.exit(1);
+      }
+    }
+    gen.generate(new File(outdir));
+
+    System.out.printf("%d packages, %d classes, %d methods in %s%n",
+        packages, packages * classes, packages * classes * methods, outdir);
+    for (Location loc : Location.values()) {
+      System.out.printf("  %-24s %8d of %8d%n",
+          loc, gen.annotated(loc), gen.locations(loc));
+    }
+  }
+}
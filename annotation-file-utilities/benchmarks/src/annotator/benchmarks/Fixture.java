@@ -0,0 +1,108 @@
+package annotator.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import plume.FileIOException;
+import scenelib.annotations.io.IndexFileParser;
+import annotator.Source;
+import annotator.find.Insertion;
+import annotator.find.Insertions;
+import annotator.specification.IndexFileSpecification;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.tools.javac.tree.JCTree;
+
+/**
+ * The input to a benchmark: a Java source file and the JAIF describing
+ * the annotations to insert into it.
+ * <p>
+ *
+ * An input named <tt>NAME</tt> is the pair <tt>NAME.java</tt> and
+ * <tt>NAME.jaif</tt> from the annotator's test directory, which is
+ * <tt>tests</tt> unless the system property <tt>afu.tests</tt> says
+ * otherwise.  An input named <tt>synthetic-N</tt> is a class with
+ * <tt>N</tt> methods generated by {@link CorpusGenerator}, with its
+ * declaration-form JAIF, so that costs can be measured as a function of
+ * input size; <tt>synthetic-ast-N</tt> is the same class with its
+ * AST-path-form JAIF.
+ */
+@State(Scope.Benchmark)
+public class Fixture {
+  @Param({"ASTInsert", "LambdaExpression", "Receivers", "synthetic-50",
+      "synthetic-ast-50", "synthetic-500"})
+  public String input;
+
+  @Param({"true"})
+  public boolean abbreviate;
+
+  /** The Java source file. */
+  public String javaFile;
+
+  /** The annotation file for {@link #javaFile}. */
+  public String jaifFile;
+
+  @Setup
+  public void setUp() throws IOException {
+    // The test inputs are not compiled, so there are no class files for
+    // ASM to read; reading them is not what is being measured anyway.
+    IndexFileSpecification.noAsm = true;
+    IndexFileParser.setAbbreviate(abbreviate);
+
+    if (input.startsWith("synthetic-")) {
+      boolean astPaths = input.startsWith("synthetic-ast-");
+      int methods = Integer.parseInt(input.substring(input.lastIndexOf('-') + 1));
+      File dir = Files.createTempDirectory("afu-bench").toFile();
+      new CorpusGenerator(1, 1, methods, 1.0, 0).generate(dir);
+      javaFile = new File(dir, CorpusGenerator.sourceFile(0, 0)).getPath();
+      jaifFile = new File(dir, astPaths ? CorpusGenerator.astPathJaif(0)
+          : CorpusGenerator.declarationJaif(0)).getPath();
+    } else {
+      File dir = new File(System.getProperty("afu.tests", "tests"));
+      javaFile = new File(dir, input + ".java").getPath();
+      jaifFile = new File(dir, input + ".jaif").getPath();
+      if (!new File(javaFile).isFile() || !new File(jaifFile).isFile()) {
+        throw new IOException("no benchmark input " + input + " in " + dir);
+      }
+    }
+  }
+
+  /** Reads and parses {@link #javaFile}. */
+  public Source newSource() throws IOException {
+    try {
+      return new Source(javaFile);
+    } catch (Source.CompilerException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /** Returns the (first) compilation unit of the given source. */
+  public static JCTree.JCCompilationUnit compilationUnit(Source src) {
+    for (CompilationUnitTree cut : src.parse()) {
+      return (JCTree.JCCompilationUnit) cut;
+    }
+    throw new IllegalStateException("no compilation unit");
+  }
+
+  /** Parses {@link #jaifFile} into a fresh list of insertions. */
+  public List<Insertion> parseSpec() throws FileIOException {
+    return new IndexFileSpecification(jaifFile).parse();
+  }
+
+  /**
+   * Parses {@link #jaifFile} into a fresh {@link Insertions}.  Insertions
+   * are marked as they are placed, so each use needs its own copy.
+   */
+  public Insertions newInsertions() throws FileIOException {
+    Insertions insertions = new Insertions();
+    insertions.addAll(parseSpec());
+    return insertions;
+  }
+}
@@ -0,0 +1,31 @@
+package annotator.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import plume.FileIOException;
+import annotator.find.Insertion;
+
+/**
+ * Measures {@link annotator.specification.IndexFileSpecification#parse()}:
+ * reading a JAIF into a scene and converting the scene to insertions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexFileSpecificationBenchmark {
+  @Benchmark
+  public List<Insertion> parse(Fixture fixture) throws FileIOException {
+    return fixture.parseSpec();
+  }
+}
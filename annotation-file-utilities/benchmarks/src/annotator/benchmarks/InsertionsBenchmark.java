@@ -0,0 +1,72 @@
+package annotator.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import plume.FileIOException;
+import scenelib.annotations.io.ASTIndex;
+import annotator.find.Insertion;
+import annotator.find.Insertions;
+
+import com.sun.tools.javac.tree.JCTree;
+
+/**
+ * Measures selecting and organizing the insertions for each top-level
+ * class of a compilation unit, as {@link annotator.find.TreeFinder} does
+ * before scanning.  This is where
+ * {@code Insertions.organizeTypedInsertions} does its work.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class InsertionsBenchmark {
+  private JCTree.JCCompilationUnit unit;
+  private List<String> classNames;
+  private Fixture fixture;
+  private Insertions insertions;
+
+  @Setup
+  public void setUp(Fixture fixture) throws IOException {
+    this.fixture = fixture;
+    unit = Fixture.compilationUnit(fixture.newSource());
+    ASTIndex.indexOf(unit);
+    classNames = new ArrayList<String>();
+    classNames.add("");
+    for (JCTree decl : unit.getTypeDecls()) {
+      if (decl.getTag() == JCTree.Tag.CLASSDEF) {
+        classNames.add(((JCTree.JCClassDecl) decl).sym.className());
+      }
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void setUpInsertions() throws FileIOException {
+    insertions = fixture.newInsertions();
+  }
+
+  @Benchmark
+  public List<Insertion> forOuterClasses() {
+    List<Insertion> list = new ArrayList<Insertion>();
+    for (String name : classNames) {
+      list.addAll(insertions.forOuterClass(unit, name));
+    }
+    return list;
+  }
+}
@@ -0,0 +1,99 @@
+package annotator.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import plume.Pair;
+import scenelib.annotations.io.ASTPath;
+import annotator.Source;
+import annotator.find.Insertion;
+import annotator.find.TreeFinder;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.tools.javac.tree.JCTree;
+
+/**
+ * Measures reading and parsing a source file, and editing it by applying
+ * the insertions that {@link TreeFinder} finds for it, from the end of
+ * the file forward as {@link annotator.Main} does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SourceBenchmark {
+  /** The edits to make, and a freshly read copy of the source to make them in. */
+  @State(Scope.Thread)
+  public static class Edits {
+    int[] offsets;
+    String[] texts;
+    Source source;
+    private Fixture fixture;
+
+    @Setup
+    public void setUp(Fixture fixture) throws IOException {
+      this.fixture = fixture;
+      JCTree.JCCompilationUnit unit =
+          Fixture.compilationUnit(fixture.newSource());
+      List<Pair<Integer, String>> edits =
+          new ArrayList<Pair<Integer, String>>();
+      for (Map.Entry<Pair<Integer, ASTPath>, Insertion> entry
+          : new TreeFinder(unit).getPositions(unit, fixture.newInsertions())
+              .entries()) {
+        String text = entry.getValue().getText(false, fixture.abbreviate,
+            false, entry.getKey().a, '\0');
+        edits.add(Pair.of(entry.getKey().a, text));
+      }
+      Collections.sort(edits, new Comparator<Pair<Integer, String>>() {
+        @Override
+        public int compare(Pair<Integer, String> p1,
+            Pair<Integer, String> p2) {
+          return Integer.compare(p2.a, p1.a);
+        }
+      });
+      offsets = new int[edits.size()];
+      texts = new String[edits.size()];
+      for (int i = 0; i < offsets.length; i++) {
+        offsets[i] = edits.get(i).a;
+        texts[i] = edits.get(i).b;
+      }
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpSource() throws IOException {
+      source = fixture.newSource();
+    }
+  }
+
+  @Benchmark
+  public CompilationUnitTree read(Fixture fixture) throws IOException {
+    return Fixture.compilationUnit(fixture.newSource());
+  }
+
+  @Benchmark
+  public String insert(Edits edits) {
+    Source source = edits.source;
+    for (int i = 0; i < edits.offsets.length; i++) {
+      source.insert(edits.offsets[i], edits.texts[i]);
+    }
+    return source.getString();
+  }
+}
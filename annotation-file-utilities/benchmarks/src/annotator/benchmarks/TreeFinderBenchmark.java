@@ -0,0 +1,62 @@
+package annotator.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import plume.FileIOException;
+import plume.Pair;
+import scenelib.annotations.io.ASTIndex;
+import scenelib.annotations.io.ASTPath;
+import annotator.find.Insertion;
+import annotator.find.Insertions;
+import annotator.find.TreeFinder;
+
+import com.google.common.collect.SetMultimap;
+import com.sun.tools.javac.tree.JCTree;
+
+/**
+ * Measures {@link TreeFinder#getPositions}, which matches every insertion
+ * against the compilation unit.  The compilation unit is parsed and
+ * indexed once; the insertions are re-created before each call, since
+ * matching marks them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class TreeFinderBenchmark {
+  private JCTree.JCCompilationUnit unit;
+  private Fixture fixture;
+  private Insertions insertions;
+
+  @Setup
+  public void setUp(Fixture fixture) throws IOException {
+    this.fixture = fixture;
+    unit = Fixture.compilationUnit(fixture.newSource());
+    ASTIndex.indexOf(unit);
+  }
+
+  @Setup(Level.Invocation)
+  public void setUpInsertions() throws FileIOException {
+    insertions = fixture.newInsertions();
+  }
+
+  @Benchmark
+  public SetMultimap<Pair<Integer, ASTPath>, Insertion> getPositions() {
+    return new TreeFinder(unit).getPositions(unit, insertions);
+  }
+}
@@ -0,0 +1,119 @@
+package annotator;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Annotates files using several worker processes (see the
+ * <tt>--processes</tt> option of {@link Main}), each of which runs the
+ * annotator on one {@link Shard} of the Java files, so that throughput
+ * grows with the number of cores and no single JVM has to hold every
+ * compilation unit and annotation.
+ * <p>
+ *
+ * Each worker runs with the same JVM options, class path and arguments as
+ * this process, plus a <tt>--shard</tt> option.  The workers' standard
+ * output is passed through.  Their standard error is collected and
+ * reported when all of them have finished, under a heading naming the
+ * shard, so that the reports of different workers are not interleaved.
+ * With <tt>--stats</tt>, each worker writes its own statistics, which are
+ * then added to those of this process.
+ */
+public class Coordinator {
+
+  /** The arguments of this process, which are passed to the workers. */
+  private final List<String> args;
+
+  /** The number of workers. */
+  private final int count;
+
+  /**
+   * Creates a coordinator.
+   *
+   * @param args the command-line arguments of this process
+   * @param count the number of worker processes
+   */
+  public Coordinator(String[] args, int count) {
+    this.args = Arrays.asList(args);
+    this.count = count;
+  }
+
+  /**
+   * Runs the workers and waits for all of them to finish.
+   *
+   * @return true if every worker succeeded
+   */
+  public boolean run() throws IOException, InterruptedException {
+    String java = new File(new File(System.getProperty("java.home"), "bin"),
+        "java").getPath();
+    List<String> jvmArgs =
+        ManagementFactory.getRuntimeMXBean().getInputArguments();
+
+    List<Process> workers = new ArrayList<Process>(count);
+    List<File> errors = new ArrayList<File>(count);
+    List<File> statsFiles = new ArrayList<File>(count);
+    try {
+      for (int i = 0; i < count; i++) {
+        Shard shard = new Shard(i, count);
+        List<String> command = new ArrayList<String>();
+        command.add(java);
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.addAll(args);
+        // Later options override earlier ones.
+        command.add("--processes=1");
+        command.add("--shard=" + shard);
+        if (Main.stats != null) {
+          File statsFile = File.createTempFile("afu-stats-", ".json");
+          statsFiles.add(statsFile);
+          command.add("--stats=" + statsFile);
+        }
+        File error = File.createTempFile("afu-shard-", ".err");
+        errors.add(error);
+        workers.add(new ProcessBuilder(command)
+            .redirectInput(Redirect.INHERIT)
+            .redirectOutput(Redirect.INHERIT)
+            .redirectError(error)
+            .start());
+      }
+
+      boolean success = true;
+      for (int i = 0; i < count; i++) {
+        int status = workers.get(i).waitFor();
+        byte[] report = Files.readAllBytes(errors.get(i).toPath());
+        if (status != 0 || report.length > 0) {
+          System.err.printf("Shard %s (exit status %d):%n",
+              new Shard(i, count), status);
+          System.err.write(report);
+          System.err.flush();
+        }
+        success &= status == 0;
+      }
+
+      for (File statsFile : statsFiles) {
+        if (statsFile.length() > 0) {
+          Main.statistics.add(statsFile.getPath());
+        }
+      }
+      return success;
+    } finally {
+      for (Process worker : workers) {
+        worker.destroy();
+      }
+      for (File file : errors) {
+        file.delete();
+      }
+      for (File file : statsFiles) {
+        file.delete();
+      }
+    }
+  }
+}
@@ -0,0 +1,586 @@
+package annotator;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import scenelib.type.Type;
+import scenelib.annotations.Annotation;
+import scenelib.annotations.el.ABlock;
+import scenelib.annotations.el.AClass;
+import scenelib.annotations.el.ADeclaration;
+import scenelib.annotations.el.AElement;
+import scenelib.annotations.el.AExpression;
+import scenelib.annotations.el.AField;
+import scenelib.annotations.el.AMethod;
+import scenelib.annotations.el.AScene;
+import scenelib.annotations.el.ATypeElement;
+import scenelib.annotations.el.ATypeElementWithType;
+import scenelib.annotations.el.AnnotationDef;
+import scenelib.annotations.el.DefException;
+import scenelib.annotations.el.ElementVisitor;
+import scenelib.annotations.el.LocalLocation;
+import scenelib.annotations.io.ASTIndex;
+import scenelib.annotations.io.ASTPath;
+import scenelib.annotations.io.ASTRecord;
+import scenelib.annotations.io.DebugWriter;
+import scenelib.annotations.io.IndexFileParser;
+import scenelib.annotations.io.IndexFileWriter;
+import scenelib.annotations.util.coll.VivifyingMap;
+import annotator.Main.AnnotatorException;
+import annotator.find.CastInsertion;
+import annotator.find.GenericArrayLocationCriterion;
+import annotator.find.Insertion;
+import annotator.find.Insertions;
+import annotator.find.TreeFinder;
+import annotator.find.TypedInsertion;
+import annotator.scanner.LocalVariableScanner;
+import annotator.specification.IndexFileSpecification;
+
+import com.google.common.collect.Multimap;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.TreePath;
+import com.sun.tools.javac.code.TypeAnnotationPosition.TypePathEntry;
+import com.sun.tools.javac.tree.JCTree;
+
+/**
+ * Converts annotation files to the AST path format (see the
+ * <tt>--convert-jaifs</tt> option of {@link Main}).  Instead of inserting
+ * annotations, every annotation that is found in the Java files is
+ * recorded under the AST path of its location, in a copy of the
+ * annotation file it came from, which is written to a file of the same
+ * name with <tt>.converted</tt> appended.
+ * <p>
+ *
+ * All the Java files are searched before any converted file is written,
+ * and each converted file is written once.  The Java files are read and
+ * compiled by a pool of threads, a few files ahead of the search.  The
+ * search itself is done one compilation unit at a time, because it
+ * updates the insertions that it finds.
+ */
+public class JaifConverter {
+
+  /** How many Java files per thread are compiled ahead of the search. */
+  private static final int LOOKAHEAD = 2;
+
+  /** The character encoding of the Java files. */
+  private final Charset charset;
+
+  /** The annotation files to convert. */
+  private final Set<String> jaifFiles = new LinkedHashSet<String>();
+
+  /** The Java files to search for the annotations' locations. */
+  private final List<String> javaFiles = new ArrayList<String>();
+
+  /** The insertions specified by the annotation files. */
+  private final Insertions insertions = new Insertions();
+
+  /** The annotation file that specified each insertion. */
+  private final Map<Insertion, String> insertionOrigins =
+      new HashMap<Insertion, String>();
+
+  /** The annotations of each insertion, by annotation file. */
+  private final Map<String, Multimap<Insertion, Annotation>> insertionIndex =
+      new HashMap<String, Multimap<Insertion, Annotation>>();
+
+  /** The converted scene of each annotation file. */
+  private final Map<String, AScene> scenes =
+      new LinkedHashMap<String, AScene>();
+
+  private final DebugWriter dbug = new DebugWriter();
+  private final DebugWriter verb = new DebugWriter();
+  private final DebugWriter both = dbug.or(verb);
+
+  /**
+   * Creates a converter for the given files.
+   *
+   * @param file_args the annotation files and Java files
+   * @param charset the character encoding of the Java files
+   */
+  public JaifConverter(String[] file_args, Charset charset) {
+    this.charset = charset;
+    dbug.setEnabled(Main.debug);
+    verb.setEnabled(Main.verbose);
+    for (String arg : file_args) {
+      if (arg.endsWith(".java")) {
+        if (Main.selectedShard == null || Main.inSelectedShard(arg, charset)) {
+          javaFiles.add(arg);
+        }
+      } else if (arg.endsWith(".jaif") || arg.endsWith(".jann")) {
+        jaifFiles.add(arg);
+      } else {
+        throw new Error("Unrecognized file extension: " + arg);
+      }
+    }
+  }
+
+  /**
+   * Converts the annotation files.
+   *
+   * @throws AnnotatorException if an annotation file cannot be read
+   * @throws InterruptedException if the thread is interrupted while
+   *     waiting for a Java file to be compiled
+   */
+  public void convert()
+      throws IOException, AnnotatorException, InterruptedException {
+    readAnnotationFiles();
+    searchJavaFiles();
+    writeConvertedFiles();
+  }
+
+  private void readAnnotationFiles() throws AnnotatorException {
+    IndexFileParser.setAbbreviate(Main.abbreviate);
+    for (String jaifFile : jaifFiles) {
+      List<Insertion> parsedSpec = new ArrayList<Insertion>();
+      IndexFileSpecification spec =
+          Main.readSpecification(jaifFile, null, parsedSpec, both);
+      Main.statistics.count("insertions", parsedSpec.size());
+      // The scene is filtered once, and the annotations found in all
+      // the Java files are added to it.
+      scenes.put(jaifFile, filteredScene(spec.getScene()));
+      insertionIndex.put(jaifFile, spec.insertionSources());
+      for (Insertion ins : parsedSpec) {
+        insertionOrigins.put(ins, jaifFile);
+      }
+      insertions.addAll(parsedSpec);
+    }
+  }
+
+  private void searchJavaFiles() throws InterruptedException {
+    int threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService compilers = Executors.newFixedThreadPool(threads);
+    try {
+      Deque<Future<Set<CompilationUnitTree>>> compiled =
+          new ArrayDeque<Future<Set<CompilationUnitTree>>>();
+      Iterator<String> toCompile = javaFiles.iterator();
+      for (String javafilename : javaFiles) {
+        while (compiled.size() < threads * LOOKAHEAD && toCompile.hasNext()) {
+          compiled.add(compilers.submit(compile(toCompile.next())));
+        }
+        Set<CompilationUnitTree> cuts;
+        try {
+          cuts = compiled.remove().get();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new Error(cause);
+        }
+        if (cuts != null) {
+          search(javafilename, cuts);
+        }
+      }
+    } finally {
+      compilers.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns a task that reads and compiles the given Java file, returning
+   * its compilation units, or null if it cannot be compiled.
+   */
+  private Callable<Set<CompilationUnitTree>> compile(
+      final String javafilename) {
+    return new Callable<Set<CompilationUnitTree>>() {
+      @Override
+      public Set<CompilationUnitTree> call() {
+        try {
+          Set<CompilationUnitTree> cuts =
+              new Source(javafilename, charset).parse();
+          verb.debug("Parsed %s%n", javafilename);
+          return cuts;
+        } catch (Source.CompilerException | IOException e) {
+          e.printStackTrace();
+          return null;
+        }
+      }
+    };
+  }
+
+  /**
+   * Finds the insertions in the given compilation units, and adds them
+   * to the converted scenes.
+   */
+  private void search(String javafilename, Set<CompilationUnitTree> cuts) {
+    verb.debug("Processing %s%n", javafilename);
+    Main.statistics.beginFile(javafilename);
+    for (CompilationUnitTree cut : cuts) {
+      JCTree.JCCompilationUnit tree = (JCTree.JCCompilationUnit) cut;
+      ExpressionTree pkgExp = cut.getPackageName();
+      String pkg = pkgExp == null ? "" : pkgExp.toString();
+
+      Main.statistics.begin(Stats.Phase.AST_INDEX);
+      try {
+        ASTIndex.indexOf(tree);
+      } finally {
+        Main.statistics.end(Stats.Phase.AST_INDEX);
+      }
+
+      TreeFinder finder = new TreeFinder(tree);
+      Main.statistics.begin(Stats.Phase.TREE_SCAN);
+      try {
+        finder.getPositions(tree, insertions);
+      } finally {
+        Main.statistics.end(Stats.Phase.TREE_SCAN);
+      }
+
+      Main.statistics.begin(Stats.Phase.CONVERT);
+      try {
+        for (Map.Entry<ASTRecord, Collection<Insertion>> entry :
+            finder.getPaths().asMap().entrySet()) {
+          ASTRecord rec = entry.getKey();
+          for (Insertion ins : entry.getValue()) {
+            if (ins.getCriteria().getASTPath() != null) { continue; }
+            String jaifFile = insertionOrigins.get(ins);
+            Multimap<Insertion, Annotation> insertionSources =
+                insertionIndex.get(jaifFile);
+
+            // TODO: adjust for missing end of path (?)
+
+            if (insertionSources != null && insertionSources.containsKey(ins)) {
+              convertInsertion(pkg, tree, rec, ins, scenes.get(jaifFile),
+                  insertionSources);
+              Main.statistics.count("converted");
+            }
+          }
+        }
+      } finally {
+        Main.statistics.end(Stats.Phase.CONVERT);
+      }
+    }
+    Main.statistics.endFile();
+  }
+
+  private void writeConvertedFiles() throws IOException {
+    Main.statistics.begin(Stats.Phase.WRITE);
+    try {
+      for (Map.Entry<String, AScene> entry : scenes.entrySet()) {
+        String filename = entry.getKey();
+        AScene scene = entry.getValue();
+        verb.debug("Writing %s%n", filename + ".converted");
+        try {
+          IndexFileWriter.write(scene, filename + ".converted");
+        } catch (DefException e) {
+          System.err.println(filename + ": " + " format error in conversion");
+          if (Main.print_error_stack) {
+            e.printStackTrace();
+          }
+        }
+      }
+    } finally {
+      Main.statistics.end(Stats.Phase.WRITE);
+    }
+  }
+
+  private static ElementVisitor<Void, AElement> classFilter =
+      new ElementVisitor<Void, AElement>() {
+    <K, V extends AElement>
+    Void filter(VivifyingMap<K, V> vm0, VivifyingMap<K, V> vm1) {
+      for (Map.Entry<K, V> entry : vm0.entrySet()) {
+        entry.getValue().accept(this, vm1.vivify(entry.getKey()));
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitAnnotationDef(AnnotationDef def, AElement el) {
+      // not used, since package declarations not handled here
+      return null;
+    }
+
+    @Override
+    public Void visitBlock(ABlock el0, AElement el) {
+      ABlock el1 = (ABlock) el;
+      filter(el0.locals, el1.locals);
+      return visitExpression(el0, el);
+    }
+
+    @Override
+    public Void visitClass(AClass el0, AElement el) {
+      AClass el1 = (AClass) el;
+      filter(el0.methods, el1.methods);
+      filter(el0.fields, el1.fields);
+      filter(el0.fieldInits, el1.fieldInits);
+      filter(el0.staticInits, el1.staticInits);
+      filter(el0.instanceInits, el1.instanceInits);
+      return visitDeclaration(el0, el);
+    }
+
+    @Override
+    public Void visitDeclaration(ADeclaration el0, AElement el) {
+      ADeclaration el1 = (ADeclaration) el;
+      VivifyingMap<ASTPath, ATypeElement> insertAnnotations =
+          el1.insertAnnotations;
+      VivifyingMap<ASTPath, ATypeElementWithType> insertTypecasts =
+          el1.insertTypecasts;
+      for (Map.Entry<ASTPath, ATypeElement> entry :
+          el0.insertAnnotations.entrySet()) {
+        ASTPath p = entry.getKey();
+        ATypeElement e = entry.getValue();
+        insertAnnotations.put(p, e);
+        // visitTypeElement(e, insertAnnotations.vivify(p));
+      }
+      for (Map.Entry<ASTPath, ATypeElementWithType> entry :
+          el0.insertTypecasts.entrySet()) {
+        ASTPath p = entry.getKey();
+        ATypeElementWithType e = entry.getValue();
+        scenelib.type.Type type = e.getType();
+        if (type instanceof scenelib.type.DeclaredType
+            && ((scenelib.type.DeclaredType) type).getName().isEmpty()) {
+          insertAnnotations.put(p, e);
+          // visitTypeElement(e, insertAnnotations.vivify(p));
+        } else {
+          insertTypecasts.put(p, e);
+          // visitTypeElementWithType(e, insertTypecasts.vivify(p));
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public Void visitExpression(AExpression el0, AElement el) {
+      AExpression el1 = (AExpression) el;
+      filter(el0.typecasts, el1.typecasts);
+      filter(el0.instanceofs, el1.instanceofs);
+      filter(el0.news, el1.news);
+      return null;
+    }
+
+    @Override
+    public Void visitField(AField el0, AElement el) {
+      return visitDeclaration(el0, el);
+    }
+
+    @Override
+    public Void visitMethod(AMethod el0, AElement el) {
+      AMethod el1 = (AMethod) el;
+      filter(el0.bounds, el1.bounds);
+      filter(el0.parameters, el1.parameters);
+      filter(el0.throwsException, el1.throwsException);
+      el0.returnType.accept(this, el1.returnType);
+      el0.receiver.accept(this, el1.receiver);
+      el0.body.accept(this, el1.body);
+      return visitDeclaration(el0, el);
+    }
+
+    @Override
+    public Void visitTypeElement(ATypeElement el0, AElement el) {
+      ATypeElement el1 = (ATypeElement) el;
+      filter(el0.innerTypes, el1.innerTypes);
+      return null;
+    }
+
+    @Override
+    public Void visitTypeElementWithType(ATypeElementWithType el0,
+        AElement el) {
+      ATypeElementWithType el1 = (ATypeElementWithType) el;
+      el1.setType(el0.getType());
+      return visitTypeElement(el0, el);
+    }
+
+    @Override
+    public Void visitElement(AElement el, AElement arg) {
+      return null;
+    }
+  };
+
+  private static AScene filteredScene(final AScene scene) {
+    final AScene filtered = new AScene();
+    filtered.packages.putAll(scene.packages);
+    filtered.imports.putAll(scene.imports);
+    for (Map.Entry<String, AClass> entry : scene.classes.entrySet()) {
+      String key = entry.getKey();
+      AClass clazz0 = entry.getValue();
+      AClass clazz1 = filtered.classes.vivify(key);
+      clazz0.accept(classFilter, clazz1);
+    }
+    filtered.prune();
+    return filtered;
+  }
+
+  private static ATypeElement findInnerTypeElement(Tree t,
+      ASTRecord rec, ADeclaration decl, Type type, Insertion ins) {
+    ASTPath astPath = rec.astPath;
+    GenericArrayLocationCriterion galc =
+        ins.getCriteria().getGenericArrayLocation();
+    assert astPath != null && galc != null;
+    List<TypePathEntry> tpes = galc.getLocation();
+    ASTPath.ASTEntry entry;
+    for (TypePathEntry tpe : tpes) {
+      switch (tpe.tag) {
+      case ARRAY:
+        if (!astPath.isEmpty()) {
+          entry = astPath.get(-1);
+          if (entry.getTreeKind() == Tree.Kind.NEW_ARRAY
+              && entry.childSelectorIs(ASTPath.TYPE)) {
+            entry = new ASTPath.ASTEntry(Tree.Kind.NEW_ARRAY,
+                ASTPath.TYPE, entry.getArgument() + 1);
+            break;
+          }
+        }
+        entry = new ASTPath.ASTEntry(Tree.Kind.ARRAY_TYPE,
+            ASTPath.TYPE);
+        break;
+      case INNER_TYPE:
+        entry = new ASTPath.ASTEntry(Tree.Kind.MEMBER_SELECT,
+            ASTPath.EXPRESSION);
+        break;
+      case TYPE_ARGUMENT:
+        entry = new ASTPath.ASTEntry(Tree.Kind.PARAMETERIZED_TYPE,
+            ASTPath.TYPE_ARGUMENT, tpe.arg);
+        break;
+      case WILDCARD:
+        entry = new ASTPath.ASTEntry(Tree.Kind.UNBOUNDED_WILDCARD,
+            ASTPath.BOUND);
+        break;
+      default:
+        throw new IllegalArgumentException("unknown type tag " + tpe.tag);
+      }
+      astPath = astPath.extend(entry);
+    }
+
+    return decl.insertAnnotations.vivify(astPath);
+  }
+
+  private static void convertInsertion(String pkg,
+      JCTree.JCCompilationUnit tree, ASTRecord rec, Insertion ins,
+      AScene scene, Multimap<Insertion, Annotation> insertionSources) {
+    Collection<Annotation> annos = insertionSources.get(ins);
+    if (rec == null) {
+      if (ins.getCriteria().isOnPackage()) {
+        for (Annotation anno : annos) {
+          scene.packages.get(pkg).tlAnnotationsHere.add(anno);
+        }
+      }
+    } else if (scene != null && rec.className != null) {
+      AClass clazz = scene.classes.vivify(rec.className);
+      ADeclaration decl = null;  // insertion target
+      if (ins.getCriteria().onBoundZero()) {
+        int n = rec.astPath.size();
+        if (!rec.astPath.get(n-1).childSelectorIs(ASTPath.BOUND)) {
+          ASTPath astPath = ASTPath.empty();
+          for (int i = 0; i < n; i++) {
+            astPath = astPath.extend(rec.astPath.get(i));
+          }
+          astPath = astPath.extend(
+              new ASTPath.ASTEntry(Tree.Kind.TYPE_PARAMETER,
+                  ASTPath.BOUND, 0));
+          rec = rec.replacePath(astPath);
+        }
+      }
+      if (rec.methodName == null) {
+        decl = rec.varName == null ? clazz
+            : clazz.fields.vivify(rec.varName);
+      } else {
+        AMethod meth = clazz.methods.vivify(rec.methodName);
+        if (rec.varName == null) {
+          decl = meth;  // ?
+        } else {
+          try {
+            int i = Integer.parseInt(rec.varName);
+            decl = i < 0 ? meth.receiver
+                : meth.parameters.vivify(i);
+          } catch (NumberFormatException e) {
+            TreePath path = ASTIndex.getTreePath(tree, rec);
+            JCTree.JCVariableDecl varTree = null;
+            JCTree.JCMethodDecl methTree = null;
+            JCTree.JCClassDecl classTree = null;
+            loop:
+              while (path != null) {
+                Tree leaf = path.getLeaf();
+                switch (leaf.getKind()) {
+                case VARIABLE:
+                  varTree = (JCTree.JCVariableDecl) leaf;
+                  break;
+                case METHOD:
+                  methTree = (JCTree.JCMethodDecl) leaf;
+                  break;
+                case ANNOTATION:
+                case CLASS:
+                case ENUM:
+                case INTERFACE:
+                  break loop;
+                default:
+                  path = path.getParentPath();
+                }
+              }
+            while (path != null) {
+              Tree leaf = path.getLeaf();
+              Tree.Kind kind = leaf.getKind();
+              if (kind == Tree.Kind.METHOD) {
+                methTree = (JCTree.JCMethodDecl) leaf;
+                int i = LocalVariableScanner.indexOfVarTree(path,
+                    varTree, rec.varName);
+                int m = methTree.getStartPosition();
+                int a = varTree.getStartPosition();
+                int b = varTree.getEndPosition(tree.endPositions);
+                LocalLocation loc = new LocalLocation(i, a-m, b-a);
+                decl = meth.body.locals.vivify(loc);
+                break;
+              }
+              if (ASTPath.isClassEquiv(kind)) {
+                classTree = (JCTree.JCClassDecl) leaf;
+                // ???
+                    break;
+              }
+              path = path.getParentPath();
+            }
+          }
+        }
+      }
+      if (decl != null) {
+        AElement el;
+        if (rec.astPath.isEmpty()) {
+          el = decl;
+        } else if (ins.getKind() == Insertion.Kind.CAST) {
+          scenelib.annotations.el.ATypeElementWithType elem =
+              decl.insertTypecasts.vivify(rec.astPath);
+          elem.setType(((CastInsertion) ins).getType());
+          el = elem;
+        } else {
+          el = decl.insertAnnotations.vivify(rec.astPath);
+        }
+        for (Annotation anno : annos) {
+          el.tlAnnotationsHere.add(anno);
+        }
+        if (ins instanceof TypedInsertion) {
+          TypedInsertion ti = (TypedInsertion) ins;
+          if (!rec.astPath.isEmpty()) {
+            // addInnerTypePaths(decl, rec, ti, insertionSources);
+          }
+          for (Insertion inner : ti.getInnerTypeInsertions()) {
+            Tree t = ASTIndex.getNode(tree, rec);
+            if (t != null) {
+              ATypeElement elem = findInnerTypeElement(t,
+                  rec, decl, ti.getType(), inner);
+              for (Annotation a : insertionSources.get(inner)) {
+                elem.tlAnnotationsHere.add(a);
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+}
@@ -5,8 +5,12 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -19,57 +23,35 @@ import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.tools.StandardJavaFileManager;
+
 import plume.FileIOException;
 import plume.Option;
 import plume.OptionGroup;
 import plume.Options;
 import plume.Pair;
-import plume.UtilMDE;
-import scenelib.type.Type;
-import scenelib.annotations.Annotation;
-import scenelib.annotations.el.ABlock;
-import scenelib.annotations.el.AClass;
-import scenelib.annotations.el.ADeclaration;
-import scenelib.annotations.el.AElement;
-import scenelib.annotations.el.AExpression;
-import scenelib.annotations.el.AField;
-import scenelib.annotations.el.AMethod;
-import scenelib.annotations.el.AScene;
-import scenelib.annotations.el.ATypeElement;
-import scenelib.annotations.el.ATypeElementWithType;
-import scenelib.annotations.el.AnnotationDef;
-import scenelib.annotations.el.DefException;
-import scenelib.annotations.el.ElementVisitor;
-import scenelib.annotations.el.LocalLocation;
 import scenelib.annotations.io.ASTIndex;
 import scenelib.annotations.io.ASTPath;
-import scenelib.annotations.io.ASTRecord;
 import scenelib.annotations.io.DebugWriter;
 import scenelib.annotations.io.IndexFileParser;
-import scenelib.annotations.io.IndexFileWriter;
-import scenelib.annotations.util.coll.VivifyingMap;
 import annotator.find.AnnotationInsertion;
 import annotator.find.CastInsertion;
 import annotator.find.ConstructorInsertion;
 import annotator.find.Criteria;
-import annotator.find.GenericArrayLocationCriterion;
 import annotator.find.Insertion;
 import annotator.find.Insertions;
 import annotator.find.NewInsertion;
 import annotator.find.ReceiverInsertion;
 import annotator.find.TreeFinder;
-import annotator.find.TypedInsertion;
-import annotator.scanner.LocalVariableScanner;
 import annotator.specification.IndexFileSpecification;
+import annotator.specification.SpecificationCache;
 
-import com.google.common.collect.LinkedHashMultimap;
-import com.google.common.collect.Multimap;
 import com.google.common.collect.SetMultimap;
+import com.sun.source.tree.ClassTree;
 import com.sun.source.tree.CompilationUnitTree;
 import com.sun.source.tree.ExpressionTree;
 import com.sun.source.tree.Tree;
 import com.sun.source.util.TreePath;
-import com.sun.tools.javac.code.TypeAnnotationPosition.TypePathEntry;
 import com.sun.tools.javac.main.CommandLine;
 import com.sun.tools.javac.tree.JCTree;
 
@@ -112,8 +94,14 @@ import com.sun.tools.javac.tree.JCTree;
  *       <li id="option:abbreviate"><b>-a</b> <b>--abbreviate=</b><i>boolean</i>. Abbreviate annotation names [default true]</li>
  *       <li id="option:comments"><b>-c</b> <b>--comments=</b><i>boolean</i>. Insert annotations in comments [default false]</li>
  *       <li id="option:omit-annotation"><b>-o</b> <b>--omit-annotation=</b><i>string</i>. Omit given annotation</li>
+ *       <li id="option:encoding"><b>--encoding=</b><i>string</i>. Character encoding of the Java source files (default: platform encoding)</li>
  *       <li id="option:nowarn"><b>--nowarn=</b><i>boolean</i>. Suppress warnings about disallowed insertions [default false]</li>
  *       <li id="option:convert-jaifs"><b>--convert-jaifs=</b><i>boolean</i>. Convert JAIFs to new format [default false]</li>
+ *       <li id="option:server-port"><b>--server-port=</b><i>integer</i>. Run as a server, accepting requests on the given local port</li>
+ *       <li id="option:watch"><b>--watch=</b><i>boolean</i>. Watch the files, and annotate again when they change [default false]</li>
+ *       <li id="option:shard"><b>--shard=</b><i>string</i>. Process only shard i/N of the Java files, partitioned by package</li>
+ *       <li id="option:processes"><b>--processes=</b><i>int</i>. Process the Java files in the given number of worker processes [default 1]</li>
+ *       <li id="option:jaif-threads"><b>--jaif-threads=</b><i>int</i>. Parse each index file on the given number of threads [default 1]</li>
  *       <li id="option:help"><b>-h</b> <b>--help=</b><i>boolean</i>. Print usage information and exit [default false]</li>
  *     </ul>
  *   </li>
@@ -122,6 +110,7 @@ import com.sun.tools.javac.tree.JCTree;
  *       <li id="option:verbose"><b>-v</b> <b>--verbose=</b><i>boolean</i>. Verbose (print progress information) [default false]</li>
  *       <li id="option:debug"><b>--debug=</b><i>boolean</i>. Debug (print debug information) [default false]</li>
  *       <li id="option:print-error-stack"><b>--print-error-stack=</b><i>boolean</i>. Print error stack [default false]</li>
+ *       <li id="option:stats"><b>--stats=</b><i>string</i>. Write timing and counter statistics, as JSON, to the given file</li>
  *     </ul>
  *   </li>
  * </ul>
@@ -164,6 +153,13 @@ public class Main {
   @Option("-o Omit given annotation")
   public static String omit_annotation;
 
+  /**
+   * Character encoding in which the Java source files are read and the
+   * annotated files are written.  If null, the platform default is used.
+   */
+  @Option("Character encoding of the Java source files (default: platform encoding)")
+  public static String encoding = null;
+
   @Option("Suppress warnings about disallowed insertions")
   public static boolean nowarn;
 
@@ -172,6 +168,48 @@ public class Main {
   @Option("Convert JAIFs to AST Path format")
   public static boolean convert_jaifs = false;
 
+  /**
+   * If non-null, run as a server on the given loopback port (0 for any
+   * free port) instead of processing the files on the command line.
+   * See {@link Server} for the request protocol.
+   */
+  @Option("Run as a server, accepting requests on the given local port")
+  public static Integer server_port = null;
+
+  /**
+   * If true, keep running after the files have been annotated, and
+   * annotate again whenever some of them change.  See {@link Watcher}.
+   */
+  @Option("Watch the files, and annotate again when they change")
+  public static boolean watch = false;
+
+  /**
+   * If non-null, process only the given shard of the Java files, written
+   * <tt>i/N</tt>:  the files in the packages that fall in the i-th of N
+   * parts (counting from 0), using only the annotations for those
+   * packages.  See {@link Shard}.
+   */
+  @Option("Process only shard i/N of the Java files, partitioned by package")
+  public static String shard = null;
+
+  /**
+   * If greater than 1, partition the Java files into that many shards and
+   * process each in a separate worker process.  See {@link Coordinator}.
+   */
+  @Option("Process the Java files in the given number of worker processes")
+  public static int processes = 1;
+
+  /**
+   * The number of threads on which to parse the class sections of each
+   * index file.  See {@link IndexFileParser#parseFile(String,
+   * scenelib.annotations.el.AScene, int)}.
+   */
+  @Option("Parse each index file on the given number of threads")
+  public static int jaif_threads = 1;
+
+  /** The shard given by the --shard option, or null for all files. */
+  public static Shard selectedShard = null;
+
   @Option("-h Print usage information and exit")
   public static boolean help = false;
 
@@ -187,300 +225,18 @@ public class Main {
   @Option("Print error stack")
   public static boolean print_error_stack = false;
 
-  // TODO: remove this before committing.
-  public static boolean temporaryDebug = false;
-
-  private static ElementVisitor<Void, AElement> classFilter =
-      new ElementVisitor<Void, AElement>() {
-    <K, V extends AElement>
-    Void filter(VivifyingMap<K, V> vm0, VivifyingMap<K, V> vm1) {
-      for (Map.Entry<K, V> entry : vm0.entrySet()) {
-        entry.getValue().accept(this, vm1.vivify(entry.getKey()));
-      }
-      return null;
-    }
-
-    @Override
-    public Void visitAnnotationDef(AnnotationDef def, AElement el) {
-      // not used, since package declarations not handled here
-      return null;
-    }
-
-    @Override
-    public Void visitBlock(ABlock el0, AElement el) {
-      ABlock el1 = (ABlock) el;
-      filter(el0.locals, el1.locals);
-      return visitExpression(el0, el);
-    }
-
-    @Override
-    public Void visitClass(AClass el0, AElement el) {
-      AClass el1 = (AClass) el;
-      filter(el0.methods, el1.methods);
-      filter(el0.fields, el1.fields);
-      filter(el0.fieldInits, el1.fieldInits);
-      filter(el0.staticInits, el1.staticInits);
-      filter(el0.instanceInits, el1.instanceInits);
-      return visitDeclaration(el0, el);
-    }
-
-    @Override
-    public Void visitDeclaration(ADeclaration el0, AElement el) {
-      ADeclaration el1 = (ADeclaration) el;
-      VivifyingMap<ASTPath, ATypeElement> insertAnnotations =
-          el1.insertAnnotations;
-      VivifyingMap<ASTPath, ATypeElementWithType> insertTypecasts =
-          el1.insertTypecasts;
-      for (Map.Entry<ASTPath, ATypeElement> entry :
-          el0.insertAnnotations.entrySet()) {
-        ASTPath p = entry.getKey();
-        ATypeElement e = entry.getValue();
-        insertAnnotations.put(p, e);
-        // visitTypeElement(e, insertAnnotations.vivify(p));
-      }
-      for (Map.Entry<ASTPath, ATypeElementWithType> entry :
-          el0.insertTypecasts.entrySet()) {
-        ASTPath p = entry.getKey();
-        ATypeElementWithType e = entry.getValue();
-        scenelib.type.Type type = e.getType();
-        if (type instanceof scenelib.type.DeclaredType
-            && ((scenelib.type.DeclaredType) type).getName().isEmpty()) {
-          insertAnnotations.put(p, e);
-          // visitTypeElement(e, insertAnnotations.vivify(p));
-        } else {
-          insertTypecasts.put(p, e);
-          // visitTypeElementWithType(e, insertTypecasts.vivify(p));
-        }
-      }
-      return null;
-    }
-
-    @Override
-    public Void visitExpression(AExpression el0, AElement el) {
-      AExpression el1 = (AExpression) el;
-      filter(el0.typecasts, el1.typecasts);
-      filter(el0.instanceofs, el1.instanceofs);
-      filter(el0.news, el1.news);
-      return null;
-    }
-
-    @Override
-    public Void visitField(AField el0, AElement el) {
-      return visitDeclaration(el0, el);
-    }
-
-    @Override
-    public Void visitMethod(AMethod el0, AElement el) {
-      AMethod el1 = (AMethod) el;
-      filter(el0.bounds, el1.bounds);
-      filter(el0.parameters, el1.parameters);
-      filter(el0.throwsException, el1.throwsException);
-      el0.returnType.accept(this, el1.returnType);
-      el0.receiver.accept(this, el1.receiver);
-      el0.body.accept(this, el1.body);
-      return visitDeclaration(el0, el);
-    }
-
-    @Override
-    public Void visitTypeElement(ATypeElement el0, AElement el) {
-      ATypeElement el1 = (ATypeElement) el;
-      filter(el0.innerTypes, el1.innerTypes);
-      return null;
-    }
-
-    @Override
-    public Void visitTypeElementWithType(ATypeElementWithType el0,
-        AElement el) {
-      ATypeElementWithType el1 = (ATypeElementWithType) el;
-      el1.setType(el0.getType());
-      return visitTypeElement(el0, el);
-    }
-
-    @Override
-    public Void visitElement(AElement el, AElement arg) {
-      return null;
-    }
-  };
-
-  private static AScene filteredScene(final AScene scene) {
-    final AScene filtered = new AScene();
-    filtered.packages.putAll(scene.packages);
-    filtered.imports.putAll(scene.imports);
-    for (Map.Entry<String, AClass> entry : scene.classes.entrySet()) {
-      String key = entry.getKey();
-      AClass clazz0 = entry.getValue();
-      AClass clazz1 = filtered.classes.vivify(key);
-      clazz0.accept(classFilter, clazz1);
-    }
-    filtered.prune();
-    return filtered;
-  }
-
-  private static ATypeElement findInnerTypeElement(Tree t,
-      ASTRecord rec, ADeclaration decl, Type type, Insertion ins) {
-    ASTPath astPath = rec.astPath;
-    GenericArrayLocationCriterion galc =
-        ins.getCriteria().getGenericArrayLocation();
-    assert astPath != null && galc != null;
-    List<TypePathEntry> tpes = galc.getLocation();
-    ASTPath.ASTEntry entry;
-    for (TypePathEntry tpe : tpes) {
-      switch (tpe.tag) {
-      case ARRAY:
-        if (!astPath.isEmpty()) {
-          entry = astPath.get(-1);
-          if (entry.getTreeKind() == Tree.Kind.NEW_ARRAY
-              && entry.childSelectorIs(ASTPath.TYPE)) {
-            entry = new ASTPath.ASTEntry(Tree.Kind.NEW_ARRAY,
-                ASTPath.TYPE, entry.getArgument() + 1);
-            break;
-          }
-        }
-        entry = new ASTPath.ASTEntry(Tree.Kind.ARRAY_TYPE,
-            ASTPath.TYPE);
-        break;
-      case INNER_TYPE:
-        entry = new ASTPath.ASTEntry(Tree.Kind.MEMBER_SELECT,
-            ASTPath.EXPRESSION);
-        break;
-      case TYPE_ARGUMENT:
-        entry = new ASTPath.ASTEntry(Tree.Kind.PARAMETERIZED_TYPE,
-            ASTPath.TYPE_ARGUMENT, tpe.arg);
-        break;
-      case WILDCARD:
-        entry = new ASTPath.ASTEntry(Tree.Kind.UNBOUNDED_WILDCARD,
-            ASTPath.BOUND);
-        break;
-      default:
-        throw new IllegalArgumentException("unknown type tag " + tpe.tag);
-      }
-      astPath = astPath.extend(entry);
-    }
-
-    return decl.insertAnnotations.vivify(astPath);
-  }
+  /**
+   * If non-null, the file to which per-phase timings, per-file durations
+   * and insertion counts are written, as JSON.
+   */
+  @Option("Write timing and counter statistics, as JSON, to the given file")
+  public static String stats = null;
 
-  private static void convertInsertion(String pkg,
-      JCTree.JCCompilationUnit tree, ASTRecord rec, Insertion ins,
-      AScene scene, Multimap<Insertion, Annotation> insertionSources) {
-    Collection<Annotation> annos = insertionSources.get(ins);
-    if (rec == null) {
-      if (ins.getCriteria().isOnPackage()) {
-        for (Annotation anno : annos) {
-          scene.packages.get(pkg).tlAnnotationsHere.add(anno);
-        }
-      }
-    } else if (scene != null && rec.className != null) {
-      AClass clazz = scene.classes.vivify(rec.className);
-      ADeclaration decl = null;  // insertion target
-      if (ins.getCriteria().onBoundZero()) {
-        int n = rec.astPath.size();
-        if (!rec.astPath.get(n-1).childSelectorIs(ASTPath.BOUND)) {
-          ASTPath astPath = ASTPath.empty();
-          for (int i = 0; i < n; i++) {
-            astPath = astPath.extend(rec.astPath.get(i));
-          }
-          astPath = astPath.extend(
-              new ASTPath.ASTEntry(Tree.Kind.TYPE_PARAMETER,
-                  ASTPath.BOUND, 0));
-          rec = rec.replacePath(astPath);
-        }
-      }
-      if (rec.methodName == null) {
-        decl = rec.varName == null ? clazz
-            : clazz.fields.vivify(rec.varName);
-      } else {
-        AMethod meth = clazz.methods.vivify(rec.methodName);
-        if (rec.varName == null) {
-          decl = meth;  // ?
-        } else {
-          try {
-            int i = Integer.parseInt(rec.varName);
-            decl = i < 0 ? meth.receiver
-                : meth.parameters.vivify(i);
-          } catch (NumberFormatException e) {
-            TreePath path = ASTIndex.getTreePath(tree, rec);
-            JCTree.JCVariableDecl varTree = null;
-            JCTree.JCMethodDecl methTree = null;
-            JCTree.JCClassDecl classTree = null;
-            loop:
-              while (path != null) {
-                Tree leaf = path.getLeaf();
-                switch (leaf.getKind()) {
-                case VARIABLE:
-                  varTree = (JCTree.JCVariableDecl) leaf;
-                  break;
-                case METHOD:
-                  methTree = (JCTree.JCMethodDecl) leaf;
-                  break;
-                case ANNOTATION:
-                case CLASS:
-                case ENUM:
-                case INTERFACE:
-                  break loop;
-                default:
-                  path = path.getParentPath();
-                }
-              }
-            while (path != null) {
-              Tree leaf = path.getLeaf();
-              Tree.Kind kind = leaf.getKind();
-              if (kind == Tree.Kind.METHOD) {
-                methTree = (JCTree.JCMethodDecl) leaf;
-                int i = LocalVariableScanner.indexOfVarTree(path,
-                    varTree, rec.varName);
-                int m = methTree.getStartPosition();
-                int a = varTree.getStartPosition();
-                int b = varTree.getEndPosition(tree.endPositions);
-                LocalLocation loc = new LocalLocation(i, a-m, b-a);
-                decl = meth.body.locals.vivify(loc);
-                break;
-              }
-              if (ASTPath.isClassEquiv(kind)) {
-                classTree = (JCTree.JCClassDecl) leaf;
-                // ???
-                    break;
-              }
-              path = path.getParentPath();
-            }
-          }
-        }
-      }
-      if (decl != null) {
-        AElement el;
-        if (rec.astPath.isEmpty()) {
-          el = decl;
-        } else if (ins.getKind() == Insertion.Kind.CAST) {
-          scenelib.annotations.el.ATypeElementWithType elem =
-              decl.insertTypecasts.vivify(rec.astPath);
-          elem.setType(((CastInsertion) ins).getType());
-          el = elem;
-        } else {
-          el = decl.insertAnnotations.vivify(rec.astPath);
-        }
-        for (Annotation anno : annos) {
-          el.tlAnnotationsHere.add(anno);
-        }
-        if (ins instanceof TypedInsertion) {
-          TypedInsertion ti = (TypedInsertion) ins;
-          if (!rec.astPath.isEmpty()) {
-            // addInnerTypePaths(decl, rec, ti, insertionSources);
-          }
-          for (Insertion inner : ti.getInnerTypeInsertions()) {
-            Tree t = ASTIndex.getNode(tree, rec);
-            if (t != null) {
-              ATypeElement elem = findInnerTypeElement(t,
-                  rec, decl, ti.getType(), inner);
-              for (Annotation a : insertionSources.get(inner)) {
-                elem.tlAnnotationsHere.add(a);
-              }
-            }
-          }
-        }
-      }
-    }
-  }
+  /** Statistics for this run; enabled by the --stats option. */
+  public static final Stats statistics = new Stats();
 
+  // TODO: remove this before committing.
+  public static boolean temporaryDebug = false;
 
   // Implementation details:
   //  1. The annotator partially compiles source
@@ -521,15 +277,11 @@ public class Main {
       System.exit(1);
     }
 
-    DebugWriter dbug = new DebugWriter();
-    DebugWriter verb = new DebugWriter();
-    DebugWriter both = dbug.or(verb);
-    dbug.setEnabled(debug);
-    verb.setEnabled(verbose);
     TreeFinder.warn.setEnabled(!nowarn);
     TreeFinder.stak.setEnabled(print_error_stack);
     TreeFinder.dbug.setEnabled(debug);
     Criteria.dbug.setEnabled(debug);
+    statistics.setEnabled(stats != null);
 
     if (help) {
       options.print_usage();
@@ -541,22 +293,139 @@ public class Main {
       System.exit(1);
     }
 
+    if (in_place && watch) {
+      // With --in-place, the backup files are read instead of the edited
+      // ones, so edits would never take effect.
+      options.print_usage("The --watch and --in-place options are mutually exclusive.");
+      System.exit(1);
+    }
+
+    Charset charset = Charset.defaultCharset();
+    if (encoding != null) {
+      try {
+        charset = Charset.forName(encoding);
+      } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+        options.print_usage("Unsupported encoding: %s", encoding);
+        System.exit(1);
+      }
+    }
+
+    if (shard != null) {
+      try {
+        selectedShard = Shard.parse(shard);
+      } catch (IllegalArgumentException e) {
+        options.print_usage(e.getMessage());
+        System.exit(1);
+      }
+    }
+
+    if (server_port != null) {
+      new Server(server_port, charset).serve();
+      return;
+    }
+
     if (file_args.length < 2) {
       options.print_usage("Supplied %d arguments, at least 2 needed%n", file_args.length);
       System.exit(1);
     }
 
+    if (convert_jaifs) {
+      try {
+        new JaifConverter(file_args, charset).convert();
+      } catch (AnnotatorException | InterruptedException e) {
+        System.exit(1);
+      }
+      writeStatistics();
+      return;
+    }
+
+    if (watch) {
+      new Watcher(file_args, charset).watch();
+      return;
+    }
+
+    if (processes > 1) {
+      boolean success;
+      try {
+        success = new Coordinator(args, processes).run();
+      } catch (InterruptedException e) {
+        success = false;
+      }
+      writeStatistics();
+      System.exit(success ? 0 : 1);
+    }
+
+    try {
+      annotate(file_args, charset, null, null, null);
+    } catch (AnnotatorException e) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Signifies that a run of the annotator was abandoned.  The problem has
+   * already been reported on standard error.
+   */
+  public static class AnnotatorException extends Exception {
+
+    private static final long serialVersionUID = 3218473395615129218L;
+
+    public AnnotatorException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Inserts the annotations in the given annotation files into the given
+   * Java files, according to the current options.
+   *
+   * @param file_args the annotation files and Java files
+   * @param charset the character encoding of the Java files
+   * @param specs the annotation files read by earlier runs, or null to
+   *     read every annotation file
+   * @param declaredClasses if non-null, receives for each Java file the
+   *     fully-qualified names of the classes declared at its top level
+   * @param fileManager the file manager with which to parse the Java
+   *     files, or null for a new one; either way it is closed at the end
+   *     of the run, so that a later run opens the class path anew
+   * @throws AnnotatorException if an annotation file cannot be read or an
+   *     annotated file cannot be written
+   */
+  static void annotate(String[] file_args, Charset charset,
+      SpecificationCache specs, Map<String, Set<String>> declaredClasses,
+      StandardJavaFileManager fileManager)
+      throws IOException, AnnotatorException {
+    if (fileManager == null) {
+      try {
+        fileManager = Source.newFileManager(charset);
+      } catch (Source.CompilerException e) {
+        e.printStackTrace();
+        throw new AnnotatorException(e.getMessage());
+      }
+    }
+    try {
+      annotateFiles(file_args, charset, specs, declaredClasses, fileManager);
+    } finally {
+      fileManager.close();
+    }
+  }
+
+  /** Performs {@link #annotate} with the given file manager. */
+  private static void annotateFiles(String[] file_args, Charset charset,
+      SpecificationCache specs, Map<String, Set<String>> declaredClasses,
+      StandardJavaFileManager fileManager)
+      throws IOException, AnnotatorException {
+    DebugWriter dbug = new DebugWriter();
+    DebugWriter verb = new DebugWriter();
+    DebugWriter both = dbug.or(verb);
+    dbug.setEnabled(debug);
+    verb.setEnabled(verbose);
+
     // The insertions specified by the annotation files.
     Insertions insertions = new Insertions();
     // The Java files into which to insert.
     List<String> javafiles = new ArrayList<String>();
 
-    // Indices to maintain insertion source traces.
-    Map<String, Multimap<Insertion, Annotation>> insertionIndex =
-        new HashMap<String, Multimap<Insertion, Annotation>>();
-    Map<Insertion, String> insertionOrigins = new HashMap<Insertion, String>();
-    Map<String, AScene> scenes = new HashMap<String, AScene>();
-
     // maintain imports info for annotations field
     // Key: fully-qualified annotation name. e.g. "com.foo.Bar" for annotation @com.foo.Bar(x).
     // Value: names of packages this annotation needs.
@@ -565,75 +434,18 @@ public class Main {
     IndexFileParser.setAbbreviate(abbreviate);
     for (String arg : file_args) {
       if (arg.endsWith(".java")) {
+        if (selectedShard != null && !inSelectedShard(arg, charset)) {
+          continue;
+        }
         javafiles.add(arg);
       } else if (arg.endsWith(".jaif") ||
                  arg.endsWith(".jann")) {
-        IndexFileSpecification spec = new IndexFileSpecification(arg);
-        try {
-          List<Insertion> parsedSpec = spec.parse();
-          AScene scene = spec.getScene();
-          Collections.sort(parsedSpec, new Comparator<Insertion>() {
-            @Override
-            public int compare(Insertion i1, Insertion i2) {
-              ASTPath p1 = i1.getCriteria().getASTPath();
-              ASTPath p2 = i2.getCriteria().getASTPath();
-              return p1 == null
-                  ? p2 == null ? 0 : -1
-                  : p2 == null ? 1 : p1.compareTo(p2);
-            }
-          });
-          if (convert_jaifs) {
-            scenes.put(arg, filteredScene(scene));
-            for (Insertion ins : parsedSpec) {
-              insertionOrigins.put(ins, arg);
-            }
-            if (!insertionIndex.containsKey(arg)) {
-              insertionIndex.put(arg,
-                  LinkedHashMultimap.<Insertion, Annotation>create());
-            }
-            insertionIndex.get(arg).putAll(spec.insertionSources());
-          }
-          both.debug("Read %d annotations from %s%n", parsedSpec.size(), arg);
-          if (omit_annotation != null) {
-            List<Insertion> filtered =
-                new ArrayList<Insertion>(parsedSpec.size());
-            for (Insertion insertion : parsedSpec) {
-              // TODO: this won't omit annotations if the insertion is more than
-              // just the annotation (such as if the insertion is a cast
-              // insertion or a 'this' parameter in a method declaration).
-              if (! omit_annotation.equals(insertion.getText())) {
-                filtered.add(insertion);
-              }
-            }
-            parsedSpec = filtered;
-            both.debug("After filtering: %d annotations from %s%n",
-                parsedSpec.size(), arg);
-          }
-          insertions.addAll(parsedSpec);
-          annotationImports.putAll(spec.annotationImports());
-        } catch (RuntimeException e) {
-          if (e.getCause() != null
-              && e.getCause() instanceof FileNotFoundException) {
-            System.err.println("File not found: " + arg);
-            System.exit(1);
-          } else {
-            throw e;
-          }
-        } catch (FileIOException e) {
-          // Add 1 to the line number since line numbers in text editors are usually one-based.
-          System.err.println("Error while parsing annotation file " + arg + " at line "
-              + (e.lineNumber + 1) + ":");
-          if (e.getMessage() != null) {
-            System.err.println('\t' + e.getMessage());
-          }
-          if (e.getCause() != null && e.getCause().getMessage() != null) {
-            System.err.println('\t' + e.getCause().getMessage());
-          }
-          if (print_error_stack) {
-            e.printStackTrace();
-          }
-          System.exit(1);
-        }
+        List<Insertion> parsedSpec = new ArrayList<Insertion>();
+        IndexFileSpecification spec =
+            readSpecification(arg, specs, parsedSpec, both);
+        statistics.count("insertions", parsedSpec.size());
+        insertions.addAll(parsedSpec);
+        annotationImports.putAll(spec.annotationImports());
       } else {
         throw new Error("Unrecognized file extension: " + arg);
       }
@@ -650,6 +462,7 @@ public class Main {
 
     for (String javafilename : javafiles) {
       verb.debug("Processing %s%n", javafilename);
+      statistics.beginFile(javafilename);
 
       File javafile = new File(javafilename);
       File unannotated = new File(javafilename + ".unannotated");
@@ -673,9 +486,8 @@ public class Main {
       Source src;
       // Get the source file, and use it to obtain parse trees.
       try {
-        // fileLineSep is set here so that exceptions can be caught
-        fileLineSep = UtilMDE.inferLineSeparator(javafilename);
-        src = new Source(javafilename);
+        src = new Source(javafilename, charset, fileManager);
+        fileLineSep = src.getLineSeparator();
         verb.debug("Parsed %s%n", javafilename);
       } catch (Source.CompilerException e) {
         e.printStackTrace();
@@ -694,37 +506,34 @@ public class Main {
         JCTree.JCCompilationUnit tree = (JCTree.JCCompilationUnit) cut;
         ExpressionTree pkgExp = cut.getPackageName();
         pkg = pkgExp == null ? "" : pkgExp.toString();
+        if (declaredClasses != null) {
+          Set<String> names = new LinkedHashSet<String>();
+          for (Tree decl : cut.getTypeDecls()) {
+            if (decl instanceof ClassTree) {
+              String name = ((ClassTree) decl).getSimpleName().toString();
+              names.add(pkg.isEmpty() ? name : pkg + "." + name);
+            }
+          }
+          declaredClasses.put(javafilename, names);
+        }
+
+        // Index the tree up front, so the cost of indexing is not hidden
+        // in the first lookup made while scanning.
+        statistics.begin(Stats.Phase.AST_INDEX);
+        try {
+          ASTIndex.indexOf(tree);
+        } finally {
+          statistics.end(Stats.Phase.AST_INDEX);
+        }
 
         // Create a finder, and use it to get positions.
         TreeFinder finder = new TreeFinder(tree);
-        SetMultimap<Pair<Integer, ASTPath>, Insertion> positions =
-            finder.getPositions(tree, insertions);
-
-        if (convert_jaifs) {
-          // program used only for JAIF conversion; execute following
-          // block and then skip remainder of loop
-          Multimap<ASTRecord, Insertion> astInsertions =
-              finder.getPaths();
-          for (Map.Entry<ASTRecord, Collection<Insertion>> entry :
-              astInsertions.asMap().entrySet()) {
-            ASTRecord rec = entry.getKey();
-            for (Insertion ins : entry.getValue()) {
-              if (ins.getCriteria().getASTPath() != null) { continue; }
-              String arg = insertionOrigins.get(ins);
-              AScene scene = scenes.get(arg);
-              Multimap<Insertion, Annotation> insertionSources =
-                  insertionIndex.get(arg);
-              // String text =
-              //  ins.getText(comments, abbreviate, false, 0, '\0');
-
-              // TODO: adjust for missing end of path (?)
-
-              if (insertionSources.containsKey(ins)) {
-                convertInsertion(pkg, tree, rec, ins, scene, insertionSources);
-              }
-            }
-          }
-          continue;
+        statistics.begin(Stats.Phase.TREE_SCAN);
+        SetMultimap<Pair<Integer, ASTPath>, Insertion> positions;
+        try {
+          positions = finder.getPositions(tree, insertions);
+        } finally {
+          statistics.end(Stats.Phase.TREE_SCAN);
         }
 
         // Apply the positions to the source file.
@@ -751,155 +560,149 @@ public class Main {
                 }
               });
         positionKeysSorted.addAll(positionKeysUnsorted);
-        for (Pair<Integer, ASTPath> pair : positionKeysSorted) {
-          boolean receiverInserted = false;
-          boolean newInserted = false;
-          boolean constructorInserted = false;
-          Set<String> seen = new TreeSet<String>();
-          List<Insertion> toInsertList = new ArrayList<Insertion>(positions.get(pair));
-          Collections.reverse(toInsertList);
-          dbug.debug("insertion pos: %d%n", pair.a);
-          assert pair.a >= 0
-            : "pos is negative: " + pair.a + " " + toInsertList.get(0) + " " + javafilename;
-          for (Insertion iToInsert : toInsertList) {
-            // Possibly add whitespace after the insertion
-            String trailingWhitespace = "";
-            boolean gotSeparateLine = false;
-            int pos = pair.a;  // reset each iteration in case of dyn adjustment
-            if (iToInsert.getSeparateLine()) {
-              // System.out.printf("getSeparateLine=true for insertion at pos %d: %s%n", pos, iToInsert);
-              int indentation = 0;
-              while ((pos - indentation != 0)
-                     // horizontal whitespace
-                     && (src.charAt(pos-indentation-1) == ' '
-                         || src.charAt(pos-indentation-1) == '\t')) {
-                // System.out.printf("src.charAt(pos-indentation-1 == %d-%d-1)='%s'%n",
-                //                   pos, indentation, src.charAt(pos-indentation-1));
-                indentation++;
-              }
-              if ((pos - indentation == 0)
-                  // horizontal whitespace
-                  || (src.charAt(pos-indentation-1) == '\f'
-                      || src.charAt(pos-indentation-1) == '\n'
-                      || src.charAt(pos-indentation-1) == '\r')) {
-                trailingWhitespace = fileLineSep + src.substring(pos-indentation, pos);
-                gotSeparateLine = true;
+        statistics.begin(Stats.Phase.EDIT);
+        try {
+          for (Pair<Integer, ASTPath> pair : positionKeysSorted) {
+            boolean receiverInserted = false;
+            boolean newInserted = false;
+            boolean constructorInserted = false;
+            Set<String> seen = new TreeSet<String>();
+            List<Insertion> toInsertList = new ArrayList<Insertion>(positions.get(pair));
+            Collections.reverse(toInsertList);
+            dbug.debug("insertion pos: %d%n", pair.a);
+            assert pair.a >= 0
+              : "pos is negative: " + pair.a + " " + toInsertList.get(0) + " " + javafilename;
+            for (Insertion iToInsert : toInsertList) {
+              // Possibly add whitespace after the insertion
+              String trailingWhitespace = "";
+              boolean gotSeparateLine = false;
+              int pos = pair.a;  // reset each iteration in case of dyn adjustment
+              if (iToInsert.getSeparateLine()) {
+                // System.out.printf("getSeparateLine=true for insertion at pos %d: %s%n", pos, iToInsert);
+                int indentation = 0;
+                while ((pos - indentation != 0)
+                       // horizontal whitespace
+                       && (src.charAt(pos-indentation-1) == ' '
+                           || src.charAt(pos-indentation-1) == '\t')) {
+                  // System.out.printf("src.charAt(pos-indentation-1 == %d-%d-1)='%s'%n",
+                  //                   pos, indentation, src.charAt(pos-indentation-1));
+                  indentation++;
+                }
+                if ((pos - indentation == 0)
+                    // horizontal whitespace
+                    || (src.charAt(pos-indentation-1) == '\f'
+                        || src.charAt(pos-indentation-1) == '\n'
+                        || src.charAt(pos-indentation-1) == '\r')) {
+                  trailingWhitespace = fileLineSep + src.substring(pos-indentation, pos);
+                  gotSeparateLine = true;
+                }
               }
-            }
-
-            char precedingChar;
-            if (pos != 0) {
-              precedingChar = src.charAt(pos - 1);
-            } else {
-              precedingChar = '\0';
-            }
 
-            if (iToInsert.getKind() == Insertion.Kind.ANNOTATION) {
-              AnnotationInsertion ai = (AnnotationInsertion) iToInsert;
-              if (ai.isGenerateBound()) {  // avoid multiple ampersands
-                try {
-                  String s = src.substring(pos, pos+9);
-                  if ("Object & ".equals(s)) {
-                    ai.setGenerateBound(false);
-                    precedingChar = '.';  // suppress leading space
-                  }
-                } catch (StringIndexOutOfBoundsException e) {}
+              char precedingChar;
+              if (pos != 0) {
+                precedingChar = src.charAt(pos - 1);
+              } else {
+                precedingChar = '\0';
               }
-              if (ai.isGenerateExtends()) {  // avoid multiple "extends"
-                try {
-                  String s = src.substring(pos, pos+9);
-                  if (" extends ".equals(s)) {
-                    ai.setGenerateExtends(false);
-                    pos += 8;
-                  }
-                } catch (StringIndexOutOfBoundsException e) {}
+
+              if (iToInsert.getKind() == Insertion.Kind.ANNOTATION) {
+                AnnotationInsertion ai = (AnnotationInsertion) iToInsert;
+                if (ai.isGenerateBound()) {  // avoid multiple ampersands
+                  try {
+                    String s = src.substring(pos, pos+9);
+                    if ("Object & ".equals(s)) {
+                      ai.setGenerateBound(false);
+                      precedingChar = '.';  // suppress leading space
+                    }
+                  } catch (StringIndexOutOfBoundsException e) {}
+                }
+                if (ai.isGenerateExtends()) {  // avoid multiple "extends"
+                  try {
+                    String s = src.substring(pos, pos+9);
+                    if (" extends ".equals(s)) {
+                      ai.setGenerateExtends(false);
+                      pos += 8;
+                    }
+                  } catch (StringIndexOutOfBoundsException e) {}
+                }
+              } else if (iToInsert.getKind() == Insertion.Kind.CAST) {
+                  ((CastInsertion) iToInsert)
+                          .setOnArrayLiteral(src.charAt(pos) == '{');
+              } else if (iToInsert.getKind() == Insertion.Kind.RECEIVER) {
+                ReceiverInsertion ri = (ReceiverInsertion) iToInsert;
+                ri.setAnnotationsOnly(receiverInserted);
+                receiverInserted = true;
+              } else if (iToInsert.getKind() == Insertion.Kind.NEW) {
+                NewInsertion ni = (NewInsertion) iToInsert;
+                ni.setAnnotationsOnly(newInserted);
+                newInserted = true;
+              } else if (iToInsert.getKind() == Insertion.Kind.CONSTRUCTOR) {
+                ConstructorInsertion ci = (ConstructorInsertion) iToInsert;
+                if (constructorInserted) { ci.setAnnotationsOnly(true); }
+                constructorInserted = true;
               }
-            } else if (iToInsert.getKind() == Insertion.Kind.CAST) {
-                ((CastInsertion) iToInsert)
-                        .setOnArrayLiteral(src.charAt(pos) == '{');
-            } else if (iToInsert.getKind() == Insertion.Kind.RECEIVER) {
-              ReceiverInsertion ri = (ReceiverInsertion) iToInsert;
-              ri.setAnnotationsOnly(receiverInserted);
-              receiverInserted = true;
-            } else if (iToInsert.getKind() == Insertion.Kind.NEW) {
-              NewInsertion ni = (NewInsertion) iToInsert;
-              ni.setAnnotationsOnly(newInserted);
-              newInserted = true;
-            } else if (iToInsert.getKind() == Insertion.Kind.CONSTRUCTOR) {
-              ConstructorInsertion ci = (ConstructorInsertion) iToInsert;
-              if (constructorInserted) { ci.setAnnotationsOnly(true); }
-              constructorInserted = true;
-            }
 
-            String toInsert = iToInsert.getText(comments, abbreviate,
-                gotSeparateLine, pos, precedingChar) + trailingWhitespace;
-            if (seen.contains(toInsert)) { continue; }  // eliminate duplicates
-            seen.add(toInsert);
-
-            // If it's already there, don't re-insert.  This is a hack!
-            // Also, I think this is already checked when constructing the
-            // insertions.
-            int precedingTextPos = pos-toInsert.length()-1;
-            if (precedingTextPos >= 0) {
-              String precedingTextPlusChar
-                = src.getString().substring(precedingTextPos, pos);
-              if (toInsert.equals(
-                      precedingTextPlusChar.substring(0, toInsert.length()))
-                  || toInsert.equals(precedingTextPlusChar.substring(1))) {
-                dbug.debug(
-                    "Inserting '%s' at %d in code of length %d with preceding text '%s'%n",
-                    toInsert, pos, src.getString().length(),
-                    precedingTextPlusChar);
-                dbug.debug("Already present, skipping%n");
+              String toInsert = iToInsert.getText(comments, abbreviate,
+                  gotSeparateLine, pos, precedingChar) + trailingWhitespace;
+              if (seen.contains(toInsert)) {  // eliminate duplicates
+                statistics.count("duplicates");
                 continue;
               }
-            }
-
-            // TODO: Neither the above hack nor this check should be
-            // necessary.  Find out why re-insertions still occur and
-            // fix properly.
-            if (iToInsert.getInserted()) { continue; }
-            src.insert(pos, toInsert);
-            if (verbose && !debug) {
-              System.out.print(".");
-              num_insertions++;
-              if ((num_insertions % 50) == 0) {
-                System.out.println();   // terminate the line that contains dots
+              seen.add(toInsert);
+
+              // If it's already there, don't re-insert.  This is a hack!
+              // Also, I think this is already checked when constructing the
+              // insertions.
+              int precedingTextPos = pos-toInsert.length()-1;
+              if (precedingTextPos >= 0) {
+                String precedingTextPlusChar
+                  = src.getString().substring(precedingTextPos, pos);
+                if (toInsert.equals(
+                        precedingTextPlusChar.substring(0, toInsert.length()))
+                    || toInsert.equals(precedingTextPlusChar.substring(1))) {
+                  dbug.debug(
+                      "Inserting '%s' at %d in code of length %d with preceding text '%s'%n",
+                      toInsert, pos, src.getString().length(),
+                      precedingTextPlusChar);
+                  dbug.debug("Already present, skipping%n");
+                  statistics.count("skippedAlreadyInText");
+                  continue;
+                }
               }
-            }
-            dbug.debug("Post-insertion source: %n" + src.getString());
 
-            Set<String> packageNames = iToInsert.getPackageNames();
-            if (!packageNames.isEmpty()) {
-              dbug.debug("Need import %s%n  due to insertion %s%n",
-                  packageNames, toInsert);
-              imports.addAll(packageNames);
-            }
-            if (iToInsert instanceof AnnotationInsertion) {
-              AnnotationInsertion annoToInsert = (AnnotationInsertion) iToInsert;
-              Set<String> annoImports = annotationImports.get(annoToInsert.getAnnotationFullyQualifiedName());
-              if (annoImports != null) {
-                imports.addAll(annoImports);
+              // TODO: Neither the above hack nor this check should be
+              // necessary.  Find out why re-insertions still occur and
+              // fix properly.
+              if (iToInsert.getInserted()) { continue; }
+              src.insert(pos, toInsert);
+              statistics.count("inserted");
+              if (verbose && !debug) {
+                System.out.print(".");
+                num_insertions++;
+                if ((num_insertions % 50) == 0) {
+                  System.out.println();   // terminate the line that contains dots
+                }
               }
-            }
-          }
-        }
-      }
+              dbug.debug("Post-insertion source: %n" + src.getString());
 
-      if (convert_jaifs) {
-        for (Map.Entry<String, AScene> entry : scenes.entrySet()) {
-          String filename = entry.getKey();
-          AScene scene = entry.getValue();
-          try {
-            IndexFileWriter.write(scene, filename + ".converted");
-          } catch (DefException e) {
-            System.err.println(filename + ": " + " format error in conversion");
-            if (print_error_stack) {
-              e.printStackTrace();
+              Set<String> packageNames = iToInsert.getPackageNames();
+              if (!packageNames.isEmpty()) {
+                dbug.debug("Need import %s%n  due to insertion %s%n",
+                    packageNames, toInsert);
+                imports.addAll(packageNames);
+              }
+              if (iToInsert instanceof AnnotationInsertion) {
+                AnnotationInsertion annoToInsert = (AnnotationInsertion) iToInsert;
+                Set<String> annoImports = annotationImports.get(annoToInsert.getAnnotationFullyQualifiedName());
+                if (annoImports != null) {
+                  imports.addAll(annoImports);
+                }
+              }
             }
           }
+        } finally {
+          statistics.end(Stats.Phase.EDIT);
         }
-        return;  // done with conversion
       }
 
       if (dbug.isEnabled()) {
@@ -941,12 +744,14 @@ public class Main {
             inSource.add(toInsert);
             src.insert(importIndex, toInsert);
             importIndex += toInsert.length();
+            statistics.count("importsInserted");
           }
         }
       }
 
       // Write the source file.
       File outfile = null;
+      statistics.begin(Stats.Phase.WRITE);
       try {
         if (in_place) {
           outfile = javafile;
@@ -980,7 +785,116 @@ public class Main {
       } catch (IOException e) {
         System.err.println("Problem while writing file " + outfile);
         e.printStackTrace();
-        System.exit(1);
+        throw new AnnotatorException("Problem while writing file " + outfile);
+      } finally {
+        statistics.end(Stats.Phase.WRITE);
+      }
+      statistics.endFile();
+    }
+
+    writeStatistics();
+  }
+
+  /**
+   * Reads the given annotation file, reporting any problem on standard
+   * error.
+   *
+   * @param arg the annotation file
+   * @param specs the annotation files read by earlier runs, or null to
+   *     read the file
+   * @param insertions receives the insertions specified by the file,
+   *     ordered by AST path, except those omitted by --omit-annotation
+   * @param debug where to report the number of insertions
+   * @return the specification read from the file
+   * @throws AnnotatorException if the file cannot be read
+   */
+  static IndexFileSpecification readSpecification(String arg,
+      SpecificationCache specs, List<Insertion> insertions, DebugWriter debug)
+      throws AnnotatorException {
+    try {
+      IndexFileSpecification spec = specs == null
+          ? new IndexFileSpecification(arg) : specs.get(arg);
+      List<Insertion> parsedSpec = spec.parse();
+      Collections.sort(parsedSpec, new Comparator<Insertion>() {
+        @Override
+        public int compare(Insertion i1, Insertion i2) {
+          ASTPath p1 = i1.getCriteria().getASTPath();
+          ASTPath p2 = i2.getCriteria().getASTPath();
+          return p1 == null
+              ? p2 == null ? 0 : -1
+              : p2 == null ? 1 : p1.compareTo(p2);
+        }
+      });
+      debug.debug("Read %d annotations from %s%n", parsedSpec.size(), arg);
+      if (omit_annotation != null) {
+        List<Insertion> filtered =
+            new ArrayList<Insertion>(parsedSpec.size());
+        for (Insertion insertion : parsedSpec) {
+          // TODO: this won't omit annotations if the insertion is more than
+          // just the annotation (such as if the insertion is a cast
+          // insertion or a 'this' parameter in a method declaration).
+          if (! omit_annotation.equals(insertion.getText())) {
+            filtered.add(insertion);
+          }
+        }
+        parsedSpec = filtered;
+        debug.debug("After filtering: %d annotations from %s%n",
+            parsedSpec.size(), arg);
+      }
+      insertions.addAll(parsedSpec);
+      return spec;
+    } catch (RuntimeException e) {
+      if (e.getCause() != null
+          && e.getCause() instanceof FileNotFoundException) {
+        System.err.println("File not found: " + arg);
+        throw new AnnotatorException("File not found: " + arg);
+      } else {
+        throw e;
+      }
+    } catch (FileIOException e) {
+      // Add 1 to the line number since line numbers in text editors are usually one-based.
+      System.err.println("Error while parsing annotation file " + arg + " at line "
+          + (e.lineNumber + 1) + ":");
+      if (e.getMessage() != null) {
+        System.err.println('\t' + e.getMessage());
+      }
+      if (e.getCause() != null && e.getCause().getMessage() != null) {
+        System.err.println('\t' + e.getCause().getMessage());
+      }
+      if (print_error_stack) {
+        e.printStackTrace();
+      }
+      throw new AnnotatorException(
+          "Error while parsing annotation file " + arg);
+    }
+  }
+
+  /**
+   * Returns true if the given Java file is in the shard given by the
+   * --shard option.  A file that cannot be read is in every shard, so
+   * that exactly one error is reported for it.
+   */
+  static boolean inSelectedShard(String javafilename, Charset charset) {
+    String pkg;
+    try {
+      pkg = Shard.packageOf(new String(
+          Files.readAllBytes(Paths.get(javafilename)), charset));
+    } catch (IOException e) {
+      return selectedShard.index == 0;
+    }
+    return selectedShard.containsPackage(pkg);
+  }
+
+  /** Writes the file requested by the --stats option, if any. */
+  static void writeStatistics() {
+    if (stats != null) {
+      try {
+        statistics.write(stats);
+      } catch (IOException e) {
+        System.err.println("Problem while writing statistics to " + stats);
+        if (print_error_stack) {
+          e.printStackTrace();
+        }
       }
     }
   }
@@ -0,0 +1,151 @@
+package annotator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.tools.StandardJavaFileManager;
+
+import annotator.specification.SpecificationCache;
+
+/**
+ * Runs the annotator as a long-lived process that accepts requests on a
+ * loopback port (see the <tt>--server-port</tt> option of {@link Main}),
+ * so that repeated runs pay neither for starting the JVM and loading the
+ * compiler nor for re-reading annotation files that have not changed.
+ * <p>
+ *
+ * A request is the list of arguments for one run, as they would be given
+ * on the command line after the options:  annotation files and Java files,
+ * one per line, terminated by an empty line or by the end of input.
+ * Relative file names are resolved against the server's working directory.
+ * The server answers each request with a single line:  <tt>OK</tt>, or
+ * <tt>ERROR</tt> followed by a description of the problem.  The options
+ * given when the server was started apply to every request.  A client can
+ * be as simple as
+ * <pre>  printf '%s\n' Foo.jaif Foo.java '' | nc localhost 7777</pre>
+ * <p>
+ *
+ * Connections are accepted and read concurrently, but runs are executed
+ * one at a time, because the annotator keeps its options and much of its
+ * working state in static fields:  the options of {@link Main}, its
+ * statistics, the names that {@link annotator.find.Insertion} always
+ * qualifies and the annotations it has rendered with them, and the offsets
+ * recorded by the scanners.  Annotation files are kept in a
+ * {@link SpecificationCache} between runs, and every run parses its Java
+ * files with the same compiler file manager, which it closes at the end so
+ * that a class path rebuilt between requests is read anew.
+ */
+public class Server {
+
+  /** The socket on which requests are accepted. */
+  private final ServerSocket socket;
+
+  /** The character encoding of the Java files. */
+  private final Charset charset;
+
+  /** The annotation files read so far. */
+  private final SpecificationCache specs = new SpecificationCache();
+
+  /** Reads requests and writes replies. */
+  private final ExecutorService connections = Executors.newCachedThreadPool();
+
+  /** Held while a request is being executed. */
+  private final Object runLock = new Object();
+
+  /**
+   * The file manager with which requests parse Java files, created by the
+   * first request.  Guarded by {@link #runLock}.
+   */
+  private StandardJavaFileManager fileManager;
+
+  /**
+   * Creates a server listening on the given loopback port.
+   *
+   * @param port the port, or 0 for any free port
+   * @param charset the character encoding of the Java files
+   */
+  public Server(int port, Charset charset) throws IOException {
+    this.socket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+    this.charset = charset;
+  }
+
+  /** Returns the port on which this server accepts requests. */
+  public int getPort() {
+    return socket.getLocalPort();
+  }
+
+  /** Accepts and serves requests until the process is terminated. */
+  public void serve() throws IOException {
+    // Clients that asked for any free port need to know which one it is.
+    System.out.printf("Listening on port %d%n", getPort());
+    System.out.flush();
+    while (true) {
+      final Socket client = socket.accept();
+      connections.execute(new Runnable() {
+        @Override
+        public void run() {
+          serve(client);
+        }
+      });
+    }
+  }
+
+  /** Reads one request from the given connection and answers it. */
+  private void serve(Socket client) {
+    try (Socket s = client;
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+            s.getInputStream(), StandardCharsets.UTF_8));
+        Writer out = new OutputStreamWriter(s.getOutputStream(),
+            StandardCharsets.UTF_8)) {
+      List<String> args = new ArrayList<String>();
+      String line;
+      while ((line = in.readLine()) != null && !line.isEmpty()) {
+        args.add(line);
+      }
+      out.write(run(args.toArray(new String[args.size()])));
+      out.write('\n');
+      out.flush();
+    } catch (IOException e) {
+      System.err.println("Problem while serving request: " + e);
+      if (Main.print_error_stack) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /** Executes one request and returns the reply. */
+  private String run(String[] args) {
+    synchronized (runLock) {
+      Main.statistics.reset();
+      try {
+        if (fileManager == null) {
+          fileManager = Source.newFileManager(charset);
+        }
+        Main.annotate(args, charset, specs, null, fileManager);
+        return "OK";
+      } catch (Main.AnnotatorException | Source.CompilerException e) {
+        return "ERROR " + e.getMessage();
+      } catch (IOException | RuntimeException | Error e) {
+        System.err.println("Problem while processing request: " + e);
+        if (Main.print_error_stack) {
+          e.printStackTrace();
+        }
+        return "ERROR " + Main.firstLine(e.toString());
+      } finally {
+        System.out.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package annotator;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One of several parts into which the Java files and their annotations are
+ * partitioned, so that they can be processed by separate processes (see
+ * the <tt>--shard</tt> and <tt>--processes</tt> options of {@link Main}).
+ * <p>
+ *
+ * The partitioning is by package, using {@link String#hashCode}, whose
+ * value is fixed by the Java specification.  Every process therefore
+ * assigns a package to the same shard, and all the classes of a package,
+ * with their annotations, are in the same shard.
+ */
+public final class Shard {
+
+  /** The package declaration of a Java file, after comments are removed. */
+  private static final Pattern PACKAGE =
+      Pattern.compile("\\bpackage\\s+([\\w\\s.]+?)\\s*;");
+
+  /**
+   * Comments, and literals that might contain comment delimiters.  The
+   * literals are matched a run of plain characters at a time, possessively,
+   * since repeating a group once per character overflows the stack on a
+   * long literal.
+   */
+  private static final Pattern COMMENT = Pattern.compile(
+      "//[^\\n\\r]*+|/\\*.*?\\*/"
+      + "|\"[^\"\\\\]*+(?:\\\\.[^\"\\\\]*+)*+\""
+      + "|'[^'\\\\]*+(?:\\\\.[^'\\\\]*+)*+'",
+      Pattern.DOTALL);
+
+  /** The number of this shard, from 0 to {@code count - 1}. */
+  public final int index;
+
+  /** The number of shards. */
+  public final int count;
+
+  public Shard(int index, int count) {
+    if (count < 1 || index < 0 || index >= count) {
+      throw new IllegalArgumentException(
+          "Bad shard " + index + "/" + count);
+    }
+    this.index = index;
+    this.count = count;
+  }
+
+  /**
+   * Parses a shard written <tt>i/N</tt>.
+   *
+   * @throws IllegalArgumentException if {@code s} is not a valid shard
+   */
+  public static Shard parse(String s) {
+    int slash = s.indexOf('/');
+    if (slash < 0) {
+      throw new IllegalArgumentException("Bad shard " + s + ", expected i/N");
+    }
+    try {
+      return new Shard(Integer.parseInt(s.substring(0, slash).trim()),
+          Integer.parseInt(s.substring(slash + 1).trim()));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Bad shard " + s + ", expected i/N");
+    }
+  }
+
+  /** Returns true if the given package is in this shard. */
+  public boolean containsPackage(String packageName) {
+    return (packageName.hashCode() & Integer.MAX_VALUE) % count == index;
+  }
+
+  /**
+   * Returns true if the given class, or package-info pseudo-class, is in
+   * this shard.
+   *
+   * @param className the fully-qualified binary name of the class
+   */
+  public boolean containsClass(String className) {
+    int ix = className.lastIndexOf('.');
+    return containsPackage(ix < 0 ? "" : className.substring(0, ix));
+  }
+
+  /**
+   * Returns the name of the package declared by the given Java source,
+   * or the empty string if it declares none.  This is much cheaper than
+   * parsing the source, and is used to choose the files of a shard before
+   * any of them is parsed.
+   */
+  public static String packageOf(CharSequence source) {
+    StringBuffer code = new StringBuffer(source.length());
+    Matcher comments = COMMENT.matcher(source);
+    while (comments.find()) {
+      comments.appendReplacement(code,
+          comments.group().startsWith("/") ? " " : "\"\"");
+    }
+    comments.appendTail(code);
+    Matcher m = PACKAGE.matcher(code);
+    return m.find() ? m.group(1).replaceAll("\\s", "") : "";
+  }
+
+  @Override
+  public String toString() {
+    return index + "/" + count;
+  }
+}
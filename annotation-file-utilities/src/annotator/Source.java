@@ -1,6 +1,10 @@
 package annotator;
 
 import java.io.*;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
 
 import javax.tools.*;
@@ -19,12 +23,13 @@ import com.sun.tools.javac.code.Types;
  */
 public final class Source {
 
-    private JavaCompiler compiler;
     private StandardJavaFileManager fileManager;
     private JavacTask task;
     private StringBuilder source;
     private DiagnosticCollector<JavaFileObject> diagnostics;
     private String path;
+    private Charset charset;
+    private String lineSeparator;
     private Types types;
 
     /**
@@ -41,33 +46,124 @@ public final class Source {
     }
 
     /**
-     * Sets up a compiler for parsing the given Java source file.
-     *
-     * @throws CompilerException if the input file couldn't be read
+     * A source file whose contents have already been read into memory, so
+     * that the compiler does not read (and decode) the file a second time.
      */
-    public Source(String src) throws CompilerException, IOException {
+    private static class InMemoryJavaFileObject extends SimpleJavaFileObject {
+        private final String contents;
+
+        InMemoryJavaFileObject(URI uri, String contents) {
+            super(uri, Kind.SOURCE);
+            this.contents = contents;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return contents;
+        }
+    }
 
-        // Get the JSR-199 compiler.
-        this.compiler = javax.tools.ToolProvider.getSystemJavaCompiler();
+    /**
+     * Returns the JSR-199 compiler, which keeps no state between tasks.
+     *
+     * @throws CompilerException if there is no compiler
+     */
+    private static JavaCompiler compiler() throws CompilerException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
         if (compiler == null) {
             throw new CompilerException("could not get compiler instance");
         }
+        return compiler;
+    }
+
+    /**
+     * Returns a new file manager for parsing Java source files of the given
+     * character encoding, which can be passed to
+     * {@link #Source(String, Charset, StandardJavaFileManager)} for any
+     * number of files, one at a time.  Closing it releases the class path
+     * it has opened, and it can be used again afterward.
+     *
+     * @throws CompilerException if there is no compiler
+     */
+    public static StandardJavaFileManager newFileManager(Charset charset)
+            throws CompilerException {
+        StandardJavaFileManager fileManager =
+            compiler().getStandardFileManager(null, null, charset);
+        if (fileManager == null) {
+            throw new CompilerException("could not get file manager");
+        }
+        return fileManager;
+    }
 
+    /**
+     * Sets up a compiler for parsing the given Java source file, using the
+     * platform default character encoding.
+     *
+     * @throws CompilerException if the input file couldn't be read
+     */
+    public Source(String src) throws CompilerException, IOException {
+        this(src, Charset.defaultCharset());
+    }
+
+    /**
+     * Sets up a compiler for parsing the given Java source file.  The file
+     * is read exactly once; the compiler parses the in-memory copy.
+     *
+     * @param src the name of the Java source file
+     * @param charset the character encoding of the source file
+     * @throws CompilerException if the input file couldn't be read
+     */
+    public Source(String src, Charset charset)
+            throws CompilerException, IOException {
+        this(src, charset, null);
+    }
+
+    /**
+     * Sets up a compiler for parsing the given Java source file with the
+     * given file manager.  Sharing a file manager among the files of a run
+     * spares setting one up and opening the class path for every file.
+     *
+     * @param src the name of the Java source file
+     * @param charset the character encoding of the source file
+     * @param fileManager a file manager from {@link #newFileManager} for
+     *     the same encoding, which the caller closes, or null to use one
+     *     for this file only
+     * @throws CompilerException if the input file couldn't be read
+     */
+    public Source(String src, Charset charset,
+            StandardJavaFileManager fileManager)
+            throws CompilerException, IOException {
+        JavaCompiler compiler = compiler();
         diagnostics = new DiagnosticCollector<JavaFileObject>();
 
         // Get the file manager for locating input files.
-        this.fileManager = compiler.getStandardFileManager(diagnostics, null, null);
-        if (fileManager == null) {
-            throw new CompilerException("could not get file manager");
+        boolean ownFileManager = fileManager == null;
+        this.fileManager =
+            ownFileManager ? newFileManager(charset) : fileManager;
+
+        // Read the source file into a buffer.
+        path = src;
+        this.charset = charset;
+        Main.statistics.begin(Stats.Phase.SOURCE_READ);
+        String contents;
+        try {
+            contents = new String(Files.readAllBytes(Paths.get(src)), charset);
+        } finally {
+            Main.statistics.end(Stats.Phase.SOURCE_READ);
         }
+        source = new StringBuilder(contents);
+        lineSeparator = inferLineSeparator(contents);
 
-        Iterable<? extends JavaFileObject> fileObjs = fileManager
-            .getJavaFileObjectsFromStrings(Collections.singletonList(src));
+        // Hand the compiler the buffer rather than the file name.
+        Iterable<? extends JavaFileObject> fileObjs =
+            Collections.singletonList(
+                new InMemoryJavaFileObject(new File(src).toURI(), contents));
 
         // Compiler options.
         // -Xlint:-options is a hack to get around Jenkins build problem:
         // "target value 1.8 is obsolete and will be removed in a future release"
-        final String[] stringOpts = new String[] { "-g", "-Xlint:-options" };
+        final String[] stringOpts = new String[] { "-g", "-Xlint:-options",
+            "-encoding", charset.name() };
             // "-XDTA:noannotationsincomments"
           // TODO: figure out if these options are necessary? "-source", "1.6x"
         List<String> optsList = Arrays.asList(stringOpts);
@@ -75,26 +171,15 @@ public final class Source {
         // Create a task.
         // This seems to require that the file names end in .java
         CompilationTask cTask =
-            compiler.getTask(null, fileManager, diagnostics, optsList, null, fileObjs);
+            compiler.getTask(null, this.fileManager, diagnostics, optsList, null, fileObjs);
         if (!(cTask instanceof JavacTask)) {
             throw new CompilerException("could not get a valid JavacTask: " + cTask.getClass());
         }
         this.task = (JavacTask)cTask;
         this.types = Types.instance(((JavacTaskImpl)cTask).getContext());
-
-        // Read the source file into a buffer.
-        path = src;
-        source = new StringBuilder();
-        FileInputStream in = new FileInputStream(src);
-        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-        int c;
-        while ((c = in.read()) != -1) {
-            bytes.write(c);
+        if (ownFileManager) {
+            this.fileManager.close();
         }
-        in.close();
-        source.append(bytes.toString());
-        bytes.close();
-        fileManager.close();
     }
 
     /**
@@ -113,8 +198,13 @@ public final class Source {
         try {
             Set<CompilationUnitTree> compUnits = new HashSet<CompilationUnitTree>();
 
-            for (CompilationUnitTree tree : task.parse()) {
-                compUnits.add(tree);
+            Main.statistics.begin(Stats.Phase.JAVAC_PARSE);
+            try {
+                for (CompilationUnitTree tree : task.parse()) {
+                    compUnits.add(tree);
+                }
+            } finally {
+                Main.statistics.end(Stats.Phase.JAVAC_PARSE);
             }
 
             List<Diagnostic<? extends JavaFileObject>> errors = diagnostics.getDiagnostics();
@@ -132,6 +222,7 @@ public final class Source {
             }
 
             // Add type information to the AST.
+            Main.statistics.begin(Stats.Phase.JAVAC_ANALYZE);
             try {
               task.analyze();
             } catch (Throwable e) {
@@ -139,6 +230,8 @@ public final class Source {
                   + ": type analysis failed; skipping");
               System.err.println("(incomplete CLASSPATH?)");
               return Collections.<CompilationUnitTree>emptySet();
+            } finally {
+              Main.statistics.end(Stats.Phase.JAVAC_ANALYZE);
             }
 
             return compUnits;
@@ -180,13 +273,52 @@ public final class Source {
     }
 
     /**
-     * Writes the modified source file to the given stream.
+     * Returns the line separator of the source file as it was read: the one
+     * it uses most, or the platform's if the file has none or uses another
+     * as often.
+     */
+    public String getLineSeparator() {
+        return lineSeparator;
+    }
+
+    private static String inferLineSeparator(String contents) {
+        int unix = 0;
+        int dos = 0;
+        int mac = 0;
+        for (int i = 0; i < contents.length(); i++) {
+            char c = contents.charAt(i);
+            if (c == '\n') {
+                unix++;
+            } else if (c == '\r') {
+                if (i + 1 < contents.length() && contents.charAt(i + 1) == '\n') {
+                    dos++;
+                    i++;
+                } else {
+                    mac++;
+                }
+            }
+        }
+        String platform = System.lineSeparator();
+        if (dos > unix && dos > mac
+                || platform.equals("\r\n") && dos >= unix && dos >= mac) {
+            return "\r\n";
+        }
+        if (mac > unix && mac > dos
+                || platform.equals("\r") && mac >= unix && mac >= dos) {
+            return "\r";
+        }
+        return "\n";
+    }
+
+    /**
+     * Writes the modified source file to the given stream, in the
+     * character encoding from which it was read.
      *
      * @param out the stream for writing the file
      * @throws IOException if the source file couldn't be written
      */
     public void write(OutputStream out) throws IOException {
-        out.write(source.toString().getBytes());
+        out.write(source.toString().getBytes(charset));
         out.flush();
         out.close();
     }
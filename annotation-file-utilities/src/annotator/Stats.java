@@ -0,0 +1,510 @@
+package annotator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import annotator.find.Criterion;
+
+/**
+ * Collects per-phase timings and event counts for a run of the annotator,
+ * and writes them as JSON (see the <tt>--stats</tt> option of
+ * {@link Main}).
+ * <p>
+ *
+ * Phases nest: time spent in a phase that begins while another is
+ * active is charged to the inner phase only, so the phase totals add up
+ * to the time spent in all phases.  CPU time and allocated bytes are
+ * recorded when the JVM supports measuring them for the current thread.
+ * <p>
+ *
+ * A {@code Stats} object may be shared by several threads.  Phases nest
+ * separately in each thread, and the totals of a phase are summed over
+ * all threads, so that when threads run concurrently the phase times can
+ * add up to more than the time of the run.  The total CPU time is that of
+ * the thread that enabled the statistics, however.  Only one file at a
+ * time is timed, by {@link #beginFile(String)} and {@link #endFile()}.
+ * <p>
+ *
+ * When disabled (the default), every method returns immediately.
+ */
+public final class Stats {
+
+  /** The phases of a run that are timed separately. */
+  public static enum Phase {
+    JAIF_PARSE("jaif-parse"),
+    SPECIFICATION("specification"),
+    CLASS_LOADING("class-loading"),
+    SOURCE_READ("source-read"),
+    JAVAC_PARSE("javac-parse"),
+    JAVAC_ANALYZE("javac-analyze"),
+    AST_INDEX("ast-index"),
+    TREE_SCAN("tree-scan"),
+    CONVERT("convert"),
+    CRITERIA("criteria"),
+    EDIT("edit"),
+    WRITE("write");
+
+    private final String jsonName;
+
+    Phase(String jsonName) {
+      this.jsonName = jsonName;
+    }
+
+    @Override
+    public String toString() {
+      return jsonName;
+    }
+  }
+
+  /** Accumulated measurements for one phase. */
+  private static class Totals {
+    long calls;
+    long wallNanos;
+    long cpuNanos;
+    long allocatedBytes;
+  }
+
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private final boolean cpuTimeSupported =
+      threads.isCurrentThreadCpuTimeSupported();
+  private final com.sun.management.ThreadMXBean allocations =
+      threads instanceof com.sun.management.ThreadMXBean
+      && ((com.sun.management.ThreadMXBean) threads)
+          .isThreadAllocatedMemorySupported()
+      ? (com.sun.management.ThreadMXBean) threads : null;
+
+  /** The phases being timed in one thread, and the last mark there. */
+  private static class ThreadState {
+    final Deque<Phase> active = new ArrayDeque<Phase>();
+    long markWall;
+    long markCpu;
+    long markAlloc;
+  }
+
+  private volatile boolean enabled = false;
+
+  private final ThreadLocal<ThreadState> threadState =
+      new ThreadLocal<ThreadState>() {
+        @Override
+        protected ThreadState initialValue() {
+          ThreadState state = new ThreadState();
+          mark(state);
+          return state;
+        }
+      };
+
+  private final Map<Phase, Totals> phases =
+      new EnumMap<Phase, Totals>(Phase.class);
+  private final Map<String, Long> fileNanos = new LinkedHashMap<String, Long>();
+  private final Map<String, Long> counts = new LinkedHashMap<String, Long>();
+  private final Map<String, Long> rejections = new TreeMap<String, Long>();
+
+  private long startWall;
+  private long startCpu;
+  private long addedCpu;
+  private String currentFile;
+  private long currentFileStart;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Enables or disables collection.  Enabling starts the clock for the
+   * run as a whole.
+   */
+  public synchronized void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    if (enabled) {
+      ThreadState state = threadState.get();
+      mark(state);
+      startWall = state.markWall;
+      startCpu = state.markCpu;
+    }
+  }
+
+  /**
+   * Discards the statistics collected so far, and restarts the clock for
+   * the run as a whole, so that each run of a server or watcher that runs
+   * the annotator repeatedly is reported on its own.
+   */
+  public synchronized void reset() {
+    phases.clear();
+    fileNanos.clear();
+    counts.clear();
+    rejections.clear();
+    addedCpu = 0;
+    currentFile = null;
+    threadState.get().active.clear();
+    setEnabled(enabled);
+  }
+
+  /**
+   * Records the current time, and the CPU time and allocation counter of
+   * the current thread.
+   */
+  private void mark(ThreadState state) {
+    state.markWall = System.nanoTime();
+    state.markCpu = cpuTimeSupported ? threads.getCurrentThreadCpuTime() : 0;
+    state.markAlloc = allocations == null ? 0
+        : allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /** Charges the time since the thread's last mark to the given phase. */
+  private void charge(ThreadState state, Phase phase) {
+    long wall = state.markWall;
+    long cpu = state.markCpu;
+    long alloc = state.markAlloc;
+    mark(state);
+    if (phase != null) {
+      synchronized (this) {
+        Totals t = totals(phase);
+        t.wallNanos += state.markWall - wall;
+        t.cpuNanos += state.markCpu - cpu;
+        t.allocatedBytes += state.markAlloc - alloc;
+      }
+    }
+  }
+
+  private Totals totals(Phase phase) {
+    Totals t = phases.get(phase);
+    if (t == null) {
+      t = new Totals();
+      phases.put(phase, t);
+    }
+    return t;
+  }
+
+  /**
+   * Starts timing a phase.  Every call must be matched by a call to
+   * {@link #end(Phase)} for the same phase, typically in a
+   * {@code finally} block.
+   */
+  public void begin(Phase phase) {
+    if (!enabled) { return; }
+    ThreadState state = threadState.get();
+    charge(state, state.active.peek());
+    state.active.push(phase);
+  }
+
+  /** Stops timing a phase started by {@link #begin(Phase)}. */
+  public void end(Phase phase) {
+    if (!enabled) { return; }
+    ThreadState state = threadState.get();
+    assert state.active.peek() == phase
+        : "ending " + phase + " inside " + state.active.peek();
+    charge(state, phase);
+    state.active.pop();
+    synchronized (this) {
+      totals(phase).calls++;
+    }
+  }
+
+  /** Starts timing the processing of the named source file. */
+  public synchronized void beginFile(String filename) {
+    if (!enabled) { return; }
+    currentFile = filename;
+    currentFileStart = System.nanoTime();
+  }
+
+  /** Stops timing the source file named in {@link #beginFile(String)}. */
+  public synchronized void endFile() {
+    if (!enabled || currentFile == null) { return; }
+    Long prev = fileNanos.get(currentFile);
+    long elapsed = System.nanoTime() - currentFileStart;
+    fileNanos.put(currentFile, prev == null ? elapsed : prev + elapsed);
+    currentFile = null;
+  }
+
+  /** Adds {@code n} to the named counter. */
+  public synchronized void count(String counter, long n) {
+    if (!enabled) { return; }
+    Long prev = counts.get(counter);
+    counts.put(counter, prev == null ? n : prev + n);
+  }
+
+  /** Adds one to the named counter. */
+  public void count(String counter) {
+    count(counter, 1);
+  }
+
+  /**
+   * Records that a criterion of the given kind was the reason a
+   * candidate location was rejected.
+   */
+  public synchronized void reject(Criterion.Kind criterionKind) {
+    if (!enabled) { return; }
+    String key = criterionKind.name();
+    Long prev = rejections.get(key);
+    rejections.put(key, prev == null ? 1 : prev + 1);
+  }
+
+  /**
+   * Writes the statistics collected so far as a JSON object.
+   *
+   * @param filename the file to write
+   * @throws IOException if the file cannot be written
+   */
+  public synchronized void write(String filename) throws IOException {
+    long wall = System.nanoTime() - startWall;
+    long cpu = cpuTimeSupported
+        ? threads.getCurrentThreadCpuTime() - startCpu + addedCpu : 0;
+    PrintWriter out = new PrintWriter(filename, "UTF-8");
+    try {
+      out.println("{");
+      out.printf(Locale.ROOT, "  \"version\": %s,%n", quote(
+          scenelib.annotations.io.classfile.ClassFileReader.INDEX_UTILS_VERSION));
+      out.printf(Locale.ROOT, "  \"total\": {\"wallMillis\": %s, \"cpuMillis\": %s},%n",
+          millis(wall), cpuTimeSupported ? millis(cpu) : "null");
+
+      out.println("  \"phases\": {");
+      String sep = "";
+      for (Map.Entry<Phase, Totals> entry : phases.entrySet()) {
+        Totals t = entry.getValue();
+        out.print(sep);
+        out.printf(Locale.ROOT,
+            "    %s: {\"calls\": %d, \"wallMillis\": %s, \"cpuMillis\": %s, \"allocatedBytes\": %s}",
+            quote(entry.getKey().toString()), t.calls, millis(t.wallNanos),
+            cpuTimeSupported ? millis(t.cpuNanos) : "null",
+            allocations != null ? Long.toString(t.allocatedBytes) : "null");
+        sep = "," + System.lineSeparator();
+      }
+      out.println();
+      out.println("  },");
+
+      out.println("  \"files\": {");
+      sep = "";
+      for (Map.Entry<String, Long> entry : fileNanos.entrySet()) {
+        out.print(sep);
+        out.printf(Locale.ROOT, "    %s: {\"wallMillis\": %s}",
+            quote(entry.getKey()), millis(entry.getValue()));
+        sep = "," + System.lineSeparator();
+      }
+      out.println();
+      out.println("  },");
+
+      out.print("  \"counts\": ");
+      writeCounts(out, counts);
+      out.println(",");
+      out.print("  \"criterionRejections\": ");
+      writeCounts(out, rejections);
+      out.println();
+      out.println("}");
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Adds the statistics that {@link #write} wrote to the given file, in
+   * another process, to the statistics collected so far.  Phase totals,
+   * counters and CPU time are summed, and the times of the files are
+   * added to those of this run.  The wall-clock time of the run as a whole
+   * is not changed, since the other process ran while this one did.
+   *
+   * @param filename the file to read
+   * @throws IOException if the file cannot be read or is malformed
+   */
+  public synchronized void add(String filename) throws IOException {
+    if (!enabled) { return; }
+    Map<?, ?> json;
+    try {
+      json = (Map<?, ?>) new JsonReader(new String(
+          Files.readAllBytes(Paths.get(filename)), StandardCharsets.UTF_8))
+          .read();
+    } catch (RuntimeException e) {
+      throw new IOException("Malformed statistics in " + filename, e);
+    }
+
+    Object total = ((Map<?, ?>) json.get("total")).get("cpuMillis");
+    if (total != null) {
+      addedCpu += nanos(total);
+    }
+    for (Map.Entry<?, ?> entry : ((Map<?, ?>) json.get("phases")).entrySet()) {
+      for (Phase phase : Phase.values()) {
+        if (phase.toString().equals(entry.getKey())) {
+          Map<?, ?> m = (Map<?, ?>) entry.getValue();
+          Totals t = totals(phase);
+          t.calls += ((Number) m.get("calls")).longValue();
+          t.wallNanos += nanos(m.get("wallMillis"));
+          if (m.get("cpuMillis") != null) {
+            t.cpuNanos += nanos(m.get("cpuMillis"));
+          }
+          if (m.get("allocatedBytes") != null) {
+            t.allocatedBytes += ((Number) m.get("allocatedBytes")).longValue();
+          }
+        }
+      }
+    }
+    for (Map.Entry<?, ?> entry : ((Map<?, ?>) json.get("files")).entrySet()) {
+      String file = (String) entry.getKey();
+      long elapsed = nanos(((Map<?, ?>) entry.getValue()).get("wallMillis"));
+      Long prev = fileNanos.get(file);
+      fileNanos.put(file, prev == null ? elapsed : prev + elapsed);
+    }
+    addCounts(counts, (Map<?, ?>) json.get("counts"));
+    addCounts(rejections, (Map<?, ?>) json.get("criterionRejections"));
+  }
+
+  private static void addCounts(Map<String, Long> counts, Map<?, ?> added) {
+    for (Map.Entry<?, ?> entry : added.entrySet()) {
+      String key = (String) entry.getKey();
+      long n = ((Number) entry.getValue()).longValue();
+      Long prev = counts.get(key);
+      counts.put(key, prev == null ? n : prev + n);
+    }
+  }
+
+  private static long nanos(Object millis) {
+    return Math.round(((Number) millis).doubleValue() * 1e6);
+  }
+
+  /**
+   * Reads the JSON written by {@link #write}:  objects become maps,
+   * numbers become {@code Long}s or {@code Double}s, and {@code null}
+   * becomes null.  Arrays and booleans are not supported, since statistics
+   * contain none.
+   */
+  private static class JsonReader {
+    private final String text;
+    private int pos = 0;
+
+    JsonReader(String text) {
+      this.text = text;
+    }
+
+    Object read() {
+      skipSpace();
+      char c = text.charAt(pos);
+      if (c == '{') {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        pos++;
+        skipSpace();
+        if (text.charAt(pos) == '}') {
+          pos++;
+          return map;
+        }
+        while (true) {
+          skipSpace();
+          String key = readString();
+          skipSpace();
+          expect(':');
+          map.put(key, read());
+          skipSpace();
+          if (text.charAt(pos) == '}') {
+            pos++;
+            return map;
+          }
+          expect(',');
+        }
+      } else if (c == '"') {
+        return readString();
+      } else if (text.startsWith("null", pos)) {
+        pos += 4;
+        return null;
+      } else {
+        int start = pos;
+        while (pos < text.length()
+            && "+-.0123456789eE".indexOf(text.charAt(pos)) >= 0) {
+          pos++;
+        }
+        String number = text.substring(start, pos);
+        if (number.isEmpty()) {
+          throw new IllegalArgumentException("Unexpected '" + c + "' at " + start);
+        }
+        return number.matches("-?\\d+") ? (Object) Long.valueOf(number)
+            : (Object) Double.valueOf(number);
+      }
+    }
+
+    private String readString() {
+      expect('"');
+      StringBuilder sb = new StringBuilder();
+      while (true) {
+        char c = text.charAt(pos++);
+        if (c == '"') {
+          return sb.toString();
+        } else if (c != '\\') {
+          sb.append(c);
+        } else {
+          c = text.charAt(pos++);
+          switch (c) {
+          case 'n': sb.append('\n'); break;
+          case 'r': sb.append('\r'); break;
+          case 't': sb.append('\t'); break;
+          case 'u':
+            sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+            pos += 4;
+            break;
+          default: sb.append(c);
+          }
+        }
+      }
+    }
+
+    private void expect(char c) {
+      if (text.charAt(pos) != c) {
+        throw new IllegalArgumentException("Expected '" + c + "' at " + pos);
+      }
+      pos++;
+    }
+
+    private void skipSpace() {
+      while (Character.isWhitespace(text.charAt(pos))) {
+        pos++;
+      }
+    }
+  }
+
+  private static void writeCounts(PrintWriter out, Map<String, Long> map) {
+    out.print("{");
+    String sep = "";
+    for (Map.Entry<String, Long> entry : map.entrySet()) {
+      out.print(sep);
+      out.print(quote(entry.getKey()));
+      out.print(": ");
+      out.print(entry.getValue());
+      sep = ", ";
+    }
+    out.print("}");
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+  }
+
+  /** Returns the given string as a JSON string literal. */
+  static String quote(String s) {
+    StringBuilder sb = new StringBuilder(s.length() + 2);
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+      case '"': sb.append("\\\""); break;
+      case '\\': sb.append("\\\\"); break;
+      case '\n': sb.append("\\n"); break;
+      case '\r': sb.append("\\r"); break;
+      case '\t': sb.append("\\t"); break;
+      default:
+        if (c < 0x20) {
+          sb.append(String.format("\\u%04x", (int) c));
+        } else {
+          sb.append(c);
+        }
+      }
+    }
+    return sb.append('"').toString();
+  }
+}
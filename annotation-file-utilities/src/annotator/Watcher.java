@@ -0,0 +1,239 @@
+package annotator;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import plume.FileIOException;
+import scenelib.annotations.el.AClass;
+import scenelib.annotations.el.AScene;
+import annotator.specification.SpecificationCache;
+
+/**
+ * Annotates the given files, then keeps watching them and annotates again
+ * whenever some of them change (see the <tt>--watch</tt> option of
+ * {@link Main}).
+ * <p>
+ *
+ * When a Java file changes, only that file is annotated again.  When an
+ * annotation file changes, it is read again and compared with what was
+ * read before, class by class, and only the Java files that declare a
+ * class whose annotations differ are annotated again.  If anything other
+ * than the classes differs, such as the package annotations, every Java
+ * file is annotated again.  Annotation files that have not changed are not
+ * read again.
+ * <p>
+ *
+ * The directories containing the files are watched, rather than the files
+ * themselves, so that a file that is replaced, as many editors do when
+ * saving, is still noticed.  A file whose modification time is the same as
+ * after the last run is ignored, so that the annotator's own output does
+ * not trigger another run when it overwrites its input.
+ */
+public class Watcher {
+
+  /** How long to wait for further changes after one is noticed, in milliseconds. */
+  private static final long QUIET_PERIOD = 200;
+
+  /** The character encoding of the Java files. */
+  private final Charset charset;
+
+  /** The annotation files, as given on the command line. */
+  private final List<String> jaifFiles = new ArrayList<String>();
+
+  /** The Java files, as given on the command line. */
+  private final List<String> javaFiles = new ArrayList<String>();
+
+  /** The name of each file, by its absolute path. */
+  private final Map<Path, String> files = new LinkedHashMap<Path, String>();
+
+  /** The annotation files read so far. */
+  private final SpecificationCache specs = new SpecificationCache();
+
+  /** The scene read from each annotation file by the last run. */
+  private final Map<String, AScene> scenes = new HashMap<String, AScene>();
+
+  /** The top-level classes declared in each Java file, as of the last run. */
+  private final Map<String, Set<String>> declaredClasses =
+      new HashMap<String, Set<String>>();
+
+  /** The modification time of each file after the last run that used it. */
+  private final Map<String, Long> lastModified = new HashMap<String, Long>();
+
+  /**
+   * Creates a watcher for the given files.
+   *
+   * @param file_args the annotation files and Java files
+   * @param charset the character encoding of the Java files
+   */
+  public Watcher(String[] file_args, Charset charset) {
+    this.charset = charset;
+    for (String arg : file_args) {
+      if (arg.endsWith(".java")) {
+        javaFiles.add(arg);
+      } else {
+        jaifFiles.add(arg);
+      }
+      files.put(Paths.get(arg).toAbsolutePath().normalize(), arg);
+    }
+  }
+
+  /**
+   * Annotates all the Java files, then annotates them again as they or the
+   * annotation files change, until the thread is interrupted.
+   */
+  public void watch() throws IOException {
+    try (WatchService service = FileSystems.getDefault().newWatchService()) {
+      Set<Path> dirs = new HashSet<Path>();
+      for (Path file : files.keySet()) {
+        Path dir = file.getParent();
+        if (dirs.add(dir)) {
+          dir.register(service, ENTRY_CREATE, ENTRY_MODIFY);
+        }
+      }
+
+      annotate(javaFiles);
+      while (true) {
+        // Collect changes until there have been none for a while, so
+        // that a burst of changes causes a single run.
+        Set<String> changed = new LinkedHashSet<String>();
+        WatchKey key = service.take();
+        do {
+          Path dir = (Path) key.watchable();
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+              changed.addAll(files.values());
+              continue;
+            }
+            String file = files.get(dir.resolve((Path) event.context()));
+            if (file != null && isModified(file)) {
+              changed.add(file);
+            }
+          }
+          key.reset();
+          key = service.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS);
+        } while (key != null);
+
+        Set<String> toAnnotate = new LinkedHashSet<String>();
+        for (String file : changed) {
+          if (file.endsWith(".java")) {
+            toAnnotate.add(file);
+          } else {
+            toAnnotate.addAll(affectedBy(file));
+          }
+        }
+        annotate(toAnnotate);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Returns true if the file has changed since the last run that used it. */
+  private boolean isModified(String file) {
+    Long previous = lastModified.get(file);
+    return previous == null || previous != new File(file).lastModified();
+  }
+
+  /**
+   * Returns the Java files whose annotations may be affected by the
+   * changes to the given annotation file.
+   */
+  private Collection<String> affectedBy(String jaifFile) {
+    AScene previous = scenes.get(jaifFile);
+    AScene scene;
+    try {
+      scene = specs.get(jaifFile).getScene();
+    } catch (FileIOException | RuntimeException e) {
+      // The run will report the problem.
+      return javaFiles;
+    }
+    if (previous == null || !previous.packages.equals(scene.packages)
+        || !previous.imports.equals(scene.imports)) {
+      return javaFiles;
+    }
+
+    Set<String> names = new HashSet<String>(previous.classes.keySet());
+    names.addAll(scene.classes.keySet());
+    Set<String> changedClasses = new HashSet<String>();
+    for (String name : names) {
+      AClass before = previous.classes.get(name);
+      AClass after = scene.classes.get(name);
+      if (before == null || !before.equals(after)) {
+        // A nested class is declared in the file of its outermost class.
+        int ix = name.indexOf('$');
+        changedClasses.add(ix < 0 ? name : name.substring(0, ix));
+      }
+    }
+    if (changedClasses.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    List<String> affected = new ArrayList<String>();
+    for (String javaFile : javaFiles) {
+      Set<String> declared = declaredClasses.get(javaFile);
+      // A file that declares no classes, such as package-info.java, may
+      // hold the annotations of an element that looks like a class.
+      if (declared == null || declared.isEmpty()
+          || !Collections.disjoint(declared, changedClasses)) {
+        affected.add(javaFile);
+      }
+    }
+    return affected;
+  }
+
+  /** Annotates the given Java files with all the annotation files. */
+  private void annotate(Collection<String> toAnnotate) {
+    if (toAnnotate.isEmpty()) {
+      return;
+    }
+    List<String> args = new ArrayList<String>(jaifFiles);
+    args.addAll(toAnnotate);
+    Main.statistics.reset();
+    try {
+      Main.annotate(args.toArray(new String[args.size()]), charset, specs,
+          declaredClasses, null);
+      System.out.printf("Annotated %d of %d files%n",
+          toAnnotate.size(), javaFiles.size());
+    } catch (Main.AnnotatorException e) {
+      // Already reported; wait for the problem to be fixed.
+    } catch (IOException | RuntimeException | Error e) {
+      System.err.println("Problem while annotating: " + e);
+      if (Main.print_error_stack) {
+        e.printStackTrace();
+      }
+    }
+
+    for (String file : args) {
+      lastModified.put(file, new File(file).lastModified());
+    }
+    for (String jaifFile : jaifFiles) {
+      try {
+        scenes.put(jaifFile, specs.get(jaifFile).getScene());
+      } catch (FileIOException | RuntimeException e) {
+        scenes.remove(jaifFile);
+      }
+    }
+  }
+}
@@ -1,7 +1,5 @@
 package annotator.find;
 
-import plume.Pair;
-
 /**
  * Specifies an annotation to be inserted into a source file.
  */
@@ -86,18 +84,18 @@ public class AnnotationInsertion extends Insertion {
      * @return the text to insert
      */
     protected String getText(boolean comments, boolean abbreviate) {
-        String result = fullyQualifiedAnnotationText;
-        if (abbreviate) {
-            Pair<String, String> ps = removePackage(result);
-            String packageName = ps.a;
-            if (packageName != null) {
-                packageNames.add(packageName);
-                result = ps.b;
-            }
+        boolean plain = type == null && !generateBound && !generateExtends;
+        // Only a bare annotation can be commented as a whole; otherwise the
+        // comment must enclose the generated code too.
+        RenderedAnnotation r = renderAnnotation(fullyQualifiedAnnotationText,
+            comments && plain, abbreviate);
+        if (r.packageName != null) {
+            packageNames.add(r.packageName);
         }
-        if (!result.startsWith("@")) {
-            throw new Error("Illegal insertion, must start with @: " + result);
+        if (plain) {
+            return r.text;
         }
+        String result = r.text;
 
         // We insert a "new " when annotating a variable initializer that is a
         // bare array expression (e.g., as in "int[] a = {0, 1};")  Since the
@@ -56,18 +56,32 @@ public final class Criteria {
    * false otherwise
    */
   public boolean isSatisfiedBy(TreePath path, Tree leaf) {
+    return unsatisfiedBy(path, leaf) == null;
+  }
+
+  /**
+   * Returns the first of these criteria that the program element at the
+   * leaf of the specified path does not satisfy.
+   *
+   * @param path the tree path to check against
+   * @param leaf the tree at the leaf of the path; only relevant when the path
+   *        is null, in which case the leaf is a CompilationUnitTree
+   * @return the first criterion not satisfied by the given path, or null if
+   * all of these criteria are satisfied by it
+   */
+  public Criterion unsatisfiedBy(TreePath path, Tree leaf) {
     assert path == null || path.getLeaf() == leaf;
     for (Criterion c : criteria.values()) {
       if (! c.isSatisfiedBy(path, leaf)) {
         dbug.debug("UNsatisfied criterion:%n    %s%n    %s%n",
             c, Main.pathToString(path));
-        return false;
+        return c;
       } else {
         dbug.debug("satisfied criterion:%n    %s%n    %s%n",
             c, Main.pathToString(path));
       }
     }
-    return true;
+    return null;
   }
 
   /**
@@ -1,7 +1,6 @@
 package annotator.find;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import javax.lang.model.type.TypeKind;
 
@@ -47,7 +46,7 @@ public class GenericArrayLocationCriterion implements Criterion {
    *  <code>Integer @A []</code>
    */
   public GenericArrayLocationCriterion() {
-    this(new ArrayList<TypePathEntry>());
+    this(InnerTypeLocation.EMPTY_INNER_TYPE_LOCATION);
   }
 
   /**
@@ -57,11 +56,8 @@ public class GenericArrayLocationCriterion implements Criterion {
    * @param innerTypeLoc the location of the element being represented
    */
   public GenericArrayLocationCriterion(InnerTypeLocation innerTypeLoc) {
-    this(innerTypeLoc.location);
-  }
-
-  private GenericArrayLocationCriterion(List<TypePathEntry> location) {
-    this.location = location;
+    // already unmodifiable, and shared with innerTypeLoc
+    this.location = innerTypeLoc.location;
   }
 
   /** {@inheritDoc} */
@@ -507,6 +503,6 @@ public class GenericArrayLocationCriterion implements Criterion {
    * @return an unmodifiable list of {@link TypePathEntry}s
    */
   public List<TypePathEntry> getLocation() {
-    return Collections.unmodifiableList(location);
+    return location;
   }
 }
@@ -1,9 +1,12 @@
 package annotator.find;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import scenelib.annotations.io.ASTPath;
 
@@ -55,6 +58,37 @@ public abstract class Insertion {
      */
     protected static Set<String> alwaysQualify = new LinkedHashSet<String>();
 
+    /**
+     * Cache of annotation renderings, indexed by {@link #renderIndex}.
+     * Each map takes a fully-qualified annotation (as passed to
+     * {@link AnnotationInsertion#AnnotationInsertion(String)}) to its
+     * rendering.  The same annotation typically appears at a great many
+     * insertion sites, so this avoids recomputing the text.  The caches
+     * depend on {@link #alwaysQualify} and are cleared whenever it is set.
+     */
+    private static final List<ConcurrentMap<String, RenderedAnnotation>>
+        renderCache = Arrays.<ConcurrentMap<String, RenderedAnnotation>>asList(
+            new ConcurrentHashMap<String, RenderedAnnotation>(),
+            new ConcurrentHashMap<String, RenderedAnnotation>(),
+            new ConcurrentHashMap<String, RenderedAnnotation>(),
+            new ConcurrentHashMap<String, RenderedAnnotation>());
+
+    /**
+     * The text of an annotation as it will appear in source code, together
+     * with the package that must be imported when the text is abbreviated.
+     */
+    static final class RenderedAnnotation {
+        /** The (possibly abbreviated and commented) annotation text. */
+        final String text;
+        /** The package removed by abbreviation, or null if none. */
+        final String packageName;
+
+        RenderedAnnotation(String text, String packageName) {
+            this.text = text.intern();
+            this.packageName = packageName;
+        }
+    }
+
     /**
      * Creates a new insertion.
      *
@@ -200,6 +234,50 @@ public abstract class Insertion {
      */
     public static void setAlwaysQualify(Set<String> set) {
         alwaysQualify = set;
+        for (ConcurrentMap<String, RenderedAnnotation> cache : renderCache) {
+            cache.clear();
+        }
+    }
+
+    private static int renderIndex(boolean comments, boolean abbreviate) {
+        return (comments ? 2 : 0) + (abbreviate ? 1 : 0);
+    }
+
+    /**
+     * Renders a bare annotation (with no accompanying generated code),
+     * reusing a previous rendering of the same annotation if there is one.
+     *
+     * @param annotation the fully-qualified annotation; starts with "@"
+     * @param comments
+     *            if true, the annotation will be surrounded by block comments
+     * @param abbreviate
+     *            if true, the package name will be removed from the annotation
+     * @return the rendered annotation, whose text is interned
+     */
+    static RenderedAnnotation renderAnnotation(String annotation,
+            boolean comments, boolean abbreviate) {
+        ConcurrentMap<String, RenderedAnnotation> cache =
+            renderCache.get(renderIndex(comments, abbreviate));
+        RenderedAnnotation r = cache.get(annotation);
+        if (r == null) {
+            String text = annotation;
+            String packageName = null;
+            if (abbreviate) {
+                Pair<String, String> ps = removePackage(text);
+                packageName = ps.a;
+                if (packageName != null) {
+                    text = ps.b;
+                }
+            }
+            if (!text.startsWith("@")) {
+                throw new Error("Illegal insertion, must start with @: " + text);
+            }
+            r = new RenderedAnnotation(comments ? "/*" + text + "*/" : text,
+                packageName);
+            RenderedAnnotation prev = cache.putIfAbsent(annotation, r);
+            if (prev != null) { r = prev; }
+        }
+        return r;
     }
 
     /**
@@ -364,11 +442,12 @@ public abstract class Insertion {
     private void writeAnnotations(Type type, StringBuilder result,
             boolean comments, boolean abbreviate) {
         for (String annotation : type.getAnnotations()) {
-            AnnotationInsertion ins = new AnnotationInsertion(annotation);
-            result.append(ins.getText(comments, abbreviate));
+            RenderedAnnotation r =
+                renderAnnotation(annotation, comments, abbreviate);
+            result.append(r.text);
             result.append(" ");
-            if (abbreviate) {
-                packageNames.addAll(ins.getPackageNames());
+            if (r.packageName != null) {
+                packageNames.add(r.packageName);
             }
         }
     }
@@ -541,7 +541,7 @@ public class Insertions implements Iterable<Insertion> {
             criteria.add(loc == null || loc.isEmpty()
                 ? new GenericArrayLocationCriterion()
                 : new GenericArrayLocationCriterion(
-                    new InnerTypeLocation(loc)));
+                    InnerTypeLocation.of(loc)));
             inners.add(ins);
             tins = new NewInsertion(type, criteria, inners);
             tins.setInserted(true);
@@ -806,7 +806,7 @@ public class Insertions implements Iterable<Insertion> {
       } else {
         criteria.add(new ASTPathCriterion(ap0));
         criteria.add(new GenericArrayLocationCriterion(
-            new InnerTypeLocation(tpes)));
+            InnerTypeLocation.of(tpes)));
         tins.getInnerTypeInsertions().add(ins);
       }
     }
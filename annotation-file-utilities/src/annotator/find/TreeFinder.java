@@ -4,9 +4,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -71,6 +73,7 @@ import scenelib.annotations.io.ASTPath;
 import scenelib.annotations.io.ASTRecord;
 import scenelib.annotations.io.DebugWriter;
 import annotator.Main;
+import annotator.Stats;
 import annotator.scanner.CommonScanner;
 import annotator.specification.IndexFileSpecification;
 
@@ -902,6 +905,14 @@ loop:
   private final SetMultimap<Pair<Integer, ASTPath>, Insertion> insertions;
   private final SetMultimap<ASTRecord, Insertion> astInsertions;
 
+  /** Cache for {@link #existingAnnotations}, and the unit it describes. */
+  private Map<Tree, Set<String>> existingAnnotations;
+  private CompilationUnitTree existingAnnotationsUnit;
+
+  // Whether the last position search skipped its insertion because the
+  // annotation is already present, for the statistics.
+  private boolean skippedAlreadyPresent;
+
   /**
    * Creates a {@code TreeFinder} from a source tree.
    *
@@ -1018,7 +1029,23 @@ loop:
         it.remove();
         continue;
       }
-      if (!i.getCriteria().isSatisfiedBy(path, node)) {
+      boolean satisfied;
+      if (Main.statistics.isEnabled()) {
+        Main.statistics.begin(Stats.Phase.CRITERIA);
+        Criterion unsatisfied;
+        try {
+          unsatisfied = i.getCriteria().unsatisfiedBy(path, node);
+        } finally {
+          Main.statistics.end(Stats.Phase.CRITERIA);
+        }
+        if (unsatisfied != null) {
+          Main.statistics.reject(unsatisfied.getKind());
+        }
+        satisfied = unsatisfied == null;
+      } else {
+        satisfied = i.getCriteria().isSatisfiedBy(path, node);
+      }
+      if (!satisfied) {
         dbug.debug("  ... not satisfied%n");
         continue;
       } else {
@@ -1027,6 +1054,7 @@ loop:
         dbug.debug("    Type of node: %s%n", node.getClass());
 
         ASTPath astPath = i.getCriteria().getASTPath();
+        skippedAlreadyPresent = false;
         Integer pos = astPath == null ? findPosition(path, i)
             : Main.convert_jaifs ? null  // already in correct form
             : findPositionByASTPath(astPath, path, i);
@@ -1034,6 +1062,10 @@ loop:
           dbug.debug("  ... satisfied! at %d for node of type %s: %s%n",
               pos, node.getClass(), Main.treeToString(node));
           insertions.put(Pair.of(pos, astPath), i);
+          Main.statistics.count("matched");
+        } else {
+          Main.statistics.count(skippedAlreadyPresent
+              ? "skippedAlreadyPresent" : "matchedWithoutPosition");
         }
       }
       it.remove();
@@ -1063,6 +1095,7 @@ loop:
       if (alreadyPresent(path, i) && !(i instanceof TypedInsertion)) {
         // Don't insert a duplicate if this particular annotation is already
         // present at this location.
+        skippedAlreadyPresent = true;
         return null;
       }
 
@@ -1252,6 +1285,7 @@ loop:
       if (alreadyPresent(path, i)) {
         // Don't insert a duplicate if this particular annotation is already
         // present at this location.
+        skippedAlreadyPresent = true;
         return null;
       }
 
@@ -1519,72 +1553,60 @@ loop:
    *         location in the AST, {@code false} otherwise.
    */
   private boolean alreadyPresent(TreePath path, Insertion ins) {
-    List<? extends AnnotationTree> alreadyPresent = null;
+    Tree holder = null;
     if (path != null) {
       for (Tree n : path) {
         if (n.getKind() == Tree.Kind.CLASS) {
-          alreadyPresent = ((ClassTree) n).getModifiers().getAnnotations();
+          holder = ((ClassTree) n).getModifiers();
           break;
         } else if (n.getKind() == Tree.Kind.METHOD) {
-          alreadyPresent = ((MethodTree) n).getModifiers().getAnnotations();
+          holder = ((MethodTree) n).getModifiers();
           break;
         } else if (n.getKind() == Tree.Kind.VARIABLE) {
-          alreadyPresent = ((VariableTree) n).getModifiers().getAnnotations();
+          holder = ((VariableTree) n).getModifiers();
           break;
         } else if (n.getKind() == Tree.Kind.TYPE_CAST) {
-          Tree type = ((TypeCastTree) n).getType();
-          if (type.getKind() == Tree.Kind.ANNOTATED_TYPE) {
-            alreadyPresent = ((AnnotatedTypeTree) type).getAnnotations();
-          }
+          holder = ((TypeCastTree) n).getType();
           break;
         } else if (n.getKind() == Tree.Kind.INSTANCE_OF) {
-          Tree type = ((InstanceOfTree) n).getType();
-          if (type.getKind() == Tree.Kind.ANNOTATED_TYPE) {
-            alreadyPresent = ((AnnotatedTypeTree) type).getAnnotations();
-          }
+          holder = ((InstanceOfTree) n).getType();
           break;
         } else if (n.getKind() == Tree.Kind.NEW_CLASS) {
-          JCNewClass nc = (JCNewClass) n;
-          if (nc.clazz.getKind() == Tree.Kind.ANNOTATED_TYPE) {
-            alreadyPresent = ((AnnotatedTypeTree) nc.clazz).getAnnotations();
-          }
+          holder = ((JCNewClass) n).clazz;
           break;
         } else if (n.getKind() == Tree.Kind.PARAMETERIZED_TYPE) {
           // If we pass through a parameterized type, stop, otherwise we
           // mix up annotations on the outer type.
           break;
         } else if (n.getKind() == Tree.Kind.ARRAY_TYPE) {
-          Tree type = ((ArrayTypeTree) n).getType();
-          if (type.getKind() == Tree.Kind.ANNOTATED_TYPE) {
-            alreadyPresent = ((AnnotatedTypeTree) type).getAnnotations();
-          }
+          holder = ((ArrayTypeTree) n).getType();
           break;
         } else if (n.getKind() == Tree.Kind.ANNOTATED_TYPE) {
-          alreadyPresent = ((AnnotatedTypeTree) n).getAnnotations();
+          holder = n;
           break;
         }
         // TODO: don't add cast insertion if it's already present.
       }
     }
 
-    if (alreadyPresent != null) {
-      for (AnnotationTree at : alreadyPresent) {
+    if (holder != null) {
+      Set<String> present =
+          existingAnnotations(path.getCompilationUnit()).get(holder);
+      if (present != null) {
         // Compare the to-be-inserted annotation to the existing
-        // annotation, ignoring its arguments (duplicate annotations are
+        // annotations, ignoring its arguments (duplicate annotations are
         // never allowed even if they differ in arguments).  If we did
         // have to compare our arguments, we'd have to deal with enum
         // arguments potentially being fully qualified or not:
         // @Retention(java.lang.annotation.RetentionPolicy.CLASS) vs
         // @Retention(RetentionPolicy.CLASS)
-        String ann = at.getAnnotationType().toString();
         // strip off leading @ along w/any leading or trailing whitespace
         String text = ins.getText();
         String iann = Main.removeArgs(text).a.trim()
             .substring(text.startsWith("@") ? 1 : 0);
         String iannNoPackage = Insertion.removePackage(iann).b;
-        // System.out.printf("Comparing: %s %s %s%n", ann, iann, iannNoPackage);
-        if (ann.equals(iann) || ann.equals(iannNoPackage)) {
-          dbug.debug("Already present, not reinserting: %s%n", ann);
+        if (present.contains(iann) || present.contains(iannNoPackage)) {
+          dbug.debug("Already present, not reinserting: %s%n", iann);
           return true;
         }
       }
@@ -1592,6 +1614,47 @@ loop:
     return false;
   }
 
+  /**
+   * Returns the annotations already written in the given compilation
+   * unit, as a map from each modifiers or annotated-type node to the
+   * names of the annotations on it, spelled as in the source (simple or
+   * qualified).  The map is built on first use and kept for the lifetime
+   * of this {@code TreeFinder}, so that checking an insertion against the
+   * existing annotations is a set lookup rather than a rendering of every
+   * annotation on the node.
+   */
+  private Map<Tree, Set<String>> existingAnnotations(CompilationUnitTree cu) {
+    if (existingAnnotations == null || existingAnnotationsUnit != cu) {
+      final Map<Tree, Set<String>> index = new HashMap<>();
+      new TreeScanner<Void, Void>() {
+        private void add(Tree node, List<? extends AnnotationTree> anns) {
+          if (!anns.isEmpty()) {
+            Set<String> names = new HashSet<>();
+            for (AnnotationTree at : anns) {
+              names.add(at.getAnnotationType().toString());
+            }
+            index.put(node, names);
+          }
+        }
+
+        @Override
+        public Void visitModifiers(ModifiersTree node, Void p) {
+          add(node, node.getAnnotations());
+          return super.visitModifiers(node, p);
+        }
+
+        @Override
+        public Void visitAnnotatedType(AnnotatedTypeTree node, Void p) {
+          add(node, node.getAnnotations());
+          return super.visitAnnotatedType(node, p);
+        }
+      }.scan(cu, null);
+      existingAnnotations = index;
+      existingAnnotationsUnit = cu;
+    }
+    return existingAnnotations;
+  }
+
   /**
    * Reports an error inserting an insertion to {@code System.err}.
    * @param i the insertion that caused the error
@@ -1788,6 +1851,7 @@ loop:
   getInsertionsByPosition(JCCompilationUnit node, List<Insertion> p) {
     List<Insertion> uninserted = new ArrayList<Insertion>(p);
     this.scan(node, uninserted);
+    Main.statistics.count("unmatched", uninserted.size());
     // There may be many extra annotations in a .jaif file.  For instance,
     // the .jaif file may be for an entire library, but its compilation
     // units are processed one by one.
@@ -1,6 +1,7 @@
 package annotator.specification;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -34,6 +35,9 @@ import scenelib.annotations.field.AnnotationFieldType;
 import scenelib.annotations.io.ASTPath;
 import scenelib.annotations.io.IndexFileParser;
 import scenelib.annotations.util.coll.VivifyingMap;
+import annotator.Main;
+import annotator.Shard;
+import annotator.Stats;
 import annotator.find.AnnotationInsertion;
 import annotator.find.CastInsertion;
 import annotator.find.CloseParenthesisInsertion;
@@ -65,16 +69,79 @@ public class IndexFileSpecification implements Specification {
 
   private ConstructorInsertion cons = null;
 
+  // Unqualified annotation names that are ambiguous in the index file;
+  // null until the file has been read.
+  private Set<String> alwaysQualify = null;
+
   public IndexFileSpecification(String indexFileName) {
     this.indexFileName = indexFileName;
     scene = new AScene();
   }
 
+  /**
+   * Creates a specification for an index file that {@code parsed} has
+   * already read, sharing its scene rather than reading the file again.
+   * Parsing the new specification yields new insertions, which may be
+   * placed independently of those of {@code parsed}.
+   */
+  public IndexFileSpecification(IndexFileSpecification parsed) {
+    this.indexFileName = parsed.indexFileName;
+    this.scene = parsed.scene;
+    this.alwaysQualify = parsed.alwaysQualify;
+  }
+
   @Override
   public List<Insertion> parse() throws FileIOException {
+    if (alwaysQualify == null) {
+      readIndexFile();
+    }
+    Insertion.setAlwaysQualify(alwaysQualify);
+
+    if (debug) {
+      System.out.printf("Scene parsed from %s:%n", indexFileName);
+      System.out.println(scene.unparse());
+    }
+
+    Main.statistics.begin(Stats.Phase.SPECIFICATION);
+    try {
+      parseScene();
+    } catch (UncheckedIOException e) {
+      // a class of a lazily parsed index file is malformed
+      if (e.getCause() instanceof FileIOException) {
+        throw (FileIOException) e.getCause();
+      }
+      throw e;
+    } finally {
+      Main.statistics.end(Stats.Phase.SPECIFICATION);
+    }
+//    debug("---------------------------------------------------------");
+    return this.insertions;
+  }
+
+  /**
+   * Reads the index file into the scene, without creating any
+   * insertions.  Does nothing if the file has already been read.
+   */
+  void readIndexFile() throws FileIOException {
+    if (alwaysQualify != null) {
+      return;
+    }
     try {
-      Map<String, AnnotationDef> annotationDefs =
-          IndexFileParser.parseFile(indexFileName, scene);
+      Main.statistics.begin(Stats.Phase.JAIF_PARSE);
+      Map<String, AnnotationDef> annotationDefs;
+      try {
+        // With --shard, the classes outside the shard are never looked up,
+        // so they need not be parsed at all.
+        if (Main.selectedShard != null) {
+          annotationDefs =
+              IndexFileParser.parseFileLazily(indexFileName, scene);
+        } else {
+          annotationDefs = IndexFileParser.parseFile(indexFileName, scene,
+              Main.jaif_threads);
+        }
+      } finally {
+        Main.statistics.end(Stats.Phase.JAIF_PARSE);
+      }
       Set<String> defKeys = annotationDefs.keySet();
       Set<String> ambiguous = new LinkedHashSet<String>();
       // If a qualified name's unqualified counterpart maps to null in
@@ -88,21 +155,12 @@ public class IndexFileSpecification implements Specification {
           if (annotationDefs.get(name) == null) { ambiguous.add(name); }
         }
       }
-      Insertion.setAlwaysQualify(ambiguous);
+      alwaysQualify = ambiguous;
     } catch (FileIOException e) {
       throw e;
     } catch (Exception e) {
       throw new RuntimeException("Exception while parsing index file", e);
     }
-
-    if (debug) {
-      System.out.printf("Scene parsed from %s:%n", indexFileName);
-      System.out.println(scene.unparse());
-    }
-
-    parseScene();
-//    debug("---------------------------------------------------------");
-    return this.insertions;
   }
 
   public Map<String, Set<String>> annotationImports() {
@@ -140,15 +198,25 @@ public class IndexFileSpecification implements Specification {
     // Empty criterion to work from.
     CriterionList clist = new CriterionList();
 
+    // With --shard, only the annotations of the shard's packages matter.
+    Shard shard = Main.selectedShard;
+
     VivifyingMap<String, AElement> packages = scene.packages;
     for (Map.Entry<String, AElement> entry : packages.entrySet()) {
+      if (shard != null && !shard.containsPackage(entry.getKey())) {
+        continue;
+      }
       parsePackage(clist, entry.getKey(), entry.getValue());
     }
 
+    // Look up only the classes that are needed, since those of a lazily
+    // parsed scene are parsed when they are looked up.
     VivifyingMap<String, AClass> classes = scene.classes;
-    for (Map.Entry<String, AClass> entry : classes.entrySet()) {
-      String key = entry.getKey();
-      AClass clazz = entry.getValue();
+    for (String key : classes.keySet()) {
+      if (shard != null && !shard.containsClass(key)) {
+        continue;
+      }
+      AClass clazz = classes.get(key);
       if (key.endsWith(".package-info")) {
         // strip off suffix to get package name
         parsePackage(clist, key.substring(0, key.length()-13), clazz);
@@ -176,6 +244,7 @@ public class IndexFileSpecification implements Specification {
     if (! noAsm) {
       //  load extra info using asm
       debug("parseClass(" + className + ")");
+      Main.statistics.begin(Stats.Phase.CLASS_LOADING);
       try {
         ClassReader classReader = new ClassReader(className);
         MethodOffsetClassVisitor cv = new MethodOffsetClassVisitor(classReader);
@@ -196,6 +265,8 @@ public class IndexFileSpecification implements Specification {
       } catch (Error e) {
         System.err.println("IndexFileSpecification had a problem reading class: " + className);
         throw e;
+      } finally {
+        Main.statistics.end(Stats.Phase.CLASS_LOADING);
       }
     }
 
@@ -523,6 +594,9 @@ public class IndexFileSpecification implements Specification {
   private Pair<CastInsertion, CloseParenthesisInsertion> createCastInsertion(
       Type type, String annotationString, List<Insertion> innerTypeInsertions,
       Criteria criteria) {
+    // The type belongs to the scene, which must not change, so that the
+    // scene can be parsed again to give the same insertions.
+    type = type.copy();
     if (annotationString != null) {
       type.addAnnotation(annotationString);
     }
@@ -0,0 +1,103 @@
+package annotator.specification;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import plume.FileIOException;
+
+/**
+ * Keeps index files that have been read, so that a process that inserts
+ * annotations repeatedly (see {@link annotator.Server}) reads each index
+ * file only once.  An index file is read again only if it has changed:
+ * when its modification time or length differs from when it was read,
+ * its contents are compared by digest, so touching a file without
+ * changing it does not cause it to be read again.
+ * <p>
+ *
+ * The methods of this class are thread-safe.
+ */
+public class SpecificationCache {
+
+  /** An index file as it was when it was read. */
+  private static class Entry {
+    long lastModified;
+    final long length;
+    final byte[] digest;
+    final IndexFileSpecification spec;
+
+    Entry(long lastModified, long length, byte[] digest,
+        IndexFileSpecification spec) {
+      this.lastModified = lastModified;
+      this.length = length;
+      this.digest = digest;
+      this.spec = spec;
+    }
+  }
+
+  private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+  /**
+   * Returns a specification for the given index file, reading the file
+   * only if it was not read before or has changed since.  Each call
+   * returns a new specification, whose {@link IndexFileSpecification#parse}
+   * creates new insertions.
+   *
+   * @param indexFileName the index file
+   * @return a specification for the index file, not yet parsed
+   * @throws FileIOException if the index file cannot be parsed
+   */
+  public synchronized IndexFileSpecification get(String indexFileName)
+      throws FileIOException {
+    File file = new File(indexFileName);
+    String key = file.getAbsolutePath();
+    if (!file.isFile()) {
+      // Let the parser report the problem.
+      entries.remove(key);
+      return new IndexFileSpecification(indexFileName);
+    }
+
+    long lastModified = file.lastModified();
+    long length = file.length();
+    Entry entry = entries.get(key);
+    if (entry != null && entry.lastModified == lastModified
+        && entry.length == length) {
+      return new IndexFileSpecification(entry.spec);
+    }
+
+    byte[] digest = digest(file);
+    if (entry != null && entry.length == length
+        && Arrays.equals(entry.digest, digest)) {
+      entry.lastModified = lastModified;
+      return new IndexFileSpecification(entry.spec);
+    }
+
+    IndexFileSpecification spec = new IndexFileSpecification(indexFileName);
+    entries.remove(key);
+    spec.readIndexFile();
+    entries.put(key, new Entry(lastModified, length, digest, spec));
+    return new IndexFileSpecification(spec);
+  }
+
+  /** Forgets all index files read so far. */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  private static byte[] digest(File file) throws FileIOException {
+    try {
+      return MessageDigest.getInstance("SHA-1")
+          .digest(Files.readAllBytes(file.toPath()));
+    } catch (IOException e) {
+      throw new FileIOException("Cannot read " + file, e);
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-1.
+      throw new Error(e);
+    }
+  }
+}
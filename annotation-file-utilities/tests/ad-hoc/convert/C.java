@@ -0,0 +1,9 @@
+import java.util.List;
+
+public class C {
+  List<String> f;
+
+  Object m(Object o) {
+    return (String) o;
+  }
+}
@@ -0,0 +1,6 @@
+public class D {
+  int n(int[] a) {
+    int s = a.length;
+    return s;
+  }
+}
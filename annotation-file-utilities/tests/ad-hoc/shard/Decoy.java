@@ -0,0 +1,9 @@
+/* package shard.one; */
+// package shard.two;
+package b.c;
+
+public class Decoy {
+  String s = "package shard.one; /* // */";
+  char c = '"';
+  Object f;
+}
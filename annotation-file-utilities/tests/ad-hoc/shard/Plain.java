@@ -0,0 +1,5 @@
+package shard.one;
+
+public class Plain {
+  Object f;
+}
@@ -0,0 +1,4 @@
+public class C {
+  Object f;
+  Object g;
+}
@@ -10,6 +10,9 @@ import scenelib.annotations.field.AnnotationFieldType;
 import java.util.*;
 import java.lang.reflect.*;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 
 /**
  * A very simple annotation representation constructed with a map of field names
@@ -21,9 +24,22 @@ import java.lang.reflect.*;
  * {@link Annotation}s can be constructed directly or through
  * {@link AnnotationFactory#saf}. Either way works, but if you construct
  * one directly, you must provide a matching {@link AnnotationDef} yourself.
+ *
+ * <p>
+ * Equal annotations, such as the many occurrences of <code>@NonNull</code>
+ * in a scene, can share a single instance; see {@link #intern}.  The
+ * annotations built by an {@link AnnotationBuilder} are interned.
  */
 public final class Annotation {
 
+    /**
+     * The canonical instances of annotations.  Entries disappear when
+     * their annotation is no longer referenced, and the interner is safe
+     * for concurrent use.
+     */
+    private static final Interner<Annotation> interner =
+        Interners.newWeakInterner();
+
     /**
      * The annotation definition.
      */
@@ -34,6 +50,13 @@ public final class Annotation {
      */
     public final Map<String, Object> fieldValues;
 
+    /**
+     * The hash code, or 0 if it has not been computed yet.  It is cached
+     * because annotations are compared often, as members of the
+     * {@link scenelib.annotations.el.AElement#tlAnnotationsHere} sets.
+     */
+    private int hash;
+
     /** Check the representation, throw assertion failure if it is violated. */
     public void checkRep() {
         assert fieldValues != null;
@@ -99,11 +122,30 @@ public final class Annotation {
     public Annotation(AnnotationDef def,
             Map<String, ? extends Object> fields) {
         this.def = def;
-        this.fieldValues = Collections.unmodifiableMap(
-                new LinkedHashMap<String, Object>(fields));
+        this.fieldValues = unmodifiableCopy(fields);
         checkRep();
     }
 
+    /**
+     * Returns an unmodifiable copy of the given field values that takes
+     * little space when there are none or one, as is usual.
+     */
+    private static Map<String, Object> unmodifiableCopy(
+            Map<String, ? extends Object> fields) {
+        switch (fields.size()) {
+        case 0:
+            return Collections.emptyMap();
+        case 1:
+            Map.Entry<String, ? extends Object> entry =
+                fields.entrySet().iterator().next();
+            return Collections.singletonMap(entry.getKey(),
+                (Object) entry.getValue());
+        default:
+            return Collections.unmodifiableMap(
+                new LinkedHashMap<String, Object>(fields));
+        }
+    }
+
     /**
      * Use adefs to look up (or insert into it) missing AnnotationDefs.
      */
@@ -116,7 +158,7 @@ public final class Annotation {
             def = AnnotationDef.fromClass(jaType, adefs);
             adefs.put(name, def);
         }
-        fieldValues = new LinkedHashMap<String,Object>();
+        Map<String, Object> values = new LinkedHashMap<String,Object>();
         try {
             for (String fieldname : def.fieldTypes.keySet()) {
                 AnnotationFieldType aft = def.fieldTypes.get(fieldname);
@@ -143,7 +185,7 @@ public final class Annotation {
                 }
                 assert aft.isValidValue(val)
                     : String.format("invalid value \"%s\" for field \"%s\" of class \"%s\" and expected type \"%s\"; ja=%s", val, val.getClass(), fieldname, aft, ja);
-                fieldValues.put(fieldname, val);
+                values.put(fieldname, val);
             }
         } catch (NoSuchMethodException e) {
             throw new Error(String.format("no such method (annotation field) in %s%n  from: %s %s", jaType, ja, adefs), e);
@@ -152,9 +194,22 @@ public final class Annotation {
         } catch (IllegalAccessException e) {
             throw new Error(e);
         }
+        fieldValues = unmodifiableCopy(values);
         checkRep();
     }
 
+    /**
+     * Returns the canonical instance of the annotations equal to this one:
+     * this annotation, if no equal annotation has been interned yet.  The
+     * definition should be complete, as it usually is once annotations of
+     * its type are being created.
+     *
+     * @return the interned annotation equal to this one
+     */
+    public Annotation intern() {
+        return interner.intern(this);
+    }
+
     /**
      * Returns the value of the field whose name is given.
      *
@@ -215,7 +270,13 @@ public final class Annotation {
      * @return true if this equals {@code o}
      */
     public boolean equals(Annotation o) {
-        return def.equals(o.def())
+        if (this == o) {
+            return true;
+        }
+        if (hash != 0 && o.hash != 0 && hash != o.hash) {
+            return false;
+        }
+        return (def == o.def || def.equals(o.def()))
             && fieldValues.equals(o.fieldValues);
     }
 
@@ -226,7 +287,12 @@ public final class Annotation {
      */
     @Override
     public int hashCode() {
-        return def.hashCode() + fieldValues.hashCode();
+        int h = hash;
+        if (h == 0) {
+            h = def.hashCode() + fieldValues.hashCode();
+            hash = h;
+        }
+        return h;
     }
 
     /**
@@ -178,7 +178,7 @@ public class AnnotationBuilder {
     public void addEmptyArrayField(String fieldName) {
         checkAddField(fieldName);
         if (def == null) {
-            fieldTypes.put(fieldName, new ArrayAFT(null));
+            fieldTypes.put(fieldName, ArrayAFT.forElementType(null));
         }
         fieldValues.put(fieldName, Collections.emptyList());
     }
@@ -200,12 +200,13 @@ public class AnnotationBuilder {
         active = false;
         if (def == null) {
             assert fieldTypes != null;
-            def = new AnnotationDef(typeName, tlAnnotationsHere, fieldTypes);
+            def = new AnnotationDef(typeName, tlAnnotationsHere, fieldTypes)
+                .intern();
         } else {
             assert typeName == null;
             assert fieldTypes.isEmpty();
         }
-        return new Annotation(def, fieldValues);
+        return new Annotation(def, fieldValues).intern();
     }
 
     AnnotationBuilder(AnnotationDef def) {
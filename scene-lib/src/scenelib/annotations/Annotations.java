@@ -158,6 +158,16 @@ public abstract class Annotations {
         // Because annotations can be read from classfiles, it isn't really
         // necessary to add any more here.
 
+        // Equal annotations that are read later share these instances.
+        for (AnnotationDef ad : standardDefs) {
+            ad.intern();
+        }
+        for (Annotation a : new Annotation[] {aRetentionRuntime,
+                aRetentionClass, aRetentionSource, aDocumented,
+                aTargetTypeUse, aNonNull, aTypeQualifier}) {
+            a.intern();
+        }
+
     }
 
 
@@ -14,7 +14,7 @@ public class ABlock extends AExpression {
     // distinct ranges for the same index overlap).
     /** The method's annotated local variables; map key contains local variable location numbers */
     public final VivifyingMap<LocalLocation, AField> locals =
-            AField.<LocalLocation>newVivifyingLHMap_AF();
+            AField.<LocalLocation>newVivifyingLHMap_AF(this);
 
     ABlock(Object id) {
         super(id);
@@ -48,8 +48,8 @@ public class ABlock extends AExpression {
      * {@inheritDoc}
      */
     @Override
-    public int hashCode() {
-        return super.hashCode() + locals.hashCode();
+    int computeHashCode() {
+        return super.computeHashCode() + locals.hashCode();
     }
 
     /**
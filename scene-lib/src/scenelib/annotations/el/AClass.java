@@ -1,8 +1,10 @@
 package scenelib.annotations.el;
 
-import java.util.LinkedHashMap;
+import java.util.Map;
 
 import scenelib.annotations.Annotation;
+import scenelib.annotations.util.coll.IntKeyedMap;
+import scenelib.annotations.util.coll.Owner;
 import scenelib.annotations.util.coll.VivifyingMap;
 
 /*>>>
@@ -13,14 +15,13 @@ import org.checkerframework.checker.nullness.qual.*;
 public final class AClass extends ADeclaration {
     /** The class's annotated type parameter bounds */
     public final VivifyingMap<BoundLocation, ATypeElement> bounds =
-            ATypeElement.<BoundLocation>newVivifyingLHMap_ATE();
+            ATypeElement.<BoundLocation>newVivifyingLHMap_ATE(this);
 
     public final VivifyingMap<TypeIndexLocation, ATypeElement> extendsImplements =
-        ATypeElement.<TypeIndexLocation>newVivifyingLHMap_ATE();
+        ATypeElement.<TypeIndexLocation>newVivifyingLHMap_ATE(this);
 
-    private static VivifyingMap<String, AMethod> createMethodMap() {
-        return new VivifyingMap<String, AMethod>(
-                new LinkedHashMap<String, AMethod>()) {
+    private static VivifyingMap<String, AMethod> createMethodMap(Owner owner) {
+        return new VivifyingMap<String, AMethod>(owner) {
             @Override
             public  AMethod createValueFor(String k) {
                 return new AMethod(k);
@@ -33,9 +34,13 @@ public final class AClass extends ADeclaration {
         };
     }
 
-    private static VivifyingMap<Integer, ABlock> createInitBlockMap() {
-        return new VivifyingMap<Integer, ABlock>(
-                new LinkedHashMap<Integer, ABlock>()) {
+    private static VivifyingMap<Integer, ABlock> createInitBlockMap(Owner owner) {
+        return new VivifyingMap<Integer, ABlock>(owner) {
+            @Override
+            protected Map<Integer, ABlock> newBack() {
+                return new IntKeyedMap<ABlock>();
+            }
+
             @Override
             public  ABlock createValueFor(Integer k) {
                 return new ABlock(k);
@@ -48,9 +53,8 @@ public final class AClass extends ADeclaration {
         };
     }
 
-    private static VivifyingMap<String, AExpression> createFieldInitMap() {
-        return new VivifyingMap<String, AExpression>(
-                new LinkedHashMap<String, AExpression>()) {
+    private static VivifyingMap<String, AExpression> createFieldInitMap(Owner owner) {
+        return new VivifyingMap<String, AExpression>(owner) {
             @Override
             public  AExpression createValueFor(String k) {
                 return new AExpression(k);
@@ -73,20 +77,20 @@ public final class AClass extends ADeclaration {
      * of the {@link AMethod}s exist in the signature.
      */
     public final VivifyingMap<String, AMethod> methods =
-        createMethodMap();
+        createMethodMap(this);
 
     public final VivifyingMap<Integer, ABlock> staticInits =
-        createInitBlockMap();
+        createInitBlockMap(this);
 
     public final VivifyingMap<Integer, ABlock> instanceInits =
-        createInitBlockMap();
+        createInitBlockMap(this);
 
     /** The class's annotated fields; map key is field name */
     public final VivifyingMap<String, AField> fields =
-        AField.<String>newVivifyingLHMap_AF();
+        AField.<String>newVivifyingLHMap_AF(this);
 
     public final VivifyingMap<String, AExpression> fieldInits =
-        createFieldInitMap();
+        createFieldInitMap(this);
 
     private final String className;
 
@@ -122,7 +126,7 @@ public final class AClass extends ADeclaration {
      * {@inheritDoc}
      */
     @Override
-    public boolean equals(Object o) {
+    public boolean equals(AElement o) {
         return o instanceof AClass
             && ((AClass) o).equalsClass(this);
     }
@@ -133,6 +137,8 @@ public final class AClass extends ADeclaration {
             && bounds.equals(o.bounds)
             && methods.equals(o.methods)
             && fields.equals(o.fields)
+            && staticInits.equals(o.staticInits)
+            && instanceInits.equals(o.instanceInits)
             && extendsImplements.equals(o.extendsImplements);
     }
 
@@ -140,8 +146,8 @@ public final class AClass extends ADeclaration {
      * {@inheritDoc}
      */
     @Override
-    public int hashCode() {
-        return super.hashCode() + bounds.hashCode()
+    int computeHashCode() {
+        return super.computeHashCode() + bounds.hashCode()
             + methods.hashCode() + fields.hashCode()
             + staticInits.hashCode() + instanceInits.hashCode()
             + extendsImplements.hashCode();
@@ -19,8 +19,12 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 public abstract class ADeclaration extends AElement {
   /** The element's insert-annotation invocations; map key is the AST path to the insertion place */
   public final VivifyingMap<ASTPath, ATypeElement> insertAnnotations =
-          new VivifyingMap<ASTPath, ATypeElement>(
-                  new TreeMap<ASTPath, ATypeElement>()) {
+          new VivifyingMap<ASTPath, ATypeElement>(this) {
+      @Override
+      protected Map<ASTPath, ATypeElement> newBack() {
+          return new TreeMap<ASTPath, ATypeElement>();
+      }
+
       @Override
       public  ATypeElement createValueFor(ASTPath k) {
           return new ATypeElement(k);
@@ -34,8 +38,12 @@ public abstract class ADeclaration extends AElement {
 
   /** The element's annotated insert-typecast invocations; map key is the AST path to the insertion place */
   public final VivifyingMap<ASTPath, ATypeElementWithType> insertTypecasts =
-          new VivifyingMap<ASTPath, ATypeElementWithType>(
-                new TreeMap<ASTPath, ATypeElementWithType>()) {
+          new VivifyingMap<ASTPath, ATypeElementWithType>(this) {
+      @Override
+      protected Map<ASTPath, ATypeElementWithType> newBack() {
+          return new TreeMap<ASTPath, ATypeElementWithType>();
+      }
+
       @Override
       public ATypeElementWithType createValueFor(ASTPath k) {
           return new ATypeElementWithType(k);
@@ -64,12 +72,12 @@ public abstract class ADeclaration extends AElement {
   }
 
   @Override
-  public boolean equals(Object o) {
+  public boolean equals(AElement o) {
     return o instanceof ADeclaration
         && ((ADeclaration) o).equalsDeclaration(this);
   }
 
-  private boolean equalsDeclaration(ADeclaration o) {
+  final boolean equalsDeclaration(ADeclaration o) {
     return super.equals(o)
             && insertAnnotations.equals(o.insertAnnotations)
             && insertTypecasts.equals(o.insertTypecasts);
@@ -79,8 +87,8 @@ public abstract class ADeclaration extends AElement {
    * {@inheritDoc}
    */
   @Override
-  public int hashCode() {
-    return super.hashCode()
+  int computeHashCode() {
+    return super.computeHashCode()
         + (insertAnnotations == null ? 0 : insertAnnotations.hashCode())
         + (insertTypecasts == null ? 0 : insertTypecasts.hashCode());
   }
@@ -1,10 +1,11 @@
 package scenelib.annotations.el;
 
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.Set;
 
 import scenelib.annotations.Annotation;
+import scenelib.annotations.util.Modifications;
+import scenelib.annotations.util.coll.LazyLinkedHashSet;
+import scenelib.annotations.util.coll.Owner;
 import scenelib.annotations.util.coll.VivifyingMap;
 
 /*>>>
@@ -18,11 +19,17 @@ import org.checkerframework.checker.nullness.qual.Nullable;
  * usually belongs directly or indirectly to an {@link AScene}. Each subclass
  * of <code>AElement</code> represents one kind of annotatable element; its
  * name should make this clear.
+ * <p>
+ *
+ * An element owns its maps of subelements and its set of annotations (see
+ * {@link Owner}): a subelement's parent is the element or scene it was
+ * last added to, and a change to a subtree is passed up to each of its
+ * ancestors, which invalidates their cached hash codes.
  */
-public class AElement implements Cloneable {
-    static <K extends Object> VivifyingMap<K, AElement> newVivifyingLHMap_AE() {
-        return new VivifyingMap<K, AElement>(
-                new LinkedHashMap<K, AElement>()) {
+public class AElement implements Cloneable, Owner {
+    static <K extends Object> VivifyingMap<K, AElement>
+    newVivifyingLHMap_AE(Owner owner) {
+        return new VivifyingMap<K, AElement>(owner) {
             @Override
             public AElement createValueFor(K k) {
                 return new AElement(k);
@@ -37,9 +44,9 @@ public class AElement implements Cloneable {
 
     // Different from the above in that the elements are guaranteed to
     // contain a non-null "type" field.
-    static <K extends Object> VivifyingMap<K, AElement> newVivifyingLHMap_AET() {
-        return new VivifyingMap<K, AElement>(
-                new LinkedHashMap<K, AElement>()) {
+    static <K extends Object> VivifyingMap<K, AElement>
+    newVivifyingLHMap_AET(Owner owner) {
+        return new VivifyingMap<K, AElement>(owner) {
             @Override
             public AElement createValueFor(K k) {
                 return new AElement(k, true);
@@ -64,7 +71,8 @@ public class AElement implements Cloneable {
     /**
      * The top-level annotations directly on this element.  Annotations on
      * subelements are in those subelements' <code>tlAnnotationsHere</code>
-     * sets, not here.
+     * sets, not here.  Like the maps of subelements, the set is allocated
+     * when the first annotation is added.
      */
     public final Set<Annotation> tlAnnotationsHere;
 
@@ -83,6 +91,25 @@ public class AElement implements Cloneable {
     // general description of the element
     final Object description;
 
+    /**
+     * The cached hash code of the subtree rooted at this element in the
+     * low 32 bits, and the {@link Modifications#count} at which it was
+     * computed in the high 32 bits, or zero if the subtree has changed
+     * since.  The two are published together, so that a thread reading a
+     * cached hash code never pairs it with the count of another.
+     */
+    private volatile long digest;
+
+    /** The element or scene this element was last added to, or null. */
+    private /*@Nullable*/ Owner parent;
+
+    /**
+     * Whether this element has been added to a second parent without
+     * being removed from the first, so that not all of its ancestors
+     * are told of its changes.
+     */
+    private boolean shared;
+
     AElement(Object description) {
         this(description, false);
     }
@@ -93,9 +120,12 @@ public class AElement implements Cloneable {
     }
 
     AElement(Object description, ATypeElement type) {
-        tlAnnotationsHere = new LinkedHashSet<Annotation>();
+        tlAnnotationsHere = new LazyLinkedHashSet<Annotation>(this);
         this.description = description;
         this.type = type;
+        if (type != null) {
+            type.setParent(this);
+        }
     }
 
     AElement(AElement elem) {
@@ -140,8 +170,45 @@ public class AElement implements Cloneable {
     @Override
     // Was final.  Removed that so that AnnotationDef can redefine.
     public boolean equals(Object o) {
-        return o instanceof AElement
-            && ((AElement) o).equals(this);
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AElement)) {
+            return false;
+        }
+        AElement e = (AElement) o;
+        if (knownUnequal(e)) {
+            return false;
+        }
+        return e.equals(this);
+    }
+
+    /**
+     * Returns whether the subtrees rooted at this element and <code>o</code>
+     * are known to differ because the hash codes that both have cached
+     * differ.  A false result means only that the subtrees must be
+     * compared.
+     */
+    public boolean knownUnequal(AElement o) {
+        return knownUnequal(digest, o.digest);
+    }
+
+    /**
+     * Returns whether two digests (see {@link #digest}) are both valid and
+     * hold different hash codes.
+     */
+    static boolean knownUnequal(long d, long od) {
+        return isValid(d) && isValid(od) && (int) d != (int) od;
+    }
+
+    /** Returns whether the digest <code>d</code> is valid. */
+    static boolean isValid(long d) {
+        return (int) (d >>> 32) == Modifications.count();
+    }
+
+    /** Returns the digest of <code>hash</code>, computed just now. */
+    static long digest(int hash) {
+        return ((long) Modifications.count() << 32) | (hash & 0xffffffffL);
     }
 
     /**
@@ -165,13 +232,91 @@ public class AElement implements Cloneable {
 
     /**
      * {@inheritDoc}
+     * <p>
+     *
+     * The hash code of an element covers the whole subtree rooted at it,
+     * so it is cached until the subtree is next changed.
      */
     @Override
     public int hashCode() {
+        long d = digest;
+        if (!isValid(d)) {
+            d = digest(computeHashCode());
+            digest = d;
+        }
+        return (int) d;
+    }
+
+    /**
+     * Computes the hash code of the subtree rooted at this element.
+     * Subclasses that have subelements override this method, not
+     * {@link #hashCode}.  Since unequal hash codes are taken to mean
+     * unequal elements, the hash code must not depend on anything that
+     * {@link #equals(AElement)} ignores.
+     */
+    int computeHashCode() {
         return getClass().getName().hashCode() + tlAnnotationsHere.hashCode()
             + (type == null ? 0 : type.hashCode());
     }
 
+    /**
+     * Invalidates the cached hash codes of this element and of its
+     * ancestors.  Called by the collections of this element, and by its
+     * subelements.
+     */
+    @Override
+    public void modified() {
+        if (digest != 0) {
+            digest = 0;
+        }
+        if (shared) {
+            Modifications.record();
+        }
+        // Not every ancestor's hash code covers every subelement, so an
+        // invalid hash code does not mean that the parent's is invalid too.
+        Owner p = parent;
+        if (p != null) {
+            p.modified();
+        }
+    }
+
+    /**
+     * Makes this element the parent of <code>value</code>, if it is an
+     * element.  Called by the maps of this element.
+     */
+    @Override
+    public void added(Object value) {
+        if (value instanceof AElement) {
+            ((AElement) value).setParent(this);
+        }
+    }
+
+    /**
+     * Makes this element no longer the parent of <code>value</code>, if
+     * it is an element.  Called by the maps of this element.
+     */
+    @Override
+    public void removed(Object value) {
+        if (value instanceof AElement) {
+            ((AElement) value).removeParent(this);
+        }
+    }
+
+    /** Makes <code>owner</code> the parent of this element. */
+    final void setParent(Owner owner) {
+        if (parent != null && parent != owner) {
+            shared = true;
+        }
+        parent = owner;
+    }
+
+    /** Forgets <code>owner</code> if it is the parent of this element. */
+    final void removeParent(Owner owner) {
+        if (parent == owner) {
+            parent = null;
+        }
+    }
+
     /**
      * Removes empty subelements of this {@link AElement} depth-first; returns
      * whether this {@link AElement} is itself empty after pruning.
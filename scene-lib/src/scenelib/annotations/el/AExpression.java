@@ -1,6 +1,5 @@
 package scenelib.annotations.el;
 
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.SortedMap;
@@ -16,28 +15,27 @@ import scenelib.annotations.util.coll.VivifyingMap;
 public class AExpression extends AElement {
     /** The method's annotated typecasts; map key is the offset of the checkcast bytecode */
     public final VivifyingMap<RelativeLocation, ATypeElement> typecasts =
-            ATypeElement.<RelativeLocation>newVivifyingLHMap_ATE();
+            ATypeElement.<RelativeLocation>newVivifyingLHMap_ATE(this);
 
     /** The method's annotated "instanceof" tests; map key is the offset of the instanceof bytecode */
     public final VivifyingMap<RelativeLocation, ATypeElement> instanceofs =
-            ATypeElement.<RelativeLocation>newVivifyingLHMap_ATE();
+            ATypeElement.<RelativeLocation>newVivifyingLHMap_ATE(this);
 
     /** The method's annotated "new" invocations; map key is the offset of the new bytecode */
     public final VivifyingMap<RelativeLocation, ATypeElement> news =
-            ATypeElement.<RelativeLocation>newVivifyingLHMap_ATE();
+            ATypeElement.<RelativeLocation>newVivifyingLHMap_ATE(this);
 
     /** A method invocation's annotated type arguments; map key is the offset of the invokestatic bytecode */
     public final VivifyingMap<RelativeLocation, ATypeElement> calls =
-            ATypeElement.<RelativeLocation>newVivifyingLHMap_ATE();
+            ATypeElement.<RelativeLocation>newVivifyingLHMap_ATE(this);
 
     /** A member reference's annotated type parameters; map key is the offset of the invokestatic bytecode */
     public final VivifyingMap<RelativeLocation, ATypeElement> refs =
-            ATypeElement.<RelativeLocation>newVivifyingLHMap_ATE();
+            ATypeElement.<RelativeLocation>newVivifyingLHMap_ATE(this);
 
     /** The method's annotated lambda expressions; map key is the offset of the invokedynamic bytecode */
     public final VivifyingMap<RelativeLocation, AMethod> funs =
-            new VivifyingMap<RelativeLocation, AMethod>(
-                    new LinkedHashMap<RelativeLocation, AMethod>()) {
+            new VivifyingMap<RelativeLocation, AMethod>(this) {
         @Override
         public AMethod createValueFor(RelativeLocation k) {
             return new AMethod("" + k);  // FIXME: find generated method name
@@ -96,8 +94,8 @@ public class AExpression extends AElement {
      * {@inheritDoc}
      */
     @Override
-    public int hashCode() {
-        return super.hashCode() + typecasts.hashCode()
+    int computeHashCode() {
+        return super.computeHashCode() + typecasts.hashCode()
             + instanceofs.hashCode() + news.hashCode()
             + refs.hashCode() + calls.hashCode() + funs.hashCode();
     }
@@ -1,7 +1,9 @@
 package scenelib.annotations.el;
 
-import java.util.LinkedHashMap;
+import java.util.Map;
 
+import scenelib.annotations.util.coll.IntKeyedMap;
+import scenelib.annotations.util.coll.Owner;
 import scenelib.annotations.util.coll.VivifyingMap;
 
 /*>>>
@@ -10,9 +12,8 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class AField extends ADeclaration {
   static <K extends Object> VivifyingMap<K, AField>
-  newVivifyingLHMap_AF() {
-    return new VivifyingMap<K, AField>(
-        new LinkedHashMap<K, AField>()) {
+  newVivifyingLHMap_AF(Owner owner) {
+    return new VivifyingMap<K, AField>(owner) {
       @Override
       public AField createValueFor(K k) {
         return new AField("" + k);
@@ -25,6 +26,29 @@ public class AField extends ADeclaration {
     };
   }
 
+  /**
+   * Like {@link #newVivifyingLHMap_AF}, but for keys such as parameter
+   * indices, which it stores unboxed.
+   */
+  static VivifyingMap<Integer, AField> newVivifyingIntMap_AF(Owner owner) {
+    return new VivifyingMap<Integer, AField>(owner) {
+      @Override
+      protected Map<Integer, AField> newBack() {
+        return new IntKeyedMap<AField>();
+      }
+
+      @Override
+      public AField createValueFor(Integer k) {
+        return new AField("" + k);
+      }
+
+      @Override
+      public boolean subPrune(AField v) {
+        return v.prune();
+      }
+    };
+  }
+
   public AExpression init;
   private final String fieldName;
 
@@ -45,7 +69,7 @@ public class AField extends ADeclaration {
   }
 
   @Override
-  public boolean equals(Object o) {
+  public boolean equals(AElement o) {
     return o instanceof AField
         && ((AField) o).equalsField(this);
   }
@@ -14,7 +14,7 @@ import scenelib.annotations.util.coll.VivifyingMap;
 public final class AMethod extends ADeclaration {
     /** The method's annotated type parameter bounds */
     public final VivifyingMap<BoundLocation, ATypeElement> bounds =
-            ATypeElement.<BoundLocation>newVivifyingLHMap_ATE();
+            ATypeElement.<BoundLocation>newVivifyingLHMap_ATE(this);
 
     /** The method's annotated return type */
     public final ATypeElement returnType; // initialized in constructor
@@ -24,10 +24,10 @@ public final class AMethod extends ADeclaration {
 
     /** The method's annotated parameters; map key is parameter index */
     public final VivifyingMap<Integer, AField> parameters =
-            AField.<Integer>newVivifyingLHMap_AF();
+            AField.newVivifyingIntMap_AF(this);
 
     public final VivifyingMap<TypeIndexLocation, ATypeElement> throwsException =
-        ATypeElement.<TypeIndexLocation>newVivifyingLHMap_ATE();
+        ATypeElement.<TypeIndexLocation>newVivifyingLHMap_ATE(this);
 
     public ABlock body;
     public final String methodName;
@@ -38,6 +38,7 @@ public final class AMethod extends ADeclaration {
       this.body = new ABlock(methodName);
       returnType = new ATypeElement("return type of " + methodName);
       receiver = new AField("receiver parameter type of " + methodName);
+      adoptSubelements();
     }
 
     AMethod(AMethod method) {
@@ -46,12 +47,20 @@ public final class AMethod extends ADeclaration {
       body = method.body.clone();
       returnType = method.returnType.clone();
       receiver = method.receiver.clone();
+      adoptSubelements();
       copyMapContents(method.bounds, bounds);
       copyMapContents(method.parameters, parameters);
       copyMapContents(method.throwsException, throwsException);
       copyMapContents(method.bounds, bounds);
     }
 
+    // The subelements that are not in maps are told of their parent here.
+    private void adoptSubelements() {
+      body.setParent(this);
+      returnType.setParent(this);
+      receiver.setParent(this);
+    }
+
     @Override
     public AMethod clone() {
       return new AMethod(this);
@@ -84,13 +93,32 @@ public final class AMethod extends ADeclaration {
      * {@inheritDoc}
      */
     @Override
-    public int hashCode() {
-        return super.hashCode()
+    int computeHashCode() {
+        return super.computeHashCode()
                 + bounds.hashCode() + receiver.hashCode()
-                + parameters.hashCode() + throwsException.hashCode()
+                + parametersHashCode() + throwsException.hashCode()
                 + body.hashCode() + methodName.hashCode();
     }
 
+    /**
+     * Returns a hash code of the parameters that pruning does not change,
+     * as {@link #equalsMethod} compares the parameters pruned: it covers
+     * only the annotations on each parameter and on its type, which keep
+     * the parameter from being pruned away and are never removed.
+     */
+    private int parametersHashCode() {
+        int h = 0;
+        for (Map.Entry<Integer, AField> e : parameters.entrySet()) {
+            AField p = e.getValue();
+            if (!p.tlAnnotationsHere.isEmpty()
+                    || !p.type.tlAnnotationsHere.isEmpty()) {
+                h += e.getKey() ^ (p.tlAnnotationsHere.hashCode()
+                        + 31 * p.type.tlAnnotationsHere.hashCode());
+            }
+        }
+        return h;
+    }
+
     /**
      * {@inheritDoc}
      */
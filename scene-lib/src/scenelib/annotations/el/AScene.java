@@ -1,5 +1,9 @@
 package scenelib.annotations.el;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
@@ -7,6 +11,7 @@ import java.util.Set;
 
 import scenelib.annotations.Annotation;
 import scenelib.annotations.io.IndexFileParser;
+import scenelib.annotations.util.coll.Owner;
 import scenelib.annotations.util.coll.VivifyingMap;
 
 /*>>>
@@ -51,13 +56,13 @@ import org.checkerframework.checker.nullness.qual.Nullable;
  * ));
  * </pre>
  */
-public final class AScene implements Cloneable {
+public final class AScene implements Cloneable, Owner {
     private static boolean checkClones = true;
     public static boolean debugFoundMap = false;
 
     /** This scene's annotated packages; map key is package name */
     public final VivifyingMap<String, AElement> packages =
-            AElement.<String>newVivifyingLHMap_AE();
+            AElement.<String>newVivifyingLHMap_AE(this);
 
     /**
      * Contains for each annotation type a set of imports to be added to
@@ -70,21 +75,197 @@ public final class AScene implements Cloneable {
     public final Map<String, Set<String>> imports =
         new LinkedHashMap<String, Set<String>>();
 
-    /** This scene's annotated classes; map key is class name */
-    public final VivifyingMap<String, AClass> classes =
-            new VivifyingMap<String, AClass>(
-                    new LinkedHashMap<String, AClass>()) {
-                @Override
-                public  AClass createValueFor(
-                 String k) {
-                    return new AClass(k);
+    /**
+     * This scene's annotated classes; map key is class name.  The classes
+     * of a {@link ClassSource} given to {@link #setClassSource} are read
+     * when they are first looked up.
+     */
+    public final VivifyingMap<String, AClass> classes = new ClassMap(this);
+
+    /**
+     * A source of the classes of a scene that reads each class only when it
+     * is first looked up; see {@link AScene#setClassSource}.
+     */
+    public interface ClassSource {
+        /** Returns the names of the classes, in order. */
+        Collection<String> classNames();
+
+        /**
+         * Reads and returns the class named <code>name</code>, one of
+         * {@link #classNames}.  Each class is read at most once.
+         */
+        AClass readClass(String name) throws IOException;
+    }
+
+    /**
+     * The map of the classes of a scene.  Until it is read, a class of
+     * the {@link ClassSource} is mapped to null in the backing map, so
+     * that its name, and the order of the names, are known without reading
+     * it.  Operations on a single class read only that class; those that
+     * need the values of the whole map read all the classes that have not
+     * been read yet.
+     * <p>
+     *
+     * Reading a class changes the backing map, so, while there are classes
+     * to read, the map is used only while holding its own lock; a scene can
+     * then be read from several threads at once.  Once all the classes have
+     * been read, it is an ordinary map.
+     */
+    private static final class ClassMap extends VivifyingMap<String, AClass> {
+        /** The source of the classes that have not been read, or null. */
+        private volatile /*@Nullable*/ ClassSource source;
+
+        /** The number of classes that have not been read. */
+        private int unread;
+
+        ClassMap(AScene scene) {
+            super(scene);
+        }
+
+        void setSource(ClassSource source) {
+            if (!isEmpty()) {
+                throw new IllegalStateException(
+                    "The scene already has classes");
+            }
+            for (String name : source.classNames()) {
+                put(name, null);
+            }
+            this.unread = size();
+            this.source = unread == 0 ? null : source;
+        }
+
+        // Reads the class named k if it has not been read.
+        private void read(Object k) {
+            if (source != null && back.containsKey(k)
+                    && back.get(k) == null) {
+                String name = (String) k;
+                AClass c;
+                try {
+                    c = source.readClass(name);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
+                // Replacing the value keeps the order of the keys.  The
+                // scene has not changed, since it had the class all along.
+                back.put(name, c);
+                owner.added(c);
+                if (--unread == 0) {
+                    source = null;
+                }
+            }
+        }
 
-                @Override
-                public boolean subPrune(AClass v) {
-                    return v.prune();
+        private void readAll() {
+            if (source != null) {
+                synchronized (this) {
+                    for (String name : new ArrayList<String>(back.keySet())) {
+                        read(name);
+                    }
                 }
-            };
+            }
+        }
+
+        @Override
+        public AClass createValueFor(String k) {
+            return new AClass(k);
+        }
+
+        @Override
+        public boolean subPrune(AClass v) {
+            return v.prune();
+        }
+
+        @Override
+        public AClass get(Object key) {
+            if (source == null) {
+                return super.get(key);
+            }
+            synchronized (this) {
+                read(key);
+                return super.get(key);
+            }
+        }
+
+        @Override
+        public AClass put(String key, AClass value) {
+            if (source == null) {
+                return super.put(key, value);
+            }
+            synchronized (this) {
+                if (source != null && back.containsKey(key)
+                        && back.get(key) == null && value != null
+                        && --unread == 0) {
+                    source = null;
+                }
+                return super.put(key, value);
+            }
+        }
+
+        @Override
+        public AClass remove(Object key) {
+            if (source == null) {
+                return super.remove(key);
+            }
+            synchronized (this) {
+                read(key);
+                return super.remove(key);
+            }
+        }
+
+        @Override
+        public Set<Map.Entry<String, AClass>> entrySet() {
+            readAll();
+            return super.entrySet();
+        }
+
+        @Override
+        public Collection<AClass> values() {
+            readAll();
+            return super.values();
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            readAll();
+            return super.containsValue(value);
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ? extends AClass> m) {
+            for (Map.Entry<? extends String, ? extends AClass> e
+                    : m.entrySet()) {
+                put(e.getKey(), e.getValue());
+            }
+        }
+
+        @Override
+        public synchronized void clear() {
+            source = null;
+            unread = 0;
+            super.clear();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            readAll();
+            if (o instanceof ClassMap) {
+                ((ClassMap) o).readAll();
+            }
+            return super.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            readAll();
+            return super.hashCode();
+        }
+    }
+
+    /**
+     * The cached hash code of this scene, or zero; see
+     * {@link AElement#hashCode}.
+     */
+    private volatile long digest;
 
     /**
      * Creates a new {@link AScene} with no classes or packages.
@@ -92,6 +273,19 @@ public final class AScene implements Cloneable {
     public AScene() {
     }
 
+    /**
+     * Makes the classes of this scene, which must have none yet, those of
+     * <code>source</code>.  A class is read from <code>source</code> when
+     * it is first looked up in {@link #classes}, and all the classes that
+     * have not been read are read when the classes are iterated over or
+     * compared; listing only the names of the classes, with
+     * <code>classes.keySet()</code>, reads none of them.  If reading a
+     * class fails, the lookup throws an {@link UncheckedIOException}.
+     */
+    public void setClassSource(ClassSource source) {
+        ((ClassMap) classes).setSource(source);
+    }
+
     /**
      * Copy constructor for {@link AScene}.
      */
@@ -107,12 +301,18 @@ public final class AScene implements Cloneable {
             copy.addAll(value);
             imports.put(key, copy);
         }
-        for (String key : scene.classes.keySet()) {
-            AClass clazz = scene.classes.get(key);
-            classes.put(key, clazz.clone());
+        for (Map.Entry<String, AClass> entry : scene.classes.entrySet()) {
+            AClass clazz = entry.getValue();
+            AClass copy = clazz.clone();
+            if (checkClones) {
+                // Checked element by element, rather than with checkClone,
+                // which would prune both scenes.
+                checkElem(clazz, copy);
+            }
+            classes.put(entry.getKey(), copy);
         }
         if (checkClones) {
-            checkClone(this, scene);
+            checkElems(scene.packages, packages);
         }
     }
 
@@ -138,15 +338,63 @@ public final class AScene implements Cloneable {
      * is statically known to be another nonnull {@link AScene}.
      */
     public boolean equals(AScene o) {
+        if (this == o) {
+            return true;
+        }
+        if (AElement.knownUnequal(digest, o.digest)) {
+            return false;
+        }
         return o.classes.equals(classes) && o.packages.equals(packages);
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     *
+     * Like the hash codes of elements, the hash code is cached until the
+     * scene is next changed.
      */
     @Override
     public int hashCode() {
-        return classes.hashCode() + packages.hashCode();
+        long d = digest;
+        if (!AElement.isValid(d)) {
+            d = AElement.digest(classes.hashCode() + packages.hashCode());
+            digest = d;
+        }
+        return (int) d;
+    }
+
+    /**
+     * Invalidates the cached hash code of this scene.  Called by the maps
+     * of this scene, and by its classes and packages.
+     */
+    @Override
+    public void modified() {
+        if (digest != 0) {
+            digest = 0;
+        }
+    }
+
+    /**
+     * Makes this scene the parent of <code>value</code>, if it is an
+     * element.  Called by the maps of this scene.
+     */
+    @Override
+    public void added(Object value) {
+        if (value instanceof AElement) {
+            ((AElement) value).setParent(this);
+        }
+    }
+
+    /**
+     * Makes this scene no longer the parent of <code>value</code>, if it
+     * is an element.  Called by the maps of this scene.
+     */
+    @Override
+    public void removed(Object value) {
+        if (value instanceof AElement) {
+            ((AElement) value).removeParent(this);
+        }
     }
 
     /**
@@ -361,7 +609,7 @@ public final class AScene implements Cloneable {
             System.out.print(args[i] + ": ");
             try {
                 IndexFileParser.parseFile(args[i], s0);
-                s0.clone();
+                checkClone(s0, s0.clone());
                 System.out.println("ok");
             } catch (Throwable e) {
                 status = 1;
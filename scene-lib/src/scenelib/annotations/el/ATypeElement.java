@@ -1,9 +1,9 @@
 package scenelib.annotations.el;
 
-import java.util.LinkedHashMap;
 import java.util.Map;
 
 import scenelib.annotations.Annotation;
+import scenelib.annotations.util.coll.Owner;
 import scenelib.annotations.util.coll.VivifyingMap;
 
 /*>>>
@@ -18,9 +18,8 @@ import org.checkerframework.checker.nullness.qual.Nullable;
  * one inner type; {@link #innerTypes} maps locations to inner types.
  */
 public class ATypeElement extends AElement {
-    static <K extends Object> VivifyingMap<K, ATypeElement> newVivifyingLHMap_ATE() {
-        return new VivifyingMap<K, ATypeElement>(
-                new LinkedHashMap<K, ATypeElement>()) {
+    static <K extends Object> VivifyingMap<K, ATypeElement> newVivifyingLHMap_ATE(Owner owner) {
+        return new VivifyingMap<K, ATypeElement>(owner) {
             @Override
             public  ATypeElement createValueFor(K k) {
                 return new ATypeElement(k);
@@ -37,7 +36,7 @@ public class ATypeElement extends AElement {
      * The annotated inner types; map key is the inner type location.
      */
     public final VivifyingMap<InnerTypeLocation, ATypeElement> innerTypes =
-        ATypeElement.<InnerTypeLocation>newVivifyingLHMap_ATE();
+        ATypeElement.<InnerTypeLocation>newVivifyingLHMap_ATE(this);
 
     // general information about the element being annotated
     public Object description;
@@ -81,7 +80,7 @@ public class ATypeElement extends AElement {
      * {@inheritDoc}
      */
     @Override
-    public int hashCode() {
+    int computeHashCode() {
         checkRep();
         return tlAnnotationsHere.hashCode() + innerTypes.hashCode();
     }
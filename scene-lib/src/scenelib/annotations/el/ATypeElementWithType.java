@@ -1,9 +1,9 @@
 package scenelib.annotations.el;
 
-import java.util.LinkedHashMap;
 
 import scenelib.type.Type;
 import scenelib.annotations.io.ASTPath;
+import scenelib.annotations.util.coll.Owner;
 import scenelib.annotations.util.coll.VivifyingMap;
 
 /**
@@ -22,9 +22,8 @@ public class ATypeElementWithType extends ATypeElement {
      * <p>
      * {@code ATEWT} stands for {@code ATypeElementWithType}.
      */
-    /*package-private*/ static <K extends Object> VivifyingMap<K, ATypeElementWithType> newVivifyingLHMap_ATEWT() {
-        return new VivifyingMap<K, ATypeElementWithType>(
-                new LinkedHashMap<K, ATypeElementWithType>()) {
+    /*package-private*/ static <K extends Object> VivifyingMap<K, ATypeElementWithType> newVivifyingLHMap_ATEWT(Owner owner) {
+        return new VivifyingMap<K, ATypeElementWithType>(owner) {
             @Override
             public  ATypeElementWithType createValueFor(K k) {
                 return new ATypeElementWithType(k);
@@ -84,10 +83,9 @@ public class ATypeElementWithType extends ATypeElement {
         return super.equals(o) && o.type.equals(type);
     }
 
-    @Override
-    public int hashCode() {
-        return super.hashCode() + type.hashCode();
-    }
+    // computeHashCode is not overridden to include the un-annotated type,
+    // because a Type can change without the element being told, and the
+    // hash code is cached.
 
     @Override
     public boolean prune() {
@@ -15,14 +15,27 @@ import scenelib.annotations.field.*;
 import scenelib.annotations.Annotation;
 import scenelib.annotations.Annotations;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 /**
  * An annotation type definition, consisting of the annotation name,
  * its meta-annotations, and its field names and
  * types. <code>AnnotationDef</code>s are immutable.  An AnnotationDef with
  * a non-null retention policy is called a "top-level annotation definition".
+ * Equal definitions read from different sources can share a single
+ * instance; see {@link #intern}.
  */
 public final class AnnotationDef extends AElement {
 
+    /**
+     * The canonical instances of annotation definitions.  Entries
+     * disappear when their definition is no longer referenced, and the
+     * interner is safe for concurrent use.
+     */
+    private static final Interner<AnnotationDef> interner =
+        Interners.newWeakInterner();
+
     /**
      * The binary name of the annotation type, such as
      * "foo.Bar$Baz" for inner class Baz in class Bar in package foo.
@@ -36,6 +49,9 @@ public final class AnnotationDef extends AElement {
      */
     public Map<String, AnnotationFieldType> fieldTypes;
 
+    /** The hash code, or 0 if it has not been computed yet. */
+    private int hash;
+
     /**
      * Constructs an annotation definition with the given name.
      * You MUST call setFieldTypes afterward, even if with an empty map.  (Yuck.)
@@ -83,7 +99,7 @@ public final class AnnotationDef extends AElement {
             throw new Error("Exception in anno.getDeclaredAnnotations() for anno = " + annoType, e);
         }
         for (java.lang.annotation.Annotation ja : jannos) {
-            result.tlAnnotationsHere.add(new Annotation(ja, adefs));
+            result.tlAnnotationsHere.add(new Annotation(ja, adefs).intern());
         }
 
         return result;
@@ -114,6 +130,19 @@ public final class AnnotationDef extends AElement {
         this.fieldTypes = Collections.unmodifiableMap(
                 new LinkedHashMap<String, AnnotationFieldType>(fieldTypes)
                 );
+        hash = 0;
+    }
+
+    /**
+     * Returns the canonical instance of the definitions equal to this one:
+     * this definition, if no equal definition has been interned yet.  The
+     * definition must be complete, with its field types and
+     * meta-annotations, and must not be changed afterwards.
+     *
+     * @return the interned definition equal to this one
+     */
+    public AnnotationDef intern() {
+        return interner.intern(this);
     }
 
 
@@ -163,6 +192,9 @@ public final class AnnotationDef extends AElement {
      * is statically known to be another nonnull {@link AnnotationDef}.
      */
     public boolean equals(AnnotationDef o) {
+        if (this == o) {
+            return true;
+        }
         boolean sameName = name.equals(o.name);
         boolean sameMetaAnnotations = equalsElement(o);
         boolean sameFieldTypes = fieldTypes.equals(o.fieldTypes);
@@ -183,11 +215,16 @@ public final class AnnotationDef extends AElement {
      */
     @Override
     public int hashCode() {
-        return name.hashCode()
-            // Omit tlAnnotationsHere, becase it should be unique and, more
-            // importantly, including it causes an infinite loop.
-            // + tlAnnotationsHere.hashCode()
-            + fieldTypes.hashCode();
+        int h = hash;
+        if (h == 0) {
+            h = name.hashCode()
+                // Omit tlAnnotationsHere, becase it should be unique and, more
+                // importantly, including it causes an infinite loop.
+                // + tlAnnotationsHere.hashCode()
+                + fieldTypes.hashCode();
+            hash = h;
+        }
+        return h;
     }
 
     /**
@@ -7,7 +7,8 @@ import org.checkerframework.checker.nullness.qual.*;
 /**
  * Thrown by {@link DefCollector} if the scene contains two different
  * definitions of the same annotation type that cannot be
- * {@linkplain AnnotationDef#unify unified}.
+ * {@linkplain AnnotationDef#unify unified}, and by writers that meet such
+ * definitions in different parts of a scene.
  */
 public class DefException extends Exception {
     private static final long serialVersionUID = 1152640422L;
@@ -17,7 +18,7 @@ public class DefException extends Exception {
      */
     public final String annotationType;
 
-    DefException(String annotationType) {
+    public DefException(String annotationType) {
         super("Conflicting definition of annotation type " + annotationType);
         this.annotationType = annotationType;
     }
@@ -4,43 +4,166 @@ package scenelib.annotations.el;
 import org.checkerframework.checker.nullness.qual.*;
 */
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
-
-import scenelib.annotations.util.Hasher;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.sun.tools.javac.code.TypeAnnotationPosition.TypePathEntry;
 
 /**
  * An {@link InnerTypeLocation} holds the location information for an
  * inner type (namely the location string) inside its {@link ATypeElement}.
+ *
+ * <p>
+ *
+ * The location is stored as in a class file: two bytes, a kind and an
+ * argument, per {@link TypePathEntry}, and {@link #location} is a view of
+ * those bytes.  Equality and hashing use only the bytes, and the hash is
+ * computed once, since
+ * {@link InnerTypeLocation}s are the keys of every
+ * {@link ATypeElement#innerTypes} map.  Get one using {@link #of} or
+ * {@link #fromBinary}, which share the {@link InnerTypeLocation}s of short
+ * locations.
  */
 public final class InnerTypeLocation {
 
     /**
      * An {@link InnerTypeLocation} containing no locations.
      */
-    public static final InnerTypeLocation EMPTY_INNER_TYPE_LOCATION = new InnerTypeLocation(
-            Collections.<TypePathEntry> emptyList());
+    public static final InnerTypeLocation EMPTY_INNER_TYPE_LOCATION =
+            new InnerTypeLocation(new byte[0]);
+
+    /**
+     * The longest location, in {@link TypePathEntry}s, whose
+     * {@link InnerTypeLocation} is shared.
+     */
+    private static final int MAX_INTERNED_LENGTH = 4;
+
+    /** The shared {@link InnerTypeLocation}s of short locations. */
+    private static final ConcurrentMap<InnerTypeLocation, InnerTypeLocation>
+        interned = new ConcurrentHashMap<InnerTypeLocation, InnerTypeLocation>();
 
     /**
      * The location numbers of the inner type as defined in the extended
      * annotation specification.  For example, the location numbers of &#064;X
      * in <code>Foo&lt;Bar&lt;Baz, &#064;X Baz&gt;&gt;</code> are
-     * <code>{0, 1}</code>.
+     * <code>{0, 1}</code>.  This unmodifiable list decodes each
+     * {@link TypePathEntry} from {@link #path} as it is read.
      */
-    public final List<TypePathEntry> location;
+    public final List<TypePathEntry> location = new Location();
+
+    /** The location in class file format. */
+    private final byte[] path;
+
+    /** The hash code of {@link #path}. */
+    private final int hash;
 
     /**
      * Constructs an {@link InnerTypeLocation} from the given location string,
      * which must not be zero-length.  (The "inner type" of an
      * {@link ATypeElement} with zero-length location string is the
-     * {@link ATypeElement} itself.)
+     * {@link ATypeElement} itself.)  {@link #of} avoids creating a new
+     * object when it can.
      */
     public InnerTypeLocation(List<TypePathEntry> location) {
-        this.location = Collections.unmodifiableList(
-                new ArrayList<TypePathEntry>(location));
+        this(encode(location));
+    }
+
+    private InnerTypeLocation(byte[] path) {
+        this.path = path;
+        this.hash = Arrays.hashCode(path);
+    }
+
+    /**
+     * Returns an {@link InnerTypeLocation} for the given location string,
+     * which is copied.
+     */
+    public static InnerTypeLocation of(List<TypePathEntry> location) {
+        return intern(encode(location));
+    }
+
+    /**
+     * Returns an {@link InnerTypeLocation} for the given location in class
+     * file format, which is copied.
+     *
+     * @throws IllegalArgumentException if <code>path</code> is not a valid
+     * location
+     */
+    public static InnerTypeLocation fromBinary(byte[] path) {
+        return intern(validate(path.clone()));
+    }
+
+    /**
+     * Returns an {@link InnerTypeLocation} for the given location in class
+     * file format, as read from an index file.
+     *
+     * @throws IllegalArgumentException if <code>path</code> is not a valid
+     * location
+     */
+    public static InnerTypeLocation fromBinary(List<Integer> path) {
+        byte[] bytes = new byte[path.size()];
+        for (int i = 0; i < bytes.length; i++) {
+            int b = path.get(i);
+            if (b < 0 || b > 0xff) {
+                throw new IllegalArgumentException(
+                        "Type path number out of range: " + b);
+            }
+            bytes[i] = (byte) b;
+        }
+        return intern(validate(bytes));
+    }
+
+    /**
+     * Returns this location in class file format.
+     */
+    public byte[] toBinary() {
+        return path.clone();
+    }
+
+    /**
+     * Returns the shared {@link InnerTypeLocation} for <code>path</code>, a
+     * location in class file format that may be used without copying.
+     */
+    private static InnerTypeLocation intern(byte[] path) {
+        if (path.length == 0) {
+            return EMPTY_INNER_TYPE_LOCATION;
+        }
+        if (path.length > 2 * MAX_INTERNED_LENGTH) {
+            return new InnerTypeLocation(path);
+        }
+        InnerTypeLocation loc = new InnerTypeLocation(path);
+        InnerTypeLocation old = interned.putIfAbsent(loc, loc);
+        return old != null ? old : loc;
+    }
+
+    private static byte[] encode(List<TypePathEntry> location) {
+        byte[] path = new byte[2 * location.size()];
+        int i = 0;
+        for (TypePathEntry e : location) {
+            path[i++] = (byte) e.tag.tag;
+            path[i++] = (byte) e.arg;
+        }
+        return path;
+    }
+
+    private static byte[] validate(byte[] path) {
+        if (path.length % 2 != 0) {
+            throw new IllegalArgumentException(
+                    "Odd number of numbers in type path: "
+                    + Arrays.toString(path));
+        }
+        for (int i = 0; i < path.length; i += 2) {
+            if (path[i] < 0 || path[i] > 3
+                    || path[i] != 3 && path[i + 1] != 0) {
+                throw new IllegalArgumentException(
+                        "Invalid type path entry: " + path[i] + ", "
+                        + path[i + 1]);
+            }
+        }
+        return path;
     }
 
     /**
@@ -49,7 +172,7 @@ public final class InnerTypeLocation {
      * is statically known to be another nonnull {@link InnerTypeLocation}.
      */
     public boolean equals(InnerTypeLocation l) {
-        return location.equals(l.location);
+        return l == this || hash == l.hash && Arrays.equals(path, l.path);
     }
 
     /**
@@ -69,9 +192,28 @@ public final class InnerTypeLocation {
      */
     @Override
     public int hashCode() {
-        Hasher h = new Hasher();
-        h.mash(location.hashCode());
-        return h.hash;
+        return hash;
+    }
+
+    /**
+     * The {@link TypePathEntry}s of {@link #path}, decoded on demand.
+     */
+    private final class Location extends AbstractList<TypePathEntry>
+            implements RandomAccess {
+        @Override
+        public TypePathEntry get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index
+                        + ", Size: " + size());
+            }
+            return TypePathEntry.fromBinary(
+                    path[2 * index] & 0xff, path[2 * index + 1] & 0xff);
+        }
+
+        @Override
+        public int size() {
+            return path.length / 2;
+        }
     }
 
     /**
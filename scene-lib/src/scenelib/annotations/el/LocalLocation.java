@@ -37,17 +37,25 @@ public final class LocalLocation {
         this.scopeLength = scopeLength;
         this.varName = null;
         this.varIndex = -1;
+        this.hash = computeHashCode();
     }
 
     public final String varName;
     public final int varIndex;
 
+    /**
+     * The hash code, computed once since {@link LocalLocation}s are map
+     * keys.
+     */
+    private final int hash;
+
     public LocalLocation(String varName, int varIndex) {
         this.index = -1;
         this.scopeStart = -1;
         this.scopeLength = -1;
         this.varName = varName;
         this.varIndex = varIndex;
+        this.hash = computeHashCode();
     }
 
 
@@ -80,6 +88,10 @@ public final class LocalLocation {
      */
     @Override
     public int hashCode() {
+        return hash;
+    }
+
+    private int computeHashCode() {
         Hasher h = new Hasher();
         if (varName==null) {
             h.mash(index);
@@ -36,8 +36,19 @@ public final class RelativeLocation implements Comparable<RelativeLocation> {
         this.offset = offset;
         this.index = index;
         this.type_index = type_index;
+        Hasher h = new Hasher();
+        h.mash(offset);
+        h.mash(index);
+        h.mash(type_index);
+        this.hash = h.hash;
     }
 
+    /**
+     * The hash code, computed once since {@link RelativeLocation}s are map
+     * keys.
+     */
+    private final int hash;
+
     public static RelativeLocation createOffset(int offset, int type_index) {
         return new RelativeLocation(offset, -1, type_index);
     }
@@ -95,11 +106,7 @@ public final class RelativeLocation implements Comparable<RelativeLocation> {
      */
     @Override
     public int hashCode() {
-        Hasher h = new Hasher();
-        h.mash(offset);
-        h.mash(index);
-        h.mash(type_index);
-        return h.hash;
+        return hash;
     }
 
     @Override
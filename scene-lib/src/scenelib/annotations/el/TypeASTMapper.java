@@ -46,7 +46,7 @@ public abstract class TypeASTMapper<N> {
         if (ls.isEmpty()) {
             return te;
         } else {
-            return te.innerTypes.vivify(new InnerTypeLocation(ls));
+            return te.innerTypes.vivify(InnerTypeLocation.of(ls));
         }
     }
 
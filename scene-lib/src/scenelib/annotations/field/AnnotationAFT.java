@@ -18,12 +18,16 @@ public final class AnnotationAFT extends ScalarAFT {
      */
     public final AnnotationDef annotationDef;
 
+    /** The hash code, that of the string representation, computed once. */
+    private final int hash;
+
     /**
      * Constructs a new {@link AnnotationAFT} for a subannotation of the
      * given definition.
      */
     public AnnotationAFT(AnnotationDef annotationDef) {
         this.annotationDef = annotationDef;
+        this.hash = toString().hashCode();
     }
 
     /**
@@ -46,6 +50,24 @@ public final class AnnotationAFT extends ScalarAFT {
         return "annotation-field " + annotationDef.name;
     }
 
+    /**
+     * Like the string representation, equality considers only the name of
+     * the subannotation definition.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o == this || o instanceof AnnotationAFT
+                && annotationDef.name.equals(((AnnotationAFT) o).annotationDef.name);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
     /**
      * {@inheritDoc}
      */
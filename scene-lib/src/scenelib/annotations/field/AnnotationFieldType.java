@@ -5,16 +5,21 @@ import org.checkerframework.checker.nullness.qual.*;
 */
 
 import scenelib.annotations.el.AnnotationDef;
-import scenelib.annotations.util.EqualByStringRepresentation;
-
 import java.util.Map;
 
 /**
  * An {@link AnnotationFieldType} represents a type that can be the type
  * of an annotation field. Each subclass represents one kind of type allowed by
  * the Java language.
+ *
+ * <p>
+ * Two {@link AnnotationFieldType}s are equal if and only if their
+ * {@link #toString toString} representations are equal.  Each subclass
+ * compares its fields directly rather than building the strings, since
+ * field types are compared over and over when annotation definitions are
+ * compared and unified.
  */
-public abstract class AnnotationFieldType extends EqualByStringRepresentation {
+public abstract class AnnotationFieldType {
 
     /**
      * Returns the string representation of the type that would appear in an
@@ -23,6 +28,17 @@ public abstract class AnnotationFieldType extends EqualByStringRepresentation {
     @Override
     public abstract String toString();
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public abstract boolean equals(Object o);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public abstract int hashCode();
 
     /** Formats an annotation field value. */
     public abstract String format(Object o);
@@ -38,7 +54,7 @@ public abstract class AnnotationFieldType extends EqualByStringRepresentation {
                 = (Class<? extends java.lang.annotation.Annotation>) c;
             return new AnnotationAFT(AnnotationDef.fromClass(cAnno, adefs));
         } else if (c.isArray()) {
-            return new ArrayAFT((ScalarAFT) fromClass(c.getComponentType(), adefs));
+            return ArrayAFT.forElementType((ScalarAFT) fromClass(c.getComponentType(), adefs));
         } else if (BasicAFT.bafts.containsKey(c)) {
             return BasicAFT.bafts.get(c);
         } else if (c == Class.class) {
@@ -5,6 +5,8 @@ import org.checkerframework.checker.nullness.qual.*;
 */
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * An {@link ArrayAFT} represents an annotation field type that is an array.
@@ -17,14 +19,47 @@ public final class ArrayAFT extends AnnotationFieldType {
      */
     public final ScalarAFT elementType;
 
+    /** The hash code, computed once since the element type cannot change. */
+    private final int hash;
+
+    /**
+     * The shared {@link ArrayAFT}s of unknown element type and of each
+     * {@link BasicAFT} and {@link ClassTokenAFT}, by element type.
+     */
+    private static final Map<ScalarAFT, ArrayAFT> interned;
+
+    static {
+        Map<ScalarAFT, ArrayAFT> tempInterned =
+            new HashMap<ScalarAFT, ArrayAFT>(16);
+        tempInterned.put(null, new ArrayAFT(null));
+        for (BasicAFT baft : BasicAFT.bafts.values()) {
+            tempInterned.put(baft, new ArrayAFT(baft));
+        }
+        tempInterned.put(ClassTokenAFT.ctaft, new ArrayAFT(ClassTokenAFT.ctaft));
+        interned = tempInterned;
+    }
+
     /**
      * Constructs a new {@link ArrayAFT} representing an array type with
      * the given element type.  <code>elementType</code> may be
      * <code>null</code> to indicate that the element type is unknown
      * (see {@link scenelib.annotations.AnnotationBuilder#addEmptyArrayField}).
+     * {@link #forElementType} avoids creating a new object when it can.
      */
     public ArrayAFT(ScalarAFT elementType) {
         this.elementType = elementType;
+        this.hash = toString().hashCode();
+    }
+
+    /**
+     * Returns an {@link ArrayAFT} with the given element type, which may be
+     * <code>null</code> if the element type is unknown.  The
+     * {@link ArrayAFT}s of unknown, primitive, {@link String} and class
+     * token element types are shared.
+     */
+    public static ArrayAFT forElementType(ScalarAFT elementType) {
+        ArrayAFT aft = interned.get(elementType);
+        return aft != null ? aft : new ArrayAFT(elementType);
     }
 
     /**
@@ -56,6 +91,31 @@ public final class ArrayAFT extends AnnotationFieldType {
             ((ScalarAFT) elementType).toString()) + "[]";
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof ArrayAFT)) {
+            return false;
+        }
+        ArrayAFT that = (ArrayAFT) o;
+        return hash == that.hash && (elementType == null
+                ? that.elementType == null
+                : elementType.equals(that.elementType));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
     /**
      * {@inheritDoc}
      */
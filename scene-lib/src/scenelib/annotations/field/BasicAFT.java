@@ -99,6 +99,24 @@ public final class BasicAFT extends ScalarAFT {
         }
     }
 
+    /**
+     * There is only one <code>BasicAFT</code> for each type, so
+     * <code>BasicAFT</code>s are equal if and only if they are identical.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return this == o;
+    }
+
+    /**
+     * Based on the name of the type, which, unlike the identity hash code of
+     * the {@link Class}, is the same from run to run.
+     */
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
     /**
      * {@inheritDoc}
      */
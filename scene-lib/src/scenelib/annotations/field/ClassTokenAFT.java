@@ -49,6 +49,24 @@ public final class ClassTokenAFT extends ScalarAFT {
         return "Class"/* + parameterization */;
     }
 
+    /**
+     * There is only the singleton {@link #ctaft}, so
+     * <code>ClassTokenAFT</code>s are equal if and only if they are identical.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return this == o;
+    }
+
+    /**
+     * Based on the string representation, which, unlike the identity hash
+     * code of a {@link Class}, is the same from run to run.
+     */
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
     /**
      * {@inheritDoc}
      */
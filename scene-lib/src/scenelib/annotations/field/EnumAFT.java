@@ -16,12 +16,16 @@ public final class EnumAFT extends ScalarAFT {
      */
     public final String typeName;
 
+    /** The hash code, that of the string representation, computed once. */
+    private final int hash;
+
     /**
      * Constructs an {@link EnumAFT} for an annotation field that can hold
      * constants of the enumeration type with the given name.
      */
     public EnumAFT(String typeName) {
         this.typeName = typeName;
+        this.hash = toString().hashCode();
     }
 
     /**
@@ -41,6 +45,23 @@ public final class EnumAFT extends ScalarAFT {
         return "enum " + typeName;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o == this || o instanceof EnumAFT
+                && typeName.equals(((EnumAFT) o).typeName);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
     /**
      * {@inheritDoc}
      */
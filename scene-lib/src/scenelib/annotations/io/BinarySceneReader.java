@@ -0,0 +1,793 @@
+package scenelib.annotations.io;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+import static scenelib.annotations.io.BinarySceneWriter.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sun.source.tree.Tree;
+
+import scenelib.annotations.Annotation;
+import scenelib.annotations.Annotations;
+import scenelib.annotations.el.ABlock;
+import scenelib.annotations.el.AClass;
+import scenelib.annotations.el.ADeclaration;
+import scenelib.annotations.el.AElement;
+import scenelib.annotations.el.AExpression;
+import scenelib.annotations.el.AField;
+import scenelib.annotations.el.AMethod;
+import scenelib.annotations.el.AScene;
+import scenelib.annotations.el.ATypeElement;
+import scenelib.annotations.el.ATypeElementWithType;
+import scenelib.annotations.el.AnnotationDef;
+import scenelib.annotations.el.BoundLocation;
+import scenelib.annotations.el.ElementVisitor;
+import scenelib.annotations.el.InnerTypeLocation;
+import scenelib.annotations.el.LocalLocation;
+import scenelib.annotations.el.RelativeLocation;
+import scenelib.annotations.el.TypeIndexLocation;
+import scenelib.annotations.field.AnnotationAFT;
+import scenelib.annotations.field.AnnotationFieldType;
+import scenelib.annotations.field.ArrayAFT;
+import scenelib.annotations.field.BasicAFT;
+import scenelib.annotations.field.ClassTokenAFT;
+import scenelib.annotations.field.EnumAFT;
+import scenelib.annotations.field.ScalarAFT;
+import scenelib.annotations.util.coll.VivifyingMap;
+import scenelib.type.ArrayType;
+import scenelib.type.BoundedType;
+import scenelib.type.BoundedType.BoundKind;
+import scenelib.type.DeclaredType;
+import scenelib.type.Type;
+
+/**
+ * BinarySceneReader reads a scene written by {@link BinarySceneWriter}.
+ * Opening a file reads only its annotation definitions and annotations;
+ * each class is decoded when it is requested, with
+ * {@link #readClass(String, AScene)}, or all at once, with
+ * {@link #readScene(AScene)}.  Strings are decoded when they are first
+ * needed.  A file opened with {@link #open(String)} is mapped into memory
+ * rather than read, so opening even a large file is quick.
+ * <p>
+ *
+ * If the input is malformed, the methods throw an {@link IOException}.
+ */
+public final class BinarySceneReader {
+
+    // The kinds of keys of the maps of subelements
+    private static final int KEY_STRING = 0;
+    private static final int KEY_INTEGER = 1;
+    private static final int KEY_BOUND = 2;
+    private static final int KEY_TYPE_INDEX = 3;
+    private static final int KEY_LOCAL = 4;
+    private static final int KEY_RELATIVE = 5;
+    private static final int KEY_INNER_TYPE = 6;
+    private static final int KEY_AST_PATH = 7;
+
+    private static final Map<String, Class<?>> primitiveTypes;
+    static {
+        Map<String, Class<?>> pt = new HashMap<String, Class<?>>();
+        for (Class<?> c : new Class<?>[] { boolean.class, byte.class,
+                char.class, short.class, int.class, long.class, float.class,
+                double.class, void.class }) {
+            pt.put(c.getName(), c);
+        }
+        primitiveTypes = pt;
+    }
+
+    // The input; only absolute reads are done on it, so it can be shared.
+    private final ByteBuffer in;
+
+    private final int classCount;
+    private final int directoryOffset;
+    private final int bodiesOffset;
+
+    /** The strings decoded so far; null for the others. */
+    private final String[] strings;
+
+    private final AnnotationDef[] defs;
+    private final Annotation[] annotations;
+    private final Map<String, Set<String>> imports =
+        new LinkedHashMap<String, Set<String>>();
+
+    /**
+     * Constructs a reader of the binary scene in <code>in</code>, from its
+     * position to its limit, and reads the annotation definitions and
+     * annotations.
+     */
+    public BinarySceneReader(ByteBuffer in) throws IOException {
+        this.in = in.slice();
+        try {
+            if (this.in.getInt(0) != MAGIC) {
+                throw new IOException("Not a binary scene file");
+            }
+            int version = this.in.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary scene version "
+                    + version);
+            }
+            strings = new String[this.in.getInt(8)];
+            classCount = this.in.getInt(12);
+            directoryOffset = this.in.getInt(20);
+            bodiesOffset = this.in.getInt(24);
+            ByteBuffer tables = this.in.duplicate();
+            tables.position(this.in.getInt(16));
+            defs = new AnnotationDef[readVarInt(tables)];
+            annotations = readTables(tables);
+        } catch (BufferUnderflowException e) {
+            throw malformed(e);
+        } catch (IndexOutOfBoundsException e) {
+            throw malformed(e);
+        } catch (IllegalArgumentException e) {
+            throw malformed(e);
+        }
+    }
+
+    /**
+     * Opens the binary scene file <code>filename</code>, mapping it into
+     * memory.
+     */
+    public static BinarySceneReader open(String filename) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "r");
+                FileChannel channel = file.getChannel()) {
+            return new BinarySceneReader(
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private static IOException malformed(RuntimeException e) {
+        return new IOException("Malformed binary scene file", e);
+    }
+
+    /**
+     * Returns the names of the classes in the scene, in the order in which
+     * the scene had them.
+     */
+    public List<String> classNames() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int i) {
+                if (i < 0 || i >= classCount) {
+                    throw new IndexOutOfBoundsException("" + i);
+                }
+                return string(in.getInt(directoryOffset + 8 * i));
+            }
+
+            @Override
+            public int size() {
+                return classCount;
+            }
+        };
+    }
+
+    /**
+     * Returns the annotation definitions that the scene uses, keyed by
+     * name.
+     */
+    public Map<String, AnnotationDef> annotationDefs() {
+        Map<String, AnnotationDef> result =
+            new LinkedHashMap<String, AnnotationDef>();
+        for (AnnotationDef def : defs) {
+            result.put(def.name, def);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Returns true if the scene has a class named <code>name</code>.
+     */
+    public boolean containsClass(String name) {
+        return find(name) >= 0;
+    }
+
+    // Returns the position in the directory of the class named name, or
+    // -1 if there is none.
+    private int find(String name) {
+        int sorted = directoryOffset + 8 * classCount;
+        int lo = 0;
+        int hi = classCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = in.getInt(sorted + 4 * mid);
+            int c = string(in.getInt(directoryOffset + 8 * entry))
+                .compareTo(name);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the class named <code>name</code> into <code>scene</code>,
+     * merging it with the class of that name that <code>scene</code> may
+     * already have, and returns it; returns null if there is no such class.
+     * The other classes are not read.
+     */
+    public /*@Nullable*/ AClass readClass(String name, AScene scene)
+            throws IOException {
+        int entry = find(name);
+        return entry < 0 ? null : readClass(entry, scene);
+    }
+
+    /**
+     * Reads all the classes, and the imports, into <code>scene</code>.
+     */
+    public void readScene(AScene scene) throws IOException {
+        for (int i = 0; i < classCount; i++) {
+            readClass(i, scene);
+        }
+        for (Map.Entry<String, Set<String>> entry : imports.entrySet()) {
+            Set<String> imps = scene.imports.get(entry.getKey());
+            if (imps == null) {
+                imps = new LinkedHashSet<String>();
+                scene.imports.put(entry.getKey(), imps);
+            }
+            imps.addAll(entry.getValue());
+        }
+    }
+
+    private AClass readClass(int entry, AScene scene) throws IOException {
+        ByteBuffer body = in.duplicate();
+        try {
+            AClass c = scene.classes.vivify(
+                string(in.getInt(directoryOffset + 8 * entry)));
+            body.position(bodiesOffset + in.getInt(directoryOffset + 8 * entry + 4));
+            c.accept(elementReader, body);
+            return c;
+        } catch (BufferUnderflowException e) {
+            throw malformed(e);
+        } catch (IndexOutOfBoundsException e) {
+            throw malformed(e);
+        } catch (IllegalArgumentException e) {
+            throw malformed(e);
+        }
+    }
+
+    private String string(int index) {
+        String s = strings[index];
+        if (s == null) {
+            int start = in.getInt(HEADER_SIZE + 4 * index);
+            int end = in.getInt(HEADER_SIZE + 4 * index + 4);
+            byte[] bytes = new byte[end - start];
+            ByteBuffer b = in.duplicate();
+            b.position(start);
+            b.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+            strings[index] = s;
+        }
+        return s;
+    }
+
+    private String readString(ByteBuffer b) {
+        return string(readVarInt(b));
+    }
+
+    private static int readVarInt(ByteBuffer b) {
+        return (int) readVarLong(b);
+    }
+
+    private static long readVarLong(ByteBuffer b) {
+        long result = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte x = b.get();
+            result |= (long) (x & 0x7f) << shift;
+            if (x >= 0) {
+                return result;
+            }
+        }
+    }
+
+    private static int readSignedVarInt(ByteBuffer b) {
+        int v = readVarInt(b);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static long readSignedVarLong(ByteBuffer b) {
+        long v = readVarLong(b);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    // Reads the definitions, the annotations, and the imports, and returns
+    // the annotations.
+    private Annotation[] readTables(ByteBuffer b) throws IOException {
+        Tables tables = new Tables(b);
+        for (int i = 0; i < defs.length; i++) {
+            tables.def(i);
+        }
+        for (int i = 0; i < tables.annotations.length; i++) {
+            tables.annotation(i);
+        }
+
+        int n = readVarInt(b);
+        for (int i = 0; i < n; i++) {
+            String key = readString(b);
+            int m = readVarInt(b);
+            Set<String> imps = new LinkedHashSet<String>();
+            for (int j = 0; j < m; j++) {
+                imps.add(readString(b));
+            }
+            imports.put(key, imps);
+        }
+        return tables.annotations;
+    }
+
+    /**
+     * The tables of definitions and annotations, from which each
+     * definition is built, and shared with those read before, before the
+     * annotations that use it are built; so the annotations refer to the
+     * shared definitions.  The tables are first skimmed for the position
+     * of each entry, since an entry may refer to any other.
+     */
+    private final class Tables {
+        private final String[] names;
+
+        /** The positions of the field types of the definitions. */
+        private final int[] fieldTypesAt;
+
+        /** The meta-annotations of the definitions, as indices. */
+        private final int[][] metaAnnotations;
+
+        /** The positions of the annotations. */
+        private final int[] annotationsAt;
+
+        /** The definitions being built, which refer to themselves. */
+        private final boolean[] building;
+
+        /** The annotations built so far; null for the others. */
+        final Annotation[] annotations;
+
+        // Skims the tables, leaving b after them.
+        Tables(ByteBuffer b) throws IOException {
+            // As in IndexFileParser, the standard definitions are used as
+            // they are; some of them are meta-annotated by themselves, so a
+            // copy would never compare equal to them.
+            Map<String, AnnotationDef> standardDefs =
+                new HashMap<String, AnnotationDef>();
+            for (AnnotationDef ad : Annotations.standardDefs) {
+                standardDefs.put(ad.name, ad);
+            }
+            names = new String[defs.length];
+            for (int i = 0; i < defs.length; i++) {
+                names[i] = readString(b);
+                defs[i] = standardDefs.get(names[i]);
+            }
+            fieldTypesAt = new int[defs.length];
+            for (int i = 0; i < defs.length; i++) {
+                fieldTypesAt[i] = b.position();
+                int n = readVarInt(b);
+                for (int j = 0; j < n; j++) {
+                    readVarInt(b);
+                    skipFieldType(b);
+                }
+            }
+            annotations = new Annotation[readVarInt(b)];
+            annotationsAt = new int[annotations.length];
+            for (int i = 0; i < annotations.length; i++) {
+                annotationsAt[i] = b.position();
+                readVarInt(b);
+                int n = readVarInt(b);
+                for (int j = 0; j < n; j++) {
+                    readVarInt(b);
+                    skipValue(b);
+                }
+            }
+            metaAnnotations = new int[defs.length][];
+            for (int i = 0; i < defs.length; i++) {
+                metaAnnotations[i] = new int[readVarInt(b)];
+                for (int j = 0; j < metaAnnotations[i].length; j++) {
+                    metaAnnotations[i][j] = readVarInt(b);
+                }
+            }
+            building = new boolean[defs.length];
+        }
+
+        // Returns the position p of the input.
+        private ByteBuffer at(int p) {
+            ByteBuffer b = in.duplicate();
+            b.position(p);
+            return b;
+        }
+
+        /**
+         * Returns definition i, building it if need be.  A definition that
+         * refers to itself, through its field types or meta-annotations,
+         * gets itself as it is while being built, before it is shared.
+         */
+        AnnotationDef def(int i) throws IOException {
+            if (defs[i] == null) {
+                AnnotationDef def = new AnnotationDef(names[i]);
+                defs[i] = def;
+                building[i] = true;
+                ByteBuffer b = at(fieldTypesAt[i]);
+                int n = readVarInt(b);
+                Map<String, AnnotationFieldType> fieldTypes =
+                    new LinkedHashMap<String, AnnotationFieldType>();
+                for (int j = 0; j < n; j++) {
+                    String name = readString(b);
+                    fieldTypes.put(name, readFieldType(b));
+                }
+                def.setFieldTypes(fieldTypes);
+                for (int a : metaAnnotations[i]) {
+                    def.tlAnnotationsHere.add(annotation(a));
+                }
+                building[i] = false;
+                defs[i] = def.intern();
+            }
+            return defs[i];
+        }
+
+        /** Returns annotation i, building it if need be. */
+        Annotation annotation(int i) throws IOException {
+            if (annotations[i] == null) {
+                ByteBuffer b = at(annotationsAt[i]);
+                int d = readVarInt(b);
+                AnnotationDef def = def(d);
+                int n = readVarInt(b);
+                Map<String, Object> fieldValues =
+                    new LinkedHashMap<String, Object>();
+                for (int j = 0; j < n; j++) {
+                    String name = readString(b);
+                    fieldValues.put(name, readValue(b));
+                }
+                Annotation a = new Annotation(def, fieldValues);
+                // An annotation of a definition being built is not shared,
+                // as the definition is not complete yet.
+                annotations[i] = building[d] ? a : a.intern();
+            }
+            return annotations[i];
+        }
+
+        private /*@Nullable*/ AnnotationFieldType readFieldType(ByteBuffer b)
+                throws IOException {
+            int tag = b.get();
+            switch (tag) {
+            case AFT_BASIC:
+                BasicAFT baft = BasicAFT.forType(readClass(readString(b)));
+                if (baft == null) {
+                    throw new IOException("Bad basic field type");
+                }
+                return baft;
+            case AFT_CLASS_TOKEN:
+                return ClassTokenAFT.ctaft;
+            case AFT_ENUM:
+                return new EnumAFT(readString(b));
+            case AFT_ANNOTATION:
+                return new AnnotationAFT(def(readVarInt(b)));
+            case AFT_ARRAY:
+                return ArrayAFT.forElementType((ScalarAFT) readFieldType(b));
+            case AFT_UNKNOWN:
+                return null;
+            default:
+                throw new IOException("Bad field type tag " + tag);
+            }
+        }
+
+        private void skipFieldType(ByteBuffer b) throws IOException {
+            int tag = b.get();
+            switch (tag) {
+            case AFT_BASIC:
+            case AFT_ENUM:
+            case AFT_ANNOTATION:
+                readVarInt(b);
+                break;
+            case AFT_ARRAY:
+                skipFieldType(b);
+                break;
+            case AFT_CLASS_TOKEN:
+            case AFT_UNKNOWN:
+                break;
+            default:
+                throw new IOException("Bad field type tag " + tag);
+            }
+        }
+
+        private Object readValue(ByteBuffer b) throws IOException {
+            int tag = b.get();
+            switch (tag) {
+            case VALUE_BOOLEAN:
+                return b.get() != 0;
+            case VALUE_BYTE:
+                return b.get();
+            case VALUE_CHAR:
+                return (char) readVarInt(b);
+            case VALUE_SHORT:
+                return (short) readSignedVarInt(b);
+            case VALUE_INT:
+                return readSignedVarInt(b);
+            case VALUE_LONG:
+                return readSignedVarLong(b);
+            case VALUE_FLOAT:
+                return Float.intBitsToFloat(b.getInt());
+            case VALUE_DOUBLE:
+                return Double.longBitsToDouble(b.getLong());
+            case VALUE_STRING:
+                return readString(b);
+            case VALUE_CLASS:
+                return readClass(readString(b));
+            case VALUE_ANNOTATION:
+                return annotation(readVarInt(b));
+            case VALUE_LIST:
+                int n = readVarInt(b);
+                List<Object> list = new ArrayList<Object>(n);
+                for (int i = 0; i < n; i++) {
+                    list.add(readValue(b));
+                }
+                return Collections.unmodifiableList(list);
+            default:
+                throw new IOException("Bad field value tag " + tag);
+            }
+        }
+
+        private void skipValue(ByteBuffer b) throws IOException {
+            int tag = b.get();
+            switch (tag) {
+            case VALUE_BOOLEAN:
+            case VALUE_BYTE:
+                b.get();
+                break;
+            case VALUE_CHAR:
+            case VALUE_SHORT:
+            case VALUE_INT:
+            case VALUE_LONG:
+            case VALUE_STRING:
+            case VALUE_CLASS:
+            case VALUE_ANNOTATION:
+                readVarLong(b);
+                break;
+            case VALUE_FLOAT:
+                b.getInt();
+                break;
+            case VALUE_DOUBLE:
+                b.getLong();
+                break;
+            case VALUE_LIST:
+                int n = readVarInt(b);
+                for (int i = 0; i < n; i++) {
+                    skipValue(b);
+                }
+                break;
+            default:
+                throw new IOException("Bad field value tag " + tag);
+            }
+        }
+    }
+
+    private static Class<?> readClass(String name) throws IOException {
+        Class<?> c = primitiveTypes.get(name);
+        if (c != null) {
+            return c;
+        }
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Could not load class: " + name, e);
+        }
+    }
+
+    private /*@Nullable*/ Type readType(ByteBuffer b) throws IOException {
+        int tag = b.get();
+        switch (tag) {
+        case TYPE_NONE:
+            return null;
+        case TYPE_DECLARED:
+            DeclaredType dt = new DeclaredType(readString(b));
+            dt.setAnnotations(readStrings(b));
+            int n = readVarInt(b);
+            for (int i = 0; i < n; i++) {
+                dt.addTypeParameter(readType(b));
+            }
+            DeclaredType innerType = (DeclaredType) readType(b);
+            if (innerType != null) {
+                dt.setInnerType(innerType);
+            }
+            return dt;
+        case TYPE_ARRAY:
+            List<String> annos = readStrings(b);
+            ArrayType at = new ArrayType(readType(b));
+            at.setAnnotations(annos);
+            return at;
+        case TYPE_BOUNDED:
+            DeclaredType name = (DeclaredType) readType(b);
+            BoundKind kind = BoundKind.values()[b.get()];
+            return new BoundedType(name, kind, (DeclaredType) readType(b));
+        default:
+            throw new IOException("Bad type tag " + tag);
+        }
+    }
+
+    private List<String> readStrings(ByteBuffer b) {
+        int n = readVarInt(b);
+        List<String> result = new ArrayList<String>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(readString(b));
+        }
+        return result;
+    }
+
+    private void readAnnotations(ByteBuffer b, Set<Annotation> annos) {
+        int n = readVarInt(b);
+        for (int i = 0; i < n; i++) {
+            annos.add(annotations[readVarInt(b)]);
+        }
+    }
+
+    private Object readKey(ByteBuffer b, int kind) {
+        switch (kind) {
+        case KEY_STRING:
+            return readString(b);
+        case KEY_INTEGER:
+            return readSignedVarInt(b);
+        case KEY_BOUND:
+            int paramIndex = readSignedVarInt(b);
+            return new BoundLocation(paramIndex, readSignedVarInt(b));
+        case KEY_TYPE_INDEX:
+            return new TypeIndexLocation(readSignedVarInt(b));
+        case KEY_LOCAL:
+            if (b.get() == 0) {
+                int index = readSignedVarInt(b);
+                int scopeStart = readSignedVarInt(b);
+                return new LocalLocation(index, scopeStart,
+                    readSignedVarInt(b));
+            } else {
+                String varName = readString(b);
+                return new LocalLocation(varName, readSignedVarInt(b));
+            }
+        case KEY_RELATIVE:
+            int offset = readSignedVarInt(b);
+            int index = readSignedVarInt(b);
+            int typeIndex = readSignedVarInt(b);
+            return offset >= 0
+                ? RelativeLocation.createOffset(offset, typeIndex)
+                : RelativeLocation.createIndex(index, typeIndex);
+        case KEY_INNER_TYPE:
+            byte[] path = new byte[readVarInt(b)];
+            b.get(path);
+            return InnerTypeLocation.fromBinary(path);
+        case KEY_AST_PATH:
+            int size = readVarInt(b);
+            ASTPath astPath = ASTPath.empty();
+            for (int i = 0; i < size; i++) {
+                Tree.Kind treeKind = Tree.Kind.valueOf(readString(b));
+                String childSelector = readString(b);
+                int argument = readSignedVarInt(b);
+                astPath = astPath.extend(argument == Integer.MIN_VALUE
+                    ? new ASTPath.ASTEntry(treeKind, childSelector)
+                    : new ASTPath.ASTEntry(treeKind, childSelector, argument));
+            }
+            return astPath;
+        default:
+            throw new AssertionError();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <K, V extends AElement> void readMap(ByteBuffer b,
+            VivifyingMap<K, V> map, int keyKind) {
+        int n = readVarInt(b);
+        for (int i = 0; i < n; i++) {
+            K key = (K) readKey(b, keyKind);
+            map.vivify(key).accept(elementReader, b);
+        }
+    }
+
+    // Reads into an element the parts that BinarySceneWriter wrote, in the
+    // same order.
+    private final ElementVisitor<Void, ByteBuffer> elementReader =
+            new ElementVisitor<Void, ByteBuffer>() {
+        @Override
+        public Void visitElement(AElement el, ByteBuffer b) {
+            readAnnotations(b, el.tlAnnotationsHere);
+            if (el.type != null) {
+                visitTypeElement(el.type, b);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitAnnotationDef(AnnotationDef el, ByteBuffer b) {
+            throw new IllegalArgumentException(
+                "Annotation definitions are read from the tables: " + el);
+        }
+
+        @Override
+        public Void visitTypeElement(ATypeElement el, ByteBuffer b) {
+            visitElement(el, b);
+            readMap(b, el.innerTypes, KEY_INNER_TYPE);
+            return null;
+        }
+
+        @Override
+        public Void visitTypeElementWithType(ATypeElementWithType el,
+                ByteBuffer b) {
+            visitTypeElement(el, b);
+            try {
+                el.setType(readType(b));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitDeclaration(ADeclaration el, ByteBuffer b) {
+            visitElement(el, b);
+            readMap(b, el.insertAnnotations, KEY_AST_PATH);
+            readMap(b, el.insertTypecasts, KEY_AST_PATH);
+            return null;
+        }
+
+        @Override
+        public Void visitField(AField el, ByteBuffer b) {
+            return visitDeclaration(el, b);
+        }
+
+        @Override
+        public Void visitExpression(AExpression el, ByteBuffer b) {
+            visitElement(el, b);
+            readMap(b, el.typecasts, KEY_RELATIVE);
+            readMap(b, el.instanceofs, KEY_RELATIVE);
+            readMap(b, el.news, KEY_RELATIVE);
+            readMap(b, el.calls, KEY_RELATIVE);
+            readMap(b, el.refs, KEY_RELATIVE);
+            readMap(b, el.funs, KEY_RELATIVE);
+            return null;
+        }
+
+        @Override
+        public Void visitBlock(ABlock el, ByteBuffer b) {
+            visitExpression(el, b);
+            readMap(b, el.locals, KEY_LOCAL);
+            return null;
+        }
+
+        @Override
+        public Void visitMethod(AMethod el, ByteBuffer b) {
+            visitDeclaration(el, b);
+            readMap(b, el.bounds, KEY_BOUND);
+            visitTypeElement(el.returnType, b);
+            visitField(el.receiver, b);
+            readMap(b, el.parameters, KEY_INTEGER);
+            readMap(b, el.throwsException, KEY_TYPE_INDEX);
+            visitBlock(el.body, b);
+            return null;
+        }
+
+        @Override
+        public Void visitClass(AClass el, ByteBuffer b) {
+            visitDeclaration(el, b);
+            readMap(b, el.bounds, KEY_BOUND);
+            readMap(b, el.extendsImplements, KEY_TYPE_INDEX);
+            readMap(b, el.fieldInits, KEY_STRING);
+            readMap(b, el.fields, KEY_STRING);
+            for (String name : readStrings(b)) {
+                el.fields.vivify(name).init = el.fieldInits.vivify(name);
+            }
+            readMap(b, el.staticInits, KEY_INTEGER);
+            readMap(b, el.instanceInits, KEY_INTEGER);
+            readMap(b, el.methods, KEY_STRING);
+            return null;
+        }
+    };
+}
@@ -0,0 +1,674 @@
+package scenelib.annotations.io;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sun.source.tree.Tree;
+
+import scenelib.annotations.Annotation;
+import scenelib.annotations.el.ABlock;
+import scenelib.annotations.el.AClass;
+import scenelib.annotations.el.ADeclaration;
+import scenelib.annotations.el.AElement;
+import scenelib.annotations.el.AExpression;
+import scenelib.annotations.el.AField;
+import scenelib.annotations.el.AMethod;
+import scenelib.annotations.el.AScene;
+import scenelib.annotations.el.ATypeElement;
+import scenelib.annotations.el.ATypeElementWithType;
+import scenelib.annotations.el.AnnotationDef;
+import scenelib.annotations.el.BoundLocation;
+import scenelib.annotations.el.ElementVisitor;
+import scenelib.annotations.el.InnerTypeLocation;
+import scenelib.annotations.el.LocalLocation;
+import scenelib.annotations.el.RelativeLocation;
+import scenelib.annotations.el.TypeIndexLocation;
+import scenelib.annotations.field.AnnotationAFT;
+import scenelib.annotations.field.AnnotationFieldType;
+import scenelib.annotations.field.ArrayAFT;
+import scenelib.annotations.field.BasicAFT;
+import scenelib.annotations.field.ClassTokenAFT;
+import scenelib.annotations.field.EnumAFT;
+import scenelib.annotations.util.coll.VivifyingMap;
+import scenelib.type.ArrayType;
+import scenelib.type.BoundedType;
+import scenelib.type.DeclaredType;
+import scenelib.type.Type;
+
+/**
+ * BinarySceneWriter writes an {@link AScene} in a compact binary format,
+ * which {@link BinarySceneReader} reads back.  Unlike an index file, the
+ * format can be read one class at a time:  a reader looks a class up in
+ * a directory and decodes only that class.
+ * <p>
+ *
+ * A file consists of
+ * <ul>
+ * <li>a header:  the magic number {@link #MAGIC}, the {@link #VERSION},
+ * the number of strings, the number of classes, and the offsets of the
+ * tables, the directory, and the classes;
+ * <li>the string table:  the offset of each string, and one past the
+ * last, followed by the strings in UTF-8;
+ * <li>the tables of the annotation definitions and annotations that the
+ * classes use, each stored once, and the scene's imports;  a definition's
+ * meta-annotations follow the annotations, since they may refer to the
+ * definition itself;
+ * <li>the directory:  the name and offset of each class, in the order of
+ * the scene, followed by the positions in the directory of the classes
+ * sorted by name, so that a class can be found by binary search;
+ * <li>the classes.
+ * </ul>
+ * The header, the string table, and the directory consist of big-endian
+ * four-byte integers.  In the tables and the classes, integers are written
+ * in a variable-length encoding, and strings, definitions, and annotations
+ * are written as their indexes in the string table and the tables.
+ */
+public final class BinarySceneWriter {
+
+    /** The first four bytes of a binary scene file. */
+    static final int MAGIC = 0x53434e45;
+    /** The version of the format written by this class. */
+    static final int VERSION = 1;
+    /** The size of the header, in bytes. */
+    static final int HEADER_SIZE = 28;
+
+    // Tags of annotation field types
+    static final int AFT_BASIC = 0;
+    static final int AFT_CLASS_TOKEN = 1;
+    static final int AFT_ENUM = 2;
+    static final int AFT_ANNOTATION = 3;
+    static final int AFT_ARRAY = 4;
+    // The element type of an array of unknown element type
+    static final int AFT_UNKNOWN = 5;
+
+    // Tags of annotation field values
+    static final int VALUE_BOOLEAN = 0;
+    static final int VALUE_BYTE = 1;
+    static final int VALUE_CHAR = 2;
+    static final int VALUE_SHORT = 3;
+    static final int VALUE_INT = 4;
+    static final int VALUE_LONG = 5;
+    static final int VALUE_FLOAT = 6;
+    static final int VALUE_DOUBLE = 7;
+    static final int VALUE_STRING = 8;
+    static final int VALUE_CLASS = 9;
+    static final int VALUE_ANNOTATION = 10;
+    static final int VALUE_LIST = 11;
+
+    // Tags of types
+    static final int TYPE_NONE = 0;
+    static final int TYPE_DECLARED = 1;
+    static final int TYPE_ARRAY = 2;
+    static final int TYPE_BOUNDED = 3;
+
+    /**
+     * A growable array of bytes, with the encodings of the format.
+     */
+    static final class Buffer {
+        private byte[] bytes = new byte[256];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        private void ensure(int n) {
+            if (size + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes,
+                    Math.max(bytes.length * 2, size + n));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        void writeBytes(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+        }
+
+        /** Writes <code>v</code> as four big-endian bytes. */
+        void writeFixedInt(int v) {
+            ensure(4);
+            bytes[size++] = (byte) (v >>> 24);
+            bytes[size++] = (byte) (v >>> 16);
+            bytes[size++] = (byte) (v >>> 8);
+            bytes[size++] = (byte) v;
+        }
+
+        /**
+         * Writes the nonnegative <code>v</code> in seven-bit groups, least
+         * significant first, with the high bit set on all but the last.
+         */
+        void writeVarInt(int v) {
+            writeVarLong(v & 0xffffffffL);
+        }
+
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7fL) != 0) {
+                bytes[size++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            bytes[size++] = (byte) v;
+        }
+
+        /**
+         * Writes <code>v</code>, which may be negative, so that numbers of
+         * small magnitude take few bytes.
+         */
+        void writeSignedVarInt(int v) {
+            writeVarInt((v << 1) ^ (v >> 31));
+        }
+
+        void writeSignedVarLong(long v) {
+            writeVarLong((v << 1) ^ (v >> 63));
+        }
+
+        void write(Buffer b) {
+            ensure(b.size);
+            System.arraycopy(b.bytes, 0, bytes, size, b.size);
+            size += b.size;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, size);
+        }
+    }
+
+    private final Map<String, Integer> strings =
+        new LinkedHashMap<String, Integer>();
+
+    private final Map<AnnotationDef, Integer> defIndexes =
+        new HashMap<AnnotationDef, Integer>();
+    private final List<AnnotationDef> defs = new ArrayList<AnnotationDef>();
+
+    private final Map<Annotation, Integer> annotationIndexes =
+        new HashMap<Annotation, Integer>();
+    /** The encodings of the annotations, in the order of their indexes. */
+    private final Buffer annotations = new Buffer();
+
+    private BinarySceneWriter() {}
+
+    /**
+     * Writes <code>scene</code> to <code>out</code> in the binary scene
+     * format.  The stream is not closed.
+     */
+    public static void write(AScene scene, OutputStream out)
+            throws IOException {
+        new BinarySceneWriter().writeScene(scene, out);
+    }
+
+    /**
+     * Writes <code>scene</code> to the file <code>filename</code> in the
+     * binary scene format.
+     */
+    public static void write(AScene scene, String filename)
+            throws IOException {
+        try (OutputStream out =
+                new BufferedOutputStream(new FileOutputStream(filename))) {
+            write(scene, out);
+        }
+    }
+
+    private void writeScene(AScene scene, OutputStream out)
+            throws IOException {
+        // The classes come first, since they determine what is in the
+        // tables.
+        final int classCount = scene.classes.size();
+        final int[] names = new int[classCount];
+        int[] offsets = new int[classCount];
+        Buffer bodies = new Buffer();
+        int i = 0;
+        for (Map.Entry<String, AClass> entry : scene.classes.entrySet()) {
+            names[i] = string(entry.getKey());
+            offsets[i] = bodies.size();
+            entry.getValue().accept(elementWriter, bodies);
+            i++;
+        }
+
+        Buffer tables = new Buffer();
+        writeTables(scene, tables);
+
+        final String[] stringArray =
+            strings.keySet().toArray(new String[strings.size()]);
+        Integer[] sorted = new Integer[classCount];
+        for (i = 0; i < classCount; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return stringArray[names[i1]].compareTo(stringArray[names[i2]]);
+            }
+        });
+
+        Buffer header = new Buffer();
+        Buffer stringData = new Buffer();
+        int stringsOffset = HEADER_SIZE + 4 * (stringArray.length + 1);
+        List<byte[]> encoded = new ArrayList<byte[]>(stringArray.length);
+        int stringOffset = stringsOffset;
+        for (String s : stringArray) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            encoded.add(b);
+            stringOffset += b.length;
+        }
+        int tablesOffset = stringOffset;
+        int directoryOffset = tablesOffset + tables.size();
+        int bodiesOffset = directoryOffset + 12 * classCount;
+
+        header.writeFixedInt(MAGIC);
+        header.writeFixedInt(VERSION);
+        header.writeFixedInt(stringArray.length);
+        header.writeFixedInt(classCount);
+        header.writeFixedInt(tablesOffset);
+        header.writeFixedInt(directoryOffset);
+        header.writeFixedInt(bodiesOffset);
+        stringOffset = stringsOffset;
+        for (byte[] b : encoded) {
+            header.writeFixedInt(stringOffset);
+            stringData.writeBytes(b);
+            stringOffset += b.length;
+        }
+        header.writeFixedInt(stringOffset);
+
+        Buffer directory = new Buffer();
+        for (i = 0; i < classCount; i++) {
+            directory.writeFixedInt(names[i]);
+            directory.writeFixedInt(offsets[i]);
+        }
+        for (i = 0; i < classCount; i++) {
+            directory.writeFixedInt(sorted[i]);
+        }
+
+        header.writeTo(out);
+        stringData.writeTo(out);
+        tables.writeTo(out);
+        directory.writeTo(out);
+        bodies.writeTo(out);
+        out.flush();
+    }
+
+    // Writes the definitions, the annotations, and the imports.  Writing
+    // the field types and meta-annotations of the definitions may add
+    // further definitions and annotations.
+    private void writeTables(AScene scene, Buffer out) {
+        Buffer defFields = new Buffer();
+        Buffer metaAnnotations = new Buffer();
+        for (int i = 0; i < defs.size(); i++) {
+            AnnotationDef def = defs.get(i);
+            defFields.writeVarInt(def.fieldTypes.size());
+            for (Map.Entry<String, AnnotationFieldType> f
+                    : def.fieldTypes.entrySet()) {
+                defFields.writeVarInt(string(f.getKey()));
+                writeFieldType(f.getValue(), defFields);
+            }
+            writeAnnotations(def.tlAnnotationsHere, metaAnnotations);
+        }
+        // The names come first, so that a reader can create the
+        // definitions that field types refer to.
+        out.writeVarInt(defs.size());
+        for (AnnotationDef def : defs) {
+            out.writeVarInt(string(def.name));
+        }
+        out.write(defFields);
+        out.writeVarInt(annotationIndexes.size());
+        out.write(annotations);
+        out.write(metaAnnotations);
+
+        out.writeVarInt(scene.imports.size());
+        for (Map.Entry<String, Set<String>> entry : scene.imports.entrySet()) {
+            out.writeVarInt(string(entry.getKey()));
+            out.writeVarInt(entry.getValue().size());
+            for (String s : entry.getValue()) {
+                out.writeVarInt(string(s));
+            }
+        }
+    }
+
+    private int string(String s) {
+        Integer index = strings.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.put(s, index);
+        }
+        return index;
+    }
+
+    private int def(AnnotationDef def) {
+        Integer index = defIndexes.get(def);
+        if (index == null) {
+            index = defs.size();
+            defIndexes.put(def, index);
+            defs.add(def);
+        }
+        return index;
+    }
+
+    // Subannotations are written before the annotations that contain them,
+    // so a reader can construct each annotation from earlier ones.
+    private int annotation(Annotation a) {
+        Integer index = annotationIndexes.get(a);
+        if (index == null) {
+            Buffer fields = new Buffer();
+            fields.writeVarInt(def(a.def));
+            fields.writeVarInt(a.fieldValues.size());
+            for (Map.Entry<String, Object> f : a.fieldValues.entrySet()) {
+                fields.writeVarInt(string(f.getKey()));
+                writeValue(f.getValue(), fields);
+            }
+            index = annotationIndexes.size();
+            annotationIndexes.put(a, index);
+            annotations.write(fields);
+        }
+        return index;
+    }
+
+    private void writeFieldType(/*@Nullable*/ AnnotationFieldType aft,
+            Buffer out) {
+        if (aft == null) {
+            out.writeByte(AFT_UNKNOWN);
+        } else if (aft instanceof BasicAFT) {
+            out.writeByte(AFT_BASIC);
+            out.writeVarInt(string(((BasicAFT) aft).type.getName()));
+        } else if (aft instanceof ClassTokenAFT) {
+            out.writeByte(AFT_CLASS_TOKEN);
+        } else if (aft instanceof EnumAFT) {
+            out.writeByte(AFT_ENUM);
+            out.writeVarInt(string(((EnumAFT) aft).typeName));
+        } else if (aft instanceof AnnotationAFT) {
+            out.writeByte(AFT_ANNOTATION);
+            out.writeVarInt(def(((AnnotationAFT) aft).annotationDef));
+        } else if (aft instanceof ArrayAFT) {
+            out.writeByte(AFT_ARRAY);
+            writeFieldType(((ArrayAFT) aft).elementType, out);
+        } else {
+            throw new IllegalArgumentException("Unknown field type " + aft);
+        }
+    }
+
+    private void writeValue(Object value, Buffer out) {
+        if (value instanceof Boolean) {
+            out.writeByte(VALUE_BOOLEAN);
+            out.writeByte((Boolean) value ? 1 : 0);
+        } else if (value instanceof Byte) {
+            out.writeByte(VALUE_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(VALUE_CHAR);
+            out.writeVarInt((Character) value);
+        } else if (value instanceof Short) {
+            out.writeByte(VALUE_SHORT);
+            out.writeSignedVarInt((Short) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(VALUE_INT);
+            out.writeSignedVarInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(VALUE_LONG);
+            out.writeSignedVarLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(VALUE_FLOAT);
+            out.writeFixedInt(Float.floatToRawIntBits((Float) value));
+        } else if (value instanceof Double) {
+            out.writeByte(VALUE_DOUBLE);
+            long bits = Double.doubleToRawLongBits((Double) value);
+            out.writeFixedInt((int) (bits >>> 32));
+            out.writeFixedInt((int) bits);
+        } else if (value instanceof String) {
+            out.writeByte(VALUE_STRING);
+            out.writeVarInt(string((String) value));
+        } else if (value instanceof Class) {
+            out.writeByte(VALUE_CLASS);
+            out.writeVarInt(string(((Class<?>) value).getName()));
+        } else if (value instanceof Annotation) {
+            int index = annotation((Annotation) value);
+            out.writeByte(VALUE_ANNOTATION);
+            out.writeVarInt(index);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.writeByte(VALUE_LIST);
+            out.writeVarInt(list.size());
+            for (Object o : list) {
+                writeValue(o, out);
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown field value " + value);
+        }
+    }
+
+    private void writeType(/*@Nullable*/ Type type, Buffer out) {
+        if (type == null) {
+            out.writeByte(TYPE_NONE);
+            return;
+        }
+        switch (type.getKind()) {
+        case DECLARED:
+            DeclaredType dt = (DeclaredType) type;
+            out.writeByte(TYPE_DECLARED);
+            out.writeVarInt(string(dt.getName()));
+            writeStrings(dt.getAnnotations(), out);
+            if (dt.isWildcard()) {
+                // a wildcard has neither type parameters nor an inner type
+                out.writeVarInt(0);
+                out.writeByte(TYPE_NONE);
+                break;
+            }
+            out.writeVarInt(dt.getTypeParameters().size());
+            for (Type t : dt.getTypeParameters()) {
+                writeType(t, out);
+            }
+            writeType(dt.getInnerType(), out);
+            break;
+        case ARRAY:
+            ArrayType at = (ArrayType) type;
+            out.writeByte(TYPE_ARRAY);
+            writeStrings(at.getAnnotations(), out);
+            writeType(at.getComponentType(), out);
+            break;
+        case BOUNDED:
+            BoundedType bt = (BoundedType) type;
+            out.writeByte(TYPE_BOUNDED);
+            writeType(bt.getName(), out);
+            out.writeByte(bt.getBoundKind().ordinal());
+            writeType(bt.getBound(), out);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+
+    private void writeStrings(List<String> list, Buffer out) {
+        out.writeVarInt(list.size());
+        for (String s : list) {
+            out.writeVarInt(string(s));
+        }
+    }
+
+    private void writeAnnotations(Set<Annotation> annos, Buffer out) {
+        out.writeVarInt(annos.size());
+        for (Annotation a : annos) {
+            out.writeVarInt(annotation(a));
+        }
+    }
+
+    private void writeKey(Object key, Buffer out) {
+        if (key instanceof String) {
+            out.writeVarInt(string((String) key));
+        } else if (key instanceof Integer) {
+            out.writeSignedVarInt((Integer) key);
+        } else if (key instanceof BoundLocation) {
+            BoundLocation loc = (BoundLocation) key;
+            out.writeSignedVarInt(loc.paramIndex);
+            out.writeSignedVarInt(loc.boundIndex);
+        } else if (key instanceof TypeIndexLocation) {
+            out.writeSignedVarInt(((TypeIndexLocation) key).typeIndex);
+        } else if (key instanceof LocalLocation) {
+            LocalLocation loc = (LocalLocation) key;
+            if (loc.varName == null) {
+                out.writeByte(0);
+                out.writeSignedVarInt(loc.index);
+                out.writeSignedVarInt(loc.scopeStart);
+                out.writeSignedVarInt(loc.scopeLength);
+            } else {
+                out.writeByte(1);
+                out.writeVarInt(string(loc.varName));
+                out.writeSignedVarInt(loc.varIndex);
+            }
+        } else if (key instanceof RelativeLocation) {
+            RelativeLocation loc = (RelativeLocation) key;
+            out.writeSignedVarInt(loc.offset);
+            out.writeSignedVarInt(loc.index);
+            out.writeSignedVarInt(loc.type_index);
+        } else if (key instanceof InnerTypeLocation) {
+            byte[] path = ((InnerTypeLocation) key).toBinary();
+            out.writeVarInt(path.length);
+            out.writeBytes(path);
+        } else if (key instanceof ASTPath) {
+            ASTPath path = (ASTPath) key;
+            out.writeVarInt(path.size());
+            for (ASTPath.ASTEntry entry : path) {
+                Tree.Kind kind = entry.getTreeKind();
+                out.writeVarInt(string(kind.name()));
+                out.writeVarInt(string(entry.getChildSelector()));
+                if (entry.hasArgument()) {
+                    out.writeSignedVarInt(entry.getArgument());
+                } else {
+                    // an impossible argument, which the reader takes as none
+                    out.writeSignedVarInt(Integer.MIN_VALUE);
+                }
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown key " + key);
+        }
+    }
+
+    private <K, V extends AElement> void writeMap(VivifyingMap<K, V> map,
+            Buffer out) {
+        out.writeVarInt(map.size());
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            writeKey(entry.getKey(), out);
+            entry.getValue().accept(elementWriter, out);
+        }
+    }
+
+    // Writes an element and its subelements, in the order in which
+    // BinarySceneReader reads them.
+    private final ElementVisitor<Void, Buffer> elementWriter =
+            new ElementVisitor<Void, Buffer>() {
+
+        @Override
+        public Void visitElement(AElement el, Buffer out) {
+            writeAnnotations(el.tlAnnotationsHere, out);
+            if (el.type != null) {
+                visitTypeElement(el.type, out);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitAnnotationDef(AnnotationDef el, Buffer out) {
+            throw new IllegalArgumentException(
+                "Annotation definitions are written in the tables: " + el);
+        }
+
+        @Override
+        public Void visitTypeElement(ATypeElement el, Buffer out) {
+            visitElement(el, out);
+            writeMap(el.innerTypes, out);
+            return null;
+        }
+
+        @Override
+        public Void visitTypeElementWithType(ATypeElementWithType el,
+                Buffer out) {
+            visitTypeElement(el, out);
+            writeType(el.getType(), out);
+            return null;
+        }
+
+        @Override
+        public Void visitDeclaration(ADeclaration el, Buffer out) {
+            visitElement(el, out);
+            writeMap(el.insertAnnotations, out);
+            writeMap(el.insertTypecasts, out);
+            return null;
+        }
+
+        @Override
+        public Void visitField(AField el, Buffer out) {
+            return visitDeclaration(el, out);
+        }
+
+        @Override
+        public Void visitExpression(AExpression el, Buffer out) {
+            visitElement(el, out);
+            writeMap(el.typecasts, out);
+            writeMap(el.instanceofs, out);
+            writeMap(el.news, out);
+            writeMap(el.calls, out);
+            writeMap(el.refs, out);
+            writeMap(el.funs, out);
+            return null;
+        }
+
+        @Override
+        public Void visitBlock(ABlock el, Buffer out) {
+            visitExpression(el, out);
+            writeMap(el.locals, out);
+            return null;
+        }
+
+        @Override
+        public Void visitMethod(AMethod el, Buffer out) {
+            visitDeclaration(el, out);
+            writeMap(el.bounds, out);
+            visitTypeElement(el.returnType, out);
+            visitField(el.receiver, out);
+            writeMap(el.parameters, out);
+            writeMap(el.throwsException, out);
+            visitBlock(el.body, out);
+            return null;
+        }
+
+        @Override
+        public Void visitClass(AClass el, Buffer out) {
+            visitDeclaration(el, out);
+            writeMap(el.bounds, out);
+            writeMap(el.extendsImplements, out);
+            writeMap(el.fieldInits, out);
+            writeMap(el.fields, out);
+            // The fields whose initializers are in fieldInits, as the index
+            // file parser makes them
+            List<String> initialized = new ArrayList<String>();
+            for (Map.Entry<String, AField> entry : el.fields.entrySet()) {
+                AField f = entry.getValue();
+                if (f.init != null && f.init == el.fieldInits.get(entry.getKey())) {
+                    initialized.add(entry.getKey());
+                }
+            }
+            writeStrings(initialized, out);
+            writeMap(el.staticInits, out);
+            writeMap(el.instanceInits, out);
+            writeMap(el.methods, out);
+            return null;
+        }
+    };
+}
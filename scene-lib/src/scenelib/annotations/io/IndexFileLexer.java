@@ -0,0 +1,494 @@
+package scenelib.annotations.io;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * <code>IndexFileLexer</code> splits index file text into tokens for
+ * {@link IndexFileParser}.  It produces the tokens that the
+ * {@link java.io.StreamTokenizer} that the parser used to be built on
+ * produced, as the parser configured it, and reports the same line
+ * numbers, but it works on a character array that holds the whole input.
+ * <p>
+ *
+ * Words are interned, so they can be compared to keywords cheaply, and
+ * numbers are converted from their text exactly.  Unlike
+ * {@link java.io.StreamTokenizer}, the lexer accepts an exponent, as in
+ * <code>1.0E10</code>, and a type suffix, as in <code>2L</code>, in a
+ * number.
+ */
+final class IndexFileLexer {
+    /** The type of the token at the end of the input. */
+    static final int TT_EOF = -1;
+    /** The type of a number token; see {@link #nval}. */
+    static final int TT_NUMBER = -2;
+    /** The type of a word token; see {@link #sval}. */
+    static final int TT_WORD = -3;
+
+    // Character classes, as in java.io.StreamTokenizer.  Characters beyond
+    // the table are alphabetic.
+    private static final byte WHITESPACE = 1;
+    private static final byte DIGIT = 2;
+    private static final byte ALPHA = 4;
+    private static final byte QUOTE = 8;
+
+    private static final byte[] classes = new byte[256];
+    static {
+        for (int c = 0; c <= ' '; c++) {
+            classes[c] = WHITESPACE;
+        }
+        for (int c = 'a'; c <= 'z'; c++) {
+            classes[c] = ALPHA;
+        }
+        for (int c = 'A'; c <= 'Z'; c++) {
+            classes[c] = ALPHA;
+        }
+        for (int c = 128 + 32; c < 256; c++) {
+            classes[c] = ALPHA;
+        }
+        // Java identifiers can contain digits, _, and $; "-" is for
+        // words such as "type-argument", as well as negative numbers.
+        for (int c = '0'; c <= '9'; c++) {
+            classes[c] = DIGIT | ALPHA;
+        }
+        classes['-'] = DIGIT | ALPHA;
+        classes['_'] = ALPHA;
+        classes['$'] = ALPHA;
+        classes['"'] = QUOTE;
+        classes['\''] = QUOTE;
+    }
+
+    // The input
+    private final char[] buf;
+    private final int end;
+
+    /** The index of the next character to be scanned. */
+    private int pos;
+
+    /**
+     * The number of characters that {@link java.io.StreamTokenizer} would
+     * have read at this point, including the character it looks ahead at
+     * after some tokens; the line number is that of the last of them.
+     * One more than the length of the input once the end has been read.
+     */
+    private int consumed;
+
+    /** The line number at the beginning of the input. */
+    private final int firstLine;
+
+    /** The index of the first character of the current token. */
+    private int tokenStart;
+
+    /**
+     * The type of the current token: {@link #TT_EOF}, {@link #TT_NUMBER},
+     * {@link #TT_WORD}, a quote character for a quoted string, or the
+     * character itself for any other single-character token.
+     */
+    int ttype;
+
+    /**
+     * The current word, interned, or the contents of the current quoted
+     * string; null for other tokens.
+     */
+    String sval;
+
+    /** The value of the current number token. */
+    double nval;
+
+    /** The text of the current number, without a type suffix. */
+    private String ntext;
+
+    /** Whether the current number has neither a fraction nor an exponent. */
+    private boolean nintegral;
+
+    /** Words seen so far, in an open-addressing table. */
+    private String[] words = new String[512];
+    private int wordCount = 0;
+
+    /**
+     * Constructs a lexer for <code>buf[start..end)</code>.  The line number
+     * of <code>buf[0]</code> is <code>firstLine</code>, counting from 0 as
+     * {@link java.io.LineNumberReader} does.
+     */
+    IndexFileLexer(char[] buf, int start, int end, int firstLine) {
+        this.buf = buf;
+        this.end = end;
+        this.firstLine = firstLine;
+        seek(start);
+    }
+
+    /**
+     * Constructs a lexer for the given text.
+     */
+    IndexFileLexer(String text) {
+        this(text.toCharArray(), 0, text.length(), 0);
+    }
+
+    /**
+     * Reads <code>in</code> to the end and returns its characters, in an
+     * array that may be longer than the input; the input ends at the
+     * first index that is not filled, which is returned in
+     * <code>length[0]</code>.
+     */
+    static char[] readAll(Reader in, int[] length) throws IOException {
+        char[] result = new char[8192];
+        int n = 0;
+        for (;;) {
+            if (n == result.length) {
+                char[] larger = new char[result.length * 2];
+                System.arraycopy(result, 0, larger, 0, n);
+                result = larger;
+            }
+            int r = in.read(result, n, result.length - n);
+            if (r < 0) {
+                break;
+            }
+            n += r;
+        }
+        length[0] = n;
+        return result;
+    }
+
+    /**
+     * Moves to <code>offset</code> in the input; the next call to
+     * {@link #nextToken} reads the token there.
+     */
+    void seek(int offset) {
+        pos = offset;
+        consumed = offset;
+        tokenStart = offset;
+        sval = null;
+    }
+
+    /** Returns the offset in the input of the current token. */
+    int tokenStart() {
+        return tokenStart;
+    }
+
+    /**
+     * Returns the number of line terminators in <code>buf[from..to)</code>,
+     * counting "\r\n" once.
+     */
+    private static int lineCount(char[] buf, int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            char c = buf[i];
+            if (c == '\n') {
+                if (i == 0 || buf[i - 1] != '\r') {
+                    lines++;
+                }
+            } else if (c == '\r') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the line number, counting from 0, that a
+     * {@link java.io.LineNumberReader} over the input would report after
+     * the current token has been read.  It is computed by counting, so it
+     * is meant for error messages.
+     */
+    int lineNumber() {
+        if (consumed <= end) {
+            return firstLine + lineCount(buf, 0, consumed);
+        }
+        int lines = firstLine + lineCount(buf, 0, end);
+        // Once it has read to the end, a LineNumberReader counts an
+        // unterminated last line too.
+        if (end > 0 && buf[end - 1] != '\n' && buf[end - 1] != '\r') {
+            lines++;
+        }
+        return lines;
+    }
+
+    private static int classOf(int c) {
+        return c < 256 ? classes[c] : ALPHA;
+    }
+
+    /** Returns the character at <code>i</code>, or -1 at the end. */
+    private int charAt(int i) {
+        return i < end ? buf[i] : -1;
+    }
+
+    /**
+     * Reads the next token and returns its type, which is also stored in
+     * {@link #ttype}.
+     */
+    int nextToken() {
+        sval = null;
+        for (;;) {
+            // Skip whitespace.
+            while (pos < end && buf[pos] <= ' ') {
+                pos++;
+            }
+            tokenStart = pos;
+            if (pos == end) {
+                consumed = end + 1;
+                return ttype = TT_EOF;
+            }
+            char c = buf[pos];
+            if (c == '/' && charAt(pos + 1) == '/') {
+                // A comment extends to the end of the line.
+                pos += 2;
+                while (pos < end && buf[pos] != '\n' && buf[pos] != '\r') {
+                    pos++;
+                }
+                continue;
+            }
+            int cls = classOf(c);
+            if ((cls & DIGIT) != 0) {
+                return scanNumber();
+            } else if ((cls & ALPHA) != 0) {
+                return scanWord();
+            } else if ((cls & QUOTE) != 0) {
+                return scanQuoted();
+            } else {
+                pos++;
+                // StreamTokenizer reads ahead after '/', to look for a
+                // comment.
+                consumed = c == '/' ? pos + 1 : pos;
+                return ttype = c;
+            }
+        }
+    }
+
+    private int scanWord() {
+        int start = pos;
+        int h = 0;
+        do {
+            h = 31 * h + buf[pos];
+            pos++;
+        } while (pos < end && (classOf(buf[pos]) & (ALPHA | DIGIT)) != 0);
+        consumed = pos + 1;
+        sval = word(start, pos - start, h);
+        return ttype = TT_WORD;
+    }
+
+    /**
+     * Returns the interned string for <code>buf[start..start+len)</code>,
+     * whose {@link String#hashCode} is <code>h</code>.
+     */
+    private String word(int start, int len, int h) {
+        int mask = words.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            String w = words[i];
+            if (w == null) {
+                w = new String(buf, start, len).intern();
+                words[i] = w;
+                if (++wordCount * 2 > words.length) {
+                    rehashWords();
+                }
+                return w;
+            }
+            if (w.hashCode() == h && w.length() == len
+                    && sameChars(w, start)) {
+                return w;
+            }
+        }
+    }
+
+    private boolean sameChars(String w, int start) {
+        for (int i = 0; i < w.length(); i++) {
+            if (w.charAt(i) != buf[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehashWords() {
+        String[] old = words;
+        words = new String[old.length * 2];
+        int mask = words.length - 1;
+        for (String w : old) {
+            if (w != null) {
+                int i = w.hashCode() & mask;
+                while (words[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                words[i] = w;
+            }
+        }
+    }
+
+    private static boolean isDigit(int c) {
+        return '0' <= c && c <= '9';
+    }
+
+    private int scanNumber() {
+        int start = pos;
+        if (buf[pos] == '-') {
+            int next = charAt(pos + 1);
+            if (next != '.' && !isDigit(next)) {
+                pos++;
+                consumed = pos + 1;
+                return ttype = '-';
+            }
+            pos++;
+        }
+        boolean digits = false;
+        boolean seenDot = false;
+        for (;;) {
+            int c = charAt(pos);
+            if (c == '.' && !seenDot) {
+                seenDot = true;
+            } else if (isDigit(c)) {
+                digits = true;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        boolean integral = !seenDot;
+        // An exponent, which StreamTokenizer would have split off as a word
+        int c = charAt(pos);
+        if (digits && (c == 'e' || c == 'E')) {
+            int p = pos + 1;
+            int sign = charAt(p);
+            if (sign == '+' || sign == '-') {
+                p++;
+            }
+            if (isDigit(charAt(p))) {
+                while (isDigit(charAt(p))) {
+                    p++;
+                }
+                pos = p;
+                integral = false;
+            }
+        }
+        int textEnd = pos;
+        // A type suffix, unless it begins a word
+        c = charAt(pos);
+        if (digits && "lLfFdD".indexOf(c) >= 0
+                && (pos + 1 == end
+                    || (classOf(buf[pos + 1]) & (ALPHA | DIGIT)) == 0)) {
+            pos++;
+        }
+        consumed = pos + 1;
+        // "-." is negative zero to StreamTokenizer.
+        ntext = digits ? new String(buf, start, textEnd - start) : "-0.0";
+        nintegral = integral;
+        nval = Double.parseDouble(ntext);
+        return ttype = TT_NUMBER;
+    }
+
+    /**
+     * Returns the value of the current number token as a long: exactly,
+     * if it is an integer that fits, or else as the Java conversion of
+     * {@link #nval} would.
+     */
+    long longValue() {
+        if (nintegral) {
+            try {
+                return Long.parseLong(ntext);
+            } catch (NumberFormatException e) {
+                // too large; fall through
+            }
+        }
+        return (long) nval;
+    }
+
+    /**
+     * Returns the value of the current number token as a float, rounded
+     * from its text rather than from {@link #nval}.
+     */
+    float floatValue() {
+        return Float.parseFloat(ntext);
+    }
+
+    private int scanQuoted() {
+        char quote = buf[pos++];
+        ttype = quote;
+        StringBuilder sb = null;
+        int start = pos;
+        int d = charAt(pos);
+        while (d >= 0 && d != quote && d != '\n' && d != '\r') {
+            if (d != '\\') {
+                pos++;
+                if (sb != null) {
+                    sb.append((char) d);
+                }
+                d = charAt(pos);
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder();
+                sb.append(buf, start, pos - start);
+            }
+            pos++;
+            int c = charAt(pos);
+            pos++;
+            int first = c;
+            if (c >= '0' && c <= '7') {
+                // An octal escape, of up to three digits; \377 is the
+                // largest.
+                c = c - '0';
+                int c2 = charAt(pos);
+                if ('0' <= c2 && c2 <= '7') {
+                    pos++;
+                    c = (c << 3) + (c2 - '0');
+                    c2 = charAt(pos);
+                    if ('0' <= c2 && c2 <= '7' && first <= '3') {
+                        pos++;
+                        c = (c << 3) + (c2 - '0');
+                    }
+                }
+            } else {
+                switch (c) {
+                case 'a': c = 0x7; break;
+                case 'b': c = '\b'; break;
+                case 'f': c = 0xC; break;
+                case 'n': c = '\n'; break;
+                case 'r': c = '\r'; break;
+                case 't': c = '\t'; break;
+                case 'v': c = 0xB; break;
+                default: break;
+                }
+                if (first < 0) {
+                    // backslash at the end of the input
+                    pos = end;
+                }
+            }
+            sb.append((char) c);
+            d = charAt(pos);
+        }
+        if (sb == null) {
+            sval = new String(buf, start, pos - start);
+        } else {
+            sval = sb.toString();
+        }
+        if (d == quote) {
+            pos++;
+            consumed = pos;
+        } else {
+            // The line terminator ends the string, and is read.
+            consumed = pos + 1;
+        }
+        return ttype;
+    }
+
+    @Override
+    public String toString() {
+        String ret;
+        switch (ttype) {
+        case TT_EOF: ret = "EOF"; break;
+        case TT_WORD: ret = sval; break;
+        case TT_NUMBER: ret = "n=" + nval; break;
+        default:
+            if (ttype < 256 && (classes[ttype] & QUOTE) != 0) {
+                ret = sval;
+            } else {
+                ret = "'" + (char) ttype + "'";
+            }
+            break;
+        }
+        return "Token[" + ret + "], line "
+            + (firstLine + lineCount(buf, 0, tokenStart) + 1);
+    }
+}
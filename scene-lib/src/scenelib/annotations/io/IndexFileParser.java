@@ -4,30 +4,36 @@ package scenelib.annotations.io;
 import org.checkerframework.checker.nullness.qual.*;
 */
 
-import static java.io.StreamTokenizer.TT_EOF;
-import static java.io.StreamTokenizer.TT_NUMBER;
-import static java.io.StreamTokenizer.TT_WORD;
+import static scenelib.annotations.io.IndexFileLexer.TT_EOF;
+import static scenelib.annotations.io.IndexFileLexer.TT_NUMBER;
+import static scenelib.annotations.io.IndexFileLexer.TT_WORD;
 
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.LineNumberReader;
 import java.io.Reader;
-import java.io.StreamTokenizer;
-import java.io.StringReader;
+import java.nio.charset.Charset;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import com.sun.source.tree.Tree.Kind;
-import com.sun.tools.javac.code.TypeAnnotationPosition;
 
 import scenelib.annotations.Annotation;
 import scenelib.annotations.AnnotationBuilder;
@@ -89,7 +95,7 @@ public final class IndexFileParser {
     private static boolean abbreviate = true;
 
     // The input
-    private final StreamTokenizer st;
+    private final IndexFileLexer st;
 
     // The output
     private final AScene scene;
@@ -100,8 +106,10 @@ public final class IndexFileParser {
      * Holds definitions we've seen so far.  Maps from annotation name to
      * the definition itself.  Maps from both the qualified name and the
      * unqualified name.  If the unqualified name is not unique, it maps
-     * to null and the qualified name should be used instead. */
-    private final HashMap<String, AnnotationDef> defs;
+     * to null and the qualified name should be used instead.  When parsing
+     * in parallel, a map may be shared with the parsers of class sections,
+     * and is then replaced by a copy rather than changed. */
+    private HashMap<String, AnnotationDef> defs;
 
     public static void setAbbreviate(boolean b) {
       abbreviate = b;
@@ -159,10 +167,9 @@ public final class IndexFileParser {
             // Alternately, could use st.toString().
             String found;
             switch (st.ttype) {
-            case StreamTokenizer.TT_WORD: found = st.sval; break;
-            case StreamTokenizer.TT_NUMBER: found = "" + st.nval; break;
-            case StreamTokenizer.TT_EOL: found = "end of line"; break;
-            case StreamTokenizer.TT_EOF: found = "end of file"; break;
+            case TT_WORD: found = st.sval; break;
+            case TT_NUMBER: found = "" + st.nval; break;
+            case TT_EOF: found = "end of file"; break;
             default: found = "'" + ((char) st.ttype) + "'"; break;
             }
             throw new ParseException("Expected '" + c + "', found " + found);
@@ -336,22 +343,19 @@ public final class IndexFileParser {
                 st.nextToken();
             } else {
                 if (st.ttype == TT_NUMBER) {
-                    double n = st.nval;
                     // TODO validate the literal better
-                    // HMMM StreamTokenizer can't handle all floating point
-                    // numbers; in particular, scientific notation is a problem
                     if (type == byte.class) {
-                        val = (byte) n;
+                        val = (byte) st.longValue();
                     } else if (type == short.class) {
-                        val = (short) n;
+                        val = (short) st.longValue();
                     } else if (type == int.class) {
-                        val = (int) n;
+                        val = (int) st.longValue();
                     } else if (type == long.class) {
-                        val = (long) n;
+                        val = st.longValue();
                     } else if (type == float.class) {
-                        val = (float) n;
+                        val = st.floatValue();
                     } else if (type == double.class) {
-                        val = n;
+                        val = st.nval;
                     } else {
                         throw new AssertionError();
                     }
@@ -625,13 +629,13 @@ public final class IndexFileParser {
             // Handle unknown[]; see AnnotationBuilder#addEmptyArrayField
             expectChar('[');
             expectChar(']');
-            return new ArrayAFT(null);
+            return ArrayAFT.forElementType(null);
         }
         ScalarAFT baseAFT = parseScalarAFT(annotationFullyQualifiedName);
         // only one level of array is permitted
         if (matchChar('[')) {
             expectChar(']');
-            return new ArrayAFT(baseAFT);
+            return ArrayAFT.forElementType(baseAFT);
         } else {
             return baseAFT;
         }
@@ -664,6 +668,8 @@ public final class IndexFileParser {
         }
 
         ad.setFieldTypes(fields);
+        // Share the definition with other files that define it the same way.
+        ad = ad.intern();
 
         // Now add the definition to the map of all definitions.
         addDef(ad, basename);
@@ -694,8 +700,13 @@ public final class IndexFileParser {
         if (! basename.equals(ad.name)) {
             if (defs.containsKey(basename)) {
                 // not "defs.remove(basename)" because then a subsequent
-                // one could get added, which would be wrong.
-                defs.put(basename, null);
+                // one could get added, which would be wrong.  A definition
+                // in the default package keeps its name, whatever the order
+                // of the definitions.
+                AnnotationDef old = defs.get(basename);
+                if (old == null || !old.name.equals(basename)) {
+                    defs.put(basename, null);
+                }
             } else {
                 defs.put(basename, ad);
             }
@@ -721,8 +732,8 @@ public final class IndexFileParser {
             }
             InnerTypeLocation loc;
             try {
-                loc = new InnerTypeLocation(TypeAnnotationPosition.getTypePathFromBinary(locNumbers));
-            } catch (AssertionError ex) {
+                loc = InnerTypeLocation.fromBinary(locNumbers);
+            } catch (IllegalArgumentException ex) {
                 throw new ParseException(ex.getMessage(), ex);
             }
             AElement it = e.innerTypes.vivify(loc);
@@ -1210,7 +1221,7 @@ public final class IndexFileParser {
                 int a = entry.getArgument();
                 if (a > 0) {
                     outerPath = astPath.getParentPath().extend(new ASTPath.ASTEntry(Kind.NEW_ARRAY, ASTPath.TYPE, 0));
-            loc = new InnerTypeLocation(TypeAnnotationPosition.getTypePathFromBinary(Collections.nCopies(2 * a, 0)));
+            loc = InnerTypeLocation.fromBinary(Collections.nCopies(2 * a, 0));
                 }
             }
         }
@@ -1519,32 +1530,37 @@ public final class IndexFileParser {
         c.methods.prune();
     }
 
+    // Reads a package header from this.st and sets curPkgPrefix.
+    private void parsePackage() throws IOException, ParseException {
+        expectKeyword("package");
+
+        String pkg;
+        if (checkIdentifier() == null) {
+            pkg = null;
+            // the default package cannot be annotated
+            matchChar(':');
+        } else {
+            pkg = expectQualifiedName();
+            // AElement p = scene.packages.vivify(pkg);
+            AClass p = scene.classes.vivify(pkg + ".package-info");
+            expectChar(':');
+            p = scene.classes.vivify(pkg + ".package-info");
+            parseAnnotations(p);
+        }
+
+        if (pkg != null) {
+            curPkgPrefix = pkg + ".";
+        } else {
+            curPkgPrefix = "";
+        }
+    }
+
     // Reads the index file in this.st and puts the information in this.scene.
     private void parse() throws ParseException, IOException {
         st.nextToken();
 
         while (st.ttype != TT_EOF) {
-            expectKeyword("package");
-
-            String pkg;
-            if (checkIdentifier() == null) {
-                pkg = null;
-                // the default package cannot be annotated
-                matchChar(':');
-            } else {
-                pkg = expectQualifiedName();
-                // AElement p = scene.packages.vivify(pkg);
-                AClass p = scene.classes.vivify(pkg + ".package-info");
-                expectChar(':');
-                p = scene.classes.vivify(pkg + ".package-info");
-                parseAnnotations(p);
-            }
-
-            if (pkg != null) {
-                curPkgPrefix = pkg + ".";
-            } else {
-                curPkgPrefix = "";
-            }
+            parsePackage();
 
             for (;;) {
                 if (checkKeyword("annotation")) {
@@ -1612,7 +1628,7 @@ public final class IndexFileParser {
 */
     }
 
-    private IndexFileParser(Reader in, AScene scene) {
+    private IndexFileParser(IndexFileLexer in, AScene scene) {
         defs = new LinkedHashMap<String, AnnotationDef>();
         for (AnnotationDef ad : Annotations.standardDefs) {
             try {
@@ -1622,26 +1638,7 @@ public final class IndexFileParser {
             }
         }
 
-        st = new StreamTokenizer(in);
-        st.slashSlashComments(true);
-
-        // restrict numbers -- don't really need, could interfere with
-        // annotation values
-        // st.ordinaryChar('-');
-        // HMMM this fixes fully-qualified-name strangeness but breaks
-        // floating-point numbers
-        st.ordinaryChar('.');
-
-        // argggh!!! stupid default needs to be overridden! see java bug 4217680
-        st.ordinaryChar('/');
-
-        // for "type-argument"
-        st.wordChars('-', '-');
-
-        // java identifiers can contain numbers, _, and $
-        st.wordChars('0', '9');
-        st.wordChars('_', '_');
-        st.wordChars('$', '$');
+        st = in;
 
         this.scene = scene;
 
@@ -1649,6 +1646,16 @@ public final class IndexFileParser {
         // curPkgPrefix == ""; // will get changed later anyway
     }
 
+    // Constructs a parser for the class sections of an index file, which
+    // uses (but does not change) the given definitions.
+    private IndexFileParser(IndexFileLexer in, AScene scene,
+            HashMap<String, AnnotationDef> defs, String curPkgPrefix) {
+        st = in;
+        this.scene = scene;
+        this.defs = defs;
+        this.curPkgPrefix = curPkgPrefix;
+    }
+
     /**
      * Reads annotations from <code>in</code> in index file format and merges
      * them into <code>scene</code>.  Annotations
@@ -1665,24 +1672,131 @@ public final class IndexFileParser {
      * that are never used at the top level are dropped.
      *
      * <p>
-     * Caveat: Parsing of floating point numbers currently does not work.
+     * The whole of <code>in</code> is read before it is parsed.
      */
     public static Map<String, AnnotationDef> parse(LineNumberReader in,
             AScene scene) throws IOException, ParseException {
-        IndexFileParser parser = new IndexFileParser(in, scene);
+        int firstLine = in.getLineNumber();
+        int[] length = new int[1];
+        char[] text;
+        try {
+            text = IndexFileLexer.readAll(in, length);
+        } catch (IOException e) {
+            throw new FileIOException(in, e);
+        }
+        IndexFileLexer lexer =
+            new IndexFileLexer(text, 0, length[0], firstLine);
         // no filename is available in the exception messages
-        return parseAndReturnAnnotationDefs(null, in, parser);
+        return parseAndReturnAnnotationDefs(null, lexer, scene);
     }
 
     /**
      * Reads annotations from the index file <code>filename</code> and merges
      * them into <code>scene</code>; see {@link #parse(LineNumberReader, AScene)}.
+     * The file is read in the platform's default character encoding.
      */
     public static Map<String, AnnotationDef> parseFile(String filename,
             AScene scene) throws IOException {
-        LineNumberReader in = new LineNumberReader(new FileReader(filename));
-        IndexFileParser parser = new IndexFileParser(in, scene);
-        return parseAndReturnAnnotationDefs(filename, in, parser);
+        return parseFile(filename, scene, 1);
+    }
+
+    /**
+     * Like {@link #parseFile(String, AScene)}, but parses the class sections
+     * of the file on up to <code>threads</code> threads.
+     * <p>
+     *
+     * A pre-scan finds where each <code>package</code>, <code>annotation</code>,
+     * and <code>class</code> section starts.  Package headers and annotation
+     * definitions are then parsed in order on the calling thread; the class
+     * sections, which depend only on the definitions before them, are
+     * parsed concurrently into partial scenes, and their classes are added
+     * to <code>scene</code> in file order.  The result is the same as that
+     * of a sequential parse.  If the file cannot be split this way (for
+     * instance, because it is malformed, or because <code>scene</code>
+     * already has classes that its sections would be merged with), it is
+     * parsed sequentially.
+     */
+    public static Map<String, AnnotationDef> parseFile(String filename,
+            AScene scene, int threads) throws IOException {
+        int[] length = new int[1];
+        char[] text;
+        try (Reader in = new InputStreamReader(
+                new FileInputStream(filename), Charset.defaultCharset())) {
+            text = IndexFileLexer.readAll(in, length);
+        }
+        if (threads > 1 && scene.classes.isEmpty()) {
+            Map<String, AnnotationDef> defs =
+                parseInParallel(text, length[0], scene, threads);
+            if (defs != null) {
+                return defs;
+            }
+        }
+        return parseAndReturnAnnotationDefs(filename,
+            new IndexFileLexer(text, 0, length[0], 0), scene);
+    }
+
+    /**
+     * Like {@link #parseFile(String, AScene)}, but parses each class only
+     * when it is first looked up in <code>scene</code>; see
+     * {@link AScene#setClassSource}.  A client that needs only a few of the
+     * classes in a large index file, such as one that inserts annotations
+     * into a single class file, then parses only those classes.
+     * <p>
+     *
+     * The file is read, and its package headers and annotation definitions
+     * are parsed, at once; the definitions are returned.  Errors in a class
+     * are reported when the class is looked up, as an
+     * {@link java.io.UncheckedIOException} whose cause is a
+     * {@link FileIOException}.  If the file cannot be split into sections
+     * (see {@link #parseFile(String, AScene, int)}), or if
+     * <code>scene</code> already has classes, the whole file is parsed at
+     * once.
+     */
+    public static Map<String, AnnotationDef> parseFileLazily(
+            final String filename, AScene scene) throws IOException {
+        int[] length = new int[1];
+        char[] text;
+        try (Reader in = new InputStreamReader(
+                new FileInputStream(filename), Charset.defaultCharset())) {
+            text = IndexFileLexer.readAll(in, length);
+        }
+        final SectionIndex index = scene.classes.isEmpty()
+            ? indexSections(text, length[0]) : null;
+        if (index == null) {
+            return parseAndReturnAnnotationDefs(filename,
+                new IndexFileLexer(text, 0, length[0], 0), scene);
+        }
+        scene.setClassSource(new AScene.ClassSource() {
+            @Override
+            public Collection<String> classNames() {
+                return index.names;
+            }
+
+            @Override
+            public AClass readClass(String name) throws IOException {
+                // The class is removed from the scene it was parsed into,
+                // so that it is moved to the new scene, not shared.
+                AClass c = index.headers.classes.remove(name);
+                if (c != null) {
+                    return c;
+                }
+                AScene partial = new AScene();
+                IndexFileLexer lexer =
+                    new IndexFileLexer(index.text, 0, index.length, 0);
+                try {
+                    index.parseClass(name, lexer, partial);
+                } catch (IOException e) {
+                    throw new FileIOException(null, e, filename,
+                        lexer.lineNumber());
+                } catch (ParseException e) {
+                    throw new FileIOException(null, e, filename,
+                        lexer.lineNumber());
+                }
+                return partial.classes.remove(name);
+            }
+        });
+        index.addImports(scene);
+        return Collections.unmodifiableMap(index.defs);
     }
 
     /**
@@ -1695,35 +1809,331 @@ public final class IndexFileParser {
         String filename =
             "While parsing string: \n----------------BEGIN----------------\n"
                     + fileContents + "----------------END----------------\n";
-        LineNumberReader in = new LineNumberReader(
-            new StringReader(fileContents));
-        IndexFileParser parser = new IndexFileParser(in, scene);
-        return parseAndReturnAnnotationDefs(filename, in, parser);
+        return parseAndReturnAnnotationDefs(filename,
+            new IndexFileLexer(fileContents), scene);
     }
 
     private static Map<String, AnnotationDef> parseAndReturnAnnotationDefs(
-          String filename, LineNumberReader in, IndexFileParser parser)
+          String filename, IndexFileLexer in, AScene scene)
               throws IOException {
+      IndexFileParser parser = new IndexFileParser(in, scene);
       try {
           parser.parse();
           return Collections.unmodifiableMap(parser.defs);
       } catch (IOException e) {
-          throw filename == null ? new FileIOException(in, e)
-                  : new FileIOException(in, filename, e);
+          throw new FileIOException(null, e, filename, in.lineNumber());
       } catch (ParseException e) {
-          throw filename == null ? new FileIOException(in, e)
-                  : new FileIOException(in, filename, e);
+          throw new FileIOException(null, e, filename, in.lineNumber());
       }
     }
 
+    /**
+     * A class section of an index file, with what it needs to be parsed on
+     * its own:  the package it is in and the definitions before it.
+     */
+    private static final class ClassSection {
+        /** The fully-qualified name of the class. */
+        final String name;
+        /** The offset of the section in the input. */
+        final int start;
+        /** The offset of the next section, or -1 if this is the last. */
+        final int end;
+        final String pkgPrefix;
+        final HashMap<String, AnnotationDef> defs;
+
+        ClassSection(String name, int start, int end, String pkgPrefix,
+                HashMap<String, AnnotationDef> defs) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+            this.pkgPrefix = pkgPrefix;
+            this.defs = defs;
+        }
+    }
+
+    /**
+     * Returns the offsets in <code>st</code>'s input of the tokens that may
+     * start a section, namely the words <code>package</code>,
+     * <code>annotation</code>, and <code>class</code>, other than those that
+     * are part of a name (as in <code>String.class</code>,
+     * <code>@annotation.A</code>, or <code>package annotation:</code>).
+     * Returns null if the input does not start with <code>package</code>.
+     */
+    private static int /*@Nullable*/ [] sectionStarts(IndexFileLexer st)
+            throws IOException {
+        st.nextToken();
+        if (st.ttype != TT_WORD || !st.sval.equals("package")) {
+            return null;
+        }
+        int first = st.tokenStart();
+        int[] starts = new int[64];
+        int n = 0;
+        // The offset of a keyword that starts a section unless the next
+        // token is a '.', or -1
+        int pending = -1;
+        boolean canStart = true;
+        for (; st.ttype != TT_EOF; st.nextToken()) {
+            if (pending >= 0 && st.ttype != '.') {
+                if (n == starts.length) {
+                    starts = Arrays.copyOf(starts, n * 2);
+                }
+                starts[n++] = pending;
+            }
+            pending = -1;
+            if (canStart && st.ttype == TT_WORD
+                    && (st.sval.equals("class") || st.sval.equals("package")
+                        || st.sval.equals("annotation"))) {
+                pending = st.tokenStart();
+                canStart = false;
+            } else {
+                canStart = st.ttype != '.' && st.ttype != '@';
+            }
+        }
+        if (pending >= 0) {
+            if (n == starts.length) {
+                starts = Arrays.copyOf(starts, n + 1);
+            }
+            starts[n++] = pending;
+        }
+        return n > 0 && starts[0] == first ? Arrays.copyOf(starts, n) : null;
+    }
+
+    /**
+     * Returns true if <code>st</code> is at the section that starts at
+     * <code>offset</code>, or at the end of the input if it is -1.
+     */
+    private static boolean atSection(IndexFileLexer st, int offset) {
+        return offset < 0 ? st.ttype == TT_EOF
+            : st.ttype != TT_EOF && st.tokenStart() == offset;
+    }
+
+    /**
+     * The sections of an index file:  the package headers and annotation
+     * definitions, which are parsed as the sections are found, and the
+     * class sections, which can then be parsed in any order.
+     */
+    private static final class SectionIndex {
+        final char[] text;
+        final int length;
+        /**
+         * The classes of the annotated packages, and the imports of the
+         * definitions.
+         */
+        final AScene headers = new AScene();
+        /** The names of the classes in the input, in order of appearance. */
+        final Set<String> names = new LinkedHashSet<String>();
+        /** The sections of each class that has any, in order. */
+        final Map<String, List<ClassSection>> sections =
+            new LinkedHashMap<String, List<ClassSection>>();
+        /** The definitions in the input. */
+        Map<String, AnnotationDef> defs;
+
+        SectionIndex(char[] text, int length) {
+            this.text = text;
+            this.length = length;
+        }
+
+        /**
+         * Parses the sections of the class <code>name</code> into
+         * <code>scene</code>, with <code>lexer</code>, which reads
+         * {@link #text}.
+         */
+        void parseClass(String name, IndexFileLexer lexer, AScene scene)
+                throws IOException, ParseException {
+            for (ClassSection section : sections.get(name)) {
+                lexer.seek(section.start);
+                lexer.nextToken();
+                new IndexFileParser(lexer, scene, section.defs,
+                    section.pkgPrefix).parseClass();
+                if (!atSection(lexer, section.end)) {
+                    throw new ParseException(
+                        "Expected: `annotation', `class', or `package'. Found: `"
+                        + lexer.sval + "', ttype:" + lexer.ttype);
+                }
+            }
+            if (!scene.classes.containsKey(name)) {
+                throw new ParseException("Expected class " + name);
+            }
+        }
+
+        /** Adds the imports of the definitions to those of <code>scene</code>. */
+        void addImports(AScene scene) {
+            for (Map.Entry<String, Set<String>> entry
+                    : headers.imports.entrySet()) {
+                Set<String> imports = scene.imports.get(entry.getKey());
+                if (imports == null) {
+                    scene.imports.put(entry.getKey(), entry.getValue());
+                } else {
+                    imports.addAll(entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the sections of <code>text[0..length)</code>, parsing the
+     * package headers and annotation definitions.  Returns null if the
+     * input cannot be divided into sections, in which case it must be
+     * parsed sequentially.
+     */
+    private static /*@Nullable*/ SectionIndex indexSections(char[] text,
+            int length) {
+        SectionIndex index = new SectionIndex(text, length);
+        IndexFileLexer st = new IndexFileLexer(text, 0, length, 0);
+        IndexFileParser parser = new IndexFileParser(st, index.headers);
+        boolean defsShared = false;
+        try {
+            int[] starts = sectionStarts(st);
+            if (starts == null) {
+                return null;
+            }
+            for (int i = 0; i < starts.length; i++) {
+                int end = i + 1 < starts.length ? starts[i + 1] : -1;
+                st.seek(starts[i]);
+                st.nextToken();
+                if (st.sval.equals("class")) {
+                    st.nextToken();
+                    if (st.ttype != TT_WORD) {
+                        return null;
+                    }
+                    String name = parser.curPkgPrefix + st.sval;
+                    if (index.headers.classes.containsKey(name)) {
+                        return null;
+                    }
+                    List<ClassSection> sectionsOfClass =
+                        index.sections.get(name);
+                    if (sectionsOfClass == null) {
+                        sectionsOfClass = new ArrayList<ClassSection>(1);
+                        index.sections.put(name, sectionsOfClass);
+                    }
+                    sectionsOfClass.add(new ClassSection(name, starts[i], end,
+                        parser.curPkgPrefix, parser.defs));
+                    defsShared = true;
+                    index.names.add(name);
+                    continue;
+                }
+                if (st.sval.equals("package")) {
+                    parser.parsePackage();
+                    if (!parser.curPkgPrefix.isEmpty()) {
+                        String name = parser.curPkgPrefix + "package-info";
+                        if (index.sections.containsKey(name)) {
+                            return null;
+                        }
+                        index.names.add(name);
+                    }
+                } else {
+                    if (defsShared) {
+                        parser.defs = new LinkedHashMap<String, AnnotationDef>(
+                            parser.defs);
+                        defsShared = false;
+                    }
+                    parser.parseAnnotationDef();
+                }
+                if (!atSection(st, end)) {
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (ParseException e) {
+            return null;
+        }
+        index.defs = parser.defs;
+        return index;
+    }
+
+    /**
+     * Parses <code>text[0..length)</code> into <code>scene</code>, which has
+     * no classes, as described in {@link #parseFile(String, AScene, int)}.
+     * Returns the definitions in the input, or null (having left
+     * <code>scene</code> unchanged) if the input must be parsed sequentially.
+     */
+    private static /*@Nullable*/ Map<String, AnnotationDef> parseInParallel(
+            final char[] text, final int length, AScene scene, int threads) {
+        final SectionIndex index = indexSections(text, length);
+        if (index == null) {
+            return null;
+        }
+
+        // Divide the classes into a few tasks per thread, of about the same
+        // amount of input each.
+        List<List<String>> tasks = new ArrayList<List<String>>();
+        int taskSize = length / (threads * 4) + 1;
+        List<String> task = null;
+        int size = 0;
+        for (Map.Entry<String, List<ClassSection>> entry
+                : index.sections.entrySet()) {
+            if (task == null || size >= taskSize) {
+                task = new ArrayList<String>();
+                tasks.add(task);
+                size = 0;
+            }
+            task.add(entry.getKey());
+            for (ClassSection section : entry.getValue()) {
+                size += (section.end < 0 ? length : section.end)
+                    - section.start;
+            }
+        }
+        if (tasks.size() < 2) {
+            return null;
+        }
+
+        Map<String, AClass> classes = new HashMap<String, AClass>();
+        ExecutorService pool =
+            Executors.newFixedThreadPool(Math.min(threads, tasks.size()));
+        try {
+            List<Future<AScene>> parsed = new ArrayList<Future<AScene>>();
+            for (final List<String> classNames : tasks) {
+                parsed.add(pool.submit(new Callable<AScene>() {
+                    @Override
+                    public AScene call() throws IOException, ParseException {
+                        AScene partial = new AScene();
+                        IndexFileLexer lexer =
+                            new IndexFileLexer(text, 0, length, 0);
+                        for (String name : classNames) {
+                            index.parseClass(name, lexer, partial);
+                        }
+                        return partial;
+                    }
+                }));
+            }
+            for (Future<AScene> f : parsed) {
+                AScene partial = f.get();
+                classes.putAll(partial.classes);
+                // Moves the classes, rather than sharing them; see
+                // AElement.
+                partial.classes.clear();
+            }
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Check that the sections defined the classes they were expected to
+        // before changing the scene.
+        if (classes.size() != index.sections.size()) {
+            return null;
+        }
+        for (String name : index.names) {
+            AClass c = index.headers.classes.remove(name);
+            scene.classes.put(name, c != null ? c : classes.get(name));
+        }
+        index.addImports(scene);
+        return Collections.unmodifiableMap(index.defs);
+    }
+
     /**
      * Parse the given text into a {@link Type}.
      * @param text the text to parse
      * @return the type
      */
     public static Type parseType(String text) {
-        StringReader in = new StringReader(text);
-        IndexFileParser parser = new IndexFileParser(in, null);
+        IndexFileParser parser =
+            new IndexFileParser(new IndexFileLexer(text), null);
         try {
             parser.st.nextToken();
             return parser.parseType();
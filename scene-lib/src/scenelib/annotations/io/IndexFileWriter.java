@@ -4,18 +4,35 @@ package scenelib.annotations.io;
 import org.checkerframework.checker.nullness.qual.*;
 */
 
-import java.io.FileWriter;
+import java.io.BufferedWriter;
+import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import scenelib.annotations.Annotation;
 import scenelib.annotations.el.AClass;
@@ -43,15 +60,22 @@ import scenelib.annotations.util.Strings;
 import com.sun.tools.javac.code.TypeAnnotationPosition.TypePathEntry;
 
 /**
- * IndexFileWriter provides two static methods named <code>write</code>
+ * IndexFileWriter provides static methods named <code>write</code>
  * that write a given {@link AScene} to a given {@link Writer} or filename,
- * in index file format.
+ * in index file format, optionally rendering the classes on several
+ * threads.
  */
 public final class IndexFileWriter {
     final AScene scene;
 
     private static final String INDENT = "    ";
 
+    /** The size of the output buffers, in characters or bytes. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The number of classes that a task renders when writing in parallel. */
+    private static final int CLASSES_PER_TASK = 64;
+
     void printAnnotationDefBody(AnnotationDef d) {
         for (Map. Entry<String, AnnotationFieldType> f : d.fieldTypes.entrySet()) {
             String fieldname = f.getKey();
@@ -61,13 +85,35 @@ public final class IndexFileWriter {
         pw.println();
     }
 
+    /**
+     * The definitions written so far, by name, if the scene is written part
+     * by part (see {@link #append}); otherwise null.
+     */
+    private Map<String, AnnotationDef> written;
+
     private class OurDefCollector extends DefCollector {
-        OurDefCollector() throws DefException {
-            super(IndexFileWriter.this.scene);
+        /**
+         * The name of a definition that conflicts with one written before,
+         * if any.
+         */
+        String conflict;
+
+        OurDefCollector(AScene s) throws DefException {
+            super(s);
         }
 
         @Override
         protected void visitAnnotationDef(AnnotationDef d) {
+          if (written != null) {
+            AnnotationDef w = written.get(d.name);
+            if (w != null) {
+              if (AnnotationDef.unify(w, d) == null && conflict == null) {
+                conflict = d.name;
+              }
+              return;
+            }
+            written.put(d.name, d);
+          }
           if (!d.name.contains("+")) {
             pw.println("package " + scenelib.annotations.io.IOUtils.packagePart(d.name) + ":");
             pw.print("annotation @" + scenelib.annotations.io.IOUtils.basenamePart(d.name) + ":");
@@ -414,14 +460,95 @@ public final class IndexFileWriter {
         }
     }
 
-    private void write() throws DefException {
-        // First the annotation definitions...
-        OurDefCollector odc = new OurDefCollector();
-        odc.visit();
+    private void printClass(String cname, AClass c) {
+        final String indent2 = INDENT + INDENT;
+        final String indent3 = INDENT + indent2;
+        String pkg = scenelib.annotations.io.IOUtils.packagePart(cname);
+        String basename = scenelib.annotations.io.IOUtils.basenamePart(cname);
+        if ("package-info".equals(basename)) {
+          if (!c.tlAnnotationsHere.isEmpty()) {
+            pw.print("package " + pkg + ":");
+            printAnnotations(c);
+            pw.println();
+          }
+          return;
+        } else {
+          pw.println("package " + pkg + ":");
+          pw.print("class " + basename + ":");
+          printAnnotations(c);
+          pw.println();
+        }
 
-        // Then any package scenelib.annotations...
+        printBounds(INDENT, c.bounds);
+        printExtImpls(INDENT, c.extendsImplements);
+        printASTInsertions(INDENT, c.insertAnnotations, c.insertTypecasts);
+
+        for (Map. Entry<String, AField> fe
+                : c.fields.entrySet()) {
+            String fname = fe.getKey();
+            AField f = fe.getValue();
+            pw.println();
+            printElement(INDENT, "field " + fname, f);
+            printTypeElementAndInnerTypes(indent2, "type", f.type);
+            printASTInsertions(indent2,
+                    f.insertAnnotations, f.insertTypecasts);
+        }
+        for (Map. Entry<String, AMethod> me
+                : c.methods.entrySet()) {
+            String mkey = me.getKey();
+            AMethod m = me.getValue();
+            pw.println();
+            printElement(INDENT, "method " + mkey, m);
+            printBounds(indent2, m.bounds);
+            printTypeElementAndInnerTypes(indent2, "return", m.returnType);
+            if (!m.receiver.type.tlAnnotationsHere.isEmpty()
+                    || !m.receiver.type.innerTypes.isEmpty()) {
+                // Only output the receiver if there is something to
+                // say.  This is a bit inconsistent with the return
+                // type, but so be it.
+                printElementAndInnerTypes(indent2, "receiver", m.receiver);
+            }
+            printNumberedAmbigiousElements(indent2,
+                    "parameter", m.parameters);
+            for (Map. Entry<LocalLocation,
+                    AField> le : m.body.locals.entrySet()) {
+                LocalLocation loc = le.getKey();
+                AElement l = le.getValue();
+                StringBuilder sb = new StringBuilder("local ");
+                sb.append(loc.varName == null
+                    ? loc.index
+                        + " #" + loc.scopeStart + "+" + loc.scopeLength
+                    : loc.varName);
+                printElement(indent2, sb.toString(), l);
+                printTypeElementAndInnerTypes(indent3,
+                        "type", l.type);
+            }
+            printRelativeElements(indent2, "typecast",
+                    m.body.typecasts);
+            printRelativeElements(indent2, "instanceof",
+                    m.body.instanceofs);
+            printRelativeElements(indent2, "new", m.body.news);
+            printRelativeElements(indent2, "reference", "typearg", m.body.refs);
+            printRelativeElements(indent2, "call", "typearg", m.body.calls);
+            for (Map. Entry<RelativeLocation,
+                    AMethod> entry : m.body.funs.entrySet()) {
+                AMethod lambda = entry.getValue();
+                RelativeLocation loc = entry.getKey();
+                pw.print("lambda " + loc.getLocationString() + ":\n");
+                printBounds(indent3, lambda.bounds);
+                printTypeElementAndInnerTypes(indent3,
+                    "return", lambda.returnType);
+            }
+            // throwsException field is not processed.  Why?
+            printASTInsertions(indent2,
+                    m.insertAnnotations, m.insertTypecasts);
+        }
+        pw.println();
+    }
+
+    private void printPackages(AScene s) {
         for (Map. Entry<String, AElement> pe
-                : scene.packages.entrySet()) {
+                : s.packages.entrySet()) {
             AElement elem = pe.getValue();
             if (elem != null && !elem.tlAnnotationsHere.isEmpty()) {
                 pw.print("package " + pe.getKey() + ":");
@@ -429,103 +556,164 @@ public final class IndexFileWriter {
                 pw.println();
             }
         }
+    }
+
+    private void write(int threads) throws DefException {
+        if (threads > 1 && scene.classes.size() > CLASSES_PER_TASK) {
+            writeInParallel(threads);
+            return;
+        }
+
+        // First the annotation definitions...
+        OurDefCollector odc = new OurDefCollector(scene);
+        odc.visit();
+
+        // Then any package scenelib.annotations...
+        printPackages(scene);
 
         // And then the annotated classes
-        final String indent2 = INDENT + INDENT;
-        final String indent3 = INDENT + indent2;
         for (Map. Entry<String, AClass> ce
                 : scene.classes.entrySet()) {
-            String cname = ce.getKey();
-            AClass c = ce.getValue();
-            String pkg = scenelib.annotations.io.IOUtils.packagePart(cname);
-            String basename = scenelib.annotations.io.IOUtils.basenamePart(cname);
-            if ("package-info".equals(basename)) {
-              if (!c.tlAnnotationsHere.isEmpty()) {
-                pw.print("package " + pkg + ":");
-                printAnnotations(c);
-                pw.println();
-              }
-              continue;
-            } else {
-              pw.println("package " + pkg + ":");
-              pw.print("class " + basename + ":");
-              printAnnotations(c);
-              pw.println();
-            }
-
-            printBounds(INDENT, c.bounds);
-            printExtImpls(INDENT, c.extendsImplements);
-            printASTInsertions(INDENT, c.insertAnnotations, c.insertTypecasts);
+            printClass(ce.getKey(), ce.getValue());
+        }
+    }
 
-            for (Map. Entry<String, AField> fe
-                    : c.fields.entrySet()) {
-                String fname = fe.getKey();
-                AField f = fe.getValue();
-                pw.println();
-                printElement(INDENT, "field " + fname, f);
-                printTypeElementAndInnerTypes(indent2, "type", f.type);
-                printASTInsertions(indent2,
-                        f.insertAnnotations, f.insertTypecasts);
+    /**
+     * Writes the scene like {@link #write(int)}, but renders the classes on
+     * <code>threads</code> threads.  Each task renders a run of consecutive
+     * classes into a buffer, which is copied to the output in order and
+     * then reused; at most a few tasks per thread are ahead of the output,
+     * so the memory used does not grow with the scene.  The definitions are
+     * collected while the first classes are rendered.
+     */
+    private void writeInParallel(int threads) throws DefException {
+        final List<Map.Entry<String, AClass>> classes =
+            new ArrayList<Map.Entry<String, AClass>>(scene.classes.entrySet());
+        final Queue<CharArrayWriter> buffers =
+            new ConcurrentLinkedQueue<CharArrayWriter>();
+        Deque<Future<CharArrayWriter>> rendered =
+            new ArrayDeque<Future<CharArrayWriter>>();
+        int window = threads * 4;
+        int next = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            while (next < classes.size() && rendered.size() < window) {
+                rendered.add(pool.submit(renderTask(classes, next, buffers)));
+                next += CLASSES_PER_TASK;
             }
-            for (Map. Entry<String, AMethod> me
-                    : c.methods.entrySet()) {
-                String mkey = me.getKey();
-                AMethod m = me.getValue();
-                pw.println();
-                printElement(INDENT, "method " + mkey, m);
-                printBounds(indent2, m.bounds);
-                printTypeElementAndInnerTypes(indent2, "return", m.returnType);
-                if (!m.receiver.type.tlAnnotationsHere.isEmpty()
-                        || !m.receiver.type.innerTypes.isEmpty()) {
-                    // Only output the receiver if there is something to
-                    // say.  This is a bit inconsistent with the return
-                    // type, but so be it.
-                    printElementAndInnerTypes(indent2, "receiver", m.receiver);
+
+            new OurDefCollector(scene).visit();
+            printPackages(scene);
+
+            while (!rendered.isEmpty()) {
+                CharArrayWriter buffer = rendered.removeFirst().get();
+                buffer.writeTo(pw);
+                buffer.reset();
+                buffers.add(buffer);
+                if (next < classes.size()) {
+                    rendered.add(pool.submit(
+                        renderTask(classes, next, buffers)));
+                    next += CLASSES_PER_TASK;
                 }
-                printNumberedAmbigiousElements(indent2,
-                        "parameter", m.parameters);
-                for (Map. Entry<LocalLocation,
-                        AField> le : m.body.locals.entrySet()) {
-                    LocalLocation loc = le.getKey();
-                    AElement l = le.getValue();
-                    StringBuilder sb = new StringBuilder("local ");
-                    sb.append(loc.varName == null
-                        ? loc.index
-                            + " #" + loc.scopeStart + "+" + loc.scopeLength
-                        : loc.varName);
-                    printElement(indent2, sb.toString(), l);
-                    printTypeElementAndInnerTypes(indent3,
-                            "type", l.type);
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while writing", e);
+        } catch (IOException e) {
+            // A PrintWriter does not throw IOException.
+            throw new Error(e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns a task that renders the classes at <code>from</code> and up
+     * to {@link #CLASSES_PER_TASK} after it into a buffer from
+     * <code>buffers</code>, or a new one.
+     */
+    private Callable<CharArrayWriter> renderTask(
+            final List<Map.Entry<String, AClass>> classes, final int from,
+            final Queue<CharArrayWriter> buffers) {
+        return new Callable<CharArrayWriter>() {
+            @Override
+            public CharArrayWriter call() {
+                CharArrayWriter buffer = buffers.poll();
+                if (buffer == null) {
+                    buffer = new CharArrayWriter(BUFFER_SIZE);
                 }
-                printRelativeElements(indent2, "typecast",
-                        m.body.typecasts);
-                printRelativeElements(indent2, "instanceof",
-                        m.body.instanceofs);
-                printRelativeElements(indent2, "new", m.body.news);
-                printRelativeElements(indent2, "reference", "typearg", m.body.refs);
-                printRelativeElements(indent2, "call", "typearg", m.body.calls);
-                for (Map. Entry<RelativeLocation,
-                        AMethod> entry : m.body.funs.entrySet()) {
-                    AMethod lambda = entry.getValue();
-                    RelativeLocation loc = entry.getKey();
-                    pw.print("lambda " + loc.getLocationString() + ":\n");
-                    printBounds(indent3, lambda.bounds);
-                    printTypeElementAndInnerTypes(indent3,
-                        "return", lambda.returnType);
+                IndexFileWriter renderer =
+                    new IndexFileWriter(scene, new PrintWriter(buffer));
+                int to = Math.min(from + CLASSES_PER_TASK, classes.size());
+                for (Map.Entry<String, AClass> ce : classes.subList(from, to)) {
+                    renderer.printClass(ce.getKey(), ce.getValue());
                 }
-                // throwsException field is not processed.  Why?
-                printASTInsertions(indent2,
-                        m.insertAnnotations, m.insertTypecasts);
+                renderer.pw.flush();
+                return buffer;
             }
-            pw.println();
-        }
+        };
     }
 
     private IndexFileWriter(AScene scene,
-            Writer out) throws DefException {
+            Writer out, int threads) throws DefException {
         this.scene = scene;
-        pw = new PrintWriter(out);
-        write();
+        // The output is printed in many small pieces.
+        pw = new PrintWriter(new BufferedWriter(out, BUFFER_SIZE));
+        write(threads);
+        pw.flush();
+    }
+
+    // Constructs a writer that renders parts of scene to pw.
+    private IndexFileWriter(AScene scene, PrintWriter pw) {
+        this.scene = scene;
+        this.pw = pw;
+    }
+
+    /**
+     * Returns a writer that writes an index file to <code>out</code> part
+     * by part, for a scene that is produced, and can be dropped, a few
+     * classes at a time; see {@link #append}.  Call {@link #flush} when
+     * done.
+     */
+    public static IndexFileWriter open(Writer out) {
+        IndexFileWriter w = new IndexFileWriter(null,
+            new PrintWriter(new BufferedWriter(out, BUFFER_SIZE)));
+        w.written = new HashMap<String, AnnotationDef>();
+        return w;
+    }
+
+    /**
+     * Writes the packages and classes of <code>part</code>, preceded by the
+     * definitions of its annotations that have not been written yet.  The
+     * parts must not share packages or classes.  As the definitions of the
+     * later parts are not known when the earlier ones are written, a
+     * definition must agree with the one written before it (modulo unknown
+     * array types); if not, a {@link DefException} is thrown.
+     */
+    public void append(AScene part) throws DefException {
+        OurDefCollector odc = new OurDefCollector(part);
+        odc.visit();
+        if (odc.conflict != null) {
+            throw new DefException(odc.conflict);
+        }
+        printPackages(part);
+        for (Map. Entry<String, AClass> ce : part.classes.entrySet()) {
+            printClass(ce.getKey(), ce.getValue());
+        }
+    }
+
+    /**
+     * Flushes what {@link #append} has written to the output.
+     */
+    public void flush() {
         pw.flush();
     }
 
@@ -558,7 +746,18 @@ public final class IndexFileWriter {
     public static void write(
             AScene scene,
             Writer out) throws DefException {
-        new IndexFileWriter(scene, out);
+        write(scene, out, 1);
+    }
+
+    /**
+     * Like {@link #write(AScene, Writer)}, but renders the classes of
+     * <code>scene</code> on up to <code>threads</code> threads.  The output
+     * is the same.
+     */
+    public static void write(
+            AScene scene,
+            Writer out, int threads) throws DefException {
+        new IndexFileWriter(scene, out, threads);
     }
 
     /**
@@ -569,6 +768,24 @@ public final class IndexFileWriter {
     public static void write(
             AScene scene,
             String filename) throws IOException, DefException {
-        write(scene, new FileWriter(filename));
+        write(scene, filename, 1);
+    }
+
+    /**
+     * Like {@link #write(AScene, String)}, but renders the classes of
+     * <code>scene</code> on up to <code>threads</code> threads.
+     */
+    public static void write(
+            AScene scene,
+            String filename, int threads) throws IOException, DefException {
+        // The file is written in the platform's default character encoding,
+        // as by a FileWriter.
+        try (Writer out = Channels.newWriter(
+                FileChannel.open(Paths.get(filename),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING),
+                Charset.defaultCharset().newEncoder(), BUFFER_SIZE)) {
+            write(scene, out, threads);
+        }
     }
 }
@@ -18,7 +18,6 @@ import scenelib.annotations.Annotations;
 import scenelib.annotations.el.*;
 
 import com.sun.tools.javac.code.TargetType;
-import com.sun.tools.javac.code.TypeAnnotationPosition;
 
 import plume.FileIOException;
 
@@ -259,7 +258,7 @@ public final class JavapParser {
             // TODO: update location representation
             // if (targetType.) {
                 List<Integer> location = parseInnerTypeLocationNums();
-                InnerTypeLocation itl = new InnerTypeLocation(TypeAnnotationPosition.getTypePathFromBinary(location));
+                InnerTypeLocation itl = InnerTypeLocation.fromBinary(location);
                 subElement = subOuterType.innerTypes.vivify(itl);
             // } else
             //    subElement = subOuterType;
@@ -345,7 +345,7 @@ extends EmptyVisitor {
         // String.class, or array of primitive
         c = c.getComponentType();
         ArrayBuilder arrayBuilder = annotationBuilder.beginArrayField(
-            name, new ArrayAFT(BasicAFT.forType(c)));
+            name, ArrayAFT.forElementType(BasicAFT.forType(c)));
         // value is of type c[], now add in all the elements of the array
         for (Object o : asList(value)) {
           arrayBuilder.appendElement(o);
@@ -670,7 +670,7 @@ extends EmptyVisitor {
      * Returns an InnerTypeLocation for this annotation.
      */
     private InnerTypeLocation makeInnerTypeLocation() {
-      return new InnerTypeLocation(xLocationsArgs);
+      return InnerTypeLocation.of(xLocationsArgs);
     }
 
     /**
@@ -1044,7 +1044,7 @@ extends EmptyVisitor {
       if (arrayBuilder == null) {
         // this.elementType = elementType;
         arrayBuilder = parent.annotationBuilder.beginArrayField(arrayName,
-                new ArrayAFT(elementType));
+                ArrayAFT.forElementType(elementType));
       }
     }
 
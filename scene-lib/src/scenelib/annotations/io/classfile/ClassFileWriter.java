@@ -5,6 +5,8 @@ import org.checkerframework.checker.nullness.qual.*;
 */
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 import com.sun.tools.javac.main.CommandLine;
 
@@ -14,6 +16,7 @@ import plume.Option;
 import plume.Options;
 
 import scenelib.annotations.el.AScene;
+import scenelib.annotations.el.DefException;
 import scenelib.annotations.io.IndexFileParser;
 
 /**
@@ -28,6 +31,9 @@ public class ClassFileWriter {
   @Option("print version information and exit")
   public static boolean version = false;
 
+  @Option("file of fingerprints of the classes written, to skip the unchanged ones on later runs")
+  public static String manifest = null;
+
   private static String linesep = System.getProperty("line.separator");
 
   static String usage
@@ -58,6 +64,9 @@ public class ClassFileWriter {
    * <em>options</em> include:<pre>
    *   -h, --help   print usage information and exit
    *   --version    print version information and exit
+   *   --manifest=<em>file</em>  record fingerprints of the classes written
+   *                in <em>file</em>, and skip the classes whose annotations and
+   *                class file are unchanged since they were recorded
    * </pre>
    * @param args options and classes and index files to analyze;
    * @throws IOException if a class file or index file cannot be opened/written
@@ -105,6 +114,25 @@ public class ClassFileWriter {
       }
     }
 
+    FingerprintManifest fingerprints =
+        manifest == null ? null : FingerprintManifest.read(manifest);
+    try {
+      insertAll(file_args, fingerprints);
+    } finally {
+      if (fingerprints != null) {
+        fingerprints.write();
+      }
+    }
+  }
+
+  /**
+   * Inserts the annotations of each index file in <code>file_args</code>
+   * into the class before it, as described in {@link #main}, skipping the
+   * classes that <code>fingerprints</code>, if not null, shows to be
+   * current, and recording the others in it.
+   */
+  private static void insertAll(String[] file_args,
+      FingerprintManifest fingerprints) throws IOException {
     for (int i = 0; i < file_args.length; i++) {
 
       String className = file_args[i];
@@ -118,12 +146,16 @@ public class ClassFileWriter {
 
       AScene scene = new AScene();
 
-      IndexFileParser.parseFile(indexFileName, scene);
+      // Only the annotations of the one class are inserted, so parse only
+      // that class of the index file.
+      IndexFileParser.parseFileLazily(indexFileName, scene);
 
       // annotations loaded from index file into scene, now insert them
       // into class file
       try {
-        if (className.endsWith(".class")) {
+        if (fingerprints != null) {
+          insertIfChanged(scene, className, fingerprints);
+        } else if (className.endsWith(".class")) {
           System.out.printf("Adding annotations to class file %s%n", className);
           insert(scene, className, true);
         } else {
@@ -146,7 +178,60 @@ public class ClassFileWriter {
         return;
       }
     }
+  }
+
+  /**
+   * Inserts the annotations contained in <code> scene </code> into the
+   * class <code> className </code>, like {@link #main}, unless
+   * <code> fingerprints </code> shows that the class file written last time
+   * is current, and records the class file written in
+   * <code> fingerprints </code>.
+   */
+  private static void insertIfChanged(AScene scene, String className,
+      FingerprintManifest fingerprints) throws IOException, DefException {
+    byte[] classBytes;
+    String outputFileName;
+    if (className.endsWith(".class")) {
+      outputFileName = className;
+      classBytes = Files.readAllBytes(Paths.get(className));
+    } else {
+      outputFileName = className + ".class";
+      InputStream in = ClassLoader.getSystemResourceAsStream(
+          className.replace('.', '/') + ".class");
+      if (in == null) {
+        throw new IOException("Class not found");
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try {
+        byte[] buf = new byte[8192];
+        for (int n; (n = in.read(buf)) > 0; ) {
+          bytes.write(buf, 0, n);
+        }
+      } finally {
+        in.close();
+      }
+      classBytes = bytes.toByteArray();
+    }
 
+    String sceneDigest = FingerprintManifest.digest(scene, classBytes);
+    String inputDigest = FingerprintManifest.digest(classBytes);
+    if (fingerprints.isCurrent(outputFileName, sceneDigest, inputDigest)) {
+      System.out.printf("Skipping %s, which is unchanged%n", className);
+      return;
+    }
+
+    if (className.endsWith(".class")) {
+      System.out.printf("Adding annotations to class file %s%n", className);
+    } else {
+      System.out.printf("Reading class file %s; writing with annotations to %s%n",
+                        className, outputFileName);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    insert(scene, new ByteArrayInputStream(classBytes), out, true);
+    byte[] result = out.toByteArray();
+    Files.write(Paths.get(outputFileName), result);
+    fingerprints.record(outputFileName, sceneDigest, inputDigest,
+        FingerprintManifest.digest(result));
   }
 
   /**
@@ -0,0 +1,197 @@
+package scenelib.annotations.io.classfile;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.objectweb.asm.ClassReader;
+
+import scenelib.annotations.el.AClass;
+import scenelib.annotations.el.AScene;
+import scenelib.annotations.io.BinarySceneWriter;
+
+/**
+ * A record of the class files that {@link ClassFileWriter} has written, so
+ * that a later run can skip the classes whose annotations and bytecode
+ * have not changed since.  For each class file written, the manifest
+ * holds three fingerprints: of the part of the scene that applies to the
+ * class, of the class file that was read, and of the class file that was
+ * written.  A class is current if its part of the scene is unchanged, the
+ * class file to be read is either the one read or the one written last
+ * time, and the class file written last time is still in place.
+ * <p>
+ *
+ * A fingerprint is a SHA-256 digest.  That of a part of a scene is taken
+ * of the class written in the binary scene format (see
+ * {@link BinarySceneWriter}), together with the definitions of its
+ * annotations.  Unlike an index file, that format has every element of
+ * the class, such as the parameters of lambda expressions and the
+ * initializers, so a change to any annotation changes the fingerprint.
+ * The manifest is a text file with one line per class
+ * file written; a manifest written by a different version of the tools is
+ * ignored.
+ */
+public final class FingerprintManifest {
+  /** The first line of a manifest. */
+  private static final String HEADER =
+      "# insert-annotations " + ClassFileReader.INDEX_UTILS_VERSION;
+
+  /** The file the manifest is read from and written to. */
+  private final Path file;
+
+  /**
+   * The fingerprints of the class files written, by the normalized path
+   * of the class file written: those of the part of the scene, of the
+   * class file read, and of the class file written.
+   */
+  private final Map<String, String[]> entries =
+      new TreeMap<String, String[]>();
+
+  private FingerprintManifest(Path file) {
+    this.file = file;
+  }
+
+  /**
+   * Reads the manifest in the file <code>filename</code>.  If there is no
+   * such file, or it was written by a different version of the tools, the
+   * manifest is empty.
+   */
+  public static FingerprintManifest read(String filename) throws IOException {
+    FingerprintManifest manifest = new FingerprintManifest(Paths.get(filename));
+    if (!Files.exists(manifest.file)) {
+      return manifest;
+    }
+    try (BufferedReader in =
+        Files.newBufferedReader(manifest.file, StandardCharsets.UTF_8)) {
+      if (!HEADER.equals(in.readLine())) {
+        return manifest;
+      }
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] fields = line.split(" ", 4);
+        if (fields.length != 4) {
+          throw new IOException("Malformed manifest " + filename + ": " + line);
+        }
+        manifest.entries.put(fields[3],
+            new String[] { fields[0], fields[1], fields[2] });
+      }
+    }
+    return manifest;
+  }
+
+  /**
+   * Returns whether writing the class file <code>output</code> from the
+   * class file with fingerprint <code>inputDigest</code> and the part of a
+   * scene with fingerprint <code>sceneDigest</code> would give the class
+   * file that is already there.
+   */
+  public boolean isCurrent(String output, String sceneDigest,
+      String inputDigest) throws IOException {
+    String[] entry = entries.get(key(output));
+    if (entry == null || !entry[0].equals(sceneDigest)) {
+      return false;
+    }
+    if (entry[2].equals(inputDigest)) {
+      // The class file to be read is the one written, as when a class file
+      // is rewritten in place.
+      return true;
+    }
+    if (!entry[1].equals(inputDigest)) {
+      return false;
+    }
+    Path path = Paths.get(output);
+    return Files.exists(path)
+        && entry[2].equals(digest(Files.readAllBytes(path)));
+  }
+
+  /**
+   * Records that the class file <code>output</code> was written, with the
+   * given fingerprints.
+   */
+  public void record(String output, String sceneDigest, String inputDigest,
+      String outputDigest) {
+    entries.put(key(output),
+        new String[] { sceneDigest, inputDigest, outputDigest });
+  }
+
+  /**
+   * Writes the manifest back to the file it was read from.
+   */
+  public void write() throws IOException {
+    Path temp = Paths.get(file + ".tmp");
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(
+        Files.newOutputStream(temp), StandardCharsets.UTF_8))) {
+      out.write(HEADER);
+      out.write('\n');
+      for (Map.Entry<String, String[]> e : entries.entrySet()) {
+        String[] entry = e.getValue();
+        out.write(entry[0] + " " + entry[1] + " " + entry[2] + " "
+            + e.getKey());
+        out.write('\n');
+      }
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Returns the fingerprint of <code>bytes</code>.
+   */
+  public static String digest(byte[] bytes) {
+    byte[] d = newDigest().digest(bytes);
+    StringBuilder sb = new StringBuilder(2 * d.length);
+    for (byte b : d) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+      sb.append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the fingerprint of the part of <code>scene</code> that applies
+   * to the class in <code>classBytes</code>.
+   */
+  public static String digest(AScene scene, byte[] classBytes)
+      throws IOException {
+    ClassReader cr = new ClassReader(classBytes);
+    // class files store fully quantified class names with '/' instead of '.'
+    String name = cr.readClass(cr.header + 2, new char[classBytes.length])
+        .replace('/', '.');
+    AScene part = new AScene();
+    AClass c = scene.classes.get(name);
+    if (c != null) {
+      part.classes.put(name, c);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinarySceneWriter.write(part, out);
+    return digest(out.toByteArray());
+  }
+
+  private static String key(String output) {
+    return Paths.get(output).toAbsolutePath().normalize().toString();
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform supports SHA-256.
+      throw new Error(e);
+    }
+  }
+}
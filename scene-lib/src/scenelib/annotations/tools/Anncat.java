@@ -68,7 +68,9 @@ public class Anncat {
                     usageAssert(idx < args.length);
                     String infile = args[idx++];
                     System.err.println("Reading index file " + infile + "...");
-                    IndexFileParser.parseFile(infile, theScene);
+                    // If the scene is written to a class file, only the
+                    // classes in it are parsed.
+                    IndexFileParser.parseFileLazily(infile, theScene);
                     System.err.println("Finished.");
                 } else if (args[idx].equals("--class")) {
                     idx++;
@@ -97,7 +99,7 @@ public class Anncat {
                     idx++;
                     usageAssert(idx == args.length);
                     System.err.println("Writing index file to " + outfile + "...");
-                    IndexFileWriter.write(theScene, new FileWriter(outfile));
+                    IndexFileWriter.write(theScene, outfile);
                     System.err.println("Finished.");
                 } else if (args[idx].equals("--class")) {
                     idx++;
@@ -137,6 +139,10 @@ public class Anncat {
         } catch (FileIOException e) {
             e.printStackTrace(System.err);
             System.exit(1);
+        } catch (UncheckedIOException e) {
+            // a class of a lazily parsed index file is malformed
+            e.getCause().printStackTrace(System.err);
+            System.exit(1);
         } catch (IOException e) {
             e.printStackTrace(System.err);
             System.exit(2);
@@ -1,12 +1,35 @@
 package scenelib.annotations.tools;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.SetMultimap;
@@ -29,12 +52,22 @@ import scenelib.annotations.el.AnnotationDef;
 import scenelib.annotations.el.DefException;
 import scenelib.annotations.el.ElementVisitor;
 import scenelib.annotations.field.AnnotationFieldType;
+import scenelib.annotations.io.BinarySceneReader;
+import scenelib.annotations.io.BinarySceneWriter;
 import scenelib.annotations.io.IndexFileParser;
 import scenelib.annotations.io.IndexFileWriter;
+import scenelib.annotations.util.SceneOps;
 
 /**
  * Utility for merging index files, including multiple versions for the
  *  same class.
+ * <p>
+ *
+ * The files are parsed on several threads, as set by the option
+ * {@code --threads=N} (by default, one per processor).  With the option
+ * {@code --streaming}, the files are instead merged a class at a time, in
+ * order of class name, and the merged classes are written as they are
+ * produced, so that the merged scene need not fit in memory.
  *
  * @author dbro
  */
@@ -59,12 +92,29 @@ public class IndexFileMerger {
         return;  // so compiler knows inputArgs defined after try/catch
       }
 
-      File baseFile = new File(inputArgs[0]);
+      int threads = Runtime.getRuntime().availableProcessors();
+      boolean streaming = false;
+      int first = 0;
+      for (; first < inputArgs.length && inputArgs[first].startsWith("--");
+          first++) {
+        String arg = inputArgs[first];
+        if (arg.equals("--streaming")) {
+          streaming = true;
+        } else if (arg.startsWith("--threads=")) {
+          threads = Integer.parseInt(arg.substring("--threads=".length()));
+        } else {
+          System.err.println("IndexFileMerger: unknown option " + arg);
+          System.exit(1);
+        }
+      }
+      if (first == inputArgs.length) { System.exit(0); }
+
+      File baseFile = new File(inputArgs[first]);
       boolean byDir = baseFile.isDirectory();
       String basePath = baseFile.getCanonicalPath();
-      AScene scene = new AScene();
+      List<String> inputPaths = new ArrayList<String>();
 
-      for (int i = byDir ? 1 : 0; i < inputArgs.length; i++) {
+      for (int i = byDir ? first + 1 : first; i < inputArgs.length; i++) {
         File inputFile = new File(inputArgs[i]);
         String inputPath = inputFile.getCanonicalPath();
         String filename = inputFile.getName();
@@ -90,16 +140,44 @@ public class IndexFileMerger {
           annotatedFor.put(classname, "\"" + subdir + "\"");
         }
 
-        try {
-          IndexFileParser.parseFile(inputPath, scene);
-        } catch (FileNotFoundException e) {
-          System.err.println("IndexFileMerger: can't read "
-              + inputPath);
-          System.exit(1);
-        } catch (FileIOException e) {
-          e.printStackTrace();  // TODO
-          System.exit(1);
+        inputPaths.add(inputPath);
+      }
+
+      // add AnnotatedFor to each annotated class
+      AnnotationFieldType stringArray =
+          AnnotationFieldType.fromClass(new String[0].getClass(),
+              Collections.<String, AnnotationDef>emptyMap());
+      AnnotationDef afDef =
+          Annotations.createValueAnnotationDef("AnnotatedFor",
+              Collections.<Annotation>emptySet(), stringArray);
+      Map<String, Annotation> afAnnos = new LinkedHashMap<String, Annotation>();
+      for (Map.Entry<String, Collection<String>> entry :
+          annotatedFor.asMap().entrySet()) {
+        String key = entry.getKey();
+        Collection<String> values = entry.getValue();
+        Annotation afAnno = new Annotation(afDef, Collections
+                .<String, Collection<String>>singletonMap("value", values));
+        afAnnos.put(key, afAnno);
+      }
+      annotatedFor.clear();  // for gc
+
+      AScene scene = null;
+      try {
+        if (streaming) {
+          mergeStreaming(inputPaths, new TreeMap<String, Annotation>(afAnnos),
+              new PrintWriter(System.out, true));
+          return;
         }
+        scene = parseAll(inputPaths, threads);
+      } catch (FileNotFoundException e) {
+        System.err.println("IndexFileMerger: can't read " + e.getMessage());
+        System.exit(1);
+      } catch (FileIOException e) {
+        e.printStackTrace();  // TODO
+        System.exit(1);
+      } catch (DefException e) {
+        e.printStackTrace();
+        System.exit(1);
       }
 
       if (!byDir) {
@@ -244,23 +322,11 @@ public class IndexFileMerger {
         }
       }
 
-      // add AnnotatedFor to each annotated class
-      AnnotationFieldType stringArray =
-          AnnotationFieldType.fromClass(new String[0].getClass(),
-              Collections.<String, AnnotationDef>emptyMap());
-      AnnotationDef afDef =
-          Annotations.createValueAnnotationDef("AnnotatedFor",
-              Collections.<Annotation>emptySet(), stringArray);
-      for (Map.Entry<String, Collection<String>> entry :
-          annotatedFor.asMap().entrySet()) {
-        String key = entry.getKey();
-        Collection<String> values = entry.getValue();
-        Annotation afAnno = new Annotation(afDef, Collections
-                .<String, Collection<String>>singletonMap("value", values));
-        scene.classes.vivify(key).tlAnnotationsHere.add(afAnno);
+      for (Map.Entry<String, Annotation> entry : afAnnos.entrySet()) {
+        scene.classes.vivify(entry.getKey()).tlAnnotationsHere
+            .add(entry.getValue());
       }
       scene.prune();
-      annotatedFor.clear();  // for gc
 
       try {
         IndexFileWriter.write(scene, new PrintWriter(System.out, true));
@@ -275,4 +341,251 @@ public class IndexFileMerger {
       e.printStackTrace();
     }
   }
+
+  /**
+   * Parses the index files {@code paths} into a scene, on up to
+   * {@code threads} threads.  Each file is parsed into a scene of its own,
+   * and the scenes are merged pairwise, in rounds, with
+   * {@link SceneOps#merge}; as merging is associative, the result is the
+   * same as that of parsing the files one after another into one scene.
+   */
+  static AScene parseAll(List<String> paths, int threads)
+      throws IOException {
+    if (threads <= 1 || paths.size() <= 1) {
+      AScene scene = new AScene();
+      for (String path : paths) {
+        IndexFileParser.parseFile(path, scene);
+      }
+      return scene;
+    }
+
+    // A merge waits for two earlier tasks, and the pool runs tasks in the
+    // order submitted, so the earliest unfinished task can always finish.
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<AScene>> scenes = new ArrayList<Future<AScene>>();
+      for (final String path : paths) {
+        scenes.add(pool.submit(new Callable<AScene>() {
+          @Override
+          public AScene call() throws IOException {
+            AScene scene = new AScene();
+            IndexFileParser.parseFile(path, scene);
+            return scene;
+          }
+        }));
+      }
+      while (scenes.size() > 1) {
+        List<Future<AScene>> merged = new ArrayList<Future<AScene>>();
+        for (int i = 0; i + 1 < scenes.size(); i += 2) {
+          final Future<AScene> left = scenes.get(i);
+          final Future<AScene> right = scenes.get(i + 1);
+          merged.add(pool.submit(new Callable<AScene>() {
+            @Override
+            public AScene call() throws Exception {
+              AScene scene = left.get();
+              SceneOps.merge(scene, right.get());
+              return scene;
+            }
+          }));
+        }
+        if (scenes.size() % 2 != 0) {
+          merged.add(scenes.get(scenes.size() - 1));
+        }
+        scenes = merged;
+      }
+      return scenes.get(0).get();
+    } catch (ExecutionException e) {
+      Throwable cause = e;
+      while (cause instanceof ExecutionException) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while parsing", e);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Merges the index files {@code paths} and writes the result to
+   * {@code out} in order of class name.  Each file in turn is indexed
+   * (see {@link IndexFileParser#parseFileLazily}) and its classes are
+   * copied, in order of name, to a temporary file (see {@link #spill}),
+   * after which its text is dropped.  The temporary files are then read
+   * together, a class at a time:  the versions of each class are merged
+   * with the class's annotation in {@code extra} (if any), written, and
+   * dropped before the next class is read.  So at most one input, or one
+   * class of each input, is held in memory at a time.
+   */
+  static void mergeStreaming(List<String> paths,
+      SortedMap<String, Annotation> extra, Writer out)
+      throws IOException, DefException {
+    PriorityQueue<Source> sources = new PriorityQueue<Source>();
+    try {
+      for (int i = 0; i < paths.size(); i++) {
+        Source source = new Source(i, spill(paths.get(i)));
+        if (source.advance()) {
+          sources.add(source);
+        } else {
+          source.close();
+        }
+      }
+      Source extraSource = new Source(paths.size(), extra.keySet().iterator());
+      if (extraSource.advance()) {
+        sources.add(extraSource);
+      }
+
+      IndexFileWriter writer = IndexFileWriter.open(out);
+      while (!sources.isEmpty()) {
+        String name = sources.peek().current;
+        AScene part = new AScene();
+        while (!sources.isEmpty() && sources.peek().current.equals(name)) {
+          Source source = sources.poll();
+          if (source.version == null) {
+            part.classes.vivify(name).tlAnnotationsHere.add(extra.get(name));
+          } else {
+            SceneOps.merge(part, source.version);
+          }
+          if (source.advance()) {
+            sources.add(source);
+          } else {
+            source.close();
+          }
+        }
+        part.prune();
+        writer.append(part);
+      }
+      writer.flush();
+    } finally {
+      for (Source source : sources) {
+        source.close();
+      }
+    }
+  }
+
+  /**
+   * Copies the classes of the index file {@code path}, in order of name,
+   * to a new temporary file, and returns the file.  The file holds the
+   * number of classes, then, for each class, the length and the contents
+   * of a binary scene (see {@link BinarySceneWriter}) of just that class,
+   * with the definitions it uses.  The classes are parsed one at a time
+   * if the index file can be split into sections, and all at once
+   * otherwise; either way, nothing of the index file is kept once this
+   * returns.
+   */
+  private static File spill(String path) throws IOException {
+    AScene scene = new AScene();
+    IndexFileParser.parseFileLazily(path, scene);
+    TreeSet<String> names = new TreeSet<String>(scene.classes.keySet());
+    File file = File.createTempFile("merge", ".scene");
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file)))) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      out.writeInt(names.size());
+      for (String name : names) {
+        AScene version = new AScene();
+        // Removed before it is added, so the class is moved, not shared.
+        version.classes.put(name, scene.classes.remove(name));
+        bytes.reset();
+        BinarySceneWriter.write(version, bytes);
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+      }
+    } catch (UncheckedIOException e) {
+      // a class of the index file is malformed
+      file.delete();
+      throw e.getCause();
+    } catch (IOException e) {
+      file.delete();
+      throw e;
+    }
+    return file;
+  }
+
+  /**
+   * The classes of an input of {@link #mergeStreaming}, in order of name:
+   * either the temporary file written by {@link #spill}, which is read a
+   * class at a time, or the names of the extra annotations.  Sources are
+   * ordered by current class, then by position among the inputs.
+   */
+  private static class Source implements Comparable<Source> {
+    final int index;
+    final File file;
+    final DataInputStream in;
+    final Iterator<String> names;
+    int remaining;
+    String current;
+    /** The current class, alone in a scene; null for the extra names. */
+    AScene version;
+
+    Source(int index, File file) throws IOException {
+      this.index = index;
+      this.file = file;
+      this.names = null;
+      try {
+        in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file)));
+        remaining = in.readInt();
+      } catch (IOException e) {
+        file.delete();
+        throw e;
+      }
+    }
+
+    Source(int index, Iterator<String> names) {
+      this.index = index;
+      this.file = null;
+      this.in = null;
+      this.names = names;
+    }
+
+    /**
+     * Moves to the next class, and returns false if there is none.
+     */
+    boolean advance() throws IOException {
+      if (in == null) {
+        if (!names.hasNext()) {
+          return false;
+        }
+        current = names.next();
+        return true;
+      }
+      version = null;
+      if (remaining == 0) {
+        return false;
+      }
+      remaining--;
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      version = new AScene();
+      new BinarySceneReader(ByteBuffer.wrap(bytes)).readScene(version);
+      current = version.classes.keySet().iterator().next();
+      return true;
+    }
+
+    /**
+     * Closes and deletes the temporary file, if any.
+     */
+    void close() throws IOException {
+      if (in != null) {
+        in.close();
+        file.delete();
+      }
+    }
+
+    @Override
+    public int compareTo(Source that) {
+      int c = current.compareTo(that.current);
+      return c != 0 ? c : Integer.compare(index, that.index);
+    }
+  }
 }
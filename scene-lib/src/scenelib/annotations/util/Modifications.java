@@ -0,0 +1,44 @@
+package scenelib.annotations.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.*;
+*/
+
+/**
+ * A count of the changes made to elements of scenes that belong to more
+ * than one parent.  An element tells the element or scene that it was
+ * last added to of every change to its subtree, and that one tells its own
+ * parent, and so on up to the scene, so that a change invalidates only the
+ * hash codes cached by the element's ancestors.  An element that has been
+ * added to a second parent, as when {@link SceneOps#diff} shares it
+ * between two scenes, cannot tell all of its ancestors, so its changes
+ * are also counted here, and a hash code cached anywhere is valid only as
+ * long as the count does not change.
+ * <p>
+ *
+ * The count is never zero, so that zero can stand for no count at all.
+ */
+public final class Modifications {
+    private static final AtomicInteger count = new AtomicInteger(1);
+
+    private Modifications() {}
+
+    /**
+     * Returns the number of changes recorded so far, which is not zero.
+     */
+    public static int count() {
+        return count.get();
+    }
+
+    /**
+     * Records that a part of a scene that belongs to more than one parent
+     * has changed.
+     */
+    public static void record() {
+        if (count.incrementAndGet() == 0) {
+            count.compareAndSet(0, 1);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package scenelib.annotations.util;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -75,6 +77,12 @@ public class SceneOps {
    * Compute the difference of two scenes, that is, a scene containing
    * all and only those insertion specifications that exist in the first
    * but not in the second.
+   * <p>
+   *
+   * Subtrees of the two scenes that are equal are skipped: the cached
+   * hash codes of the elements serve as digests of their subtrees, so
+   * most unequal subtrees are told apart without being compared, and only
+   * subtrees with equal digests are compared in full.
    *
    * @param s1 the "minuend"
    * @param s2 the "subtrahend"
@@ -82,11 +90,69 @@ public class SceneOps {
    */
   public static AScene diff(AScene s1, AScene s2) {
     AScene diff = new AScene();
+    digest(s1, s2);
     new DiffVisitor().visitScene(s1, s2, diff);
     diff.prune();
     return diff;
   }
 
+  /**
+   * Returns the names of the classes that differ between two scenes,
+   * that is, that are in only one of them or whose subtrees are unequal;
+   * first those of {@code s1}, in order, then those only in {@code s2}.
+   * Classes differ exactly when {@link AElement#equals} says so, whether
+   * or not the scenes have been pruned: an empty method parameter makes
+   * no difference, but other empty subelements do, so prune both scenes
+   * first to compare only their annotations.  Unequal classes are mostly
+   * told apart by their cached hash codes, which are consistent with
+   * {@code equals}, so this is much cheaper than {@link #diff} when few
+   * classes differ.
+   *
+   * @param s1 the first scene
+   * @param s2 the second scene
+   * @return the names of the classes that differ
+   */
+  public static Set<String> changedClasses(AScene s1, AScene s2) {
+    digest(s1, s2);
+    Set<String> changed = new LinkedHashSet<String>();
+    for (Map.Entry<String, AClass> e : s1.classes.entrySet()) {
+      AClass c = s2.classes.get(e.getKey());
+      if (c == null || !DiffVisitor.same(e.getValue(), c)) {
+        changed.add(e.getKey());
+      }
+    }
+    for (String name : s2.classes.keySet()) {
+      if (!s1.classes.containsKey(name)) {
+        changed.add(name);
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Caches the hash codes of all elements of two scenes (see
+   * {@link AElement#knownUnequal}).
+   */
+  private static void digest(AScene s1, AScene s2) {
+    s1.hashCode();
+    s2.hashCode();
+  }
+
+  /**
+   * Merges {@code from} into {@code into}, adding to {@code into} every
+   * element, annotation, and import of {@code from}.  The result is the
+   * scene that parsing the index files of {@code from} after those of
+   * {@code into}, into a single scene, would give; in particular, merging
+   * is associative.  Elements of {@code from} that {@code into} lacks are
+   * moved rather than copied, so {@code from} must not be used afterwards.
+   *
+   * @param into the scene to merge into
+   * @param from the scene to merge, which is consumed
+   */
+  public static void merge(AScene into, AScene from) {
+    new MergeVisitor().visitScene(from, into);
+  }
+
   /** Print stack trace (for debugging) and exit with return code 1. */
   private static void exitWithException(Exception e) {
     e.printStackTrace();
@@ -128,6 +194,23 @@ public class SceneOps {
 class DiffVisitor
 implements ElementVisitor<Void, Pair<AElement, AElement>> {
 
+  /**
+   * Returns whether the subtrees rooted at {@code e1} and {@code e2} are
+   * equal, comparing them only if their cached hash codes do not show
+   * that they differ.
+   */
+  static boolean same(AElement e1, AElement e2) {
+    if (e1 == e2) {
+      return true;
+    }
+    if (e1.knownUnequal(e2) || !e1.equals(e2)) {
+      return false;
+    }
+    // AClass.equals does not compare the field initializers.
+    return !(e1 instanceof AClass)
+        || ((AClass) e1).fieldInits.equals(((AClass) e2).fieldInits);
+  }
+
   /**
    * Adds all annotations that are in {@code minuend} but not in
    * {@code subtrahend} to {@code difference}.
@@ -245,13 +328,17 @@ implements ElementVisitor<Void, Pair<AElement, AElement>> {
         difference.throwsException);
     visitElements(minuend.parameters, subtrahend.parameters,
         difference.parameters);
-    visitBlock(minuend.body,
-        elemPair(subtrahend.body, difference.body));
-    if (minuend.returnType != null) {
+    if (!same(minuend.body, subtrahend.body)) {
+      visitBlock(minuend.body,
+          elemPair(subtrahend.body, difference.body));
+    }
+    if (minuend.returnType != null
+        && !same(minuend.returnType, subtrahend.returnType)) {
       minuend.returnType.accept(this,
           elemPair(subtrahend.returnType, difference.returnType));
     }
-    if (minuend.receiver != null) {
+    if (minuend.receiver != null
+        && !same(minuend.receiver, subtrahend.receiver)) {
       minuend.receiver.accept(this,
           elemPair(subtrahend.receiver, difference.receiver));
     }
@@ -279,6 +366,8 @@ implements ElementVisitor<Void, Pair<AElement, AElement>> {
   @Override
   public Void visitTypeElementWithType(ATypeElementWithType minuend,
       Pair<AElement, AElement> eltPair) {
+    // An insertion of a typecast cannot be written without its type.
+    ((ATypeElementWithType) eltPair.snd).setType(minuend.getType());
     return visitTypeElement(minuend, eltPair);
   }
 
@@ -293,7 +382,7 @@ implements ElementVisitor<Void, Pair<AElement, AElement>> {
     AElement difference = eltPair.snd;
     diff(minuend.tlAnnotationsHere, subtrahend.tlAnnotationsHere,
         difference.tlAnnotationsHere);
-    if (minuend.type != null) {
+    if (minuend.type != null && !same(minuend.type, subtrahend.type)) {
       AElement stype = subtrahend.type;
       AElement dtype = difference.type;
       minuend.type.accept(this, elemPair(stype, dtype));
@@ -315,7 +404,7 @@ implements ElementVisitor<Void, Pair<AElement, AElement>> {
         V sval = subtrahend.get(key);
         if (sval == null) {
           difference.put(key, mval);
-        } else {
+        } else if (!same(mval, sval)) {
           mval.accept(this, elemPair(sval, difference.vivify(key)));
         }
       }
@@ -378,3 +467,169 @@ implements ElementVisitor<Void, Pair<AElement, AElement>> {
     return Pair.of(stype, dtype);
   }
 }
+
+/**
+ * Visitor for merging one scene into another.  Each visitor method merges
+ * an element into the corresponding element of the other scene, which is
+ * passed as the argument.
+ */
+class MergeVisitor implements ElementVisitor<Void, AElement> {
+
+  /**
+   * Merges {@code from} into {@code into}.
+   */
+  public void visitScene(AScene from, AScene into) {
+    visitElements(from.packages, into.packages);
+    for (Map.Entry<String, Set<String>> e : from.imports.entrySet()) {
+      Set<String> imports = into.imports.get(e.getKey());
+      if (imports == null) {
+        into.imports.put(e.getKey(), e.getValue());
+      } else {
+        imports.addAll(e.getValue());
+      }
+    }
+    visitElements(from.classes, into.classes);
+  }
+
+  // Never used, as annotations and definitions don't get duplicated.
+  @Override
+  public Void visitAnnotationDef(AnnotationDef from, AElement into) {
+    throw new IllegalStateException(
+        "BUG: MergeVisitor.visitAnnotationDef invoked");
+  }
+
+  /**
+   * Merges {@code from} into {@code into}.
+   */
+  @Override
+  public Void visitBlock(ABlock from, AElement into) {
+    visitElements(from.locals, ((ABlock) into).locals);
+    return visitExpression(from, into);
+  }
+
+  /**
+   * Merges {@code from} into {@code into}.
+   */
+  @Override
+  public Void visitClass(AClass from, AElement into) {
+    AClass c = (AClass) into;
+    visitElements(from.bounds, c.bounds);
+    visitElements(from.extendsImplements, c.extendsImplements);
+    visitElements(from.methods, c.methods);
+    visitElements(from.staticInits, c.staticInits);
+    visitElements(from.instanceInits, c.instanceInits);
+    visitElements(from.fieldInits, c.fieldInits);
+    visitElements(from.fields, c.fields);
+    // As when parsing, a field's initializer is the one in the class.
+    for (Map.Entry<String, AField> e : from.fields.entrySet()) {
+      if (e.getValue().init != null) {
+        c.fields.get(e.getKey()).init = c.fieldInits.get(e.getKey());
+      }
+    }
+    return visitDeclaration(from, into);
+  }
+
+  /**
+   * Merges {@code from} into {@code into}.
+   */
+  @Override
+  public Void visitDeclaration(ADeclaration from, AElement into) {
+    ADeclaration d = (ADeclaration) into;
+    visitElements(from.insertAnnotations, d.insertAnnotations);
+    visitElements(from.insertTypecasts, d.insertTypecasts);
+    return visitElement(from, into);
+  }
+
+  /**
+   * Merges {@code from} into {@code into}.
+   */
+  @Override
+  public Void visitExpression(AExpression from, AElement into) {
+    AExpression e = (AExpression) into;
+    visitElements(from.typecasts, e.typecasts);
+    visitElements(from.instanceofs, e.instanceofs);
+    visitElements(from.news, e.news);
+    visitElements(from.calls, e.calls);
+    visitElements(from.refs, e.refs);
+    visitElements(from.funs, e.funs);
+    return visitElement(from, into);
+  }
+
+  /**
+   * Merges {@code from} into {@code into}.
+   */
+  @Override
+  public Void visitField(AField from, AElement into) {
+    return visitDeclaration(from, into);
+  }
+
+  /**
+   * Merges {@code from} into {@code into}.
+   */
+  @Override
+  public Void visitMethod(AMethod from, AElement into) {
+    AMethod m = (AMethod) into;
+    visitElements(from.bounds, m.bounds);
+    visitElements(from.parameters, m.parameters);
+    visitElements(from.throwsException, m.throwsException);
+    from.body.accept(this, m.body);
+    from.returnType.accept(this, m.returnType);
+    from.receiver.accept(this, m.receiver);
+    return visitDeclaration(from, into);
+  }
+
+  /**
+   * Merges {@code from} into {@code into}.
+   */
+  @Override
+  public Void visitTypeElement(ATypeElement from, AElement into) {
+    visitElements(from.innerTypes, ((ATypeElement) into).innerTypes);
+    return visitElement(from, into);
+  }
+
+  /**
+   * Merges {@code from} into {@code into}; the type of {@code from}, if
+   * it has one, replaces that of {@code into}.
+   */
+  @Override
+  public Void visitTypeElementWithType(ATypeElementWithType from,
+      AElement into) {
+    if (from.getType() != null) {
+      ((ATypeElementWithType) into).setType(from.getType());
+    }
+    return visitTypeElement(from, into);
+  }
+
+  /**
+   * Merges {@code from} into {@code into}.
+   */
+  @Override
+  public Void visitElement(AElement from, AElement into) {
+    into.tlAnnotationsHere.addAll(from.tlAnnotationsHere);
+    if (from.type != null) {
+      from.type.accept(this, into.type);
+    }
+    return null;
+  }
+
+  /**
+   * Merges each element of {@code from} into the element of {@code into}
+   * with the same key, or moves it to {@code into} if there is none.
+   */
+  private <K, V extends AElement>
+  void visitElements(VivifyingMap<K, V> from, VivifyingMap<K, V> into) {
+    for (Iterator<Map.Entry<K, V>> it = from.entrySet().iterator();
+        it.hasNext(); ) {
+      Map.Entry<K, V> e = it.next();
+      V ival = into.get(e.getKey());
+      if (ival == null) {
+        // Removed before it is added, so the element is moved, not
+        // shared between the scenes; see AElement.
+        it.remove();
+        into.put(e.getKey(), e.getValue());
+      } else {
+        e.getValue().accept(this, ival);
+      }
+    }
+  }
+}
@@ -0,0 +1,346 @@
+package scenelib.annotations.util.coll;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.Nullable;
+*/
+
+/**
+ * An {@link IntKeyedMap} is a map from {@link Integer}s that iterates in
+ * insertion order, like a {@link java.util.LinkedHashMap}, but stores its
+ * keys as <code>int</code>s in an array with no entry object per mapping.
+ * It suits the maps of a scene keyed by small numbers, such as the
+ * parameters of a method, which usually hold a few entries: up to eight
+ * entries are found by scanning the keys, and beyond that through an
+ * open-addressing index.
+ * <p>
+ *
+ * Removing an entry takes time linear in the size of the map, which suits
+ * maps that lose entries only when they are pruned.
+ */
+public class IntKeyedMap<V> extends AbstractMap<Integer, V> {
+    /** The most entries that are found without the index. */
+    private static final int LINEAR_LIMIT = 8;
+
+    /** The keys, in insertion order. */
+    private int[] keys = new int[4];
+
+    /** The values, parallel to {@link #keys}. */
+    private Object[] values = new Object[4];
+
+    /** The number of entries. */
+    private int size = 0;
+
+    /**
+     * For each slot, one more than the position in {@link #keys} of the key
+     * stored in it, or 0 if the slot is free;
+     * <code>null</code> while there are at most {@link #LINEAR_LIMIT}
+     * entries.
+     */
+    private int[] index = null;
+
+    /** The number of changes in the keys, for failing iterators fast. */
+    private int modCount = 0;
+
+    /**
+     * Constructs a new, empty {@link IntKeyedMap}.
+     */
+    public IntKeyedMap() {
+    }
+
+    /**
+     * Returns the position of <code>key</code> in {@link #keys}, or -1 if
+     * it is not there.
+     */
+    private int positionOf(int key) {
+        if (index == null) {
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int mask = index.length - 1;
+        for (int slot = mix(key) & mask; index[slot] != 0;
+                slot = (slot + 1) & mask) {
+            int i = index[slot] - 1;
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Rebuilds {@link #index} for the current keys, or drops it if there
+     * are few enough keys to scan.
+     */
+    private void reindex() {
+        if (size <= LINEAR_LIMIT) {
+            index = null;
+            return;
+        }
+        int capacity = Integer.highestOneBit(size * 2 - 1) << 1;
+        if (index == null || index.length != capacity) {
+            index = new int[capacity];
+        } else {
+            Arrays.fill(index, 0);
+        }
+        for (int i = 0; i < size; i++) {
+            addToIndex(i);
+        }
+    }
+
+    private void addToIndex(int i) {
+        int mask = index.length - 1;
+        int slot = mix(keys[i]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = i + 1;
+    }
+
+    /**
+     * Returns the value to which <code>key</code> is mapped, or
+     * <code>null</code> if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int i = positionOf(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    /**
+     * Returns whether <code>key</code> is mapped to a value.
+     */
+    public boolean containsKey(int key) {
+        return positionOf(key) >= 0;
+    }
+
+    /**
+     * Maps <code>key</code> to <code>value</code>, and returns the value it
+     * was mapped to before, or <code>null</code> if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        int i = positionOf(key);
+        if (i >= 0) {
+            V old = (V) values[i];
+            values[i] = value;
+            return old;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+        modCount++;
+        if (index == null ? size > LINEAR_LIMIT : size * 2 > index.length) {
+            reindex();
+        } else if (index != null) {
+            addToIndex(size - 1);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the mapping of <code>key</code>, if any, and returns the value
+     * it was mapped to, or <code>null</code> if there was none.
+     */
+    public V remove(int key) {
+        int i = positionOf(key);
+        return i < 0 ? null : removeAt(i);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V removeAt(int i) {
+        V old = (V) values[i];
+        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        System.arraycopy(values, i + 1, values, i, size - i - 1);
+        values[--size] = null;
+        modCount++;
+        reindex();
+        return old;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get(Object key) {
+        return key instanceof Integer ? get(((Integer) key).intValue()) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Integer && containsKey(((Integer) key).intValue());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V put(Integer key, V value) {
+        return put(key.intValue(), value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V remove(Object key) {
+        return key instanceof Integer ? remove(((Integer) key).intValue()) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        index = null;
+        modCount++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<Map.Entry<Integer, V>> entrySet() {
+        return new AbstractSet<Map.Entry<Integer, V>>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Map.Entry<Integer, V>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    /** An iterator over the entries, in insertion order. */
+    private final class EntryIterator implements Iterator<Map.Entry<Integer, V>> {
+        /** The position of the next entry. */
+        private int next = 0;
+
+        /** The position of the last entry returned, or -1. */
+        private int last = -1;
+
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Map.Entry<Integer, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return new Entry(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * An entry, which reads and writes through to the map while the map's
+     * keys are unchanged.
+     */
+    private final class Entry implements Map.Entry<Integer, V> {
+        private final int position;
+
+        Entry(int position) {
+            this.position = position;
+        }
+
+        @Override
+        public Integer getKey() {
+            return keys[position];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V getValue() {
+            return (V) values[position];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V setValue(V value) {
+            V old = (V) values[position];
+            values[position] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            Object value = getValue();
+            return getKey().equals(e.getKey())
+                    && (value == null ? e.getValue() == null
+                                      : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return keys[position] ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package scenelib.annotations.util.coll;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/*>>>
+import org.checkerframework.checker.nullness.qual.Nullable;
+*/
+
+/**
+ * An insertion-order set that allocates its backing {@link LinkedHashSet}
+ * only when the first element is added; until then, it is backed by the
+ * shared immutable empty set.  This suits the many sets, such as the
+ * annotations on an element of a scene, that usually stay empty.
+ * A set constructed with an {@link Owner} tells it of every change.
+ */
+public class LazyLinkedHashSet<E> extends AbstractSet<E> {
+    private Set<E> back = Collections.emptySet();
+
+    /** The owner told of changes to this set, or null. */
+    private final /*@Nullable*/ Owner owner;
+
+    /**
+     * Constructs a new, empty {@link LazyLinkedHashSet}.
+     */
+    public LazyLinkedHashSet() {
+        this(null);
+    }
+
+    /**
+     * Constructs a new, empty {@link LazyLinkedHashSet} that tells
+     * <code>owner</code>, if it is not null, of its changes.
+     */
+    public LazyLinkedHashSet(/*@Nullable*/ Owner owner) {
+        this.owner = owner;
+    }
+
+    private Set<E> writableBack() {
+        if (back == Collections.EMPTY_SET) {
+            back = new LinkedHashSet<E>();
+        }
+        return back;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return back.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isEmpty() {
+        return back.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(Object o) {
+        return back.contains(o);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final Iterator<E> it = back.iterator();
+        return new Iterator<E>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return it.next();
+            }
+
+            @Override
+            public void remove() {
+                it.remove();
+                changed(true);
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean add(E e) {
+        return changed(writableBack().add(e));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        return !c.isEmpty() && changed(writableBack().addAll(c));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean remove(Object o) {
+        return changed(back.remove(o));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+        changed(!back.isEmpty());
+        back = Collections.emptySet();
+    }
+
+    /**
+     * Tells the owner of a change if <code>changed</code> is true, and
+     * returns <code>changed</code>.
+     */
+    private boolean changed(boolean changed) {
+        if (changed && owner != null) {
+            owner.modified();
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,27 @@
+package scenelib.annotations.util.coll;
+
+/**
+ * The owner of a {@link WrapperMap} or a {@link LazyLinkedHashSet}, which
+ * is told of every change made through the collection or its views, and
+ * of the values that the change adds to or removes from a map.  An element
+ * of a scene owns its maps of subelements, so that it can invalidate what
+ * it has computed from them, such as a cached hash code.
+ */
+public interface Owner {
+    /**
+     * Records that a collection of this owner has changed.
+     */
+    void modified();
+
+    /**
+     * Records that <code>value</code> has been added to a map of this
+     * owner.
+     */
+    void added(Object value);
+
+    /**
+     * Records that <code>value</code> has been removed from a map of this
+     * owner.
+     */
+    void removed(Object value);
+}
@@ -25,19 +25,38 @@ public abstract class VivifyingMap<K, V> extends WrapperMap<K, V> {
         super(back);
     }
 
+    /**
+     * Constructs a new {@link VivifyingMap} whose backing map, a
+     * {@link java.util.LinkedHashMap} unless {@link #newBack} is
+     * overridden, is allocated when the first value is vivified or put.
+     * Most maps in a scene stay empty, so they then cost no more than this
+     * object.
+     */
+    public VivifyingMap() {
+    }
+
+    /**
+     * Like {@link #VivifyingMap()}, but tells <code>owner</code> of the
+     * changes made to the map, as {@link WrapperMap} describes.
+     */
+    public VivifyingMap(Owner owner) {
+        super(owner);
+    }
+
     /**
      * Returns the value to which the specified key is mapped; if the key is
      * not currently mapped to a value, a new, empty value is created, stored,
      * and returned.
      */
     public V vivify(K k) {
-        if (containsKey(k)) {
-            return get(k);
-        } else {
-            V v = createValueFor(k);
+        // Scenes hold no null values, so a key that is present usually
+        // costs a single lookup.
+        V v = get(k);
+        if (v == null && !containsKey(k)) {
+            v = createValueFor(k);
             put(k, v);
-            return v;
         }
+        return v;
     }
 
     /**
@@ -1,6 +1,11 @@
 package scenelib.annotations.util.coll;
 
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -12,18 +17,98 @@ import org.checkerframework.checker.nullness.qual.Nullable;
  * A {@link WrapperMap} is a map all of whose methods delegate by default to
  * those of a supplied {@linkplain #back backing map}.  Subclasses can add or
  * override methods.  Compare to {@link java.io.FilterInputStream}.
+ * <p>
+ *
+ * A {@link WrapperMap} constructed without a backing map allocates one,
+ * by {@link #newBack}, only when the first entry is added; until then it
+ * is backed by the shared immutable empty map.  Views, such as
+ * {@link #keySet}, obtained before the first entry is added do not see
+ * that entry.
+ * <p>
+ *
+ * A {@link WrapperMap} constructed with an {@link Owner} tells it of
+ * every change made through the map or its views, except for
+ * {@link Map.Entry#setValue}, which scenes do not use, and of the values
+ * added and removed.  Changes made to a supplied backing map directly are
+ * not told.
  */
 public class WrapperMap<K, V> implements Map<K, V> {
     /**
      * The backing map.
      */
-    protected final Map<K, V> back;
+    protected Map<K, V> back;
+
+    /**
+     * The owner told of changes to this map, or null.
+     */
+    protected final /*@Nullable*/ Owner owner;
+
+    // The kinds of elements of the views of the map
+    private static final int KEYS = 0;
+    private static final int ENTRIES = 1;
+    private static final int VALUES = 2;
 
     /**
      * Constructs a new {@link WrapperMap} with the given backing map.
      */
     protected WrapperMap(Map<K, V> back) {
         this.back = back;
+        this.owner = null;
+    }
+
+    /**
+     * Constructs a new {@link WrapperMap} whose backing map is allocated
+     * by {@link #newBack} when the first entry is added.
+     */
+    protected WrapperMap() {
+        this((Owner) null);
+    }
+
+    /**
+     * Constructs a new {@link WrapperMap} whose backing map is allocated
+     * by {@link #newBack} when the first entry is added, and which tells
+     * <code>owner</code>, if it is not null, of its changes.
+     */
+    protected WrapperMap(/*@Nullable*/ Owner owner) {
+        this.back = Collections.emptyMap();
+        this.owner = owner;
+    }
+
+    /**
+     * Returns a new, empty backing map for a {@link WrapperMap} that was
+     * constructed without one.  By default, a {@link LinkedHashMap}.
+     */
+    protected Map<K, V> newBack() {
+        return new LinkedHashMap<K, V>();
+    }
+
+    /**
+     * Returns the backing map, allocating it first if this map has not
+     * held any entries yet.
+     */
+    private Map<K, V> writableBack() {
+        if (back == Collections.EMPTY_MAP) {
+            back = newBack();
+        }
+        return back;
+    }
+
+    /**
+     * Tells the owner, if any, that <code>old</code> has been replaced by
+     * <code>value</code>; either may be null.
+     */
+    private void replaced(/*@Nullable*/ V old, /*@Nullable*/ V value) {
+        if (owner != null) {
+            if (old != value) {
+                if (old != null) {
+                    owner.removed(old);
+                }
+                if (value != null) {
+                    owner.added(value);
+                }
+            }
+            owner.modified();
+        }
     }
 
     /**
@@ -31,7 +116,17 @@ public class WrapperMap<K, V> implements Map<K, V> {
      */
     @Override
     public void clear() {
-        back.clear();
+        if (!back.isEmpty()) {
+            if (owner != null) {
+                for (V value : back.values()) {
+                    if (value != null) {
+                        owner.removed(value);
+                    }
+                }
+            }
+            back.clear();
+            replaced(null, null);
+        }
     }
 
     /**
@@ -56,7 +151,7 @@ public class WrapperMap<K, V> implements Map<K, V> {
     @Override
     public Set<java.util.Map.Entry<K, V>>
         entrySet() {
-        return back.entrySet();
+        return tracked(back.entrySet(), ENTRIES);
     }
 
     /**
@@ -80,7 +175,7 @@ public class WrapperMap<K, V> implements Map<K, V> {
      */
     @Override
     public Set<K> keySet() {
-        return back.keySet();
+        return tracked(back.keySet(), KEYS);
     }
 
     /**
@@ -88,7 +183,9 @@ public class WrapperMap<K, V> implements Map<K, V> {
      */
     @Override
     public V put(K key, V value) {
-        return back.put(key, value);
+        V old = writableBack().put(key, value);
+        replaced(old, value);
+        return old;
     }
 
     /**
@@ -96,7 +193,17 @@ public class WrapperMap<K, V> implements Map<K, V> {
      */
     @Override
     public void putAll(Map<? extends K, ? extends V> m) {
-        back.putAll(m);
+        if (m.isEmpty()) {
+            return;
+        }
+        if (owner == null) {
+            writableBack().putAll(m);
+            return;
+        }
+        for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+            V old = writableBack().put(e.getKey(), e.getValue());
+            replaced(old, e.getValue());
+        }
     }
 
     /**
@@ -104,7 +211,12 @@ public class WrapperMap<K, V> implements Map<K, V> {
      */
     @Override
     public V remove(Object key) {
-        return back.remove(key);
+        if (!back.containsKey(key)) {
+            return null;
+        }
+        V old = back.remove(key);
+        replaced(old, null);
+        return old;
     }
 
     /**
@@ -120,7 +232,7 @@ public class WrapperMap<K, V> implements Map<K, V> {
      */
     @Override
     public Collection<V> values() {
-        return back.values();
+        return tracked(back.values(), VALUES);
     }
 
     /**
@@ -138,4 +250,108 @@ public class WrapperMap<K, V> implements Map<K, V> {
     public int hashCode() {
         return back.hashCode();
     }
+
+    /**
+     * Returns the value of this map that an element of a view of the
+     * given kind stands for, or null if this map has no owner to tell.
+     */
+    @SuppressWarnings("unchecked")
+    private /*@Nullable*/ V valueOf(Object e, int kind) {
+        if (owner == null) {
+            return null;
+        }
+        switch (kind) {
+        case KEYS:
+            return back.get(e);
+        case ENTRIES:
+            return ((Map.Entry<K, V>) e).getValue();
+        default:
+            return (V) e;
+        }
+    }
+
+    /**
+     * Returns a view of the given set, a view of the backing map of the
+     * given kind, that tells the owner of removals.
+     */
+    private <E> Set<E> tracked(final Set<E> set, final int kind) {
+        return new AbstractSet<E>() {
+            @Override
+            public int size() {
+                return set.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return set.contains(o);
+            }
+
+            @Override
+            public Iterator<E> iterator() {
+                return tracked(set.iterator(), kind);
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                V value = set.contains(o) ? valueOf(o, kind) : null;
+                boolean removed = set.remove(o);
+                if (removed) {
+                    replaced(value, null);
+                }
+                return removed;
+            }
+        };
+    }
+
+    /**
+     * Returns a view of the given collection, a view of the values of the
+     * backing map, that tells the owner of removals.
+     */
+    private Collection<V> tracked(final Collection<V> coll, final int kind) {
+        return new AbstractCollection<V>() {
+            @Override
+            public int size() {
+                return coll.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return coll.contains(o);
+            }
+
+            @Override
+            public Iterator<V> iterator() {
+                return tracked(coll.iterator(), kind);
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the same elements as <code>it</code>, an
+     * iterator over a view of the given kind, that tells the owner of
+     * removals.
+     */
+    private <E> Iterator<E> tracked(final Iterator<E> it, final int kind) {
+        return new Iterator<E>() {
+            private E last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                V value = valueOf(last, kind);
+                it.remove();
+                replaced(value, null);
+            }
+        };
+    }
 }
@@ -32,4 +32,25 @@ public class ArrayType extends Type {
     public Kind getKind() {
         return Kind.ARRAY;
     }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o)
+                && componentType.equals(((ArrayType) o).componentType);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + componentType.hashCode();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ArrayType copy() {
+        ArrayType copy = new ArrayType(componentType.copy());
+        copy.setAnnotations(getAnnotations());
+        return copy;
+    }
 }
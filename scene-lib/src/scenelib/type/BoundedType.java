@@ -100,6 +100,30 @@ public class BoundedType extends Type {
         return Kind.BOUNDED;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) {
+            return false;
+        }
+        BoundedType other = (BoundedType) o;
+        return boundKind == other.boundKind && name.equals(other.name)
+                && bound.equals(other.bound);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return (31 * name.hashCode() + boundKind.hashCode()) * 31
+                + bound.hashCode();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public BoundedType copy() {
+        return new BoundedType(name.copy(), boundKind, bound.copy());
+    }
+
     // Override Type methods and throw an exception since annotations can not be
     // put on a bounded type. Annotations should be added to the "type" and
     // "bound" of a bounded type.
@@ -141,6 +141,41 @@ public class DeclaredType extends Type {
         return Kind.DECLARED;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) {
+            return false;
+        }
+        DeclaredType other = (DeclaredType) o;
+        return name.equals(other.name)
+                && typeParameters.equals(other.typeParameters)
+                && (innerType == null ? other.innerType == null
+                        : innerType.equals(other.innerType));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        int hash = 31 * super.hashCode() + name.hashCode();
+        hash = 31 * hash + typeParameters.hashCode();
+        return innerType == null ? hash : 31 * hash + innerType.hashCode();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public DeclaredType copy() {
+        DeclaredType copy = new DeclaredType(name);
+        copy.setAnnotations(getAnnotations());
+        for (Type typeParameter : typeParameters) {
+            copy.typeParameters.add(typeParameter.copy());
+        }
+        if (innerType != null) {
+            copy.innerType = innerType.copy();
+        }
+        return copy;
+    }
+
     /**
      * Determines if this type is a wildcard.
      * @return {@code true} if this type is a wildcard, {@code false} otherwise.
@@ -76,4 +76,32 @@ public abstract class Type {
      * @return the kind
      */
     public abstract Kind getKind();
+
+    /**
+     * Creates a deep copy of this type, which can be annotated without
+     * affecting this type.
+     * @return the copy
+     */
+    public abstract Type copy();
+
+    /**
+     * Determines whether the given object is a type of the same kind, with
+     * the same annotations and structure as this type.
+     * @param o the object to compare to
+     * @return {@code true} if the types are equal, {@code false} otherwise
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o != null && o.getClass() == getClass()
+                && annotations.equals(((Type) o).annotations);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return annotations.hashCode();
+    }
 }
@@ -10,12 +10,15 @@ import java.lang.annotation.RetentionPolicy;
 
 import com.sun.tools.classfile.TypeAnnotation.Position.TypePathEntryKind;
 import com.sun.tools.javac.code.TypeAnnotationPosition;
+import com.sun.tools.javac.code.TypeAnnotationPosition.TypePathEntry;
 
 import junit.framework.*;
 import scenelib.annotations.*;
 import scenelib.annotations.el.*;
 import scenelib.annotations.field.*;
 import scenelib.annotations.io.*;
+import scenelib.annotations.io.classfile.FingerprintManifest;
+import scenelib.annotations.util.SceneOps;
 
 import plume.FileIOException;
 
@@ -116,6 +119,372 @@ public class TestSceneLib extends TestCase {
         assertEquals(true, s1.equals(s2));
     }
 
+    public void testCachedHashCode() {
+        AScene s1 = newScene(), s2 = newScene();
+        s1.classes.vivify("Foo").fields.vivify("x");
+        s2.classes.vivify("Foo").fields.vivify("x");
+        assertEquals(s1.hashCode(), s2.hashCode());
+        assertEquals(s1, s2);
+
+        // Changes deep in the tree invalidate the cached hash codes.
+        s1.classes.vivify("Foo").fields.vivify("x").tlAnnotationsHere
+                .add(Annotations.aNonNull);
+        assertFalse(s1.equals(s2));
+        s2.classes.vivify("Foo").fields.vivify("x").tlAnnotationsHere
+                .add(Annotations.aNonNull);
+        assertEquals(s1.hashCode(), s2.hashCode());
+        assertEquals(s1, s2);
+
+        s2.classes.vivify("Foo").fields.vivify("x").tlAnnotationsHere
+                .clear();
+        s2.prune();
+        assertFalse(s1.hashCode() == s2.hashCode());
+        assertFalse(s1.equals(s2));
+
+        // Methods are compared with their parameters pruned, so an empty
+        // parameter must not change the hash code either.
+        AScene s3 = newScene(), s4 = newScene();
+        s3.classes.vivify("Foo").methods.vivify("m(I)V").parameters.vivify(0)
+                .tlAnnotationsHere.add(Annotations.aNonNull);
+        s4.classes.vivify("Foo").methods.vivify("m(I)V").parameters.vivify(0)
+                .tlAnnotationsHere.add(Annotations.aNonNull);
+        s4.classes.vivify("Foo").methods.vivify("m(I)V").parameters.vivify(1)
+                .type.innerTypes.vivify(InnerTypeLocation.of(
+                        Collections.singletonList(TypePathEntry.ARRAY)));
+        assertEquals(s3.hashCode(), s4.hashCode());
+        assertTrue(s3.equals(s4));
+        assertTrue(s4.equals(s3));
+    }
+
+    public void testCachedHashCodeOfOneScene() {
+        AScene s1 = newScene(), s2 = newScene();
+        AClass c1 = s1.classes.vivify("Foo");
+        AClass c2 = s2.classes.vivify("Foo");
+        c1.fields.vivify("x").tlAnnotationsHere.add(Annotations.aNonNull);
+        c2.fields.vivify("x");
+        s1.hashCode();
+        s2.hashCode();
+        assertTrue(c1.knownUnequal(c2));
+
+        // Changing another scene leaves the hash codes of these cached.
+        AScene s3 = newScene();
+        s3.classes.vivify("Foo").fields.vivify("x").tlAnnotationsHere
+                .add(Annotations.aNonNull);
+        assertTrue(c1.knownUnequal(c2));
+
+        // A change deep in one scene invalidates the hash codes on the way
+        // to its root.
+        c2.fields.vivify("x").tlAnnotationsHere.add(Annotations.aNonNull);
+        assertFalse(c1.knownUnequal(c2));
+        assertEquals(s1.hashCode(), s2.hashCode());
+        assertEquals(s1, s2);
+    }
+
+    public void testCachedHashCodeOfSharedElement() {
+        AScene s1 = newScene(), s2 = newScene(), s3 = newScene();
+        AClass c = s1.classes.vivify("Foo");
+        c.fields.vivify("x");
+        s3.classes.vivify("Foo").fields.vivify("x");
+        assertEquals(s1.hashCode(), s3.hashCode());
+
+        // A class shared by two scenes tells the first of its changes too.
+        s2.classes.put("Foo", c);
+        s2.hashCode();
+        c.fields.vivify("x").tlAnnotationsHere.add(Annotations.aNonNull);
+        assertFalse(s1.equals(s3));
+        s3.classes.vivify("Foo").fields.vivify("x").tlAnnotationsHere
+                .add(Annotations.aNonNull);
+        assertEquals(s1.hashCode(), s3.hashCode());
+        assertEquals(s1, s3);
+        assertEquals(s2, s3);
+
+        // A class moved by merging belongs only to the scene merged into.
+        AScene s4 = newScene(), s5 = newScene();
+        s4.classes.vivify("Bar").fields.vivify("y");
+        AClass bar = s4.classes.get("Bar");
+        SceneOps.merge(s5, s4);
+        assertSame(bar, s5.classes.get("Bar"));
+        s5.hashCode();
+        bar.fields.vivify("y").tlAnnotationsHere.add(Annotations.aNonNull);
+        AScene s6 = newScene();
+        s6.classes.vivify("Bar").fields.vivify("y").tlAnnotationsHere
+                .add(Annotations.aNonNull);
+        assertEquals(s5.hashCode(), s6.hashCode());
+        assertEquals(s5, s6);
+    }
+
+    public void testFieldTypeEquals() {
+        List<AnnotationFieldType> afts = new ArrayList<AnnotationFieldType>();
+        List<ScalarAFT> scalars = new ArrayList<ScalarAFT>();
+        scalars.addAll(BasicAFT.bafts.values());
+        scalars.add(ClassTokenAFT.ctaft);
+        scalars.add(new EnumAFT("p.E"));
+        scalars.add(new EnumAFT("p.E"));
+        scalars.add(new EnumAFT("p.F"));
+        scalars.add(new AnnotationAFT(ready));
+        scalars.add(new AnnotationAFT(ready));
+        scalars.add(new AnnotationAFT(Annotations.adNonNull));
+        afts.addAll(scalars);
+        afts.add(new ArrayAFT(null));
+        afts.add(ArrayAFT.forElementType(null));
+        for (ScalarAFT aft : scalars) {
+            afts.add(new ArrayAFT(aft));
+            afts.add(ArrayAFT.forElementType(aft));
+        }
+
+        // Equality agrees with the string representations it replaced.
+        for (AnnotationFieldType aft1 : afts) {
+            for (AnnotationFieldType aft2 : afts) {
+                boolean same = aft1.getClass() == aft2.getClass()
+                        && aft1.toString().equals(aft2.toString());
+                assertEquals(aft1 + " vs " + aft2, same, aft1.equals(aft2));
+                if (same) {
+                    assertEquals(aft1.hashCode(), aft2.hashCode());
+                }
+            }
+        }
+        assertSame(ArrayAFT.forElementType(BasicAFT.forType(int.class)),
+                ArrayAFT.forElementType(BasicAFT.forType(int.class)));
+
+        // Hash codes, and so the order of hash sets, do not change from run
+        // to run.
+        for (ScalarAFT aft : scalars) {
+            if (aft instanceof BasicAFT || aft instanceof ClassTokenAFT) {
+                assertEquals(aft.toString().hashCode(), aft.hashCode());
+            }
+        }
+    }
+
+    public void testMetaAnnotationOrder() throws Exception {
+        // The order in which meta-annotations are written is that of the
+        // output of earlier releases, which must not change.
+        AScene s = newScene();
+        IndexFileParser.parseString("package p1:\n"
+            + "annotation @A: @java.lang.annotation.Retention(value=RUNTIME)"
+            + " @java.lang.annotation.Target(value={TYPE_USE})\n"
+            + "class Foo: @A\n"
+            + "package p2:\n"
+            + "annotation @Nullable:"
+            + " @java.lang.annotation.Retention(value=RUNTIME)"
+            + " @java.lang.annotation.Target(value={TYPE_USE,TYPE_PARAMETER})\n"
+            + "class Bar: @Nullable\n", s);
+        StringWriter out = new StringWriter();
+        IndexFileWriter.write(s, out);
+        assertEquals("package p1:\n"
+            + "annotation @A: @java.lang.annotation.Retention(value=RUNTIME)"
+            + " @java.lang.annotation.Target(value={TYPE_USE})\n\n"
+            + "package p2:\n"
+            + "annotation @Nullable:"
+            + " @java.lang.annotation.Target(value={TYPE_USE,TYPE_PARAMETER})"
+            + " @java.lang.annotation.Retention(value=RUNTIME)\n\n"
+            + "package p1:\n"
+            + "class Foo: @p1.A\n\n"
+            + "package p2:\n"
+            + "class Bar: @p2.Nullable\n\n",
+            out.toString());
+    }
+
+    public void testInnerTypeLocation() {
+        List<Integer> binary = Arrays.asList(3, 1, 0, 0, 2, 0);
+        List<TypePathEntry> entries =
+                TypeAnnotationPosition.getTypePathFromBinary(binary);
+        InnerTypeLocation loc = InnerTypeLocation.fromBinary(binary);
+        assertEquals(entries, loc.location);
+        assertEquals(entries.get(2), loc.location.get(2));
+        try {
+            loc.location.set(0, entries.get(0));
+            fail("Modified the location of a shared InnerTypeLocation");
+        } catch (UnsupportedOperationException e) {
+        }
+        assertEquals(new InnerTypeLocation(entries), loc);
+        assertEquals(new InnerTypeLocation(entries).hashCode(), loc.hashCode());
+        assertSame(loc, InnerTypeLocation.of(entries));
+        assertEquals(binary.size(), loc.toBinary().length);
+        assertSame(loc, InnerTypeLocation.fromBinary(loc.toBinary()));
+        assertSame(InnerTypeLocation.EMPTY_INNER_TYPE_LOCATION,
+                InnerTypeLocation.of(Collections.<TypePathEntry>emptyList()));
+        assertFalse(loc.equals(InnerTypeLocation.fromBinary(
+                Arrays.asList(3, 1, 0, 0, 2, 0, 0, 0))));
+
+        // Long locations are not shared, but are still equal.
+        List<Integer> longBinary = Collections.nCopies(20, 0);
+        assertEquals(InnerTypeLocation.fromBinary(longBinary),
+                InnerTypeLocation.fromBinary(longBinary));
+
+        for (List<Integer> bad : Arrays.asList(Arrays.asList(0),
+                Arrays.asList(4, 0), Arrays.asList(0, 1),
+                Arrays.asList(3, 256))) {
+            try {
+                InnerTypeLocation.fromBinary(bad);
+                fail("Invalid type path " + bad);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testIntKeyedMap() {
+        Map<Integer, String> expected = new LinkedHashMap<Integer, String>();
+        Map<Integer, String> actual =
+                new scenelib.annotations.util.coll.IntKeyedMap<String>();
+        Random random = new Random(0);
+        for (int n = 0; n < 5000; n++) {
+            // Keys from a range wide enough to need the index at times.
+            Integer k = random.nextInt(40) - 5;
+            switch (random.nextInt(5)) {
+            case 0:
+            case 1:
+                assertEquals(expected.put(k, "v" + n), actual.put(k, "v" + n));
+                break;
+            case 2:
+                assertEquals(expected.remove(k), actual.remove(k));
+                break;
+            case 3:
+                // Remove through the iterators, as pruning does.
+                Iterator<Map.Entry<Integer, String>> ei =
+                        expected.entrySet().iterator();
+                Iterator<Map.Entry<Integer, String>> ai =
+                        actual.entrySet().iterator();
+                while (ei.hasNext()) {
+                    assertEquals(ei.next(), ai.next());
+                    if (random.nextInt(4) == 0) {
+                        ei.remove();
+                        ai.remove();
+                    }
+                }
+                assertFalse(ai.hasNext());
+                break;
+            default:
+                assertEquals(expected.get(k), actual.get(k));
+                assertEquals(expected.containsKey(k), actual.containsKey(k));
+            }
+            assertEquals(expected, actual);
+            assertEquals(new ArrayList<Integer>(expected.keySet()),
+                    new ArrayList<Integer>(actual.keySet()));
+            assertEquals(expected.hashCode(), actual.hashCode());
+        }
+
+        // Parameters keep the order in which they were vivified.
+        AMethod m = newScene().classes.vivify("Foo").methods.vivify("m()V");
+        for (int i = 11; i >= 0; i--) {
+            m.parameters.vivify(i);
+        }
+        assertSame(m.parameters.get(3), m.parameters.vivify(3));
+        assertEquals(Arrays.asList(11, 10, 9, 8, 7, 6, 5, 4, 3, 2, 1, 0),
+                new ArrayList<Integer>(m.parameters.keySet()));
+    }
+
+    public void testCloneIsSnapshot() {
+        AScene s0 = newScene();
+        s0.classes.vivify("Foo").fields.vivify("x");
+        s0.classes.vivify("Bar").methods.vivify("m()V");
+        s0.classes.vivify("Baz");
+
+        AScene s1 = s0.clone();
+        AScene s2 = s1.clone();
+        assertEquals(s0, s1);
+        assertEquals(s0.hashCode(), s1.hashCode());
+        assertEquals(s1, s2);
+        assertEquals(Arrays.asList("Foo", "Bar", "Baz"),
+                new ArrayList<String>(s2.classes.keySet()));
+
+        // Changing the original is not seen by the copies made before.
+        s0.classes.get("Foo").tlAnnotationsHere
+                .add(createEmptyAnnotation(ready));
+        assertTrue(s1.classes.get("Foo").tlAnnotationsHere.isEmpty());
+        assertTrue(s2.classes.get("Foo").tlAnnotationsHere.isEmpty());
+        assertNotSame(s1.classes.get("Foo"), s2.classes.get("Foo"));
+
+        // Changing a copy is seen by neither the original nor its copy.
+        s1.classes.get("Bar").methods.vivify("n()V");
+        assertFalse(s0.classes.get("Bar").methods.containsKey("n()V"));
+        assertFalse(s2.classes.get("Bar").methods.containsKey("n()V"));
+        s1.classes.remove("Baz");
+        assertTrue(s0.classes.containsKey("Baz"));
+        assertTrue(s2.classes.containsKey("Baz"));
+        assertFalse(s0.equals(s1));
+
+        // Removing a class from the original leaves it in the copies.
+        AScene s3 = s0.clone();
+        s0.classes.keySet().remove("Baz");
+        assertNotNull(s3.classes.get("Baz"));
+        s0.classes.clear();
+        assertEquals(Arrays.asList("Foo", "Bar", "Baz"),
+                new ArrayList<String>(s3.classes.keySet()));
+        assertFalse(s3.classes.get("Foo").tlAnnotationsHere.isEmpty());
+
+        // Nor is changing a class looked up before the copy was made.
+        AScene s4 = newScene();
+        s4.classes.vivify("Foo");
+        AClass foo = s4.classes.get("Foo");
+        Collection<AClass> values = s4.classes.values();
+        AScene s5 = s4.clone();
+        foo.fields.vivify("g");
+        values.iterator().next().methods.vivify("m()V");
+        assertTrue(s5.classes.get("Foo").fields.isEmpty());
+        assertTrue(s5.classes.get("Foo").methods.isEmpty());
+    }
+
+    public void testConcurrentLazyReads() throws Exception {
+        final List<String> names = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            names.add("C" + i);
+        }
+        final int[] reads = new int[1];
+        AScene s0 = newScene();
+        s0.setClassSource(new AScene.ClassSource() {
+            @Override
+            public Collection<String> classNames() {
+                return names;
+            }
+
+            @Override
+            public AClass readClass(String name) {
+                synchronized (reads) {
+                    reads[0]++;
+                }
+                AClass c = new AScene().classes.vivify(name);
+                c.fields.vivify("f");
+                return c;
+            }
+        });
+        final AScene scene = s0;
+
+        // Reading the scene from several threads at once reads each class
+        // once.
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int first = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < names.size(); i++) {
+                            String name =
+                                    names.get((first * 251 + i) % names.size());
+                            assertTrue(scene.classes.get(name).fields
+                                    .containsKey("f"));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+        assertEquals(names.size(), reads[0]);
+        assertEquals(names, new ArrayList<String>(s0.classes.keySet()));
+    }
+
     public void testStoreParse1() {
         AScene s1 = newScene();
 
@@ -336,6 +705,221 @@ public class TestSceneLib extends TestCase {
         }
     }
 
+    public void testParseNumbers() throws Exception {
+        AScene s1 = newScene();
+        String fileContents
+          = "package p1:\n" + "annotation @N: long l double d float f\n"
+          + "class Foo: @N(l=9007199254740993, d=1.0E10, f=0.1)\n";
+        IndexFileParser.parseString(fileContents, s1);
+        Annotation n = getAnnotation(s1.classes.get("p1.Foo")
+                .tlAnnotationsHere, "p1.N");
+        assertEquals(9007199254740993L, n.getFieldValue("l"));
+        assertEquals(1.0E10, n.getFieldValue("d"));
+        assertEquals(0.1f, n.getFieldValue("f"));
+    }
+
+    public void testParseErrorLineNumber() throws Exception {
+        AScene s1 = newScene();
+        String fileContents
+          = "package p1:\n" + "// comment\n"
+          + "class Foo:\n" + "field x: @Undefined\n";
+        try {
+            IndexFileParser.parseString(fileContents, s1);
+            fail(); // an exception should have been thrown
+        } catch (FileIOException e) {
+            assertEquals(4, e.lineNumber);
+        }
+    }
+
+    public void testInterning() throws Exception {
+        String fileContents
+          = "package p1:\n" + "annotation @A: int value\n"
+          + "class Foo:\n" + "field x: @A(value=1)\n"
+          + "field y: @A(value=1)\n";
+        AScene s1 = newScene(), s2 = newScene();
+        IndexFileParser.parseString(fileContents, s1);
+        IndexFileParser.parseString(fileContents, s2);
+
+        Annotation x1 = getAnnotation(s1.classes.get("p1.Foo").fields
+                .get("x").tlAnnotationsHere, "p1.A");
+        Annotation y1 = getAnnotation(s1.classes.get("p1.Foo").fields
+                .get("y").tlAnnotationsHere, "p1.A");
+        Annotation x2 = getAnnotation(s2.classes.get("p1.Foo").fields
+                .get("x").tlAnnotationsHere, "p1.A");
+        assertSame(x1, y1);
+        assertSame(x1, x2);
+        assertSame(x1.def, x2.def);
+    }
+
+    public void testParseInParallel() throws Exception {
+        String fileContents
+          = "package p1:\n" + "annotation @A: int value\n"
+          + "class Foo: @A(value=1)\n" + "field x: @A(value=2)\n"
+          + "package annotation:\n" + "annotation @B: Class value\n"
+          + "class Bar: @p1.A(value=3)\n"
+          + "method m()V: @B(value=java.lang.String.class)\n"
+          + "package p1: @A(value=0)\n"
+          + "class Baz: @A(value=4)\n"
+          + "class Foo:\n" + "field y: @annotation.B(value=int.class)\n"
+          + "package:\n" + "class Qux: @annotation.B(value=java.util.List.class)\n";
+        File file = File.createTempFile("TestSceneLib", ".jaif");
+        file.deleteOnExit();
+        Writer w = new FileWriter(file);
+        w.write(fileContents);
+        w.close();
+
+        AScene s1 = newScene(), s2 = newScene();
+        Map<String, AnnotationDef> defs1 =
+            IndexFileParser.parseFile(file.getPath(), s1, 1);
+        Map<String, AnnotationDef> defs2 =
+            IndexFileParser.parseFile(file.getPath(), s2, 4);
+        assertEquals(defs1, defs2);
+        assertEquals(s1, s2);
+        assertEquals(s1.imports, s2.imports);
+        assertEquals(new ArrayList<String>(s1.classes.keySet()),
+                new ArrayList<String>(s2.classes.keySet()));
+        assertEquals(s1.unparse(), s2.unparse());
+    }
+
+    public void testParseLazily() throws Exception {
+        String fileContents
+          = "package p1:\n" + "annotation @A: int value\n"
+          + "class Foo: @A(value=1)\n" + "field x: @A(value=2)\n"
+          + "class Bad: @A(value=notAnInt)\n"
+          + "package p1: @A(value=0)\n"
+          + "class Foo:\n" + "method m()V: @A(value=3)\n"
+          + "class Baz: @A(value=4)\n";
+        File file = File.createTempFile("TestSceneLib", ".jaif");
+        file.deleteOnExit();
+        Writer w = new FileWriter(file);
+        w.write(fileContents);
+        w.close();
+
+        AScene s = newScene();
+        Map<String, AnnotationDef> defs =
+            IndexFileParser.parseFileLazily(file.getPath(), s);
+        assertTrue(defs.containsKey("p1.A"));
+        assertEquals(Arrays.asList("p1.package-info", "p1.Foo", "p1.Bad",
+                "p1.Baz"), new ArrayList<String>(s.classes.keySet()));
+
+        // Only the classes that are looked up are parsed.
+        AClass foo = s.classes.get("p1.Foo");
+        assertEquals(1, foo.methods.size());
+        assertEquals(1, foo.fields.size());
+        assertNotNull(s.classes.vivify("p1.Baz"));
+        try {
+            s.classes.get("p1.Bad");
+            fail();
+        } catch (UncheckedIOException e) {
+            assertTrue(e.getCause() instanceof FileIOException);
+        }
+
+        AScene s1 = newScene(), s2 = newScene();
+        String good = fileContents.replace("class Bad: @A(value=notAnInt)\n", "");
+        Map<String, AnnotationDef> defs1 = IndexFileParser.parseString(good, s1);
+        w = new FileWriter(file);
+        w.write(good);
+        w.close();
+        assertEquals(defs1, IndexFileParser.parseFileLazily(file.getPath(), s2));
+        assertEquals(s1, s2);
+        assertEquals(s1.unparse(), s2.unparse());
+    }
+
+    public void testWriteInParallel() throws Exception {
+        AScene s = newScene();
+        IndexFileParser.parse(openPackagedIndexFile("test1.jaif"), s);
+        for (int i = 0; i < 300; i++) {
+            AClass c = s.classes.vivify("p3.C" + i);
+            c.tlAnnotationsHere.add(Annotations.aNonNull);
+            c.methods.vivify("m" + i + "()V").parameters.vivify(0)
+                .tlAnnotationsHere.add(Annotations.aNonNull);
+        }
+        StringWriter expected = new StringWriter();
+        IndexFileWriter.write(s, expected);
+
+        StringWriter actual = new StringWriter();
+        IndexFileWriter.write(s, actual, 4);
+        assertEquals(expected.toString(), actual.toString());
+
+        File file = File.createTempFile("TestSceneLib", ".jaif");
+        file.deleteOnExit();
+        IndexFileWriter.write(s, file.getPath(), 4);
+        StringBuilder written = new StringBuilder();
+        Reader r = new FileReader(file);
+        char[] buf = new char[4096];
+        for (int n; (n = r.read(buf)) > 0; ) {
+            written.append(buf, 0, n);
+        }
+        r.close();
+        assertEquals(expected.toString(), written.toString());
+    }
+
+    void doBinaryTest(LineNumberReader fr) throws Exception {
+        AScene s1 = newScene(), s2 = newScene(), s3 = newScene();
+        IndexFileParser.parse(fr, s1);
+        File file = File.createTempFile("TestSceneLib", ".scene");
+        file.deleteOnExit();
+        BinarySceneWriter.write(s1, file.getPath());
+
+        BinarySceneReader reader = BinarySceneReader.open(file.getPath());
+        assertEquals(new ArrayList<String>(s1.classes.keySet()),
+                reader.classNames());
+        reader.readScene(s2);
+        assertEquals(s1, s2);
+        assertEquals(s1.imports, s2.imports);
+        assertEquals(s1.unparse(), s2.unparse());
+
+        String last = reader.classNames().get(reader.classNames().size() - 1);
+        assertEquals(s1.classes.get(last), reader.readClass(last, s3));
+        assertEquals(1, s3.classes.size());
+        assertNull(reader.readClass("NoSuchClass", s3));
+    }
+
+    public void testBinaryOne() throws Exception {
+        doBinaryTest(openPackagedIndexFile("test1.jaif"));
+    }
+
+    public void testBinaryTwo() throws Exception {
+        doBinaryTest(openPackagedIndexFile("test2.jaif"));
+    }
+
+    public void testBinarySharedDefs() throws Exception {
+        // Share definitions of p.A and p.B.
+        IndexFileParser.parseString("package p:\n"
+            + "annotation @A: @Retention(RUNTIME)\n" + "int value\n"
+            + "annotation @B: @Retention(RUNTIME)\n"
+            + "annotation-field p.A inner\n"
+            + "class C: @B(inner=@A(value=1))\n", newScene());
+
+        // Annotations not seen before, of equal definitions not shared.
+        AnnotationDef a = new AnnotationDef("p.A",
+            Annotations.asRetentionRuntime,
+            Collections.singletonMap("value", BasicAFT.forType(int.class)));
+        AnnotationDef b = new AnnotationDef("p.B",
+            Annotations.asRetentionRuntime,
+            Collections.singletonMap("inner", new AnnotationAFT(a)));
+        AScene s = newScene();
+        s.classes.vivify("p.C").tlAnnotationsHere.add(new Annotation(b,
+            Collections.singletonMap("inner", new Annotation(a,
+                Collections.singletonMap("value", 412)))));
+        File file = File.createTempFile("TestSceneLib", ".scene");
+        file.deleteOnExit();
+        BinarySceneWriter.write(s, file.getPath());
+
+        BinarySceneReader reader = BinarySceneReader.open(file.getPath());
+        AScene read = newScene();
+        reader.readScene(read);
+        assertEquals(s, read);
+        Map<String, AnnotationDef> defs = reader.annotationDefs();
+        assertSame(defs.get("p.A"), defs.get("p.A").intern());
+        assertSame(defs.get("p.B"), defs.get("p.B").intern());
+        Annotation anno =
+            read.classes.get("p.C").tlAnnotationsHere.iterator().next();
+        assertSame(defs.get("p.B"), anno.def);
+        assertSame(defs.get("p.A"),
+            ((Annotation) anno.getFieldValue("inner")).def);
+    }
+
     private static Annotation getAnnotation(Set<Annotation> annos, String name) {
         for (Annotation anno : annos) {
             if (anno.def.name.equals(name)) {
@@ -345,6 +929,140 @@ public class TestSceneLib extends TestCase {
         return null;
     }
 
+    public void testMerge() throws Exception {
+        String[] files = {
+            "package p1:\n" + "annotation @A: int value\n"
+            + "class Foo: @A(value=1)\n" + "field x: @A(value=2)\n"
+            + "method m()V: @A(value=3)\n",
+            "package p1:\n" + "annotation @A: int value\n"
+            + "class Bar: @A(value=4)\n"
+            + "class Foo: @A(value=5)\n" + "field y:\n"
+            + "field x: @A(value=6)\n" + "typecast #1: @A(value=7)\n",
+            "package p1:\n" + "annotation @A: int value\n"
+            + "package p1: @A(value=8)\n"
+            + "class Foo:\n" + "method n()V: @A(value=9)\n"
+            + "method m()V: @A(value=3)\n"
+            + "class Bar: @A(value=10)\n",
+        };
+        AScene sequential = newScene();
+        AScene[] left = new AScene[files.length];
+        AScene[] right = new AScene[files.length];
+        for (int i = 0; i < files.length; i++) {
+            IndexFileParser.parseString(files[i], sequential);
+            IndexFileParser.parseString(files[i], left[i] = newScene());
+            IndexFileParser.parseString(files[i], right[i] = newScene());
+        }
+
+        // Merging is associative, and keeps the order of the elements.
+        SceneOps.merge(left[0], left[1]);
+        SceneOps.merge(left[0], left[2]);
+        SceneOps.merge(right[1], right[2]);
+        SceneOps.merge(right[0], right[1]);
+        StringWriter expected = new StringWriter();
+        IndexFileWriter.write(sequential, expected);
+        for (AScene merged : new AScene[] { left[0], right[0] }) {
+            assertEquals(sequential, merged);
+            AClass foo = merged.classes.get("p1.Foo");
+            assertSame(foo.fieldInits.get("x"), foo.fields.get("x").init);
+            StringWriter actual = new StringWriter();
+            IndexFileWriter.write(merged, actual);
+            assertEquals(expected.toString(), actual.toString());
+        }
+    }
+
+    public void testDiff() throws Exception {
+        String defs = "package p1:\n" + "annotation @A: int value\n";
+        String same = "class Same: @A(value=1)\n" + "field x: @A(value=2)\n"
+            + "method m()V: @A(value=3)\n";
+        AScene s1 = newScene(), s2 = newScene(), expected = newScene();
+        IndexFileParser.parseString(defs + same
+            + "class Foo: @A(value=1)\n" + "field x: @A(value=2)\n"
+            + "method m()V: @A(value=3)\n" + "method n()V: @A(value=4)\n"
+            + "class Bar: @A(value=5)\n", s1);
+        IndexFileParser.parseString(defs + same
+            + "class Foo: @A(value=1)\n" + "field x: @A(value=6)\n"
+            + "method m()V: @A(value=3)\n"
+            + "class Baz: @A(value=7)\n", s2);
+        IndexFileParser.parseString(defs
+            + "class Foo:\n" + "field x: @A(value=2)\n"
+            + "method n()V: @A(value=4)\n"
+            + "class Bar: @A(value=5)\n", expected);
+        expected.prune();
+
+        assertEquals(expected, SceneOps.diff(s1, s2));
+        assertEquals(newScene(), SceneOps.diff(s1, s1));
+        assertEquals(Arrays.asList("p1.Foo", "p1.Bar", "p1.Baz"),
+            new ArrayList<String>(SceneOps.changedClasses(s1, s2)));
+        assertTrue(SceneOps.changedClasses(s1, s1).isEmpty());
+
+        // An empty parameter does not make a method differ, pruned or not.
+        AScene s3 = newScene();
+        IndexFileParser.parseString(defs + same, s3);
+        AScene s4 = s3.clone();
+        s3.hashCode();
+        s4.classes.get("p1.Same").methods.get("m()V").parameters.vivify(0);
+        assertTrue(SceneOps.changedClasses(s3, s4).isEmpty());
+    }
+
+    public void testFingerprintManifest() throws Exception {
+        InputStream in = AScene.class.getResourceAsStream("AScene.class");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int b; (b = in.read()) >= 0; ) {
+            bytes.write(b);
+        }
+        in.close();
+        byte[] input = bytes.toByteArray();
+        byte[] output = Arrays.copyOf(input, input.length + 1);
+
+        AScene s = newScene();
+        IndexFileParser.parseString("package p1:\n" + "annotation @A: int value\n"
+            + "package scenelib.annotations.el:\n" + "class AScene: @p1.A(value=1)\n"
+            + "class Other: @p1.A(value=2)\n", s);
+        String sceneDigest = FingerprintManifest.digest(s, input);
+        String inputDigest = FingerprintManifest.digest(input);
+        assertEquals(sceneDigest, FingerprintManifest.digest(s, input));
+        // Only the class's own part of the scene counts.
+        s.classes.get("scenelib.annotations.el.Other").tlAnnotationsHere.clear();
+        assertEquals(sceneDigest, FingerprintManifest.digest(s, input));
+        // So do the elements that an index file leaves out.
+        String lambda = "package p1:\n" + "annotation @A: int value\n"
+            + "package scenelib.annotations.el:\n" + "class AScene:\n"
+            + "method m()V:\n" + "lambda #5:\n" + "parameter 0: @p1.A(value=";
+        AScene l1 = newScene(), l2 = newScene();
+        IndexFileParser.parseString(lambda + "1)\n", l1);
+        IndexFileParser.parseString(lambda + "2)\n", l2);
+        assertFalse(FingerprintManifest.digest(l1, input).equals(
+            FingerprintManifest.digest(l2, input)));
+
+        File file = File.createTempFile("TestSceneLib", ".manifest");
+        file.delete();
+        file.deleteOnExit();
+        File out = File.createTempFile("TestSceneLib", ".class");
+        out.deleteOnExit();
+        FingerprintManifest m = FingerprintManifest.read(file.getPath());
+        assertFalse(m.isCurrent(out.getPath(), sceneDigest, inputDigest));
+        FileOutputStream fos = new FileOutputStream(out);
+        fos.write(output);
+        fos.close();
+        m.record(out.getPath(), sceneDigest, inputDigest,
+            FingerprintManifest.digest(output));
+        m.write();
+
+        m = FingerprintManifest.read(file.getPath());
+        assertTrue(m.isCurrent(out.getPath(), sceneDigest, inputDigest));
+        // A class file rewritten in place is read back as the output.
+        assertTrue(m.isCurrent(out.getPath(), sceneDigest,
+            FingerprintManifest.digest(output)));
+        assertFalse(m.isCurrent(out.getPath(), inputDigest, inputDigest));
+        s.classes.get("scenelib.annotations.el.AScene").tlAnnotationsHere.clear();
+        assertFalse(m.isCurrent(out.getPath(),
+            FingerprintManifest.digest(s, input), inputDigest));
+        fos = new FileOutputStream(out);
+        fos.write(input);
+        fos.close();
+        assertFalse(m.isCurrent(out.getPath(), sceneDigest, inputDigest));
+    }
+
     public void testEmptyArrayHack() throws Exception {
         AScene scene = newScene();
         AClass clazz =